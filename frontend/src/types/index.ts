@@ -18,6 +18,9 @@ export interface Album {
   coverFileId?: number;
   coverImageToken?: string;
   shareToken?: string;
+  // Bytes the album occupies in storage (originals plus derivatives) and the originals alone.
+  storedBytes?: number;
+  originalBytes?: number;
   // Flat on the wire (see AlbumInfo on the server); all four present or all four absent.
   mapCenterLat?: number | null;
   mapCenterLng?: number | null;
@@ -75,10 +78,19 @@ export interface AlbumFile {
   // False once the original has been purged by the retention CronJob (Phase 6 / Gap 4-finish).
   // Derivatives (thumb/medium/large/transcoded) keep serving; rotation/download-original do not.
   originalAvailable?: boolean;
+  // Long videos may also carry an HLS ladder at /api/i/{publicToken}/hls/master.m3u8.
+  hlsAvailable?: boolean;
+  // Videos may carry a scrub-preview WebVTT thumbnails track at /api/i/{publicToken}/sprite.vtt.
+  spriteAvailable?: boolean;
   // Capture location in signed decimal degrees (WGS 84), absent when the file carries none.
   // Same reference frame MapKit JS expects, so these go straight into an annotation.
   gpsLatitude?: number | null;
   gpsLongitude?: number | null;
+  // Display size in pixels (orientation applied) and a BlurHash of the thumbnail, absent until the
+  // worker has processed the asset. Enough to size and colour every tile before any thumbnail loads.
+  width?: number | null;
+  height?: number | null;
+  blurhash?: string | null;
 }
 
 export interface Tag {
@@ -1,6 +1,9 @@
 /* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
 package com.oglimmer.photoupload.config;
 
+import com.oglimmer.photoupload.storage.DerivativeFormat;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
@@ -24,4 +27,31 @@ public class FileStorageProperties {
   // Image thumbnail backend. vips = vipsthumbnail (low-memory shrink-on-load),
   // magick = ImageMagick convert (legacy path, kept as a flip-back).
   private Thumbnailer thumbnailer = Thumbnailer.VIPS;
+  // Extra encodings written next to every JPEG image derivative, e.g. [webp, avif]. Empty = JPEG
+  // only. vips thumbnailer and object storage only; the api serves them by Accept negotiation.
+  private List<DerivativeFormat> derivativeFormats = new ArrayList<>();
+  // Videos at least this long additionally get an adaptive HLS rendition next to the progressive
+  // MP4. 0 disables HLS. Object storage only.
+  private int hlsMinDurationSeconds = 0;
+  // Frames in a video's scrub-preview sprite (one per second at most); the poster is picked from
+  // them. 0 disables the sprite and takes the poster at second 1. Object storage only.
+  private int spriteFrames = 50;
+  // Videos at least this long that need a full re-encode are split at keyframes and encoded as
+  // TRANSCODE_SEGMENT jobs by every worker in parallel. 0 disables splitting. Object storage only.
+  private int segmentTranscodeMinDurationSeconds = 0;
+  // Target slice length; the split lands on the first keyframe after each multiple of it.
+  private int segmentTranscodeSeconds = 60;
+  // Widths /api/i/{token}?w= may ask for (D65); a request is rounded up to the next one. Each is
+  // rendered once per asset from the nearest larger derivative. Empty disables ?w=. Object
+  // storage only.
+  private List<Integer> resizeWidths = new ArrayList<>(List.of(320, 480, 640, 960, 1280, 1920));
+  // Encodings a resize may be served in besides JPEG, by ?format= or Accept. AVIF encodes an order
+  // of magnitude slower than WebP, which matters on the request path.
+  private List<DerivativeFormat> resizeFormats = new ArrayList<>(List.of(DerivativeFormat.WEBP));
+  private int resizeJpegQuality = 82;
+  // Renditions encoded at once on one api pod; further misses wait for a slot.
+  private int resizeMaxConcurrent = 2;
+  // How long a request waits for a slot or another request's render before it is served the
+  // derivative the rendition would have been made from.
+  private long resizeWaitMs = 5000;
 }
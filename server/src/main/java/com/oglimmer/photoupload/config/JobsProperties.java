@@ -13,6 +13,9 @@ public class JobsProperties {
   private final Poll poll = new Poll();
   private final Lease lease = new Lease();
   private final Backpressure backpressure = new Backpressure();
+  private final Events events = new Events();
+  private final Pipeline pipeline = new Pipeline();
+  private final Archive archive = new Archive();
 
   /** N=3 per D15: a transient failure gets two retries before going to DEAD_LETTER. */
   private int maxAttempts = 3;
@@ -25,8 +28,14 @@ public class JobsProperties {
 
   @Data
   public static class Lease {
-    /** D5: 15 min default. Long enough for a 1080p transcode on the Pi. */
-    private int seconds = 900;
+    /**
+     * D5, revised by D49: short, because a running job's lease is extended by the heartbeat below.
+     * This is how long a crashed worker's job stays stuck before another worker takes it over.
+     */
+    private int seconds = 120;
+
+    /** Interval of the lease extension while a job runs. Must stay well under {@code seconds}. */
+    private int heartbeatSeconds = 30;
   }
 
   @Data
@@ -37,4 +46,75 @@ public class JobsProperties {
     /** Refresh interval for the cached gauge. */
     private long refreshMs = 1000;
   }
+
+  @Data
+  public static class Events {
+    /** Tick of the api-side poller behind the per-album SSE stream. Idle when nobody listens. */
+    private long pollMs = 1000;
+
+    /**
+     * How far each tick looks back past the previous one for newly-settled rows. Covers clock skew
+     * between the worker pod (which stamps {@code processing_completed_at}) and this pod.
+     */
+    private long lookbackMs = 10000;
+
+    /**
+     * Keep-alive comment interval on otherwise quiet streams, under typical proxy idle timeouts.
+     */
+    private long heartbeatMs = 15000;
+
+    /** Server-side lifetime of one stream; EventSource reconnects transparently after it. */
+    private long emitterTimeoutMs = 1800000;
+
+    /** Threads writing events to subscribers, off the scheduler thread. */
+    private int sendThreads = 4;
+
+    /** A subscriber whose delivery has been blocked this long is dropped; it can reconnect. */
+    private long sendTimeoutMs = 10000;
+  }
+
+  @Data
+  public static class Pipeline {
+    /**
+     * Download the next queued PROCESS job's original while the current job encodes, so the next
+     * job starts on local bytes instead of a MinIO GET.
+     */
+    private boolean prefetchEnabled = true;
+
+    /** Threads PUTting derivatives in the background of the job thread. */
+    private int uploadThreads = 3;
+
+    /**
+     * Hand ffmpeg a presigned URL to a video original instead of staging the whole file in the
+     * job's scratch dir first (D61). ffmpeg seeks with HTTP range requests, so every container
+     * works, a {@code moov} atom at the end included. Images are always staged.
+     */
+    private boolean streamVideoInput = false;
+
+    /** Lifetime of that URL: it has to outlast every ffmpeg run of the job that reads it. */
+    private int streamUrlTtlMinutes = 60;
+  }
+
+  @Data
+  public static class Archive {
+    /** Worker-side sweep moving finished jobs into {@code processing_jobs_archive} (D57). */
+    private boolean enabled = true;
+
+    private long intervalMs = 300000;
+
+    /**
+     * DONE rows stay in the live table this long, so the admin views and the join fan-in still see
+     * recent history there.
+     */
+    private int afterMinutes = 60;
+
+    /** Rows moved per transaction. */
+    private int batchSize = 1000;
+
+    /** Batches per sweep; a backlog of history drains over several sweeps. */
+    private int maxBatches = 20;
+
+    /** Archived rows older than this are deleted; 0 keeps them forever. */
+    private int retainDays = 90;
+  }
 }
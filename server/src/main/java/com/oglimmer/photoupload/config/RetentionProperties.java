@@ -28,6 +28,13 @@ public class RetentionProperties {
    */
   private int maxRowsPerRun = 5000;
 
+  /**
+   * Chunks of the originals purge (one {@code DeleteObjects} call of up to 1000 keys plus one bulk
+   * {@code UPDATE} each) in flight at once. Kept small: MinIO is single-drive and the chunks share
+   * the DB connection pool.
+   */
+  private int purgeParallelism = 4;
+
   /**
    * When true, log eligible rows and report counts but skip the actual S3 delete + DB update. Use
    * this on the first cron firing in production to validate eligibility before bytes go.
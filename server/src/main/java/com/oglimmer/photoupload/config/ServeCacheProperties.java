@@ -0,0 +1,42 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * The api pod's local cache of hot derivatives (D64): thumbnails in off-heap memory, medium
+ * derivatives on local disk. Off unless {@code serve-cache.enabled}; a tier with a zero budget is
+ * skipped.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "serve-cache")
+@Data
+public class ServeCacheProperties {
+
+  private boolean enabled = false;
+
+  /**
+   * Off-heap bytes for thumbnails. Counts against {@code -XX:MaxDirectMemorySize}, which Tomcat's
+   * and the S3 SDK's buffers share — leave them their headroom.
+   */
+  private long memoryMaxBytes = 33554432L;
+
+  /** Largest single thumbnail kept in memory; bigger ones are streamed as before. */
+  private long memoryMaxEntryBytes = 1048576L;
+
+  /** Directory of the disk tier. Wiped at startup: the index lives in memory only. */
+  private String diskDir = "/tmp/serve-cache";
+
+  private long diskMaxBytes = 1073741824L;
+
+  private long diskMaxEntryBytes = 8388608L;
+
+  /**
+   * How long an evicted file stays on disk after it left the index, so a response still sending it
+   * is not cut short. Disk use can exceed {@code disk-max-bytes} by what was evicted in this
+   * window.
+   */
+  private long diskEvictionGraceSeconds = 60;
+}
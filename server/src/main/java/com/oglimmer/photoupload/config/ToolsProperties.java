@@ -0,0 +1,53 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.config;
+
+import com.oglimmer.photoupload.entity.JobLane;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Governance of the external tools the server forks — ffmpeg, ffprobe, vipsthumbnail, heif-convert,
+ * ImageMagick (D62). Limits are keyed by the executable's name as it appears in the command; the
+ * {@code nice} increment by the lane of the job that runs it.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "tools")
+@Data
+public class ToolsProperties {
+
+  /**
+   * Characters of combined stdout/stderr kept per invocation; older lines are dropped. Must fit a
+   * whole {@code ffprobe -print_format json} document, which is parsed from it.
+   */
+  private int outputTailChars = 262144;
+
+  /** How often a running tool's RSS and CPU time are read from {@code /proc}. */
+  private long sampleIntervalMs = 250;
+
+  /** Limits by executable name; a tool without an entry runs unrestricted. */
+  private Map<String, Limits> limits = new HashMap<>();
+
+  /**
+   * {@code nice} increment by the lane of the job that starts the tool; 0 or no entry keeps the
+   * server's priority. Tools started outside a job (the api's) are never niced. The lanes rank as
+   * their jobs do: an upload's tools run at full priority, since a user is waiting for the asset to
+   * appear; a rotate's (EDIT) a little below, yielding to uploads but not to sweeps, since a user
+   * is waiting on it too; a backfill sweep's lowest, so it only takes the CPU nobody else wants.
+   */
+  private Map<JobLane, Integer> nice = new HashMap<>(Map.of(JobLane.EDIT, 5, JobLane.BACKFILL, 10));
+
+  @Data
+  public static class Limits {
+    /**
+     * Address-space rlimit in MiB, 0 for none. It caps virtual memory, not RSS: a threaded encoder
+     * reserves far more than it touches, so size it from the published peak RSS with headroom.
+     */
+    private long maxMemoryMb = 0;
+
+    /** CPU-time rlimit in seconds, 0 for none. A backstop behind the wall-clock timeout. */
+    private long maxCpuSeconds = 0;
+  }
+}
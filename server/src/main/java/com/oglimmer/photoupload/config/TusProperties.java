@@ -40,6 +40,13 @@ public class TusProperties {
    */
   private String hookSecret = "";
 
+  /**
+   * tusd's {@code -s3-object-prefix}. Under {@code originals/tus/} a finished upload is registered
+   * in place, without a server-side copy (D58); only used here to derive a key when a hook payload
+   * lacks {@code Storage.Key}.
+   */
+  private String objectPrefix = "originals/tus/";
+
   /** TUS protocol version advertised in the capabilities response. */
   private String version = "1.0.0";
 }
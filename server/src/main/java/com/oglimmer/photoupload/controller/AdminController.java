@@ -154,6 +154,76 @@ public class AdminController {
     return ResponseEntity.ok(response);
   }
 
+  /**
+   * Computes the layout placeholder (BlurHash of the thumbnail, plus display dimensions where the
+   * original still has them) for assets processed before placeholders existed, so the gallery can
+   * lay out those albums from the listing alone. Worker-side cost is one thumbnail GET per asset,
+   * plus one original GET when the dimensions are missing; no derivatives are touched.
+   *
+   * <p>Idempotent: each pass writes a BlurHash, which drops the row out of the eligible set. Caller
+   * pages by re-invoking until {@code enqueued == 0}. Retention-purged assets are included — they
+   * get a placeholder but keep unknown dimensions.
+   */
+  @PostMapping("/extract-placeholders")
+  public ResponseEntity<AdminOperationResponse> extractPlaceholders(
+      @RequestParam(value = "maxRows", required = false, defaultValue = "500") int maxRows) {
+    int enqueued = fileStorageService.enqueuePlaceholderExtract(maxRows);
+    AdminOperationResponse response =
+        AdminOperationResponse.builder()
+            .success(true)
+            .message(
+                enqueued == 0
+                    ? "No eligible assets — nothing to enqueue"
+                    : "Enqueued " + enqueued + " placeholder extract job(s)")
+            .stats(java.util.Map.of("enqueued", enqueued, "maxRows", maxRows))
+            .build();
+    return ResponseEntity.ok(response);
+  }
+
+  /**
+   * Computes the SHA-256 of TUS-uploaded assets processed before the worker hashed its download, so
+   * {@code /api/sync/uploaded-checksums} reports them and the iOS client stops offering them again.
+   * Worker-side cost is one streamed GET per asset; nothing is written to disk and no derivatives
+   * are touched.
+   *
+   * <p>Idempotent: each pass writes the checksum, which drops the row out of the eligible set.
+   * Caller pages by re-invoking until {@code enqueued == 0}. Retention-purged assets and HEIC
+   * uploads already converted to JPEG are skipped — their uploaded bytes are gone.
+   */
+  @PostMapping("/compute-checksums")
+  public ResponseEntity<AdminOperationResponse> computeChecksums(
+      @RequestParam(value = "maxRows", required = false, defaultValue = "500") int maxRows) {
+    int enqueued = fileStorageService.enqueueChecksumBackfill(maxRows);
+    AdminOperationResponse response =
+        AdminOperationResponse.builder()
+            .success(true)
+            .message(
+                enqueued == 0
+                    ? "No eligible assets — nothing to enqueue"
+                    : "Enqueued " + enqueued + " checksum job(s)")
+            .stats(java.util.Map.of("enqueued", enqueued, "maxRows", maxRows))
+            .build();
+    return ResponseEntity.ok(response);
+  }
+
+  /**
+   * Measures how many bytes the WebP/AVIF variants save over the JPEG derivatives on a sample of
+   * one album's assets (S3 HEADs only). {@code sample} defaults to 100, hard upper bound 500.
+   */
+  @GetMapping("/derivative-savings")
+  public ResponseEntity<AdminOperationResponse> derivativeSavings(
+      @RequestParam("albumId") Long albumId,
+      @RequestParam(value = "sample", required = false, defaultValue = "100") int sample) {
+    var stats = fileStorageService.measureDerivativeSavings(albumId, sample);
+    AdminOperationResponse response =
+        AdminOperationResponse.builder()
+            .success(true)
+            .message("Derivative savings measured on " + stats.get("sampled") + " assets")
+            .stats(stats)
+            .build();
+    return ResponseEntity.ok(response);
+  }
+
   /**
    * Lists processing jobs that have exhausted their retry budget. Surfaces the original asset id
    * and last error so an operator can decide whether to delete the asset, fix the underlying issue,
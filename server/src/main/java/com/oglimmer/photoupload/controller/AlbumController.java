@@ -15,6 +15,7 @@ import com.oglimmer.photoupload.model.FilesResponse;
 import com.oglimmer.photoupload.model.MapView;
 import com.oglimmer.photoupload.model.MapViewRequest;
 import com.oglimmer.photoupload.model.MessageResponse;
+import com.oglimmer.photoupload.model.NearDuplicatesResponse;
 import com.oglimmer.photoupload.model.ReorderRequest;
 import com.oglimmer.photoupload.model.ReorderResponse;
 import com.oglimmer.photoupload.model.TagIdsRequest;
@@ -25,6 +26,7 @@ import com.oglimmer.photoupload.service.AlbumService;
 import com.oglimmer.photoupload.service.AlbumTagService;
 import com.oglimmer.photoupload.service.AnalyticsService;
 import com.oglimmer.photoupload.service.FileStorageService;
+import com.oglimmer.photoupload.service.NearDuplicateService;
 import jakarta.servlet.http.HttpServletRequest;
 import java.util.List;
 import lombok.RequiredArgsConstructor;
@@ -53,6 +55,7 @@ public class AlbumController {
   private final FileStorageService fileStorageService;
   private final AnalyticsService analyticsService;
   private final AlbumRepository albumRepository;
+  private final NearDuplicateService nearDuplicateService;
 
   @PostMapping
   public ResponseEntity<AlbumResponse> createAlbum(@RequestBody AlbumRequest albumRequest) {
@@ -96,6 +99,12 @@ public class AlbumController {
     return ResponseEntity.ok(response);
   }
 
+  @GetMapping("/{id}/near-duplicates")
+  public ResponseEntity<NearDuplicatesResponse> getNearDuplicates(
+      @PathVariable Long id, @RequestParam(required = false) Integer maxDistance) {
+    return ResponseEntity.ok(nearDuplicateService.findInAlbum(id, maxDistance));
+  }
+
   @GetMapping("/public/{token}")
   public ResponseEntity<AlbumResponse> getPublicAlbum(@PathVariable String token) {
     AlbumInfo album = albumService.getAlbumByShareToken(token);
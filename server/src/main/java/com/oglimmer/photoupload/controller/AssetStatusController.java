@@ -5,10 +5,13 @@ import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.exception.ResourceNotFoundException;
 import com.oglimmer.photoupload.model.AssetProcessingStatusResponse;
+import com.oglimmer.photoupload.repository.AlbumRepository;
 import com.oglimmer.photoupload.repository.FileMetadataRepository;
 import com.oglimmer.photoupload.security.UserContext;
+import com.oglimmer.photoupload.service.ProcessingEventService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -16,6 +19,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @Profile(Profiles.API)
 @RestController
@@ -25,6 +29,8 @@ public class AssetStatusController {
 
   private final FileMetadataRepository fileMetadataRepository;
   private final UserContext userContext;
+  private final AlbumRepository albumRepository;
+  private final ProcessingEventService processingEventService;
 
   @GetMapping("/{id}/status")
   @Transactional(readOnly = true)
@@ -66,6 +72,22 @@ public class AssetStatusController {
     return toResponse(metadata);
   }
 
+  /**
+   * Server-Sent Events stream of processing transitions for every asset in one of the caller's
+   * albums. Each {@code status} event carries an {@link
+   * com.oglimmer.photoupload.model.AssetProcessingEvent}; the stream opens with the album's
+   * in-flight rows so a client that connects after uploading needs no separate status fetch.
+   * Replaces the {@code 202 + Retry-After} polling loop on {@code /api/i/{token}} for clients that
+   * can hold a connection open.
+   */
+  @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamAlbumEvents(@RequestParam Long albumId) {
+    albumRepository
+        .findByUserAndId(userContext.getCurrentUser(), albumId)
+        .orElseThrow(() -> new ResourceNotFoundException("Album", "id", albumId));
+    return processingEventService.subscribe(albumId);
+  }
+
   private static ResponseEntity<AssetProcessingStatusResponse> toResponse(FileMetadata metadata) {
     return ResponseEntity.ok(
         AssetProcessingStatusResponse.builder()
@@ -5,8 +5,17 @@ import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
 import com.oglimmer.photoupload.exception.ResourceNotFoundException;
 import com.oglimmer.photoupload.model.FileServeInfo;
+import com.oglimmer.photoupload.service.DerivativeCache;
 import com.oglimmer.photoupload.service.FileStorageService;
 import com.oglimmer.photoupload.service.ObjectStorageService;
+import com.oglimmer.photoupload.service.ResizeService;
+import com.oglimmer.photoupload.storage.StoragePaths;
+import com.oglimmer.photoupload.util.HlsPlaylists;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
@@ -24,9 +33,11 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.WebRequest;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
 @Profile(Profiles.API)
 @RestController
@@ -36,24 +47,55 @@ public class ImageServeController {
 
   private static final String RETRY_AFTER_SECONDS = "2";
 
+  // Request attributes of Tomcat's sendfile: the connector advertises support, the servlet names
+  // the file, and the connector hands it to the socket with FileChannel.transferTo.
+  static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
   private final FileStorageService fileStorageService;
   // Optional: only populated when storage.s3.enabled=true. Older deployments without MinIO still
   // boot; serving an S3-keyed row in that mode is impossible by definition.
   private final Optional<ObjectStorageService> objectStorage;
+  // Optional: only populated when serve-cache.enabled=true (D64).
+  private final Optional<DerivativeCache> derivativeCache;
+  private final ResizeService resizeService;
 
   public ImageServeController(
-      FileStorageService fileStorageService, Optional<ObjectStorageService> objectStorage) {
+      FileStorageService fileStorageService,
+      Optional<ObjectStorageService> objectStorage,
+      Optional<DerivativeCache> derivativeCache,
+      ResizeService resizeService) {
     this.fileStorageService = fileStorageService;
     this.objectStorage = objectStorage;
+    this.derivativeCache = derivativeCache;
+    this.resizeService = resizeService;
   }
 
+  /**
+   * An asset's original or one of its derivatives. {@code w} asks for an image of about that width
+   * instead (D65): it is rounded up to a configured bucket and wins over {@code size}; {@code
+   * format} ({@code jpeg}, {@code webp}, {@code avif}) pins that rendition's encoding, which is
+   * otherwise negotiated from {@code Accept}.
+   */
   @GetMapping("/{token}")
   public ResponseEntity<?> downloadFileByToken(
       @PathVariable String token,
       @RequestParam(value = "size", required = false) String size,
+      @RequestParam(value = "w", required = false) Integer w,
+      @RequestParam(value = "format", required = false) String format,
       WebRequest webRequest) {
     try {
-      FileServeInfo fileInfo = fileStorageService.getFileServeInfoByPublicToken(token, size);
+      String accept = webRequest.getHeader(HttpHeaders.ACCEPT);
+      // A missing rendition is rendered here, before the conditional check: its ETag must only be
+      // handed out once the bytes it names exist.
+      Optional<FileServeInfo> resized =
+          w != null ? resizeService.serveInfo(token, w, format, accept) : Optional.empty();
+      FileServeInfo fileInfo =
+          resized.isPresent()
+              ? resized.get()
+              : fileStorageService.getFileServeInfoByPublicToken(token, size, accept);
 
       // Caller asked for a derivative (thumb/medium/large) but processing hasn't produced it
       // yet. Returning the original here would either ship a HEIC the browser can't render or
@@ -67,6 +109,11 @@ public class ImageServeController {
             .build();
       }
 
+      if (fileInfo.isVariesByAccept()) {
+        // Set on the servlet response rather than the entity so a 304 below carries it too.
+        markVariesByAccept(webRequest);
+      }
+
       // Answer conditional GETs *before* touching disk or MinIO. This is not just an
       // optimisation: Spring's HttpEntityMethodProcessor short-circuits an ETag match to 304
       // and returns without ever invoking the message converter, so a ResponseInputStream
@@ -79,7 +126,20 @@ public class ImageServeController {
       }
 
       if (fileInfo.getStorageKey() != null) {
-        return serveFromObjectStorage(fileInfo);
+        try {
+          return serveFromCacheOrObjectStorage(token, fileInfo, webRequest);
+        } catch (NoSuchKeyException e) {
+          if (!StoragePaths.isResizedKey(fileInfo.getStorageKey())) {
+            throw e;
+          }
+          // A rendition remembered as stored is gone (deleted with the derivatives it shared with
+          // another row, or by hand): render it again.
+          log.info("Rendition {} is gone, rendering it again", fileInfo.getStorageKey());
+          resizeService.forget(fileInfo.getStorageKey());
+          FileServeInfo rerendered =
+              resizeService.serveInfo(token, w, format, accept).orElseThrow(() -> e);
+          return serveFromCacheOrObjectStorage(token, rerendered, webRequest);
+        }
       }
       return serveFromDisk(token, fileInfo);
     } catch (ResourceNotFoundException e) {
@@ -90,6 +150,71 @@ public class ImageServeController {
     }
   }
 
+  /**
+   * The HLS rendition of a long video. Playlists are rewritten so every URI points back at this
+   * endpoint under the same token, and are served {@code no-cache} so a player always sees the
+   * current ladder. Init and media segments are served immutably, like the other derivatives: a
+   * reprocess re-encodes the same source with the same settings under the same names.
+   */
+  @GetMapping("/{token}/hls/{*entry}")
+  public ResponseEntity<?> downloadHlsEntry(
+      @PathVariable String token, @PathVariable String entry, WebRequest webRequest)
+      throws IOException {
+    String name = entry.startsWith("/") ? entry.substring(1) : entry;
+    FileServeInfo fileInfo = fileStorageService.getHlsServeInfo(token, name);
+    ObjectStorageService os =
+        objectStorage.orElseThrow(() -> new ResourceNotFoundException("HLS rendition not found"));
+
+    if (HlsPlaylists.isPlaylist(name)) {
+      String playlist;
+      try (InputStream in = os.openStream(fileInfo.getStorageKey())) {
+        playlist = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      }
+      String base = webRequest.getContextPath() + "/api/i/" + token + "/hls/";
+      return ResponseEntity.ok()
+          .contentType(MediaType.parseMediaType(HlsPlaylists.PLAYLIST_MIME))
+          .cacheControl(CacheControl.noCache())
+          .body(HlsPlaylists.rewrite(playlist, name, base));
+    }
+
+    ResponseInputStream<GetObjectResponse> stream = os.openStream(fileInfo.getStorageKey());
+    Long contentLength = stream.response().contentLength();
+    ResponseEntity.BodyBuilder builder =
+        ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(fileInfo.getMimeType()))
+            .cacheControl(
+                CacheControl.maxAge(365, java.util.concurrent.TimeUnit.DAYS)
+                    .cachePublic()
+                    .immutable());
+    if (contentLength != null) {
+      builder.contentLength(contentLength);
+    }
+    return builder.body(new InputStreamResource(stream));
+  }
+
+  /**
+   * The scrub-preview sprite of a video and its WebVTT thumbnails track. The track's cues name the
+   * sprite relatively ({@code sprite.jpg#xywh=...}), so a player resolves them to the sibling
+   * endpoint under the same token. Both are served immutably, like the other derivatives.
+   */
+  @GetMapping("/{token}/" + StoragePaths.SPRITE_IMAGE)
+  public ResponseEntity<?> downloadSprite(@PathVariable String token, WebRequest webRequest) {
+    return serveSprite(token, StoragePaths.SPRITE_IMAGE, webRequest);
+  }
+
+  @GetMapping("/{token}/" + StoragePaths.SPRITE_TRACK)
+  public ResponseEntity<?> downloadSpriteTrack(@PathVariable String token, WebRequest webRequest) {
+    return serveSprite(token, StoragePaths.SPRITE_TRACK, webRequest);
+  }
+
+  private ResponseEntity<?> serveSprite(String token, String entry, WebRequest webRequest) {
+    FileServeInfo fileInfo = fileStorageService.getSpriteServeInfo(token, entry);
+    if (isNotModified(webRequest, fileInfo)) {
+      return null; // webRequest already set 304 + validators on the response
+    }
+    return serveFromObjectStorage(fileInfo);
+  }
+
   /**
    * Delegates If-None-Match / If-Modified-Since evaluation to Spring. Returns true when the
    * caller's cached copy is still valid, in which case the response has already been populated with
@@ -100,7 +225,26 @@ public class ImageServeController {
   private boolean isNotModified(WebRequest webRequest, FileServeInfo fileInfo) {
     Instant uploadedAt = fileInfo.getUploadedAt();
     long lastModified = uploadedAt != null ? uploadedAt.toEpochMilli() : -1L;
-    return webRequest.checkNotModified(fileInfo.getChecksum(), lastModified);
+    return webRequest.checkNotModified(etagFor(fileInfo), lastModified);
+  }
+
+  /**
+   * The content checksum, suffixed with the variant's extension when a WebP/AVIF variant is served
+   * — one URL, several representations, so each needs its own validator.
+   */
+  private static String etagFor(FileServeInfo fileInfo) {
+    String checksum = fileInfo.getChecksum();
+    if (checksum == null || fileInfo.getVariant() == null) {
+      return checksum;
+    }
+    return checksum + "-" + fileInfo.getVariant();
+  }
+
+  private static void markVariesByAccept(WebRequest webRequest) {
+    if (webRequest instanceof ServletWebRequest servletRequest
+        && servletRequest.getResponse() != null) {
+      servletRequest.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    }
   }
 
   private ResponseEntity<Resource> serveFromDisk(String token, FileServeInfo fileInfo)
@@ -130,19 +274,80 @@ public class ImageServeController {
         .body(resource);
   }
 
+  /**
+   * {@link #serveFromObjectStorage} behind the pod-local {@link DerivativeCache}, when one is
+   * configured and the key is a thumbnail or medium derivative. A miss reads the object into the
+   * cache first and serves it from there; an object too large for its tier is streamed as before.
+   */
+  private ResponseEntity<Resource> serveFromCacheOrObjectStorage(
+      String token, FileServeInfo fileInfo, WebRequest webRequest) throws IOException {
+    String key = fileInfo.getStorageKey();
+    Optional<DerivativeCache.Tier> tier = derivativeCache.flatMap(cache -> cache.tierFor(key));
+    if (tier.isEmpty()) {
+      return serveFromObjectStorage(fileInfo);
+    }
+    DerivativeCache cache = derivativeCache.get();
+    DerivativeCache.Entry entry = cache.get(tier.get(), key, token);
+    if (entry == null) {
+      ResponseInputStream<GetObjectResponse> stream = objectStorage().openStream(key);
+      Long contentLength = stream.response().contentLength();
+      if (!cache.admits(tier.get(), contentLength)) {
+        return respond(fileInfo, contentLength, new InputStreamResource(stream));
+      }
+      try (stream) {
+        entry = cache.put(tier.get(), key, token, stream, contentLength);
+      }
+    }
+    if (entry instanceof DerivativeCache.Disk file) {
+      if (sendfile(webRequest, file)) {
+        return respond(fileInfo, file.length(), null);
+      }
+      return respond(
+          fileInfo, file.length(), new InputStreamResource(Files.newInputStream(file.file())));
+    }
+    return respond(
+        fileInfo,
+        entry.length(),
+        new InputStreamResource(((DerivativeCache.Memory) entry).openStream()));
+  }
+
+  /**
+   * Hands a cached file to Tomcat's sendfile when the connector offers it: the body is then written
+   * by the connector, kernel to socket, after this handler returns headers only.
+   */
+  private static boolean sendfile(WebRequest webRequest, DerivativeCache.Disk file) {
+    if (!(webRequest instanceof ServletWebRequest servletRequest)) {
+      return false;
+    }
+    HttpServletRequest request = servletRequest.getRequest();
+    if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+        || !"GET".equals(request.getMethod())) {
+      return false;
+    }
+    request.setAttribute(SENDFILE_FILENAME, file.file().toString());
+    request.setAttribute(SENDFILE_START, 0L);
+    request.setAttribute(SENDFILE_END, file.length());
+    return true;
+  }
+
   private ResponseEntity<Resource> serveFromObjectStorage(FileServeInfo fileInfo) {
-    ObjectStorageService os =
-        objectStorage.orElseThrow(
-            () ->
-                new IllegalStateException(
-                    "Asset path is an S3 key but ObjectStorageService is not enabled — "
-                        + "check storage.s3.enabled"));
+    ResponseInputStream<GetObjectResponse> stream =
+        objectStorage().openStream(fileInfo.getStorageKey());
+    return respond(fileInfo, stream.response().contentLength(), new InputStreamResource(stream));
+  }
 
-    ResponseInputStream<GetObjectResponse> stream = os.openStream(fileInfo.getStorageKey());
-    GetObjectResponse meta = stream.response();
-    Long contentLength = meta.contentLength();
-    MediaType mediaType = parseMediaType(fileInfo.getMimeType());
+  private ObjectStorageService objectStorage() {
+    return objectStorage.orElseThrow(
+        () ->
+            new IllegalStateException(
+                "Asset path is an S3 key but ObjectStorageService is not enabled — "
+                    + "check storage.s3.enabled"));
+  }
 
+  /** An object-storage derivative's 200: immutable, inline, with its length when known. */
+  private ResponseEntity<Resource> respond(
+      FileServeInfo fileInfo, Long contentLength, Resource body) {
+    MediaType mediaType = parseMediaType(fileInfo.getMimeType());
     ResponseEntity.BodyBuilder builder =
         ResponseEntity.ok()
             .contentType(mediaType)
@@ -156,7 +361,7 @@ public class ImageServeController {
     if (contentLength != null) {
       builder.contentLength(contentLength);
     }
-    return builder.body(new InputStreamResource(stream));
+    return body != null ? builder.body(body) : builder.build();
   }
 
   private MediaType parseMediaType(String mime) {
@@ -8,6 +8,7 @@ import com.oglimmer.photoupload.model.CreateUserRequest;
 import com.oglimmer.photoupload.model.CreateUserResponse;
 import com.oglimmer.photoupload.model.PasswordResetRequest;
 import com.oglimmer.photoupload.model.PasswordResetRequestRequest;
+import com.oglimmer.photoupload.model.StorageUsageResponse;
 import com.oglimmer.photoupload.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
 import java.nio.charset.StandardCharsets;
@@ -85,6 +86,23 @@ public class UserController {
     return ResponseEntity.ok().build();
   }
 
+  @GetMapping("/storage")
+  public ResponseEntity<StorageUsageResponse> getStorageUsage(HttpServletRequest request) {
+    String email = extractEmailFromAuthHeader(request);
+    if (email == null) {
+      return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+    }
+
+    User user = userService.getStorageUsage(email);
+    StorageUsageResponse response =
+        StorageUsageResponse.builder()
+            .success(true)
+            .storedBytes(user.getStoredBytes())
+            .originalBytes(user.getOriginalBytes())
+            .build();
+    return ResponseEntity.ok(response);
+  }
+
   @DeleteMapping("/account")
   public ResponseEntity<Void> deleteAccount(HttpServletRequest request) {
     String email = extractEmailFromAuthHeader(request);
@@ -76,6 +76,17 @@ public class Album {
   @Column(name = "map_span_lng")
   private Double mapSpanLng;
 
+  /**
+   * Bytes this album's assets occupy (originals plus derivatives) and the originals alone. Kept by
+   * {@link com.oglimmer.photoupload.service.StorageAccountingService} in SQL, never written through
+   * the entity — a stale copy saved here would undo a concurrent worker's update.
+   */
+  @Column(name = "stored_bytes", nullable = false, insertable = false, updatable = false)
+  private long storedBytes;
+
+  @Column(name = "original_bytes", nullable = false, insertable = false, updatable = false)
+  private long originalBytes;
+
   @OneToMany(mappedBy = "album", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
   private List<FileMetadata> files = new ArrayList<>();
 
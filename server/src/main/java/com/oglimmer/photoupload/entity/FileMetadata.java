@@ -62,15 +62,42 @@ public class FileMetadata {
   @Column(name = "content_id")
   private String contentId;
 
+  /** Display width in pixels, after EXIF orientation / video rotation. Null when unknown. */
   @Column(name = "width")
   private Integer width;
 
   @Column(name = "height")
   private Integer height;
 
+  /** Video duration in milliseconds; null for images. */
   @Column(name = "duration")
   private Long duration;
 
+  /**
+   * BlurHash of the thumbnail, written by the worker whenever it writes the thumbnail. With {@link
+   * #width}/{@link #height} it is everything the gallery needs to lay out and colour a tile before
+   * the thumbnail arrives. Null means the row predates the column — the EXTRACT_PLACEHOLDER sweep
+   * selects exactly these rows.
+   */
+  @Column(name = "blurhash", length = 64)
+  private String blurhash;
+
+  /**
+   * 64-bit perceptual hash of the thumbnail ({@link com.oglimmer.photoupload.util.PerceptualHash}),
+   * written alongside {@link #blurhash}. Near-duplicates are a few bits apart. Null for rows that
+   * predate the column until the EXTRACT_PLACEHOLDER sweep visits them.
+   */
+  @Column(name = "phash")
+  private Long phash;
+
+  /**
+   * Modern-format variants written next to the JPEG thumb/medium/large, as {@code DerivativeFormat}
+   * extensions ("avif,webp"). Null means JPEG only. The serve path only negotiates on Accept among
+   * the formats listed here.
+   */
+  @Column(name = "derivative_formats", length = 32)
+  private String derivativeFormats;
+
   @Column(name = "exif_date_time_original")
   private Instant exifDateTimeOriginal;
 
@@ -136,6 +163,22 @@ public class FileMetadata {
   @Column(name = "transcoded_video_path")
   private String transcodedVideoPath;
 
+  /**
+   * S3 key of the HLS master playlist ({@code derivatives/{id}/hls/master.m3u8}) for long videos,
+   * null when the asset has no HLS rendition. The rest of the rendition lives under the same
+   * prefix.
+   */
+  @Column(name = "hls_path", length = 512)
+  private String hlsPath;
+
+  /**
+   * S3 key of the WebVTT thumbnails track of a video's scrub-preview sprite ({@code
+   * derivatives/{id}/sprite.vtt}); the sprite image sits next to it as {@code sprite.jpg}. Null
+   * when the asset has no sprite.
+   */
+  @Column(name = "sprite_vtt_path", length = 512)
+  private String spriteVttPath;
+
   @Enumerated(EnumType.STRING)
   @Column(name = "processing_status", nullable = false, length = 32)
   private ProcessingStatus processingStatus = ProcessingStatus.QUEUED;
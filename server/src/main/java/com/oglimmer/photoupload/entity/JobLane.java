@@ -0,0 +1,21 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.entity;
+
+/**
+ * Priority lane of a {@code processing_jobs} row (D56). Stored by ordinal in {@code priority}, and
+ * the lease query orders by that column, so the declaration order is the priority order — append
+ * new lanes at the position they rank, and migrate existing rows when doing so.
+ */
+public enum JobLane {
+  /** A user is waiting for this: fresh uploads and the segments of their videos. */
+  INTERACTIVE,
+  /** A user asked for this on an existing asset (rotate). */
+  EDIT,
+  /** Admin sweeps that touch thousands of rows; runs whenever the other lanes are empty. */
+  BACKFILL;
+
+  /** Tag value of the lane in metrics. */
+  public String tag() {
+    return name().toLowerCase();
+  }
+}
@@ -5,6 +5,11 @@ public enum JobStatus {
   QUEUED,
   PROCESSING,
   DONE,
+  /**
+   * Not leaseable yet: a TRANSCODE_JOIN row waiting for its segments. The last segment to finish
+   * moves it to QUEUED; a dead-lettered segment moves it to DEAD_LETTER.
+   */
+  WAITING,
   FAILED,
   DEAD_LETTER
 }
@@ -24,5 +24,48 @@ public enum JobType {
    * file_path}) — the EXIF GPS IFD and the QuickTime location atom exist only there — so
    * retention-purged rows are not eligible.
    */
-  EXTRACT_GPS
+  EXTRACT_GPS,
+  /**
+   * Compute an asset's layout placeholder — BlurHash from the thumbnail, plus display dimensions
+   * from the original when they are still missing — and nothing else. Backfills every row written
+   * before the gallery could lay out a grid from the listing alone. The BlurHash needs only the
+   * thumbnail, so retention-purged rows are eligible; their dimensions stay unknown.
+   */
+  EXTRACT_PLACEHOLDER,
+  /**
+   * Compute the SHA-256 of an asset's original and nothing else. Backfills TUS uploads processed
+   * before the worker hashed its download, which sync and upload dedupe could not see. Requires the
+   * original ({@code file_path}), so retention-purged rows are not eligible.
+   */
+  COMPUTE_CHECKSUM,
+  /**
+   * Encode one keyframe-aligned slice of a long video, written by a PROCESS job that split the
+   * source into {@code derivatives/{id}/segments/src_NNNNN.mp4}. The row's {@code segment_index}
+   * picks the slice; the result goes to {@code enc_NNNNN.mp4} next to it. Any worker may lease any
+   * segment, so one long clip is encoded by every replica at once.
+   */
+  TRANSCODE_SEGMENT,
+  /**
+   * Concatenate the encoded segments of an asset into the web MP4, mux the original's audio back
+   * in, and delete the segment objects. Created WAITING together with its segments; queued by the
+   * last one to finish.
+   */
+  TRANSCODE_JOIN;
+
+  /**
+   * Lane a job of this type is queued in unless the caller says otherwise. Segment and join rows
+   * are never queued through this — they inherit the lane of the PROCESS job that split the video.
+   */
+  public JobLane defaultLane() {
+    return switch (this) {
+      case PROCESS, TRANSCODE_SEGMENT, TRANSCODE_JOIN -> JobLane.INTERACTIVE;
+      case ROTATE_LEFT -> JobLane.EDIT;
+      case REGEN_THUMBNAILS,
+          EXTRACT_CAPTURE_DATE,
+          EXTRACT_GPS,
+          EXTRACT_PLACEHOLDER,
+          COMPUTE_CHECKSUM ->
+          JobLane.BACKFILL;
+    };
+  }
 }
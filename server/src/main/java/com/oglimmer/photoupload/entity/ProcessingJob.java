@@ -33,6 +33,23 @@ public class ProcessingJob {
   @Column(name = "job_type", nullable = false, length = 32)
   private JobType jobType = JobType.PROCESS;
 
+  /** Lane the dispatcher leases this row from; the ordinal is the {@code priority} column. */
+  @Enumerated(EnumType.ORDINAL)
+  @Column(name = "priority", nullable = false)
+  private JobLane priority = JobLane.INTERACTIVE;
+
+  /** Owner of the asset, copied at enqueue time for the per-user round-robin; null if unknown. */
+  @Column(name = "user_id")
+  private Long userId;
+
+  /** The TRANSCODE_JOIN row a TRANSCODE_SEGMENT row belongs to; null for every other job. */
+  @Column(name = "parent_job_id")
+  private Long parentJobId;
+
+  /** 0-based position of a TRANSCODE_SEGMENT row within its source; null otherwise. */
+  @Column(name = "segment_index")
+  private Integer segmentIndex;
+
   @Enumerated(EnumType.STRING)
   @Column(name = "status", nullable = false, length = 32)
   private JobStatus status = JobStatus.QUEUED;
@@ -49,6 +66,13 @@ public class ProcessingJob {
   @Column(name = "leased_by", length = 128)
   private String leasedBy;
 
+  @Column(name = "heartbeat_at")
+  private Instant heartbeatAt;
+
+  /** Last 0-100 figure the running job reported; null if it reports none. */
+  @Column(name = "progress_percent")
+  private Integer progressPercent;
+
   @Column(name = "last_error", columnDefinition = "TEXT")
   private String lastError;
 
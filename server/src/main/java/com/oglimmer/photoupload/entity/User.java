@@ -40,6 +40,13 @@ public class User {
   @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, orphanRemoval = true)
   private List<Tag> tags = new ArrayList<>();
 
+  /** Sum of the user's album totals; see {@link Album#getStoredBytes()}. Maintained in SQL. */
+  @Column(name = "stored_bytes", nullable = false, insertable = false, updatable = false)
+  private long storedBytes;
+
+  @Column(name = "original_bytes", nullable = false, insertable = false, updatable = false)
+  private long originalBytes;
+
   @Column(name = "default_album_id")
   private Long defaultAlbumId;
 
@@ -20,6 +20,8 @@ public interface FileInfoMapper {
   @org.mapstruct.Mapping(target = "albumId", ignore = true) // Set in @AfterMapping
   @org.mapstruct.Mapping(target = "albumName", ignore = true) // Set in @AfterMapping
   @org.mapstruct.Mapping(target = "originalAvailable", ignore = true) // Set in @AfterMapping
+  @org.mapstruct.Mapping(target = "hlsAvailable", ignore = true) // Set in @AfterMapping
+  @org.mapstruct.Mapping(target = "spriteAvailable", ignore = true) // Set in @AfterMapping
   FileInfo fileMetadataToFileInfo(FileMetadata metadata);
 
   List<FileInfo> fileMetadatasToFileInfos(List<FileMetadata> metadatas);
@@ -44,5 +46,7 @@ public interface FileInfoMapper {
     // True iff the original bytes are still in object storage. Set to false by the Phase 6
     // retention CronJob, which nulls file_path after deleting the S3 object.
     fileInfo.setOriginalAvailable(metadata.getFilePath() != null);
+    fileInfo.setHlsAvailable(metadata.getHlsPath() != null);
+    fileInfo.setSpriteAvailable(metadata.getSpriteVttPath() != null);
   }
 }
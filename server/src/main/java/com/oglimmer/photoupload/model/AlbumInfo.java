@@ -21,6 +21,8 @@ public class AlbumInfo {
   private String coverImageFilename; // Filename of cover image (first photo in album)
   private String coverImageToken; // Public token of cover image
   private String shareToken; // Public share token for accessing album
+  private Long storedBytes; // Bytes the album occupies, originals plus derivatives (D54)
+  private Long originalBytes; // Of which originals
 
   // Saved view for the map filter (D35): MapKit's CoordinateRegion, centre + span in degrees.
   // Null — all four together — means no saved view, and the map frames every pin instead. Flat
@@ -0,0 +1,28 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.model;
+
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Payload of one {@code status} event on the per-album processing stream. Same fields as {@link
+ * AssetProcessingStatusResponse} plus {@code publicToken}: rotate and thumbnail-regen jobs mint a
+ * fresh token, so the client needs the new one to fetch the derivative the DONE event announces.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AssetProcessingEvent {
+  private Long id;
+  private Long albumId;
+  private ProcessingStatus processingStatus;
+  private Integer attempts;
+  private Instant completedAt;
+  private String error;
+  private String publicToken;
+}
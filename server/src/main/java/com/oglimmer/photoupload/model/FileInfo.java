@@ -45,6 +45,29 @@ public class FileInfo {
 
   private Double gpsLongitude;
 
+  /**
+   * Display size in pixels (orientation already applied) and a BlurHash of the thumbnail, each null
+   * when unknown. Enough for the gallery to lay out the justified grid and paint every tile from
+   * the listing alone, instead of reflowing as thumbnails arrive.
+   */
+  private Integer width;
+
+  private Integer height;
+  private String blurhash;
+
+  /**
+   * True when the video also has an HLS rendition, served at {@code
+   * /api/i/{token}/hls/master.m3u8}. Players that speak HLS should prefer it over the progressive
+   * MP4.
+   */
+  private boolean hlsAvailable;
+
+  /**
+   * True when the video has a scrub-preview sprite: a WebVTT thumbnails track at {@code
+   * /api/i/{token}/sprite.vtt} whose cues address tiles of {@code /api/i/{token}/sprite.jpg}.
+   */
+  private boolean spriteAvailable;
+
   /**
    * False when the original was purged from object storage by the retention CronJob (Phase 6 / Gap
    * 4-finish). Used by the UI to hide rotate/download-original actions; the gallery itself keeps
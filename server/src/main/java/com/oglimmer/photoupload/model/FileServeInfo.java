@@ -37,4 +37,19 @@ public class FileServeInfo {
    * is null. Mutually exclusive with {@code filePath} — exactly one of the two is set.
    */
   private String storageKey;
+
+  /**
+   * Extension of the modern-format variant being served in place of the JPEG derivative ("avif",
+   * "webp"), or the width and extension of an on-demand rendition ("w640.webp"); null for the JPEG
+   * / original. Part of the ETag, so two representations of one URL never validate against each
+   * other.
+   */
+  private String variant;
+
+  /**
+   * True when this URL has more than one representation, chosen by {@code Accept}. The response
+   * must then carry {@code Vary: Accept} — also for the JPEG, or a shared cache would hand it to
+   * the next AVIF-capable client (and vice versa).
+   */
+  private boolean variesByAccept;
 }
@@ -0,0 +1,21 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.model;
+
+/**
+ * Everything the worker reads out of an original in its single metadata pass: capture date (with
+ * offset), capture location, display dimensions and — for videos — duration.
+ *
+ * <p>{@code width}/{@code height} describe the frame as displayed, i.e. after EXIF orientation or
+ * the video's display rotation has been applied; they are what the derivatives come out as. Any of
+ * the three scalar fields is null when the file does not say.
+ */
+public record MediaMetadata(
+    CaptureDate captureDate, GpsCoordinates gps, Integer width, Integer height, Long durationMs) {
+
+  private static final MediaMetadata NONE =
+      new MediaMetadata(CaptureDate.none(), GpsCoordinates.none(), null, null, null);
+
+  public static MediaMetadata none() {
+    return NONE;
+  }
+}
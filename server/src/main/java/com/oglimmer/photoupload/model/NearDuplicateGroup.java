@@ -0,0 +1,22 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.model;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Files of one album that are near-duplicates of each other (transitively: each is within the
+ * distance of at least one other), plus their near-duplicates in the user's other albums.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NearDuplicateGroup {
+
+  private List<Long> fileIds; // In the album, ascending
+  private List<NearDuplicateMatch> elsewhere; // In the user's other albums
+}
@@ -0,0 +1,20 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.model;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NearDuplicatesResponse {
+
+  private boolean success;
+  private Long albumId;
+  private int maxDistance; // Hamming distance, in bits of the 64-bit perceptual hash
+  private List<NearDuplicateGroup> groups;
+}
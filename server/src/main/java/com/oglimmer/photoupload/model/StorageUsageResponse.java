@@ -0,0 +1,19 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** The caller's storage totals (D54); per-album figures ride on {@link AlbumInfo}. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageUsageResponse {
+
+  private boolean success;
+  private long storedBytes;
+  private long originalBytes;
+}
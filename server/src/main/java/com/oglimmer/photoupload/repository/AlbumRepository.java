@@ -25,6 +25,40 @@ public interface AlbumRepository extends JpaRepository<Album, Long> {
   @Query("SELECT COALESCE(MAX(a.displayOrder), -1) FROM Album a WHERE a.user = :user")
   Integer findMaxDisplayOrderByUser(User user);
 
+  /**
+   * Next {@code display_order} for a file added to {@code albumId} (D60): bumps the album's counter
+   * in place and reads back the value it moved past. The UPDATE takes the album row's lock until
+   * the caller's transaction ends, so concurrent uploads into one album get distinct, increasing
+   * positions; it is a primary-key write, not a scan of the album's files. Must run inside a
+   * transaction — the read-back relies on seeing the caller's own update.
+   */
+  default int allocateFileOrder(Long albumId) {
+    incrementNextFileOrder(albumId);
+    return findNextFileOrder(albumId) - 1;
+  }
+
+  @Modifying
+  @Query(
+      value = "UPDATE albums SET next_file_order = next_file_order + 1 WHERE id = :albumId",
+      nativeQuery = true)
+  int incrementNextFileOrder(@Param("albumId") Long albumId);
+
+  @Query(value = "SELECT next_file_order FROM albums WHERE id = :albumId", nativeQuery = true)
+  int findNextFileOrder(@Param("albumId") Long albumId);
+
+  /**
+   * Move the counter past every position in the album, for files inserted with positions of their
+   * own (an album duplicate copies the source's order).
+   */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE albums a SET a.next_file_order = GREATEST(a.next_file_order, ("
+              + "SELECT COALESCE(MAX(f.display_order) + 1, 0) FROM file_metadata f "
+              + "WHERE f.album_id = a.id)) WHERE a.id = :albumId",
+      nativeQuery = true)
+  int syncNextFileOrder(@Param("albumId") Long albumId);
+
   // Public access via share token (no user scoping needed)
   Optional<Album> findByShareToken(String shareToken);
 
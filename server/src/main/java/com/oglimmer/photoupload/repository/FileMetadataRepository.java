@@ -3,13 +3,19 @@ package com.oglimmer.photoupload.repository;
 
 import com.oglimmer.photoupload.entity.Album;
 import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import jakarta.persistence.QueryHint;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -44,11 +50,6 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
   @Query("SELECT MAX(f.displayOrder) FROM FileMetadata f")
   Integer findMaxDisplayOrder();
 
-  @Query(
-      "SELECT MAX(f.displayOrder) FROM FileMetadata f WHERE f.album.id = :albumId AND f.album.user.id = :userId")
-  Integer findMaxDisplayOrderByAlbumIdAndUserId(
-      @Param("albumId") Long albumId, @Param("userId") Long userId);
-
   @Query("SELECT f FROM FileMetadata f WHERE f.id = :fileId AND f.album.user.id = :userId")
   Optional<FileMetadata> findByIdAndUserId(
       @Param("fileId") Long fileId, @Param("userId") Long userId);
@@ -72,17 +73,44 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
 
   long countByFilePath(String filePath);
 
-  List<FileMetadata> findByChecksum(String checksum);
+  /**
+   * Upload dedupe within the target album. Native so {@code DedupeQueryPlanTest} can {@code
+   * EXPLAIN} the exact statement: it must stay a probe on {@code idx_checksum_album} (V43).
+   */
+  String DEDUPE_IN_ALBUM_SQL =
+      "SELECT fm.* FROM file_metadata fm JOIN albums a ON a.id = fm.album_id "
+          + "WHERE fm.checksum = :checksum AND fm.album_id = :albumId AND a.user_id = :userId "
+          + "ORDER BY fm.id ASC LIMIT 1";
 
-  @Query(
-      "SELECT f FROM FileMetadata f WHERE f.checksum = :checksum AND f.album.id = :albumId AND f.album.user.id = :userId")
+  /**
+   * Upload dedupe across all of one user's albums — never across users, whose assets must not be
+   * handed back to someone who happens to upload the same bytes. Same index as above.
+   */
+  String DEDUPE_FOR_USER_SQL =
+      "SELECT fm.* FROM file_metadata fm JOIN albums a ON a.id = fm.album_id "
+          + "WHERE fm.checksum = :checksum AND a.user_id = :userId "
+          + "ORDER BY fm.id ASC";
+
+  /**
+   * Sync: checksums the user uploaded since a cutoff. Index-only range scans on {@code
+   * idx_album_uploaded_checksum} (V43), one per album of the user.
+   */
+  String SYNC_CHECKSUMS_SQL =
+      "SELECT fm.checksum FROM file_metadata fm JOIN albums a ON a.id = fm.album_id "
+          + "WHERE a.user_id = :userId AND fm.uploaded_at >= :uploadedAt "
+          + "AND fm.checksum IS NOT NULL";
+
+  @Query(value = DEDUPE_IN_ALBUM_SQL, nativeQuery = true)
   Optional<FileMetadata> findByChecksumAndAlbumIdAndUserId(
       @Param("checksum") String checksum,
       @Param("albumId") Long albumId,
       @Param("userId") Long userId);
 
-  @Query(
-      "SELECT f.checksum FROM FileMetadata f WHERE f.album.user.id = :userId AND f.uploadedAt >= :uploadedAt AND f.checksum IS NOT NULL")
+  @Query(value = DEDUPE_FOR_USER_SQL, nativeQuery = true)
+  List<FileMetadata> findByChecksumAndUserId(
+      @Param("checksum") String checksum, @Param("userId") Long userId);
+
+  @Query(value = SYNC_CHECKSUMS_SQL, nativeQuery = true)
   List<String> findChecksumsByUserAndUploadedAtAfter(
       @Param("userId") Long userId, @Param("uploadedAt") java.time.Instant uploadedAt);
 
@@ -95,16 +123,30 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
   // Find files in an album uploaded after a specific time (for subscription notifications)
   List<FileMetadata> findByAlbumAndUploadedAtAfter(Album album, Instant uploadedAt);
 
-  /** Returns every non-null stored path across all five path columns in a single query. */
+  /**
+   * Every non-null stored path across all path columns, distinct and in S3 listing order (binary,
+   * not the column collation). For HLS that is the master playlist only; callers treat everything
+   * under its prefix as referenced. For the scrub-preview sprite it is the track, whose sibling
+   * image callers treat as referenced too.
+   *
+   * <p>One query, sorted once and streamed to the caller as it is read, rather than a keyset page
+   * per round trip: the order is on an expression no index can serve, so every page would repeat
+   * the whole union and sort. Consume inside a read-only transaction and close the stream.
+   */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
   @Query(
       value =
-          "SELECT file_path FROM file_metadata WHERE file_path IS NOT NULL"
+          "SELECT p FROM ("
+              + "SELECT file_path AS p FROM file_metadata WHERE file_path IS NOT NULL"
               + " UNION SELECT thumbnail_path FROM file_metadata WHERE thumbnail_path IS NOT NULL"
               + " UNION SELECT medium_path FROM file_metadata WHERE medium_path IS NOT NULL"
               + " UNION SELECT large_path FROM file_metadata WHERE large_path IS NOT NULL"
-              + " UNION SELECT transcoded_video_path FROM file_metadata WHERE transcoded_video_path IS NOT NULL",
+              + " UNION SELECT transcoded_video_path FROM file_metadata WHERE transcoded_video_path IS NOT NULL"
+              + " UNION SELECT hls_path FROM file_metadata WHERE hls_path IS NOT NULL"
+              + " UNION SELECT sprite_vtt_path FROM file_metadata WHERE sprite_vtt_path IS NOT NULL"
+              + ") k ORDER BY CAST(p AS BINARY)",
       nativeQuery = true)
-  List<String> findAllStoredPaths();
+  Stream<String> streamStoredPaths();
 
   /**
    * Of the given file paths, return those still referenced by rows outside the named album. Used
@@ -135,37 +177,57 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
    * unmounted the PVC for the api/worker pods, but the retention runner deliberately does not
    * delete bytes off any local disk); - {@code thumbnail_path IS NOT NULL} as a defensive sanity
    * check that *some* derivative exists. {@code DONE} rows always have this in practice, but this
-   * protects against an anomalous row that was force-marked DONE without derivatives.
+   * protects against an anomalous row that was force-marked DONE without derivatives; - no job of
+   * any type is still queued, running or waiting on the asset. A DONE row can still have work that
+   * reads the original: a rotate or backfill job, or a segmented transcode whose TRANSCODE_SEGMENT
+   * rows are queued and whose TRANSCODE_JOIN is WAITING to take the audio from the original.
    *
    * <p>{@code LIMIT :maxRows} keeps a single CronJob firing bounded if the cutoff is misconfigured.
    */
   @Query(
       value =
-          "SELECT * FROM file_metadata "
-              + "WHERE processing_status = 'DONE' "
-              + "AND uploaded_at < :cutoff "
-              + "AND file_path IS NOT NULL "
-              + "AND file_path LIKE 'originals/%' "
-              + "AND thumbnail_path IS NOT NULL "
-              + "ORDER BY uploaded_at ASC "
+          "SELECT * FROM file_metadata fm "
+              + "WHERE fm.processing_status = 'DONE' "
+              + "AND fm.uploaded_at < :cutoff "
+              + "AND fm.file_path IS NOT NULL "
+              + "AND fm.file_path LIKE 'originals/%' "
+              + "AND fm.thumbnail_path IS NOT NULL "
+              + "AND NOT EXISTS ("
+              + "  SELECT 1 FROM processing_jobs pj "
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
+              + ") "
+              + "ORDER BY fm.uploaded_at ASC "
               + "LIMIT :maxRows",
       nativeQuery = true)
   List<FileMetadata> findRetentionPurgeCandidates(
       @Param("cutoff") Instant cutoff, @Param("maxRows") int maxRows);
 
   /**
-   * Phase 5 follow-up — projection of every {@code originals/} S3 key currently referenced by a
-   * row. The retention runner's orphan-detection pass set-diffs this against {@code listObjects}
-   * over the {@code originals/} prefix to find keys that have no row pointing at them (post-finish
-   * hook crash, multipart insert failure after PUT, etc.).
+   * Marks the originals of {@code ids} as purged in one statement — the retention sweep's DB half,
+   * run once per {@code DeleteObjects} chunk after the bytes are gone.
+   */
+  @Modifying(clearAutomatically = true)
+  @Query("UPDATE FileMetadata f SET f.filePath = NULL WHERE f.id IN :ids")
+  int clearFilePaths(@Param("ids") Collection<Long> ids);
+
+  /**
+   * Phase 5 follow-up — the S3 keys under {@code prefix} (an {@code originals/} prefix) currently
+   * referenced by a row, distinct and in S3 listing order. The retention runner's orphan-detection
+   * passes merge-join these against the listing of the same prefix to find keys that have no row
+   * pointing at them (post-finish hook crash, multipart insert failure after PUT, etc.).
    *
-   * <p>Projection-only; no entity hydration. Returning a {@code List} is fine — even at 100k+ rows
-   * the result is a few MiB of short strings.
+   * <p>Projection-only; no entity hydration. Streamed from one sorted query, like {@link
+   * #streamStoredPaths()}, so the sweep's memory does not grow with the library and the table is
+   * read once per sweep. Consume inside a read-only transaction and close the stream.
    */
+  @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
   @Query(
-      "SELECT f.filePath FROM FileMetadata f "
-          + "WHERE f.filePath IS NOT NULL AND f.filePath LIKE 'originals/%'")
-  List<String> findAllOriginalsKeys();
+      value =
+          "SELECT DISTINCT file_path FROM file_metadata"
+              + " WHERE file_path LIKE CONCAT(:prefix, '%')"
+              + " ORDER BY CAST(file_path AS BINARY)",
+      nativeQuery = true)
+  Stream<String> streamOriginalsKeys(@Param("prefix") String prefix);
 
   /**
    * Phase 4.5 follow-up — image-typed DONE rows missing at least one of the three image
@@ -173,8 +235,8 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
    * stranded asset (e.g. an old vipsthumbnail OOM that produced two of three sizes before
    * markFailed promoted the row to DONE-with-gaps).
    *
-   * <p>Excludes assets that already have a {@code QUEUED}/{@code PROCESSING} job — repeat clicks of
-   * the endpoint don't double-enqueue.
+   * <p>Excludes assets that already have a {@code QUEUED}/{@code PROCESSING}/{@code WAITING} job —
+   * repeat clicks of the endpoint don't double-enqueue.
    *
    * <p>Returns IDs only (projection); the worker re-fetches the full entity inside its own TX. Cap
    * is applied at the SQL layer so a misconfigured caller can't load tens of thousands of rows into
@@ -188,7 +250,7 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
               + "AND (fm.thumbnail_path IS NULL OR fm.medium_path IS NULL OR fm.large_path IS NULL) "
               + "AND NOT EXISTS ("
               + "  SELECT 1 FROM processing_jobs pj "
-              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING')"
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
               + ") "
               + "ORDER BY fm.id ASC "
               + "LIMIT :maxRows",
@@ -219,7 +281,7 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
               + "AND fm.file_path IS NOT NULL "
               + "AND NOT EXISTS ("
               + "  SELECT 1 FROM processing_jobs pj "
-              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING')"
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
               + ") "
               + "ORDER BY fm.id ASC "
               + "LIMIT :maxRows",
@@ -257,7 +319,7 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
               + "AND (fm.mime_type LIKE 'image/%' OR fm.mime_type LIKE 'video/%') "
               + "AND NOT EXISTS ("
               + "  SELECT 1 FROM processing_jobs pj "
-              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING')"
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
               + ") "
               + "ORDER BY fm.id ASC "
               + "LIMIT :maxRows",
@@ -286,10 +348,135 @@ public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long
               + "AND (fm.mime_type LIKE 'image/%' OR fm.mime_type LIKE 'video/%') "
               + "AND NOT EXISTS ("
               + "  SELECT 1 FROM processing_jobs pj "
-              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING')"
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
               + ") "
               + "ORDER BY fm.id ASC "
               + "LIMIT :maxRows",
       nativeQuery = true)
   List<Long> findMissingGpsIds(@Param("maxRows") int maxRows);
+
+  /**
+   * DONE image/video rows with a thumbnail but no BlurHash or no perceptual hash — everything
+   * processed before either column existed. Used by the {@code EXTRACT_PLACEHOLDER} admin endpoint.
+   *
+   * <p>Unlike the GPS and capture-date sweeps this one does not require {@code file_path}: the
+   * placeholder is computed from the thumbnail, so retention-purged rows get one too.
+   *
+   * <p>Self-shrinking — the worker either writes both hashes or fails the job, and both take the
+   * row out of this set. Same {@code NOT EXISTS} guard and SQL-level cap as the other sweeps; page
+   * by re-invoking until {@code enqueued == 0}.
+   */
+  @Query(
+      value =
+          "SELECT fm.id FROM file_metadata fm "
+              + "WHERE fm.processing_status = 'DONE' "
+              + "AND (fm.blurhash IS NULL OR fm.phash IS NULL) "
+              + "AND fm.thumbnail_path IS NOT NULL "
+              + "AND (fm.mime_type LIKE 'image/%' OR fm.mime_type LIKE 'video/%') "
+              + "AND NOT EXISTS ("
+              + "  SELECT 1 FROM processing_jobs pj "
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
+              + ") "
+              + "ORDER BY fm.id ASC "
+              + "LIMIT :maxRows",
+      nativeQuery = true)
+  List<Long> findMissingPlaceholderIds(@Param("maxRows") int maxRows);
+
+  /**
+   * DONE rows without a checksum — TUS uploads processed before the worker hashed its download.
+   * Used by the {@code COMPUTE_CHECKSUM} admin endpoint.
+   *
+   * <p>Requires {@code file_path}, and excludes HEIC uploads the worker converted to JPEG: the
+   * checksum is the hash of the uploaded bytes, and for those the uploaded bytes are gone — hashing
+   * the JPEG that replaced them would store a value no client can ever match.
+   *
+   * <p>Self-shrinking — the worker either writes the checksum or fails the job. Same {@code NOT
+   * EXISTS} guard and SQL-level cap as the other sweeps; page by re-invoking until {@code enqueued
+   * == 0}.
+   */
+  @Query(
+      value =
+          "SELECT fm.id FROM file_metadata fm "
+              + "WHERE fm.processing_status = 'DONE' "
+              + "AND fm.checksum IS NULL "
+              + "AND fm.file_path IS NOT NULL "
+              + "AND NOT ((LOWER(fm.original_name) LIKE '%.heic' "
+              + "  OR LOWER(fm.original_name) LIKE '%.heif') "
+              + "  AND fm.mime_type NOT LIKE 'image/hei%') "
+              + "AND NOT EXISTS ("
+              + "  SELECT 1 FROM processing_jobs pj "
+              + "  WHERE pj.asset_id = fm.id AND pj.status IN ('QUEUED', 'PROCESSING', 'WAITING')"
+              + ") "
+              + "ORDER BY fm.id ASC "
+              + "LIMIT :maxRows",
+      nativeQuery = true)
+  List<Long> findMissingChecksumIds(@Param("maxRows") int maxRows);
+
+  /**
+   * Sample for the admin derivative-savings report: rows of one album that carry at least one
+   * WebP/AVIF variant, oldest first so repeated runs measure the same assets.
+   */
+  @Query(
+      "SELECT f FROM FileMetadata f "
+          + "WHERE f.album.id = :albumId AND f.derivativeFormats IS NOT NULL "
+          + "ORDER BY f.id ASC")
+  List<FileMetadata> findWithDerivativeFormatsByAlbumId(
+      @Param("albumId") Long albumId, Pageable pageable);
+
+  /**
+   * Processing-state projection behind the per-album SSE stream ({@code ProcessingEventService}).
+   * Returns every row of the given albums that is still in flight ({@code active}, i.e. QUEUED /
+   * PROCESSING) plus any row whose processing finished at or after {@code since}, so a terminal
+   * transition is seen exactly once per poll window and settled rows drop out of the result.
+   *
+   * <p>Columns: {@code [albumId, id, processingStatus, processingAttempts, processingCompletedAt,
+   * processingError, publicToken]}. Projection-only so a tick over a large album never hydrates the
+   * entity graph.
+   */
+  @Query(
+      "SELECT f.album.id, f.id, f.processingStatus, f.processingAttempts, "
+          + "f.processingCompletedAt, f.processingError, f.publicToken "
+          + "FROM FileMetadata f "
+          + "WHERE f.album.id IN :albumIds "
+          + "AND (f.processingStatus IN :active OR f.processingCompletedAt >= :since)")
+  List<Object[]> findProcessingStateByAlbumIds(
+      @Param("albumIds") Collection<Long> albumIds,
+      @Param("active") Collection<ProcessingStatus> active,
+      @Param("since") Instant since);
+
+  /**
+   * Every perceptual hash of one user's library, as {@code [id, albumId, phash]} — the full load of
+   * the near-duplicate index. Projection-only; one row per hashed asset.
+   */
+  @Query(
+      "SELECT f.id, f.album.id, f.phash FROM FileMetadata f "
+          + "WHERE f.album.user.id = :userId AND f.phash IS NOT NULL")
+  List<Object[]> findPhashesByUserId(@Param("userId") Long userId);
+
+  /**
+   * The index's catch-up: hashes of the user's rows whose processing finished at or after {@code
+   * since} — a fresh upload, a rotation or a regenerate all rewrite {@code phash} in that commit.
+   */
+  @Query(
+      "SELECT f.id, f.album.id, f.phash FROM FileMetadata f "
+          + "WHERE f.album.user.id = :userId AND f.phash IS NOT NULL "
+          + "AND f.processingCompletedAt >= :since")
+  List<Object[]> findPhashesByUserIdCompletedSince(
+      @Param("userId") Long userId, @Param("since") Instant since);
+
+  /** Current {@code [id, albumId, phash]} of one album's hashed rows. */
+  @Query(
+      "SELECT f.id, f.album.id, f.phash FROM FileMetadata f "
+          + "WHERE f.album.id = :albumId AND f.phash IS NOT NULL")
+  List<Object[]> findPhashesByAlbumId(@Param("albumId") Long albumId);
+
+  /** Current {@code [id, albumId, phash]} of the given rows; deleted rows are simply absent. */
+  @Query(
+      "SELECT f.id, f.album.id, f.phash FROM FileMetadata f "
+          + "WHERE f.id IN :ids AND f.phash IS NOT NULL")
+  List<Object[]> findPhashesByIds(@Param("ids") Collection<Long> ids);
+
+  /** Owner of an asset; the job queue copies it onto each row for its per-user round-robin. */
+  @Query("SELECT f.album.user.id FROM FileMetadata f WHERE f.id = :id")
+  Optional<Long> findOwnerIdById(@Param("id") Long id);
 }
@@ -3,6 +3,8 @@ package com.oglimmer.photoupload.repository;
 
 import com.oglimmer.photoupload.entity.JobStatus;
 import com.oglimmer.photoupload.entity.ProcessingJob;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.domain.Pageable;
@@ -16,23 +18,59 @@ import org.springframework.stereotype.Repository;
 public interface ProcessingJobRepository extends JpaRepository<ProcessingJob, Long> {
 
   /**
-   * Atomic lease acquisition. Returns the next leaseable job id, skipping rows already locked by a
-   * concurrent worker. MariaDB ≥ 10.6 is required for {@code SKIP LOCKED}.
+   * QUEUED job ids in lease order (D56), read without locking: lanes strictly by {@code priority},
+   * and within a lane one job per user per turn — every user's oldest row first, then every user's
+   * second-oldest, and so on. A 2,000-row sync therefore delays another user's upload by at most
+   * one job, and a backfill never delays an upload at all.
    *
-   * <p>A row is leaseable when it is QUEUED, or when it is PROCESSING but its lease has expired
-   * (worker died). The dispatcher should call this inside a transaction and immediately update the
-   * row before committing.
+   * <p>Only the QUEUED half of "leaseable" (D57): a range on {@code idx_processing_jobs_lane}, so
+   * the cost is the backlog, not the history. Expired leases come from {@link
+   * #findExpiredLeaseIds}. The window function cannot be combined with {@code FOR UPDATE}, so the
+   * dispatcher walks these candidates through {@link #lockIfLeaseable} and takes the first one it
+   * gets.
+   */
+  @Query(
+      value =
+          "SELECT id FROM ("
+              + "  SELECT id, priority, created_at, "
+              + "         ROW_NUMBER() OVER ("
+              + "           PARTITION BY priority, user_id ORDER BY created_at, id) AS turn "
+              + "  FROM processing_jobs "
+              + "  WHERE status = 'QUEUED'"
+              + ") lane "
+              + "ORDER BY priority, turn, created_at, id "
+              + "LIMIT :limit",
+      nativeQuery = true)
+  List<Long> findQueuedCandidateIds(@Param("limit") int limit);
+
+  /**
+   * PROCESSING jobs whose worker died: the lease ran out without a heartbeat. A range on {@code
+   * idx_processing_jobs_status_lease}; longest-expired first. Read without locking, like {@link
+   * #findQueuedCandidateIds}.
+   */
+  @Query(
+      value =
+          "SELECT id FROM processing_jobs "
+              + "WHERE status = 'PROCESSING' AND leased_until < NOW(6) "
+              + "ORDER BY leased_until "
+              + "LIMIT :limit",
+      nativeQuery = true)
+  List<Long> findExpiredLeaseIds(@Param("limit") int limit);
+
+  /**
+   * Atomic lease acquisition of one candidate: locks the row if it is still leaseable, skipping it
+   * when a concurrent worker holds the lock. MariaDB ≥ 10.6 is required for {@code SKIP LOCKED}.
+   * Call inside a transaction and update the row before committing.
    */
   @Query(
       value =
           "SELECT id FROM processing_jobs "
-              + "WHERE status = 'QUEUED' "
-              + "   OR (status = 'PROCESSING' AND leased_until < NOW(6)) "
-              + "ORDER BY created_at ASC "
-              + "LIMIT 1 "
+              + "WHERE id = :id "
+              + "  AND (status = 'QUEUED' "
+              + "       OR (status = 'PROCESSING' AND leased_until < NOW(6))) "
               + "FOR UPDATE SKIP LOCKED",
       nativeQuery = true)
-  Optional<Long> findNextLeaseableId();
+  Optional<Long> lockIfLeaseable(@Param("id") Long id);
 
   @Modifying
   @Query(
@@ -50,6 +88,177 @@ public interface ProcessingJobRepository extends JpaRepository<ProcessingJob, Lo
       @Param("workerId") String workerId,
       @Param("leaseSeconds") int leaseSeconds);
 
+  /**
+   * Heartbeat of a running job: pushes {@code leased_until} out by another {@code leaseSeconds} and
+   * records the latest progress (a null {@code progress} keeps the previous one). Guarded by {@code
+   * leased_by}, so a worker whose lease already expired and was taken over updates nothing and
+   * learns about it from the returned count of 0.
+   */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE processing_jobs "
+              + "SET leased_until = DATE_ADD(NOW(6), INTERVAL :leaseSeconds SECOND), "
+              + "    heartbeat_at = NOW(6), "
+              + "    progress_percent = COALESCE(:progress, progress_percent) "
+              + "WHERE id = :id AND status = 'PROCESSING' AND leased_by = :workerId",
+      nativeQuery = true)
+  int extendLease(
+      @Param("id") Long id,
+      @Param("workerId") String workerId,
+      @Param("leaseSeconds") int leaseSeconds,
+      @Param("progress") Integer progress);
+
+  /**
+   * Hands a running job back to the queue without counting the attempt — the worker is shutting
+   * down, the job did not fail. Same {@code leased_by} guard as {@link #extendLease}.
+   */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE processing_jobs "
+              + "SET status = 'QUEUED', "
+              + "    attempts = GREATEST(attempts - 1, 0), "
+              + "    leased_until = NULL, "
+              + "    leased_by = NULL, "
+              + "    heartbeat_at = NULL, "
+              + "    progress_percent = NULL "
+              + "WHERE id = :id AND status = 'PROCESSING' AND leased_by = :workerId",
+      nativeQuery = true)
+  int releaseLease(@Param("id") Long id, @Param("workerId") String workerId);
+
+  /**
+   * Row lock on a TRANSCODE_JOIN row. Sibling segments finishing at the same moment serialise on
+   * it, so exactly one of them sees "no siblings left" and wakes the join.
+   */
+  @Query(value = "SELECT id FROM processing_jobs WHERE id = :id FOR UPDATE", nativeQuery = true)
+  Optional<Long> lockById(@Param("id") Long id);
+
+  /**
+   * Siblings of {@code selfId} under {@code parentId} that are not DONE yet. A locking read, so it
+   * sees the latest committed state rather than the transaction's snapshot — a sibling that
+   * committed DONE while we waited for {@link #lockById} must count as done.
+   */
+  @Query(
+      value =
+          "SELECT COUNT(*) FROM processing_jobs "
+              + "WHERE parent_job_id = :parentId AND id <> :selfId AND status <> 'DONE' "
+              + "LOCK IN SHARE MODE",
+      nativeQuery = true)
+  long countUnfinishedSiblings(@Param("parentId") Long parentId, @Param("selfId") Long selfId);
+
+  /**
+   * PROCESSING → {@code status} (DONE, QUEUED for a retry, or DEAD_LETTER) at the end of a run.
+   * Fenced like {@link #extendLease}: a worker whose lease was lost and taken over settles nothing,
+   * so it cannot overwrite the verdict — or the running attempt — of the worker that owns the job
+   * now. A retry clears {@code finished_at} and the progress figure, the final states stamp the
+   * finish.
+   */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE processing_jobs "
+              + "SET status = :status, "
+              + "    finished_at = IF(:status = 'QUEUED', NULL, NOW(6)), "
+              + "    progress_percent = IF(:status = 'QUEUED', NULL, progress_percent), "
+              + "    leased_until = NULL, "
+              + "    leased_by = NULL, "
+              + "    last_error = :lastError "
+              + "WHERE id = :id AND status = 'PROCESSING' AND leased_by = :workerId",
+      nativeQuery = true)
+  int settleLease(
+      @Param("id") Long id,
+      @Param("workerId") String workerId,
+      @Param("status") String status,
+      @Param("lastError") String lastError);
+
+  /** WAITING → {@code status} for a TRANSCODE_JOIN row; no-op if it already moved on. */
+  @Modifying
+  @Query(
+      value =
+          "UPDATE processing_jobs "
+              + "SET status = :status, "
+              + "    last_error = :lastError, "
+              + "    finished_at = IF(:status = 'QUEUED', NULL, NOW(6)) "
+              + "WHERE id = :id AND status = 'WAITING'",
+      nativeQuery = true)
+  int settleWaiting(
+      @Param("id") Long id, @Param("status") String status, @Param("lastError") String lastError);
+
+  /**
+   * Asset ids of the next QUEUED {@code PROCESS} jobs, in the lease order of {@link
+   * #findQueuedCandidateIds}. Read without locking: the worker uses it only to guess what it will
+   * lease next and prefetch that original, so a stale answer costs one wasted download, never a
+   * double lease.
+   */
+  @Query(
+      value =
+          "SELECT asset_id FROM ("
+              + "  SELECT asset_id, job_type, priority, created_at, id, "
+              + "         ROW_NUMBER() OVER ("
+              + "           PARTITION BY priority, user_id ORDER BY created_at, id) AS turn "
+              + "  FROM processing_jobs "
+              + "  WHERE status = 'QUEUED'"
+              + ") lane "
+              + "WHERE job_type = 'PROCESS' "
+              + "ORDER BY priority, turn, created_at, id "
+              + "LIMIT :limit",
+      nativeQuery = true)
+  List<Long> findNextQueuedProcessAssetIds(@Param("limit") int limit);
+
+  /**
+   * Lane of the asset's running PROCESS job, which the segment jobs it fans out into inherit. Empty
+   * when none is running (e.g. a test calling the pipeline directly).
+   */
+  @Query(
+      value =
+          "SELECT priority FROM processing_jobs "
+              + "WHERE asset_id = :assetId AND job_type = 'PROCESS' AND status = 'PROCESSING' "
+              + "ORDER BY id DESC "
+              + "LIMIT 1",
+      nativeQuery = true)
+  Optional<Integer> findRunningProcessPriority(@Param("assetId") Long assetId);
+
+  /**
+   * Locks the oldest DONE rows finished before {@code cutoff} for the archiver (D57). {@code SKIP
+   * LOCKED} keeps worker replicas that run the archiver at the same time on disjoint batches.
+   */
+  @Query(
+      value =
+          "SELECT id FROM processing_jobs "
+              + "WHERE status = 'DONE' AND finished_at < :cutoff "
+              + "ORDER BY finished_at "
+              + "LIMIT :limit "
+              + "FOR UPDATE SKIP LOCKED",
+      nativeQuery = true)
+  List<Long> lockArchivableIds(@Param("cutoff") Instant cutoff, @Param("limit") int limit);
+
+  /** Copies the given rows into {@code processing_jobs_archive}; pair with {@link #deleteByIds}. */
+  @Modifying
+  @Query(
+      value =
+          "INSERT INTO processing_jobs_archive "
+              + "(id, asset_id, job_type, priority, user_id, parent_job_id, segment_index, status, "
+              + " attempts, max_attempts, last_error, created_at, started_at, finished_at, "
+              + " archived_at) "
+              + "SELECT id, asset_id, job_type, priority, user_id, parent_job_id, segment_index, "
+              + "       status, attempts, max_attempts, last_error, created_at, started_at, "
+              + "       finished_at, NOW(6) "
+              + "FROM processing_jobs WHERE id IN (:ids)",
+      nativeQuery = true)
+  int copyToArchive(@Param("ids") Collection<Long> ids);
+
+  @Modifying
+  @Query(value = "DELETE FROM processing_jobs WHERE id IN (:ids)", nativeQuery = true)
+  int deleteByIds(@Param("ids") Collection<Long> ids);
+
+  /** Drops archived rows finished before {@code cutoff}, at most {@code limit} per call. */
+  @Modifying
+  @Query(
+      value = "DELETE FROM processing_jobs_archive WHERE finished_at < :cutoff LIMIT :limit",
+      nativeQuery = true)
+  int pruneArchive(@Param("cutoff") Instant cutoff, @Param("limit") int limit);
+
   long countByStatus(JobStatus status);
 
   @Query("SELECT COUNT(j) FROM ProcessingJob j WHERE j.status IN :statuses")
@@ -58,7 +267,8 @@ public interface ProcessingJobRepository extends JpaRepository<ProcessingJob, Lo
   /**
    * Single round-trip COUNT grouped by status. The metrics gauge and the backpressure filter both
    * read these values, so doing one query and caching the map is materially cheaper than six
-   * separate {@code countByStatus} calls per refresh.
+   * separate {@code countByStatus} calls per refresh. Since DONE rows are archived (D57) this is an
+   * index-only scan over the live queue, whatever the size of the history.
    */
   @Query("SELECT j.status, COUNT(j) FROM ProcessingJob j GROUP BY j.status")
   List<Object[]> countAllByStatusGrouped();
@@ -22,7 +22,9 @@ import com.oglimmer.photoupload.security.UserContext;
 import java.security.SecureRandom;
 import java.time.Instant;
 import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import lombok.RequiredArgsConstructor;
@@ -45,6 +47,7 @@ public class AlbumService {
   private final AlbumEnabledTagRepository albumEnabledTagRepository;
   private final JdbcTemplate jdbcTemplate;
   private final FileStorageService fileStorageService;
+  private final StorageAccountingService storageAccounting;
   private final UserContext userContext;
   private final AlbumMapper albumMapper;
 
@@ -173,6 +176,8 @@ public class AlbumService {
     // slideshow_recording_images via FK), followed by the album row (cascades the remaining
     // album-scoped tables). Replaces N+1 per-row JPA deletes that were the source of the
     // long-running request / proxy timeout.
+    // The owner's totals lose the album's first; its asset_storage rows cascade with the files.
+    storageAccounting.releaseAlbum(albumId);
     fileMetadataRepository.bulkDeleteByAlbumId(albumId);
     albumRepository.bulkDeleteById(albumId);
 
@@ -399,6 +404,7 @@ public class AlbumService {
     // Ensure no_tag exists for this user
     Tag noTag = ensureNoTagExists(currentUser);
 
+    Map<Long, Long> sourceByCopy = new LinkedHashMap<>();
     for (FileMetadata source : sourceFiles) {
       FileMetadata copy = new FileMetadata();
       copy.setOriginalName(source.getOriginalName());
@@ -410,6 +416,9 @@ public class AlbumService {
       copy.setWidth(source.getWidth());
       copy.setHeight(source.getHeight());
       copy.setDuration(source.getDuration());
+      copy.setBlurhash(source.getBlurhash());
+      copy.setPhash(source.getPhash());
+      copy.setDerivativeFormats(source.getDerivativeFormats());
       copy.setExifDateTimeOriginal(source.getExifDateTimeOriginal());
       copy.setExifDateSource(source.getExifDateSource());
       copy.setCaptureUtcOffsetSeconds(source.getCaptureUtcOffsetSeconds());
@@ -430,6 +439,8 @@ public class AlbumService {
       copy.setMediumPath(source.getMediumPath());
       copy.setLargePath(source.getLargePath());
       copy.setTranscodedVideoPath(source.getTranscodedVideoPath());
+      copy.setHlsPath(source.getHlsPath());
+      copy.setSpriteVttPath(source.getSpriteVttPath());
 
       // …and share their processing state with them. The derivatives above already exist, and no
       // job is enqueued for a copy, so leaving the entity's QUEUED default in place would strand
@@ -440,6 +451,7 @@ public class AlbumService {
 
       // publicToken is auto-generated by @PrePersist
       copy = fileMetadataRepository.save(copy);
+      sourceByCopy.put(copy.getId(), source.getId());
 
       // Add no_tag
       ImageTag imageTag = new ImageTag();
@@ -448,6 +460,12 @@ public class AlbumService {
       imageTagRepository.save(imageTag);
     }
 
+    // The copies keep the source's positions; uploads into the copy go after them (D60).
+    albumRepository.syncNextFileOrder(newAlbum.getId());
+
+    // The copies reference the source's objects, so they are charged the same bytes (D54).
+    storageAccounting.copy(sourceByCopy, newAlbum.getId());
+
     log.info(
         "Duplicated album '{}' -> '{}' with {} files for user: {}",
         sourceAlbum.getName(),
@@ -511,6 +529,8 @@ public class AlbumService {
     info.setUpdatedAt(album.getUpdatedAt());
     info.setDisplayOrder(album.getDisplayOrder());
     info.setShareToken(album.getShareToken());
+    info.setStoredBytes(album.getStoredBytes());
+    info.setOriginalBytes(album.getOriginalBytes());
     info.setMapCenterLat(album.getMapCenterLat());
     info.setMapCenterLng(album.getMapCenterLng());
     info.setMapSpanLat(album.getMapSpanLat());
@@ -1,13 +1,13 @@
 /* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
 package com.oglimmer.photoupload.service;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
@@ -16,9 +16,16 @@ import org.springframework.stereotype.Service;
  * audio may not be 100% according to spec, so we re-encode using Opus codec with proper settings.
  */
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class AudioReencodingService {
 
+  // Opus at 64k encodes far faster than real time; even an hour-long recording is done in a
+  // fraction of this. Before, a hung ffmpeg held the request thread forever.
+  private static final long TIMEOUT_MINUTES = 10;
+
+  private final ProcessRunner processRunner;
+
   /**
    * Re-encode a WebM audio file using ffmpeg with Opus codec. The original file is replaced with
    * the re-encoded version.
@@ -67,39 +74,29 @@ public class AudioReencodingService {
       log.info("Re-encoding audio file: {}", audioPath.getFileName());
       log.debug("ffmpeg command: {}", String.join(" ", command));
 
-      // Execute ffmpeg command
-      ProcessBuilder processBuilder = new ProcessBuilder(command);
-      processBuilder.redirectErrorStream(true);
-      Process process = processBuilder.start();
-
-      // Capture output for debugging
-      StringBuilder output = new StringBuilder();
-      try (BufferedReader reader =
-          new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          output.append(line).append("\n");
-        }
-      }
-
-      int exitCode = process.waitFor();
+      // Bounded output, a timeout, and the configured ffmpeg limits and metrics (D62).
+      ProcessRunner.Result result = processRunner.run(command, TIMEOUT_MINUTES, TimeUnit.MINUTES);
+      int exitCode = result.exitCode();
 
-      if (exitCode == 0) {
+      if (result.success()) {
         // Re-encoding successful, replace original file
         Files.delete(audioPath);
         Files.move(tempPath, audioPath);
         log.info("Successfully re-encoded audio file: {}", audioPath.getFileName());
       } else {
         // Re-encoding failed, log error and clean up temp file
-        log.error("ffmpeg re-encoding failed with exit code {}: {}", exitCode, output);
+        log.error(
+            "ffmpeg re-encoding failed with exit code {} (timedOut={}): {}",
+            exitCode,
+            result.timedOut(),
+            result.output());
         Files.deleteIfExists(tempPath);
-        throw new IOException("ffmpeg re-encoding failed with exit code " + exitCode);
+        throw new IOException(
+            result.timedOut()
+                ? "ffmpeg re-encoding timed out after " + TIMEOUT_MINUTES + " minutes"
+                : "ffmpeg re-encoding failed with exit code " + exitCode);
       }
 
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      Files.deleteIfExists(tempPath);
-      throw new IOException("Audio re-encoding was interrupted", e);
     } catch (IOException e) {
       // Clean up temp file on any IO error
       Files.deleteIfExists(tempPath);
@@ -0,0 +1,165 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.Profiles;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Encodes the tiny layout placeholder stored in {@code file_metadata.blurhash}: a <a
+ * href="https://blurha.sh">BlurHash</a> of the asset's thumbnail, 4×3 DCT components (3×4 for
+ * portrait), which is 28 characters on the wire. The gallery decodes it into a blurred tile while
+ * the real thumbnail is still in flight.
+ *
+ * <p>Input is always the worker's own JPEG thumbnail — already orientation-corrected by the
+ * thumbnailer, so the placeholder matches what replaces it. The image is shrunk to at most {@value
+ * #SAMPLE_EDGE}px before the transform; a 4×3 hash cannot carry more detail than that anyway, and
+ * it keeps the cost at a few hundred microseconds per asset.
+ *
+ * <p>Never throws: an unreadable thumbnail yields null and the row simply has no placeholder.
+ */
+@Component
+@Profile(Profiles.WORKER)
+@Slf4j
+public class BlurhashEncoder {
+
+  static final int SAMPLE_EDGE = 32;
+
+  private static final String BASE83 =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+  /** BlurHash of the image at {@code imageFile}, or null if it can't be decoded. */
+  public String encode(Path imageFile) {
+    try {
+      BufferedImage image = ImageIO.read(imageFile.toFile());
+      if (image == null) {
+        log.debug("No ImageIO reader for placeholder source {}", imageFile.getFileName());
+        return null;
+      }
+      boolean portrait = image.getHeight() > image.getWidth();
+      return encode(downscale(image), portrait ? 3 : 4, portrait ? 4 : 3);
+    } catch (Exception e) {
+      log.warn("Could not compute placeholder for {}: {}", imageFile.getFileName(), e.toString());
+      return null;
+    }
+  }
+
+  private static BufferedImage downscale(BufferedImage source) {
+    double scale =
+        Math.min(1.0, (double) SAMPLE_EDGE / Math.max(source.getWidth(), source.getHeight()));
+    int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = scaled.createGraphics();
+    try {
+      g.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return scaled;
+  }
+
+  /** The reference BlurHash encoding (linear-light DCT, base-83 packing) of {@code image}. */
+  static String encode(BufferedImage image, int componentsX, int componentsY) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    double[][] linear = new double[width * height][3];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int rgb = image.getRGB(x, y);
+        double[] pixel = linear[y * width + x];
+        pixel[0] = srgbToLinear((rgb >> 16) & 0xff);
+        pixel[1] = srgbToLinear((rgb >> 8) & 0xff);
+        pixel[2] = srgbToLinear(rgb & 0xff);
+      }
+    }
+
+    double[][] factors = new double[componentsX * componentsY][];
+    for (int j = 0; j < componentsY; j++) {
+      for (int i = 0; i < componentsX; i++) {
+        double normalisation = (i == 0 && j == 0) ? 1 : 2;
+        double r = 0;
+        double g = 0;
+        double b = 0;
+        for (int y = 0; y < height; y++) {
+          for (int x = 0; x < width; x++) {
+            double basis =
+                normalisation
+                    * Math.cos(Math.PI * i * x / width)
+                    * Math.cos(Math.PI * j * y / height);
+            double[] pixel = linear[y * width + x];
+            r += basis * pixel[0];
+            g += basis * pixel[1];
+            b += basis * pixel[2];
+          }
+        }
+        double scale = 1.0 / (width * height);
+        factors[j * componentsX + i] = new double[] {r * scale, g * scale, b * scale};
+      }
+    }
+
+    StringBuilder hash = new StringBuilder();
+    appendBase83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+    double maximumValue;
+    if (factors.length > 1) {
+      double actualMaximum = 0;
+      for (int k = 1; k < factors.length; k++) {
+        for (double component : factors[k]) {
+          actualMaximum = Math.max(actualMaximum, Math.abs(component));
+        }
+      }
+      int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(actualMaximum * 166 - 0.5)));
+      maximumValue = (quantisedMaximum + 1) / 166.0;
+      appendBase83(hash, quantisedMaximum, 1);
+    } else {
+      maximumValue = 1;
+      appendBase83(hash, 0, 1);
+    }
+
+    double[] dc = factors[0];
+    appendBase83(
+        hash, (linearToSrgb(dc[0]) << 16) + (linearToSrgb(dc[1]) << 8) + linearToSrgb(dc[2]), 4);
+    for (int k = 1; k < factors.length; k++) {
+      double[] ac = factors[k];
+      int quantR = quantiseAc(ac[0], maximumValue);
+      int quantG = quantiseAc(ac[1], maximumValue);
+      int quantB = quantiseAc(ac[2], maximumValue);
+      appendBase83(hash, quantR * 19 * 19 + quantG * 19 + quantB, 2);
+    }
+    return hash.toString();
+  }
+
+  private static int quantiseAc(double value, double maximumValue) {
+    double normalised = value / maximumValue;
+    double curved = Math.copySign(Math.sqrt(Math.abs(normalised)), normalised);
+    return (int) Math.max(0, Math.min(18, Math.floor(curved * 9 + 9.5)));
+  }
+
+  static double srgbToLinear(int value) {
+    double v = value / 255.0;
+    return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+  }
+
+  static int linearToSrgb(double value) {
+    double v = Math.max(0, Math.min(1, value));
+    return v <= 0.0031308
+        ? (int) (v * 12.92 * 255 + 0.5)
+        : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+  }
+
+  private static void appendBase83(StringBuilder out, int value, int length) {
+    for (int i = 1; i <= length; i++) {
+      int digit = (value / (int) Math.pow(83, length - i)) % 83;
+      out.append(BASE83.charAt(digit));
+    }
+  }
+}
@@ -1,15 +1,12 @@
 /* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
 package com.oglimmer.photoupload.service;
 
-import com.drew.imaging.ImageMetadataReader;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.oglimmer.photoupload.config.CaptureDateProperties;
 import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.entity.CaptureDateSource;
 import com.oglimmer.photoupload.model.CaptureDate;
-import com.oglimmer.photoupload.util.MimeTypePredicates;
-import java.nio.file.Path;
 import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.ZoneOffset;
@@ -48,22 +45,13 @@ public class CaptureDateExtractor {
   private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
 
   private final CaptureDateProperties properties;
-  private final ThumbnailService thumbnailService;
 
-  /** Dispatches on mime type; anything that is neither image nor video has no capture date. */
-  public CaptureDate extract(Path file, String mimeType) {
-    if (MimeTypePredicates.isImageFile(mimeType)) {
-      return fromImageExif(file);
-    }
-    if (MimeTypePredicates.isVideoFile(mimeType)) {
-      return thumbnailService.extractVideoCreationDate(file);
-    }
-    return CaptureDate.none();
-  }
-
-  private CaptureDate fromImageExif(Path imagePath) {
+  /**
+   * The capture date from an already-parsed image. {@link MediaMetadataExtractor} reads the file
+   * once and hands the same {@link Metadata} to this and to {@link GpsExtractor}.
+   */
+  public CaptureDate fromImageMetadata(Metadata metadata) {
     try {
-      Metadata metadata = ImageMetadataReader.readMetadata(imagePath.toFile());
       ExifSubIFDDirectory directory = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
       if (directory == null || !directory.containsTag(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL)) {
         return CaptureDate.none();
@@ -100,7 +88,7 @@ public class CaptureDateExtractor {
           offsetSeconds);
       return CaptureDate.of(instant, source, offsetSeconds);
     } catch (Exception e) {
-      log.debug("Could not read EXIF from {}: {}", imagePath.getFileName(), e.getMessage());
+      log.debug("Could not interpret EXIF capture date: {}", e.getMessage());
       return CaptureDate.none();
     }
   }
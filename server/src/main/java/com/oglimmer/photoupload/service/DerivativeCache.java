@@ -0,0 +1,354 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.config.ServeCacheProperties;
+import com.oglimmer.photoupload.service.ThumbnailService.ThumbnailSize;
+import com.oglimmer.photoupload.storage.StoragePaths;
+import com.oglimmer.photoupload.util.Sha256;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+/**
+ * Pod-local cache of hot derivatives in front of {@link ObjectStorageService#openStream} (D64).
+ * Thumbnails live in bounded off-heap memory and medium derivatives in a bounded directory on local
+ * disk, each tier an LRU evicted by bytes; large derivatives, originals and video stay streamed.
+ *
+ * <p>Entries are keyed by storage key <em>and</em> public token. A rotate or reprocess rewrites the
+ * bytes under the same key but always issues a new token, so an entry never goes stale — it only
+ * stops being asked for and ages out. A hit touches neither the database beyond the token lookup
+ * nor MinIO, which is what lets a popular share link ride out a short MinIO outage.
+ *
+ * <p>Hits and misses are counted per tier in {@value #REQUESTS} (hit ratio = hits / (hits +
+ * misses)), evictions in {@value #EVICTIONS}, resident bytes in {@value #BYTES}.
+ */
+@Service
+@Profile(Profiles.API)
+@ConditionalOnProperty(prefix = "serve-cache", name = "enabled", havingValue = "true")
+@Slf4j
+public class DerivativeCache {
+
+  static final String REQUESTS = "photoupload.serve.cache.requests";
+  static final String EVICTIONS = "photoupload.serve.cache.evictions";
+  static final String BYTES = "photoupload.serve.cache.bytes";
+
+  /** Names this cache gives its files; only these are wiped at startup. */
+  private static final Pattern OWN_FILE = Pattern.compile("[0-9a-f]{64}-\\d+|fill-.*\\.tmp");
+
+  public enum Tier {
+    MEMORY,
+    DISK
+  }
+
+  /** What a hit serves. */
+  public sealed interface Entry permits Memory, Disk {
+    long length();
+  }
+
+  /** Bytes of a thumbnail in off-heap memory; read-only and shared by every reader. */
+  public record Memory(ByteBuffer bytes) implements Entry {
+    @Override
+    public long length() {
+      return bytes.remaining();
+    }
+
+    /** A stream over a private view of the bytes, so concurrent readers keep their own position. */
+    public InputStream openStream() {
+      ByteBuffer view = bytes.duplicate();
+      return new InputStream() {
+        @Override
+        public int read() {
+          return view.hasRemaining() ? view.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+          if (!view.hasRemaining()) {
+            return -1;
+          }
+          int n = Math.min(len, view.remaining());
+          view.get(b, off, n);
+          return n;
+        }
+
+        @Override
+        public int available() {
+          return view.remaining();
+        }
+      };
+    }
+  }
+
+  /** A medium derivative in the disk tier's directory. */
+  public record Disk(Path file, long length) implements Entry {}
+
+  private final ServeCacheProperties properties;
+  private final Path directory;
+  private final Lru<Memory> memory;
+  private final Lru<Disk> disk;
+  private final AtomicLong fileSequence = new AtomicLong();
+  private final MeterRegistry meterRegistry;
+  private final ScheduledExecutorService deleter =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "serve-cache-evict");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  public DerivativeCache(ServeCacheProperties properties, MeterRegistry meterRegistry)
+      throws IOException {
+    this.properties = properties;
+    this.meterRegistry = meterRegistry;
+    this.directory = Paths.get(properties.getDiskDir()).toAbsolutePath().normalize();
+    this.memory =
+        new Lru<>(
+            properties.getMemoryMaxBytes(),
+            Memory::length,
+            evicted -> {}, // the buffer is freed with its last reference
+            meterRegistry.counter(EVICTIONS, "tier", "memory"));
+    this.disk =
+        new Lru<>(
+            properties.getDiskMaxBytes(),
+            Disk::length,
+            evicted -> deleteLater(evicted.file()),
+            meterRegistry.counter(EVICTIONS, "tier", "disk"));
+    Gauge.builder(BYTES, memory, Lru::bytes)
+        .tag("tier", "memory")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    Gauge.builder(BYTES, disk, Lru::bytes)
+        .tag("tier", "disk")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    if (properties.getDiskMaxBytes() > 0) {
+      Files.createDirectories(directory);
+      wipe();
+    }
+    log.info(
+        "Serve cache: {} bytes in memory for thumbnails, {} bytes under {} for medium",
+        properties.getMemoryMaxBytes(),
+        properties.getDiskMaxBytes(),
+        directory);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    deleter.shutdownNow();
+  }
+
+  /**
+   * The tier a storage key is cached in: thumbnails in memory, medium on disk, else none. An
+   * on-demand rendition (D65) goes where the derivative of its width would.
+   */
+  public Optional<Tier> tierFor(String storageKey) {
+    Integer width = StoragePaths.resizedWidthOf(storageKey);
+    if (width != null) {
+      if (width <= ThumbnailSize.THUMBNAIL.getMaxWidth() && properties.getMemoryMaxBytes() > 0) {
+        return Optional.of(Tier.MEMORY);
+      }
+      if (width <= ThumbnailSize.MEDIUM.getMaxWidth() && properties.getDiskMaxBytes() > 0) {
+        return Optional.of(Tier.DISK);
+      }
+      return Optional.empty();
+    }
+    String slot = StoragePaths.accountingSlotOf(storageKey);
+    if (slot == null) {
+      return Optional.empty();
+    }
+    if (slot.startsWith("thumb.") && properties.getMemoryMaxBytes() > 0) {
+      return Optional.of(Tier.MEMORY);
+    }
+    if (slot.startsWith("medium.") && properties.getDiskMaxBytes() > 0) {
+      return Optional.of(Tier.DISK);
+    }
+    return Optional.empty();
+  }
+
+  /** The cached entry, or null; counts the hit or miss either way. */
+  public Entry get(Tier tier, String storageKey, String token) {
+    String key = cacheKey(storageKey, token);
+    Entry hit;
+    if (tier == Tier.MEMORY) {
+      hit = memory.get(key);
+    } else {
+      Disk file = disk.get(key);
+      if (file != null && !Files.isReadable(file.file())) {
+        // Someone cleaned the directory under us; forget the entry and refetch.
+        disk.remove(key);
+        file = null;
+      }
+      hit = file;
+    }
+    meterRegistry
+        .counter(REQUESTS, "tier", tierTag(tier), "result", hit != null ? "hit" : "miss")
+        .increment();
+    return hit;
+  }
+
+  /** Whether an object of {@code length} bytes may enter {@code tier}; unknown lengths may not. */
+  public boolean admits(Tier tier, Long length) {
+    if (length == null || length < 0) {
+      return false;
+    }
+    return tier == Tier.MEMORY
+        ? length <= Math.min(properties.getMemoryMaxEntryBytes(), properties.getMemoryMaxBytes())
+        : length <= Math.min(properties.getDiskMaxEntryBytes(), properties.getDiskMaxBytes());
+  }
+
+  /**
+   * Reads {@code length} bytes of {@code in} into {@code tier} and returns the new entry. The
+   * caller closes {@code in}. Two requests missing on one key at once both fill; the later simply
+   * replaces the earlier, with the same bytes.
+   */
+  public Entry put(Tier tier, String storageKey, String token, InputStream in, long length)
+      throws IOException {
+    String key = cacheKey(storageKey, token);
+    if (tier == Tier.MEMORY) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(Math.toIntExact(length));
+      ReadableByteChannel channel = Channels.newChannel(in);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          throw new EOFException("Object ended before its Content-Length: " + storageKey);
+        }
+      }
+      buffer.flip();
+      Memory entry = new Memory(buffer.asReadOnlyBuffer());
+      memory.put(key, entry);
+      return entry;
+    }
+    Path tmp = Files.createTempFile(directory, "fill-", ".tmp");
+    try {
+      long copied = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+      if (copied != length) {
+        throw new EOFException("Object ended before its Content-Length: " + storageKey);
+      }
+      // A file name is never reused, so a delayed delete of an evicted entry cannot hit a refill.
+      Path file = directory.resolve(fileName(key) + "-" + fileSequence.incrementAndGet());
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+      Disk entry = new Disk(file, length);
+      disk.put(key, entry);
+      return entry;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static String cacheKey(String storageKey, String token) {
+    return storageKey + "@" + token;
+  }
+
+  private static String fileName(String key) {
+    MessageDigest digest = Sha256.newDigest();
+    digest.update(key.getBytes(StandardCharsets.UTF_8));
+    return Sha256.hex(digest);
+  }
+
+  private static String tierTag(Tier tier) {
+    return tier == Tier.MEMORY ? "memory" : "disk";
+  }
+
+  private void deleteLater(Path file) {
+    try {
+      deleter.schedule(
+          () -> deleteQuietly(file), properties.getDiskEvictionGraceSeconds(), TimeUnit.SECONDS);
+    } catch (RuntimeException shuttingDown) {
+      deleteQuietly(file);
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.warn("Could not delete evicted cache file {}: {}", file, e.toString());
+    }
+  }
+
+  private void wipe() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      files
+          .filter(file -> OWN_FILE.matcher(file.getFileName().toString()).matches())
+          .forEach(DerivativeCache::deleteQuietly);
+    }
+  }
+
+  /** Access-ordered map that evicts the least recently used values once their bytes exceed max. */
+  private static final class Lru<V> {
+    private final LinkedHashMap<String, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private final ToLongFunction<V> weigher;
+    private final Consumer<V> onEvict;
+    private final Counter evictions;
+    private long bytes;
+
+    Lru(long maxBytes, ToLongFunction<V> weigher, Consumer<V> onEvict, Counter evictions) {
+      this.maxBytes = maxBytes;
+      this.weigher = weigher;
+      this.onEvict = onEvict;
+      this.evictions = evictions;
+    }
+
+    synchronized V get(String key) {
+      return map.get(key);
+    }
+
+    synchronized void put(String key, V value) {
+      V previous = map.put(key, value);
+      bytes += weigher.applyAsLong(value);
+      if (previous != null) {
+        bytes -= weigher.applyAsLong(previous);
+        onEvict.accept(previous);
+      }
+      Iterator<Map.Entry<String, V>> eldest = map.entrySet().iterator();
+      while (bytes > maxBytes && eldest.hasNext()) {
+        V evicted = eldest.next().getValue();
+        eldest.remove();
+        bytes -= weigher.applyAsLong(evicted);
+        onEvict.accept(evicted);
+        evictions.increment();
+      }
+    }
+
+    synchronized void remove(String key) {
+      V removed = map.remove(key);
+      if (removed != null) {
+        bytes -= weigher.applyAsLong(removed);
+      }
+    }
+
+    synchronized double bytes() {
+      return bytes;
+    }
+  }
+}
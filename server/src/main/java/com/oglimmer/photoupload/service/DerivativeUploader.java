@@ -0,0 +1,190 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.exception.StorageException;
+import com.oglimmer.photoupload.storage.StoragePaths;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background PUTs of worker-generated derivatives. {@link FileProcessingService} used to PUT thumb,
+ * medium, large and the transcode one after another on the job thread, so the CPU-bound step that
+ * followed (video thumbnail, EXIF read) waited on MinIO. Each job now opens a {@link Batch}, hands
+ * every finished file to it, keeps computing, and joins the batch right before the DONE commit — a
+ * row is never marked DONE while one of its derivative keys is still in flight.
+ *
+ * <p>The pool is shared by the pod and small ({@code jobs.pipeline.upload-threads}): uploads are
+ * network-bound, and D13 still holds — only one job's tooling runs at a time, these threads never
+ * fork a process.
+ */
+@Component
+@Profile(Profiles.WORKER)
+@Slf4j
+public class DerivativeUploader {
+
+  static final String STAGE_METRIC = "photoupload.worker.stage";
+
+  /** Records the time since {@code startNanos} against {@link #STAGE_METRIC} for {@code stage}. */
+  static void recordStage(MeterRegistry meterRegistry, String stage, long startNanos) {
+    meterRegistry
+        .timer(STAGE_METRIC, "stage", stage)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private final Optional<ObjectStorageService> objectStorage;
+  private final MeterRegistry meterRegistry;
+  private final ExecutorService uploadExecutor;
+
+  public DerivativeUploader(
+      Optional<ObjectStorageService> objectStorage,
+      JobsProperties jobsProperties,
+      MeterRegistry meterRegistry) {
+    this.objectStorage = objectStorage;
+    this.meterRegistry = meterRegistry;
+    AtomicInteger counter = new AtomicInteger();
+    ThreadFactory factory =
+        runnable -> {
+          Thread thread = new Thread(runnable, "derivative-upload-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        };
+    this.uploadExecutor =
+        Executors.newFixedThreadPool(
+            Math.max(1, jobsProperties.getPipeline().getUploadThreads()), factory);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    uploadExecutor.shutdown();
+    try {
+      // Give in-flight PUTs a chance to land; the job they belong to is re-leased otherwise.
+      if (!uploadExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+        uploadExecutor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      uploadExecutor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** One job's set of uploads. Not thread-safe; owned by the job thread. */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  public final class Batch {
+
+    private final List<Future<?>> pending = new ArrayList<>();
+    private final Map<String, Long> storedBytes = new ConcurrentHashMap<>();
+
+    private Batch() {}
+
+    /**
+     * Queue {@code local} for a PUT to {@code key}. With {@code deleteAfter} the local file is
+     * removed once the PUT succeeds, keeping peak scratch-disk usage as small as the old
+     * synchronous path did.
+     */
+    public void submit(String key, Path local, String contentType, boolean deleteAfter) {
+      ObjectStorageService storage =
+          objectStorage.orElseThrow(
+              () -> new IllegalStateException("Derivative upload requires object storage"));
+      pending.add(
+          uploadExecutor.submit(
+              () -> {
+                long start = System.nanoTime();
+                long bytes = Files.size(local);
+                storage.putFile(key, local, contentType);
+                recordStage(meterRegistry, "upload", start);
+                String slot = StoragePaths.accountingSlotOf(key);
+                if (slot != null) {
+                  recordStored(slot, bytes);
+                }
+                if (deleteAfter) {
+                  try {
+                    Files.deleteIfExists(local);
+                  } catch (IOException cleanup) {
+                    log.warn(
+                        "Could not delete derivative temp file {}: {}", local, cleanup.toString());
+                  }
+                }
+                return null;
+              }));
+    }
+
+    /**
+     * Count {@code bytes} as stored under accounting {@code slot}; sizes of one slot add up (the
+     * HLS rendition is many objects). Uploads record themselves once their PUT succeeds.
+     */
+    public void recordStored(String slot, long bytes) {
+      storedBytes.merge(slot, bytes, Long::sum);
+    }
+
+    /**
+     * Slot sizes of every successful PUT so far, for {@link StorageAccountingService#record} in the
+     * commit that makes the keys live. Complete only after {@link #await()}.
+     */
+    public Map<String, Long> storedBytes() {
+      return Map.copyOf(storedBytes);
+    }
+
+    /**
+     * Block until every queued PUT has finished. Rethrows the first failure, after waiting for the
+     * rest so nothing is still writing into the workdir when the caller wipes it.
+     */
+    public void await() {
+      long start = System.nanoTime();
+      Throwable first = null;
+      for (Future<?> future : pending) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (first == null) {
+            first = e.getCause();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          if (first == null) {
+            first = e;
+          }
+        }
+      }
+      pending.clear();
+      recordStage(meterRegistry, "upload_wait", start);
+      if (first != null) {
+        throw new StorageException("Derivative upload failed: " + first.getMessage(), first);
+      }
+    }
+
+    /** {@link #await()} for the {@code finally} path: failures were already reported. */
+    public void awaitQuietly() {
+      if (pending.isEmpty()) {
+        return;
+      }
+      try {
+        await();
+      } catch (StorageException e) {
+        log.debug("Ignoring derivative upload failure during cleanup: {}", e.getMessage());
+      }
+    }
+  }
+}
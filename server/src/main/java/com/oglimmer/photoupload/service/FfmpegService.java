@@ -1,23 +1,35 @@
 /* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
 package com.oglimmer.photoupload.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.entity.CaptureDateSource;
 import com.oglimmer.photoupload.entity.GpsSource;
 import com.oglimmer.photoupload.model.CaptureDate;
 import com.oglimmer.photoupload.model.GpsCoordinates;
+import com.oglimmer.photoupload.util.SpriteSheets;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
@@ -31,13 +43,78 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class FfmpegService {
 
+  static final String TRANSCODE_DECISIONS = "photoupload.worker.transcode.decisions";
+  static final String TRANSCODE_CPU_SECONDS = "photoupload.worker.transcode.cpu.seconds";
+  static final String TRANSCODE_CPU_SAVED_SECONDS =
+      "photoupload.worker.transcode.cpu.saved.seconds";
+
   private static final long TRANSCODE_TIMEOUT_MINUTES = 15;
+  // A stream copy is bounded by I/O, not by the encoder: minutes would mean something is wrong.
+  private static final long REMUX_TIMEOUT_MINUTES = 3;
+  // Every rung of the ladder is a full encode of the whole clip; long videos are the only input.
+  private static final long HLS_TIMEOUT_MINUTES = 45;
+  // Splitting and joining copy streams; bounded by disk I/O of the whole clip.
+  private static final long SPLIT_TIMEOUT_MINUTES = 10;
+  // One slice of a segmented transcode; the per-segment budget is what lifts the ceiling on length.
+  private static final long SEGMENT_TIMEOUT_MINUTES = 15;
   private static final long THUMBNAIL_TIMEOUT_SECONDS = 60;
+  // Keyframes only, scaled to a few pixels: a fraction of a decode, but still proportional to
+  // length.
+  private static final long SPRITE_TIMEOUT_MINUTES = 5;
+
+  /** Width of one scrub-preview tile; the height follows the display aspect ratio. */
+  static final int SPRITE_TILE_WIDTH = 160;
+
   private static final long PROBE_TIMEOUT_SECONDS = 30;
   private static final String TAG_CREATION_TIME = "creation_time";
   private static final String TAG_QUICKTIME_CREATIONDATE = "com.apple.quicktime.creationdate";
   private static final String TAG_QUICKTIME_LOCATION = "com.apple.quicktime.location.ISO6709";
   private static final String TAG_LOCATION = "location";
+  private static final ObjectMapper JSON = new ObjectMapper();
+
+  /** 8-bit 4:2:0 — what every browser's H.264 decoder takes. {@code yuvj} is full-range JPEG. */
+  private static final Set<String> WEB_PIXEL_FORMATS = Set.of("yuv420p", "yuvj420p");
+
+  /**
+   * Re-encode CPU per second of footage assumed until this worker has timed a real re-encode —
+   * roughly libx264 {@code -preset medium} on 1080p30. Only feeds the saved-CPU estimate.
+   */
+  private static final double DEFAULT_REENCODE_CPU_PER_MEDIA_SECOND = 2.0;
+
+  /** HLS segment length in seconds; keyframes are forced on this grid so rungs switch cleanly. */
+  private static final int HLS_SEGMENT_SECONDS = 6;
+
+  /** One rung of the HLS ladder: the frame's short side in pixels and the video bitrate. */
+  record HlsRung(int shortSide, int videoKbps) {
+    String name() {
+      return shortSide + "p";
+    }
+  }
+
+  /**
+   * Deliberately small: a phone on a weak link needs the bottom rung, a laptop the top one, and
+   * every extra rung is another full encode of a long clip on the worker.
+   */
+  static final List<HlsRung> HLS_LADDER =
+      List.of(new HlsRung(360, 800), new HlsRung(720, 2800), new HlsRung(1080, 5000));
+
+  /**
+   * Position line of ffmpeg's {@code -progress} key=value blocks. {@code out_time_ms} is in
+   * microseconds as well, despite its name — it predates {@code out_time_us} and is kept for older
+   * builds.
+   */
+  private static final java.util.regex.Pattern PROGRESS_OUT_TIME =
+      java.util.regex.Pattern.compile("^out_time_(?:us|ms)=(\\d+)$");
+
+  /** The other keys of a {@code -progress} block; consumed so they stay out of the captured log. */
+  private static final java.util.regex.Pattern PROGRESS_KEY =
+      java.util.regex.Pattern.compile(
+          "^(?:frame|fps|stream_\\d+_\\d+_q|bitrate|total_size|out_time|dup_frames|drop_frames"
+              + "|speed|progress)=.*$");
+
+  /** {@code -benchmark} summary line: {@code bench: utime=12.345s stime=0.456s rtime=4.321s}. */
+  private static final java.util.regex.Pattern BENCH =
+      java.util.regex.Pattern.compile("bench: utime=([0-9.]+)s stime=([0-9.]+)s");
 
   /**
    * The ISO 6709 form every phone actually writes into the QuickTime location atom: signed decimal
@@ -49,61 +126,649 @@ public class FfmpegService {
   private static final java.util.regex.Pattern ISO6709 =
       java.util.regex.Pattern.compile("^([+-]\\d{1,2}(?:\\.\\d+)?)([+-]\\d{1,3}(?:\\.\\d+)?)");
 
+  private final MeterRegistry meterRegistry;
+  private final JobProgress jobProgress;
+  private final ProcessRunner processRunner;
+  // Re-encode cost observed on this worker, for the saved-CPU estimate of the copy paths.
+  private final DoubleAdder reencodeCpuSeconds = new DoubleAdder();
+  private final DoubleAdder reencodeMediaSeconds = new DoubleAdder();
+
+  public FfmpegService(
+      MeterRegistry meterRegistry, JobProgress jobProgress, ProcessRunner processRunner) {
+    this.meterRegistry = meterRegistry;
+    this.jobProgress = jobProgress;
+    this.processRunner = processRunner;
+  }
+
+  /**
+   * How the web-playable MP4 derivative is produced from a given source, decided from one {@code
+   * ffprobe} of the source's streams.
+   */
+  public enum TranscodeDecision {
+    /** H.264 8-bit 4:2:0 with AAC or no audio — stream-copy both into a fast-start MP4. */
+    REMUX,
+    /** Video already web-compatible, audio is not (PCM, ALAC, AC-3, ...) — copy video only. */
+    COPY_VIDEO,
+    /** Anything else: HEVC, 10-bit/HDR, 4:2:2, VP9, MPEG-4 Part 2, or an unreadable probe. */
+    REENCODE;
+
+    String tag() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * Most SDR phone footage is already H.264 8-bit + AAC, and re-encoding it with libx264 costs
+   * minutes of worker CPU for no visible gain. Only the stream parameters a browser actually
+   * rejects force an encode; the container move from MOV to MP4 never does.
+   */
+  static TranscodeDecision decide(VideoProbe probe) {
+    if (!"h264".equals(probe.videoCodec())
+        || probe.pixelFormat() == null
+        || !WEB_PIXEL_FORMATS.contains(probe.pixelFormat())) {
+      return TranscodeDecision.REENCODE;
+    }
+    if (probe.audioCodec() == null || "aac".equals(probe.audioCodec())) {
+      return TranscodeDecision.REMUX;
+    }
+    return TranscodeDecision.COPY_VIDEO;
+  }
+
   public boolean transcodeVideo(Path originalFile, Path outputPath) {
+    return transcodeVideo(MediaInput.of(originalFile), outputPath);
+  }
+
+  public boolean transcodeVideo(MediaInput original, Path outputPath) {
+    return transcodeVideo(original, outputPath, probe(original));
+  }
+
+  /** Same, with the caller's probe of {@code original}, so a job runs ffprobe once. */
+  public boolean transcodeVideo(MediaInput original, Path outputPath, VideoProbe probe) {
     File outputFile = outputPath.toFile();
     outputFile.getParentFile().mkdirs();
 
-    List<String> cmd =
+    TranscodeDecision decision = decide(probe);
+    log.info(
+        "🎬 transcode decision for {}: {} (video={} {}, audio={})",
+        original,
+        decision,
+        probe.videoCodec(),
+        probe.pixelFormat(),
+        probe.audioCodec());
+
+    if (decision != TranscodeDecision.REENCODE) {
+      if (runTranscode(decision, original, outputPath, probe.durationMs())) {
+        return true;
+      }
+      // A copy can still trip over an odd container (edit lists, stray data tracks). The encode
+      // is always the safe answer, so fall back rather than leaving the asset without a derivative.
+      log.warn("Stream copy failed for {}, falling back to re-encode", original);
+    }
+    return runTranscode(TranscodeDecision.REENCODE, original, outputPath, probe.durationMs());
+  }
+
+  private boolean runTranscode(
+      TranscodeDecision decision, MediaInput original, Path outputPath, Long durationMs) {
+    List<String> cmd = transcodeCommand(decision, original, outputPath);
+    long timeoutMinutes =
+        decision == TranscodeDecision.REENCODE ? TRANSCODE_TIMEOUT_MINUTES : REMUX_TIMEOUT_MINUTES;
+    try {
+      log.debug("Transcoding video ({}): {} -> {}", decision, original, outputPath.getFileName());
+      ProcessRunner.Result r =
+          processRunner.run(cmd, timeoutMinutes, TimeUnit.MINUTES, progressSink(durationMs));
+      boolean success = r.success() && outputPath.toFile().exists();
+      meterRegistry
+          .counter(
+              TRANSCODE_DECISIONS,
+              "decision",
+              decision.tag(),
+              "result",
+              success ? "success" : "failure")
+          .increment();
+      if (success) {
+        recordCpu(decision, parseBenchmarkCpuSeconds(r.output()), durationMs);
+        log.info("Transcoded ({}) {} -> {}", decision, original, outputPath.getFileName());
+        return true;
+      }
+      log.error(
+          "ffmpeg transcode ({}) failed (exit {}, timedOut={}) for {}: {}",
+          decision,
+          r.exitCode(),
+          r.timedOut(),
+          original,
+          original.redact(r.output()));
+      return false;
+    } catch (IOException e) {
+      log.error("IO error during transcode for {}: {}", original, e.getMessage());
+      return false;
+    }
+  }
+
+  static List<String> transcodeCommand(
+      TranscodeDecision decision, Path originalFile, Path outputPath) {
+    return transcodeCommand(decision, MediaInput.of(originalFile), outputPath);
+  }
+
+  static List<String> transcodeCommand(
+      TranscodeDecision decision, MediaInput original, Path outputPath) {
+    String in = original.argument();
+    String out = outputPath.toAbsolutePath().toString();
+    return switch (decision) {
+      // Only the first video and audio stream: iPhone MOVs carry timecode and metadata tracks
+      // that the MP4 muxer refuses in copy mode. The display-matrix rotation is copied as is.
+      case REMUX ->
+          List.of(
+              "ffmpeg",
+              "-benchmark",
+              "-progress",
+              "pipe:1",
+              "-nostats",
+              "-i",
+              in,
+              "-map",
+              "0:v:0",
+              "-map",
+              "0:a:0?",
+              "-c",
+              "copy",
+              "-movflags",
+              "+faststart",
+              "-y",
+              out);
+      case COPY_VIDEO ->
+          List.of(
+              "ffmpeg",
+              "-benchmark",
+              "-progress",
+              "pipe:1",
+              "-nostats",
+              "-i",
+              in,
+              "-map",
+              "0:v:0",
+              "-map",
+              "0:a:0?",
+              "-c:v",
+              "copy",
+              "-c:a",
+              "aac",
+              "-b:a",
+              "128k",
+              "-movflags",
+              "+faststart",
+              "-y",
+              out);
+      case REENCODE ->
+          List.of(
+              "ffmpeg",
+              "-benchmark",
+              "-progress",
+              "pipe:1",
+              "-nostats",
+              "-i",
+              in,
+              "-c:v",
+              "libx264",
+              "-profile:v",
+              "main",
+              "-level",
+              "4.0",
+              // Force 8-bit output. iPhone HDR/Dolby Vision clips are 10-bit HEVC, and without
+              // this ffmpeg picks a matching 10-bit pixel format (yuv420p10le) for the encoder —
+              // which x264's `main` profile cannot represent, so the encode dies with
+              // "main profile doesn't support a bit depth of 10" and the asset ends up with no
+              // web-playable derivative. The failure is silent: the job still completes DONE.
+              "-pix_fmt",
+              "yuv420p",
+              "-preset",
+              "medium",
+              "-c:a",
+              "aac",
+              "-b:a",
+              "128k",
+              "-movflags",
+              "+faststart",
+              "-y",
+              out);
+    };
+  }
+
+  /**
+   * Records what the run cost and, for the copy paths, what the skipped re-encode would have cost:
+   * the re-encode CPU per second of footage seen on this worker so far (or a 1080p default before
+   * the first one) times the clip's duration, less the copy's own CPU.
+   */
+  private void recordCpu(TranscodeDecision decision, Double cpuSeconds, Long durationMs) {
+    if (cpuSeconds == null) {
+      return;
+    }
+    meterRegistry.summary(TRANSCODE_CPU_SECONDS, "decision", decision.tag()).record(cpuSeconds);
+    if (durationMs == null || durationMs <= 0) {
+      return;
+    }
+    double mediaSeconds = durationMs / 1000.0;
+    if (decision == TranscodeDecision.REENCODE) {
+      reencodeCpuSeconds.add(cpuSeconds);
+      reencodeMediaSeconds.add(mediaSeconds);
+      return;
+    }
+    double observedMedia = reencodeMediaSeconds.sum();
+    double cpuPerMediaSecond =
+        observedMedia > 0
+            ? reencodeCpuSeconds.sum() / observedMedia
+            : DEFAULT_REENCODE_CPU_PER_MEDIA_SECOND;
+    double saved = cpuPerMediaSecond * mediaSeconds - cpuSeconds;
+    if (saved > 0) {
+      meterRegistry
+          .counter(TRANSCODE_CPU_SAVED_SECONDS, "decision", decision.tag())
+          .increment(saved);
+    }
+  }
+
+  /**
+   * Line consumer for {@link ProcessRunner}: turns the {@code -progress} blocks on stdout into
+   * {@link JobProgress} reports and keeps them out of the captured output. Without a known duration
+   * the blocks are still swallowed, there is just nothing to report.
+   */
+  private java.util.function.Predicate<String> progressSink(Long durationMs) {
+    return line -> {
+      Integer percent = parseProgressPercent(line, durationMs);
+      if (percent != null) {
+        jobProgress.report(percent);
+        return true;
+      }
+      return PROGRESS_KEY.matcher(line).matches() || PROGRESS_OUT_TIME.matcher(line).matches();
+    };
+  }
+
+  /**
+   * Percent done from one {@code -progress} line, or null if the line is not a position line or the
+   * duration is unknown. Capped at 99: the last 1% is the muxer's fast-start rewrite, and 100 is
+   * for the job, not for one line of output.
+   */
+  static Integer parseProgressPercent(String line, Long durationMs) {
+    if (line == null || durationMs == null || durationMs <= 0) {
+      return null;
+    }
+    java.util.regex.Matcher m = PROGRESS_OUT_TIME.matcher(line);
+    if (!m.matches()) {
+      return null;
+    }
+    long outTimeUs;
+    try {
+      outTimeUs = Long.parseLong(m.group(1));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    long percent = outTimeUs / 10 / durationMs;
+    return (int) Math.min(99, Math.max(0, percent));
+  }
+
+  /** User + system CPU seconds from ffmpeg's {@code -benchmark} line, or null if absent. */
+  static Double parseBenchmarkCpuSeconds(String output) {
+    if (output == null) {
+      return null;
+    }
+    java.util.regex.Matcher m = BENCH.matcher(output);
+    Double cpu = null;
+    // Last match wins: ffmpeg prints one summary per run, at the end.
+    while (m.find()) {
+      cpu = Double.parseDouble(m.group(1)) + Double.parseDouble(m.group(2));
+    }
+    return cpu;
+  }
+
+  /**
+   * Writes an adaptive-bitrate HLS rendition of {@code input} into {@code outputDir}: {@code
+   * master.m3u8} plus one directory per rung with an fMP4 init segment, {@code
+   * HLS_SEGMENT_SECONDS}-second media segments and a VOD playlist. All references inside the
+   * playlists are relative, so the directory can be uploaded as is. {@code probe} is the input's
+   * probe; rungs larger than the source are skipped.
+   */
+  public boolean generateHls(Path input, Path outputDir, VideoProbe probe) {
+    List<String> cmd = hlsCommand(input, outputDir, probe);
+    try {
+      Files.createDirectories(outputDir);
+      log.debug("Writing HLS for {} into {}", input.getFileName(), outputDir);
+      ProcessRunner.Result r =
+          processRunner.run(
+              cmd, HLS_TIMEOUT_MINUTES, TimeUnit.MINUTES, progressSink(probe.durationMs()));
+      boolean success = r.success() && Files.exists(outputDir.resolve("master.m3u8"));
+      meterRegistry
+          .counter(
+              TRANSCODE_DECISIONS, "decision", "hls", "result", success ? "success" : "failure")
+          .increment();
+      if (success) {
+        Double cpu = parseBenchmarkCpuSeconds(r.output());
+        if (cpu != null) {
+          meterRegistry.summary(TRANSCODE_CPU_SECONDS, "decision", "hls").record(cpu);
+        }
+        log.info("Wrote HLS ladder for {}", input.getFileName());
+        return true;
+      }
+      log.error(
+          "ffmpeg HLS failed (exit {}, timedOut={}) for {}: {}",
+          r.exitCode(),
+          r.timedOut(),
+          input.getFileName(),
+          r.output());
+      return false;
+    } catch (IOException e) {
+      log.error("IO error writing HLS for {}: {}", input, e.getMessage());
+      return false;
+    }
+  }
+
+  static List<HlsRung> hlsLadderFor(VideoProbe probe) {
+    if (probe.width() == null || probe.height() == null) {
+      return List.of(HLS_LADDER.get(0));
+    }
+    int shortSide = Math.min(probe.width(), probe.height());
+    List<HlsRung> rungs = HLS_LADDER.stream().filter(r -> r.shortSide() <= shortSide).toList();
+    // Below 360p there is nothing to adapt; a single bottom rung still gives the player HLS.
+    return rungs.isEmpty() ? List.of(HLS_LADDER.get(0)) : rungs;
+  }
+
+  static List<String> hlsCommand(Path input, Path outputDir, VideoProbe probe) {
+    List<HlsRung> rungs = hlsLadderFor(probe);
+    boolean portrait =
+        probe.width() != null && probe.height() != null && probe.height() > probe.width();
+    boolean audio = probe.audioCodec() != null;
+    String out = outputDir.toAbsolutePath().toString();
+
+    // One decode, split once per rung. Frames arrive display-rotated (ffmpeg autorotates), so the
+    // short side is height for landscape and width for portrait.
+    StringBuilder graph = new StringBuilder("[0:v]split=" + rungs.size());
+    for (int i = 0; i < rungs.size(); i++) {
+      graph.append("[s").append(i).append(']');
+    }
+    StringBuilder varStreamMap = new StringBuilder();
+    for (int i = 0; i < rungs.size(); i++) {
+      int side = rungs.get(i).shortSide();
+      graph
+          .append(";[s")
+          .append(i)
+          .append("]scale=")
+          .append(portrait ? side + ":-2" : "-2:" + side)
+          .append("[v")
+          .append(i)
+          .append(']');
+      if (i > 0) {
+        varStreamMap.append(' ');
+      }
+      varStreamMap.append("v:").append(i);
+      if (audio) {
+        varStreamMap.append(",a:").append(i);
+      }
+      varStreamMap.append(",name:").append(rungs.get(i).name());
+    }
+
+    List<String> cmd = new ArrayList<>();
+    cmd.addAll(
         List.of(
             "ffmpeg",
+            "-benchmark",
+            "-progress",
+            "pipe:1",
+            "-nostats",
             "-i",
-            originalFile.toAbsolutePath().toString(),
+            input.toAbsolutePath().toString(),
+            "-filter_complex",
+            graph.toString()));
+    for (int i = 0; i < rungs.size(); i++) {
+      cmd.addAll(List.of("-map", "[v" + i + "]"));
+      if (audio) {
+        cmd.addAll(List.of("-map", "0:a:0"));
+      }
+    }
+    cmd.addAll(
+        List.of(
             "-c:v",
             "libx264",
+            "-preset",
+            "veryfast",
             "-profile:v",
             "main",
-            "-level",
-            "4.0",
-            // Force 8-bit output. iPhone HDR/Dolby Vision clips are 10-bit HEVC, and without
-            // this ffmpeg picks a matching 10-bit pixel format (yuv420p10le) for the encoder —
-            // which x264's `main` profile cannot represent, so the encode dies with
-            // "main profile doesn't support a bit depth of 10" and the asset ends up with no
-            // web-playable derivative. The failure is silent: the job still completes DONE.
             "-pix_fmt",
             "yuv420p",
-            "-preset",
-            "medium",
-            "-c:a",
-            "aac",
-            "-b:a",
-            "128k",
-            "-movflags",
-            "+faststart",
+            "-force_key_frames",
+            "expr:gte(t,n_forced*" + HLS_SEGMENT_SECONDS + ")",
+            "-sc_threshold",
+            "0"));
+    for (int i = 0; i < rungs.size(); i++) {
+      int kbps = rungs.get(i).videoKbps();
+      cmd.addAll(
+          List.of(
+              "-b:v:" + i,
+              kbps + "k",
+              "-maxrate:v:" + i,
+              (kbps * 107 / 100) + "k",
+              "-bufsize:v:" + i,
+              (kbps * 3 / 2) + "k"));
+    }
+    if (audio) {
+      cmd.addAll(List.of("-c:a", "aac", "-b:a", "128k", "-ac", "2"));
+    }
+    cmd.addAll(
+        List.of(
+            "-f",
+            "hls",
+            "-hls_time",
+            String.valueOf(HLS_SEGMENT_SECONDS),
+            "-hls_playlist_type",
+            "vod",
+            "-hls_segment_type",
+            "fmp4",
+            "-hls_fmp4_init_filename",
+            "init.mp4",
+            "-hls_segment_filename",
+            out + "/%v/seg_%05d.m4s",
+            "-master_pl_name",
+            "master.m3u8",
+            "-var_stream_map",
+            varStreamMap.toString(),
             "-y",
-            outputPath.toAbsolutePath().toString());
+            out + "/%v/index.m3u8"));
+    return cmd;
+  }
+
+  /**
+   * Cuts the first video stream of {@code input} into {@code src_NNNNN.mp4} slices of about {@code
+   * segmentSeconds} each, in {@code outputDir}, without re-encoding. With stream copy the segment
+   * muxer can only cut on keyframes, so every slice starts with one and encodes on its own. Audio
+   * is left out on purpose: per-slice AAC would put a priming gap at every boundary, so the join
+   * encodes the original's audio once instead.
+   *
+   * @return the slices in order, or an empty list if the split failed
+   */
+  public List<Path> splitAtKeyframes(Path input, Path outputDir, int segmentSeconds) {
+    return splitAtKeyframes(MediaInput.of(input), outputDir, segmentSeconds);
+  }
 
+  public List<Path> splitAtKeyframes(MediaInput input, Path outputDir, int segmentSeconds) {
+    List<String> cmd = splitCommand(input, outputDir, segmentSeconds);
     try {
-      log.debug(
-          "Transcoding video: {} -> {}", originalFile.getFileName(), outputPath.getFileName());
-      ProcessRunner.Result r = ProcessRunner.run(cmd, TRANSCODE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
-      if (r.success() && outputFile.exists()) {
-        log.info("Transcoded {} -> {}", originalFile.getFileName(), outputPath.getFileName());
+      Files.createDirectories(outputDir);
+      ProcessRunner.Result r = processRunner.run(cmd, SPLIT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+      if (!r.success()) {
+        log.error(
+            "ffmpeg split failed (exit {}, timedOut={}) for {}: {}",
+            r.exitCode(),
+            r.timedOut(),
+            input,
+            input.redact(r.output()));
+        return List.of();
+      }
+      try (Stream<Path> files = Files.list(outputDir)) {
+        return files.filter(f -> f.getFileName().toString().startsWith("src_")).sorted().toList();
+      }
+    } catch (IOException e) {
+      log.error("IO error splitting {}: {}", input, e.getMessage());
+      return List.of();
+    }
+  }
+
+  static List<String> splitCommand(Path input, Path outputDir, int segmentSeconds) {
+    return splitCommand(MediaInput.of(input), outputDir, segmentSeconds);
+  }
+
+  static List<String> splitCommand(MediaInput input, Path outputDir, int segmentSeconds) {
+    return List.of(
+        "ffmpeg",
+        "-i",
+        input.argument(),
+        "-map",
+        "0:v:0",
+        "-c",
+        "copy",
+        "-f",
+        "segment",
+        "-segment_time",
+        String.valueOf(segmentSeconds),
+        "-reset_timestamps",
+        "1",
+        "-y",
+        outputDir.toAbsolutePath() + "/src_%05d.mp4");
+  }
+
+  /**
+   * Encodes one slice written by {@link #splitAtKeyframes} with exactly the video settings of the
+   * single-piece {@link TranscodeDecision#REENCODE}, so the slices concatenate without a re-encode.
+   * {@code durationMs} only scales progress reports; the split length is close enough, so the slice
+   * is not probed.
+   */
+  public boolean transcodeSegment(Path segment, Path outputPath, Long durationMs) {
+    List<String> cmd = segmentCommand(segment, outputPath);
+    try {
+      ProcessRunner.Result r =
+          processRunner.run(
+              cmd, SEGMENT_TIMEOUT_MINUTES, TimeUnit.MINUTES, progressSink(durationMs));
+      boolean success = r.success() && Files.exists(outputPath);
+      meterRegistry
+          .counter(
+              TRANSCODE_DECISIONS, "decision", "segment", "result", success ? "success" : "failure")
+          .increment();
+      if (success) {
+        Double cpu = parseBenchmarkCpuSeconds(r.output());
+        if (cpu != null) {
+          meterRegistry.summary(TRANSCODE_CPU_SECONDS, "decision", "segment").record(cpu);
+        }
         return true;
       }
       log.error(
-          "ffmpeg transcode failed (exit {}, timedOut={}) for {}: {}",
+          "ffmpeg segment encode failed (exit {}, timedOut={}) for {}: {}",
           r.exitCode(),
           r.timedOut(),
-          originalFile.getFileName(),
+          segment.getFileName(),
           r.output());
       return false;
     } catch (IOException e) {
-      log.error("IO error during transcode for {}: {}", originalFile, e.getMessage());
+      log.error("IO error encoding segment {}: {}", segment, e.getMessage());
+      return false;
+    }
+  }
+
+  static List<String> segmentCommand(Path segment, Path outputPath) {
+    return List.of(
+        "ffmpeg",
+        "-benchmark",
+        "-progress",
+        "pipe:1",
+        "-nostats",
+        "-i",
+        segment.toAbsolutePath().toString(),
+        "-map",
+        "0:v:0",
+        "-c:v",
+        "libx264",
+        "-profile:v",
+        "main",
+        "-level",
+        "4.0",
+        "-pix_fmt",
+        "yuv420p",
+        "-preset",
+        "medium",
+        "-an",
+        "-y",
+        outputPath.toAbsolutePath().toString());
+  }
+
+  /**
+   * Concatenates encoded slices (in list order) into a fast-start MP4 and muxes in the first audio
+   * stream of {@code audioSource}, encoded to AAC once. A null {@code audioSource} — the original
+   * is gone — yields a silent video rather than none at all.
+   */
+  public boolean joinSegments(List<Path> segments, MediaInput audioSource, Path outputPath) {
+    Path list = outputPath.resolveSibling(outputPath.getFileName() + ".concat.txt");
+    try {
+      StringBuilder entries = new StringBuilder();
+      for (Path segment : segments) {
+        entries.append("file '").append(segment.toAbsolutePath()).append("'\n");
+      }
+      Files.writeString(list, entries.toString());
+      ProcessRunner.Result r =
+          processRunner.run(
+              joinCommand(list, audioSource, outputPath), SPLIT_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+      boolean success = r.success() && Files.exists(outputPath);
+      meterRegistry
+          .counter(
+              TRANSCODE_DECISIONS, "decision", "join", "result", success ? "success" : "failure")
+          .increment();
+      if (!success) {
+        log.error(
+            "ffmpeg join failed (exit {}, timedOut={}) for {}: {}",
+            r.exitCode(),
+            r.timedOut(),
+            outputPath.getFileName(),
+            audioSource == null ? r.output() : audioSource.redact(r.output()));
+      }
+      return success;
+    } catch (IOException e) {
+      log.error("IO error joining segments into {}: {}", outputPath, e.getMessage());
       return false;
+    } finally {
+      try {
+        Files.deleteIfExists(list);
+      } catch (IOException ignored) {
+        // Lives in the job's scratch dir, which is wiped anyway.
+      }
+    }
+  }
+
+  static List<String> joinCommand(Path concatList, MediaInput audioSource, Path outputPath) {
+    List<String> cmd = new ArrayList<>();
+    cmd.addAll(
+        List.of(
+            "ffmpeg", "-f", "concat", "-safe", "0", "-i", concatList.toAbsolutePath().toString()));
+    if (audioSource != null) {
+      cmd.addAll(List.of("-i", audioSource.argument()));
     }
+    cmd.addAll(List.of("-map", "0:v:0"));
+    if (audioSource != null) {
+      cmd.addAll(List.of("-map", "1:a:0?", "-c:a", "aac", "-b:a", "128k"));
+    }
+    cmd.addAll(
+        List.of(
+            "-c:v",
+            "copy",
+            "-movflags",
+            "+faststart",
+            "-y",
+            outputPath.toAbsolutePath().toString()));
+    return cmd;
   }
 
   public boolean generateVideoThumbnail(Path videoFile, Path outputPath) {
+    return generateVideoThumbnail(videoFile, outputPath, 1);
+  }
+
+  /** The poster frame: the frame at {@code seekSeconds}, 600 pixels wide. */
+  public boolean generateVideoThumbnail(Path videoFile, Path outputPath, double seekSeconds) {
+    return generateVideoThumbnail(MediaInput.of(videoFile), outputPath, seekSeconds);
+  }
+
+  public boolean generateVideoThumbnail(MediaInput video, Path outputPath, double seekSeconds) {
     File outputFile = outputPath.toFile();
     outputFile.getParentFile().mkdirs();
 
@@ -111,9 +776,9 @@ public class FfmpegService {
         List.of(
             "ffmpeg",
             "-ss",
-            "1",
+            String.format(Locale.ROOT, "%.3f", seekSeconds),
             "-i",
-            videoFile.toAbsolutePath().toString(),
+            video.argument(),
             "-vframes",
             "1",
             "-vf",
@@ -124,138 +789,277 @@ public class FfmpegService {
             outputPath.toAbsolutePath().toString());
 
     try {
-      ProcessRunner.Result r = ProcessRunner.run(cmd, THUMBNAIL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      ProcessRunner.Result r = processRunner.run(cmd, THUMBNAIL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
       if (r.success() && outputFile.exists()) {
-        log.info("Generated video thumbnail: {}", videoFile.getFileName());
+        log.info("Generated video thumbnail: {}", video);
         return true;
       }
       log.error(
           "Video thumbnail failed (exit {}, timedOut={}) for {}: {}",
           r.exitCode(),
           r.timedOut(),
-          videoFile.getFileName(),
-          r.output());
+          video,
+          video.redact(r.output()));
       return false;
     } catch (IOException e) {
-      log.error("IO error generating video thumbnail for {}: {}", videoFile, e.getMessage());
+      log.error("IO error generating video thumbnail for {}: {}", video, e.getMessage());
       return false;
     }
   }
 
+  /** A written scrub-preview sprite, its WebVTT track and the offset of the best poster frame. */
+  public record Sprite(Path image, Path track, double posterSeconds) {}
+
   /**
-   * Reads the capture time of a video as a true instant.
-   *
-   * <p>Probes <em>all</em> format tags rather than naming one: an iPhone .MOV carries both {@code
-   * com.apple.quicktime.creationdate} (local time with an explicit offset) and {@code
-   * creation_time} (the mvhd atom, which ffmpeg emits already normalised to UTC). The Apple tag is
-   * preferred — it is the value the Photos app shows — but both resolve to the same instant, so the
-   * mvhd fallback is equally usable for sorting.
+   * Writes the scrub-preview sprite of {@code videoFile} as {@code imagePath}: up to {@code
+   * maxFrames} evenly spaced frames, {@value #SPRITE_TILE_WIDTH} pixels wide, tiled into a single
+   * JPEG by one ffmpeg pass that decodes keyframes only. The matching thumbnails track goes next to
+   * it as {@code trackPath}, its cues pointing at {@code spriteName}. Tiles are scored while the
+   * sprite is still on disk, so the poster can be taken from the best frame instead of second 1.
+   * Returns null when the duration is unknown or ffmpeg fails; the caller falls back to the old
+   * poster.
    */
-  public CaptureDate extractVideoCreationDate(Path videoFile) {
-    List<String> cmd =
-        List.of(
-            "ffprobe",
-            "-v",
-            "quiet",
-            "-show_entries",
-            "format_tags",
-            "-of",
-            "default=noprint_wrappers=1",
-            videoFile.toAbsolutePath().toString());
+  public Sprite generateSprite(
+      Path videoFile,
+      Path imagePath,
+      Path trackPath,
+      String spriteName,
+      Long durationMs,
+      int maxFrames) {
+    return generateSprite(
+        MediaInput.of(videoFile), imagePath, trackPath, spriteName, durationMs, maxFrames);
+  }
 
+  public Sprite generateSprite(
+      MediaInput video,
+      Path imagePath,
+      Path trackPath,
+      String spriteName,
+      Long durationMs,
+      int maxFrames) {
+    SpriteSheets.Layout layout = SpriteSheets.layoutFor(durationMs, maxFrames);
+    if (layout == null) {
+      return null;
+    }
     try {
-      ProcessRunner.Result r = ProcessRunner.run(cmd, PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-      if (!r.success()) {
-        log.debug("ffprobe returned no format tags for {}", videoFile.getFileName());
-        return CaptureDate.none();
+      Files.createDirectories(imagePath.toAbsolutePath().getParent());
+      ProcessRunner.Result r =
+          processRunner.run(
+              spriteCommand(video, imagePath, layout), SPRITE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+      BufferedImage sprite = r.success() ? ImageIO.read(imagePath.toFile()) : null;
+      if (sprite == null) {
+        log.error(
+            "Sprite failed (exit {}, timedOut={}) for {}: {}",
+            r.exitCode(),
+            r.timedOut(),
+            video,
+            video.redact(r.output()));
+        Files.deleteIfExists(imagePath);
+        return null;
       }
-      Map<String, String> tags = parseFormatTags(r.output());
+      int tileWidth = sprite.getWidth() / layout.columns();
+      int tileHeight = sprite.getHeight() / layout.rows();
+      int best = SpriteSheets.bestTile(sprite, layout, tileWidth, tileHeight);
+      Files.writeString(trackPath, SpriteSheets.webVtt(layout, spriteName, tileWidth, tileHeight));
+      log.info(
+          "Generated {}-frame sprite for {}, poster from frame {}", layout.count(), video, best);
+      // Middle of the tile's interval: the keyframe the tile shows sits somewhere inside it.
+      return new Sprite(
+          imagePath, trackPath, layout.secondsOf(best) + layout.intervalSeconds() / 2);
+    } catch (IOException e) {
+      log.error("IO error generating sprite for {}: {}", video, e.getMessage());
+      return null;
+    }
+  }
+
+  static List<String> spriteCommand(Path input, Path output, SpriteSheets.Layout layout) {
+    return spriteCommand(MediaInput.of(input), output, layout);
+  }
+
+  static List<String> spriteCommand(MediaInput input, Path output, SpriteSheets.Layout layout) {
+    return List.of(
+        "ffmpeg",
+        "-skip_frame",
+        "nokey",
+        "-i",
+        input.argument(),
+        "-an",
+        "-sn",
+        "-vf",
+        String.format(
+            Locale.ROOT,
+            "fps=1/%.3f,scale=%d:-2,tile=%dx%d",
+            layout.intervalSeconds(),
+            SPRITE_TILE_WIDTH,
+            layout.columns(),
+            layout.rows()),
+        "-frames:v",
+        "1",
+        "-q:v",
+        "4",
+        "-y",
+        output.toAbsolutePath().toString());
+  }
+
+  /**
+   * Everything the pipeline reads from a video container, from one {@code ffprobe} run: the format
+   * tags (capture time, location), the first video stream's display dimensions and the duration.
+   * Dimensions are already swapped for a ±90° display rotation, so they describe the frame as it is
+   * shown — the same convention the image path uses for EXIF orientation. The codec names and pixel
+   * format of the first video and audio stream drive {@link #decide}.
+   */
+  public record VideoProbe(
+      Map<String, String> tags,
+      Integer width,
+      Integer height,
+      Long durationMs,
+      String videoCodec,
+      String pixelFormat,
+      String audioCodec) {
 
+    static final VideoProbe EMPTY = new VideoProbe(Map.of(), null, null, null, null, null, null);
+
+    /**
+     * The capture time as a true instant. {@code com.apple.quicktime.creationdate} (local time with
+     * an explicit offset) is preferred — it is the value the Photos app shows — with the mvhd
+     * {@code creation_time}, which ffmpeg emits already normalised to UTC, as the fallback. Both
+     * resolve to the same instant, so the fallback is equally usable for sorting.
+     */
+    public CaptureDate captureDate() {
       CaptureDate quicktime =
           CaptureDate.of(
               parseTimestamp(tags.get(TAG_QUICKTIME_CREATIONDATE)),
               CaptureDateSource.QUICKTIME_LOCAL,
               parseOffsetSeconds(tags.get(TAG_QUICKTIME_CREATIONDATE)));
       if (quicktime.isPresent()) {
-        log.info(
-            "🎬 {} = {} → {} for {}",
-            TAG_QUICKTIME_CREATIONDATE,
-            tags.get(TAG_QUICKTIME_CREATIONDATE),
-            quicktime.instant(),
-            videoFile.getFileName());
         return quicktime;
       }
-
       // No offset: mvhd is UTC by definition and the container keeps no local clock, so there is
       // nothing to recover. Consumers fall back rather than being told a wrong offset.
-      CaptureDate mvhd =
-          CaptureDate.of(parseTimestamp(tags.get(TAG_CREATION_TIME)), CaptureDateSource.MVHD_UTC);
-      if (mvhd.isPresent()) {
-        log.info(
-            "🎬 creation_time = {} → {} for {}",
-            tags.get(TAG_CREATION_TIME),
-            mvhd.instant(),
-            videoFile.getFileName());
-        return mvhd;
+      return CaptureDate.of(
+          parseTimestamp(tags.get(TAG_CREATION_TIME)), CaptureDateSource.MVHD_UTC);
+    }
+
+    /**
+     * Where the video was shot. Apple writes {@code com.apple.quicktime.location.ISO6709}; Android
+     * and most other writers use the plain {@code location} tag in the same format, so both are
+     * tried.
+     */
+    public GpsCoordinates location() {
+      String raw = tags.get(TAG_QUICKTIME_LOCATION);
+      if (raw == null || raw.isBlank()) {
+        raw = tags.get(TAG_LOCATION);
       }
-      log.debug("No usable creation timestamp in video: {}", videoFile.getFileName());
-      return CaptureDate.none();
-    } catch (IOException e) {
-      log.debug(
-          "Could not read video metadata from {}: {}", videoFile.getFileName(), e.getMessage());
-      return CaptureDate.none();
+      return parseIso6709(raw);
     }
   }
 
   /**
-   * Reads where a video was shot from its container tags.
-   *
-   * <p>Apple writes {@code com.apple.quicktime.location.ISO6709}; Android and most other writers
-   * use the plain {@code location} tag in the same format, so both are tried. One ffprobe call,
-   * same {@code format_tags} section the capture-date probe reads — kept separate rather than
-   * merged so a location failure can never cost us a capture date.
-   *
-   * @return the coordinates, or {@link GpsCoordinates#none()} if the container carries no usable
-   *     location
+   * Probes a video once with JSON output. Replaces the two {@code format_tags} probes the capture
+   * date and the location used to run separately, and additionally yields dimensions and duration,
+   * which processing never recorded before. A failed probe yields an empty result, never an
+   * exception — metadata is best-effort and must not fail the job.
    */
-  public GpsCoordinates extractVideoLocation(Path videoFile) {
+  public VideoProbe probe(Path videoFile) {
+    return probe(MediaInput.of(videoFile));
+  }
+
+  public VideoProbe probe(MediaInput video) {
     List<String> cmd =
         List.of(
             "ffprobe",
             "-v",
             "quiet",
-            "-show_entries",
-            "format_tags",
-            "-of",
-            "default=noprint_wrappers=1",
-            videoFile.toAbsolutePath().toString());
-
+            "-print_format",
+            "json",
+            "-show_format",
+            "-show_streams",
+            video.argument());
     try {
-      ProcessRunner.Result r = ProcessRunner.run(cmd, PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      ProcessRunner.Result r = processRunner.run(cmd, PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
       if (!r.success()) {
-        log.debug("ffprobe returned no format tags for {}", videoFile.getFileName());
-        return GpsCoordinates.none();
+        log.debug("ffprobe failed for {}", video);
+        return VideoProbe.EMPTY;
       }
-      Map<String, String> tags = parseFormatTags(r.output());
-      String raw = tags.get(TAG_QUICKTIME_LOCATION);
-      if (raw == null || raw.isBlank()) {
-        raw = tags.get(TAG_LOCATION);
+      VideoProbe probe = parseProbeJson(r.output());
+      log.info(
+          "🎬 probed {}: {}x{}, {} ms, creation={}, location={}",
+          video,
+          probe.width(),
+          probe.height(),
+          probe.durationMs(),
+          probe.captureDate().instant(),
+          probe.location().isPresent());
+      return probe;
+    } catch (IOException e) {
+      log.debug("Could not probe video {}: {}", video, e.getMessage());
+      return VideoProbe.EMPTY;
+    }
+  }
+
+  /**
+   * Parses {@code ffprobe -print_format json -show_format -show_streams}. Width, height, codec and
+   * pixel format come from the first video stream (cover art excluded), the audio codec from the
+   * first audio stream; the video stream's rotation is read from the display-matrix side data
+   * (ffmpeg ≥ 5) or the legacy {@code rotate} stream tag. Unparseable JSON yields an empty probe.
+   */
+  static VideoProbe parseProbeJson(String json) {
+    JsonNode root;
+    try {
+      root = JSON.readTree(json);
+    } catch (IOException e) {
+      log.debug("Unparseable ffprobe JSON: {}", e.getMessage());
+      return VideoProbe.EMPTY;
+    }
+    Map<String, String> tags = new LinkedHashMap<>();
+    JsonNode format = root.path("format");
+    format.path("tags").properties().forEach(e -> tags.put(e.getKey(), e.getValue().asText()));
+
+    Long durationMs = null;
+    String duration = format.path("duration").asText(null);
+    if (duration != null) {
+      try {
+        durationMs = Math.round(Double.parseDouble(duration) * 1000);
+      } catch (NumberFormatException ignored) {
+        // "N/A" for streams without a known length.
       }
-      GpsCoordinates coordinates = parseIso6709(raw);
-      if (coordinates.isPresent()) {
-        log.info(
-            "🌍 video location '{}' → {}/{} for {}",
-            raw,
-            coordinates.latitude(),
-            coordinates.longitude(),
-            videoFile.getFileName());
+    }
+
+    String audioCodec = null;
+    for (JsonNode stream : root.path("streams")) {
+      if ("audio".equals(stream.path("codec_type").asText())) {
+        audioCodec = stream.path("codec_name").asText(null);
+        break;
       }
-      return coordinates;
-    } catch (IOException e) {
-      log.debug(
-          "Could not read video location from {}: {}", videoFile.getFileName(), e.getMessage());
-      return GpsCoordinates.none();
     }
+
+    Integer width = null;
+    Integer height = null;
+    String videoCodec = null;
+    String pixelFormat = null;
+    for (JsonNode stream : root.path("streams")) {
+      if (!"video".equals(stream.path("codec_type").asText())
+          || stream.path("disposition").path("attached_pic").asInt() == 1) {
+        continue;
+      }
+      videoCodec = stream.path("codec_name").asText(null);
+      pixelFormat = stream.path("pix_fmt").asText(null);
+      width = stream.hasNonNull("width") ? stream.get("width").asInt() : null;
+      height = stream.hasNonNull("height") ? stream.get("height").asInt() : null;
+      int rotation = stream.path("tags").path("rotate").asInt(0);
+      for (JsonNode sideData : stream.path("side_data_list")) {
+        if (sideData.has("rotation")) {
+          rotation = sideData.get("rotation").asInt();
+        }
+      }
+      if (Math.abs(rotation) % 180 == 90) {
+        Integer swap = width;
+        width = height;
+        height = swap;
+      }
+      break;
+    }
+    return new VideoProbe(tags, width, height, durationMs, videoCodec, pixelFormat, audioCodec);
   }
 
   /**
@@ -284,28 +1088,8 @@ public class FfmpegService {
   }
 
   /**
-   * Turns ffprobe's {@code default=noprint_wrappers=1} output into a tag map. Each line is {@code
-   * TAG:key=value}; anything else (blank lines, a stray section wrapper) is skipped.
-   */
-  static Map<String, String> parseFormatTags(String output) {
-    Map<String, String> tags = new LinkedHashMap<>();
-    for (String line : output.split("\\R")) {
-      String trimmed = line.trim();
-      if (!trimmed.startsWith("TAG:")) {
-        continue;
-      }
-      int eq = trimmed.indexOf('=');
-      if (eq < 0) {
-        continue;
-      }
-      tags.put(trimmed.substring("TAG:".length(), eq), trimmed.substring(eq + 1).trim());
-    }
-    return tags;
-  }
-
-  /**
-   * The UTC offset carried by an ffprobe timestamp, in seconds, or null when the value has none
-   * (or does not parse). Apple's {@code creationdate} is a local wall clock plus offset, e.g.
+   * The UTC offset carried by an ffprobe timestamp, in seconds, or null when the value has none (or
+   * does not parse). Apple's {@code creationdate} is a local wall clock plus offset, e.g.
    * "2026-05-04T19:12:33-0400"; that offset is what puts the video on the right calendar day.
    */
   static Integer parseOffsetSeconds(String raw) {
@@ -2,24 +2,43 @@
 package com.oglimmer.photoupload.service;
 
 import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.JobsProperties;
 import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.JobType;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
 import com.oglimmer.photoupload.exception.StorageException;
 import com.oglimmer.photoupload.model.CaptureDate;
 import com.oglimmer.photoupload.model.GpsCoordinates;
+import com.oglimmer.photoupload.model.MediaMetadata;
 import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.storage.DerivativeFormat;
 import com.oglimmer.photoupload.storage.StoragePaths;
+import com.oglimmer.photoupload.util.HlsPlaylists;
 import com.oglimmer.photoupload.util.MimeTypePredicates;
+import com.oglimmer.photoupload.util.PerceptualHash;
+import com.oglimmer.photoupload.util.Sha256;
+import com.oglimmer.photoupload.util.SpriteSheets;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
@@ -34,19 +53,42 @@ import org.springframework.transaction.support.TransactionTemplate;
 public class FileProcessingService {
 
   private static final String PROCESSING_TMP = ".processing-tmp";
+  static final String DERIVATIVE_BYTES = "photoupload.worker.derivative.bytes";
+  static final String INPUT_BYTES = "photoupload.worker.input.bytes";
+  private static final String[] SLOT_NAMES = {"thumb", "medium", "large"};
 
   private final FileStorageProperties properties;
   private final FileMetadataRepository metadataRepository;
   private final ThumbnailService thumbnailService;
-  private final CaptureDateExtractor captureDateExtractor;
-  private final GpsExtractor gpsExtractor;
+  private final MediaMetadataExtractor mediaMetadataExtractor;
+  private final BlurhashEncoder blurhashEncoder;
   private final PlatformTransactionManager transactionManager;
   // Optional: present iff storage.s3.enabled=true. When present, originals are read from MinIO
   // into a per-job temp dir, derivatives are produced locally and PUT back to S3, and the temp
   // dir is wiped before the method returns.
   private final Optional<ObjectStorageService> objectStorage;
+  // Keep the encoder off MinIO's critical path: derivative PUTs go to a per-job batch that is
+  // joined right before the DONE commit, and the original may already be on disk courtesy of the
+  // prefetcher.
+  private final DerivativeUploader derivativeUploader;
+  private final OriginalPrefetcher originalPrefetcher;
+  private final MeterRegistry meterRegistry;
+  private final JobEnqueueService jobEnqueueService;
+  // Bytes of every derivative PUT by a job are charged in the commit that makes the keys live.
+  private final StorageAccountingService storageAccounting;
+  // TUS uploads reach the worker without a checksum; the first download hashes them.
+  private final UploadDedupeService uploadDedupeService;
+  // Decides whether a video original is staged or read by ffmpeg straight from MinIO (D61).
+  private final JobsProperties jobsProperties;
+  // Set abandoned by the dispatcher when the job's lease is lost; row writes are then skipped.
+  private final JobProgress jobProgress;
 
-  public void processFile(Long fileMetadataId) {
+  /**
+   * Processes a fresh upload into its derivatives. Returns how the upload resolved against its
+   * owner's earlier uploads: on {@link UploadDedupeService.Outcome#COLLAPSED} the row now shares its
+   * twin's objects and the dispatcher drops it once the job is settled.
+   */
+  public UploadDedupeService.Outcome processFile(Long fileMetadataId) {
     TransactionTemplate tx = new TransactionTemplate(transactionManager);
     FileMetadata metadata =
         tx.execute(
@@ -63,7 +105,7 @@ public class FileProcessingService {
             });
     if (metadata == null) {
       log.warn("processFile: metadata id {} not found (deleted?)", fileMetadataId);
-      return;
+      return UploadDedupeService.Outcome.KEPT;
     }
 
     Path fileStorageLocation = Paths.get(properties.getUploadDir()).toAbsolutePath().normalize();
@@ -75,6 +117,10 @@ public class FileProcessingService {
 
     Path workdir = null;
     Path currentFile;
+    // Set instead of currentFile when the tools read the original from MinIO themselves.
+    MediaInput streamed = null;
+    int segmentCount = 0;
+    DerivativeUploader.Batch uploads = derivativeUploader.newBatch();
     try {
       if (s3Backed) {
         // Per-job scratch dir on the PVC. Wiped in the finally block so we never accumulate.
@@ -84,7 +130,33 @@ public class FileProcessingService {
                     .resolve(PROCESSING_TMP)
                     .resolve(String.valueOf(fileMetadataId)));
         currentFile = workdir.resolve(storedFilename);
-        objectStorage.get().getToFile(metadata.getFilePath(), currentFile);
+        long downloadStart = System.nanoTime();
+        String checksum =
+            originalPrefetcher.claim(fileMetadataId, metadata.getFilePath(), currentFile);
+        if (checksum == null && streamsOriginal(mimeType)) {
+          streamed = streamOriginal(metadata.getFilePath(), storedFilename);
+          currentFile = null;
+          if (metadata.getChecksum() == null) {
+            // No download to hash along the way; one pass through the digest, nothing on disk.
+            checksum = objectStorage.get().sha256(metadata.getFilePath());
+            DerivativeUploader.recordStage(meterRegistry, "checksum", downloadStart);
+          }
+        } else {
+          if (checksum == null) {
+            checksum = objectStorage.get().getToFileWithSha256(metadata.getFilePath(), currentFile);
+          }
+          DerivativeUploader.recordStage(meterRegistry, "download", downloadStart);
+        }
+        recordInputBytes(streamed != null ? "streamed" : "staged", metadata.getFileSize());
+        if (metadata.getChecksum() == null) {
+          // Hash of the bytes as uploaded — before HEIC conversion, like the multipart path.
+          UploadDedupeService.Outcome outcome = uploadDedupeService.adopt(fileMetadataId, checksum);
+          if (outcome != UploadDedupeService.Outcome.KEPT) {
+            log.info("Asset {} {} as a duplicate; nothing to process", fileMetadataId, outcome);
+            return outcome;
+          }
+          metadata.setChecksum(checksum);
+        }
       } else {
         currentFile = fileStorageLocation.resolve(metadata.getFilePath()).normalize();
       }
@@ -95,7 +167,9 @@ public class FileProcessingService {
               || extension.equalsIgnoreCase("heif");
 
       // 1) HEIC → JPEG
+      String replacedHeicKey = null;
       if (isHeic) {
+        long convertStart = System.nanoTime();
         String baseName = getFilenameWithoutExtension(storedFilename);
         String convertedFilename = baseName + ".jpg";
         Path convertedLocation =
@@ -105,18 +179,12 @@ public class FileProcessingService {
           log.info("Converted HEIC/HEIF to JPEG: {} -> {}", originalName, convertedFilename);
 
           if (s3Backed) {
-            // Upload the JPEG as the new original, drop the old HEIC key.
+            // Upload the JPEG as the new original in the background; the old HEIC key is dropped
+            // only once that PUT has landed (after the batch is joined below). The local JPEG
+            // stays — every later step reads it.
             String newKey = StoragePaths.ORIGINALS_PREFIX + convertedFilename;
-            objectStorage.get().putFile(newKey, convertedLocation, "image/jpeg");
-            try {
-              objectStorage.get().delete(metadata.getFilePath());
-            } catch (Exception e) {
-              // Non-fatal: leaves an orphan key but the row is correct. Log and continue.
-              log.warn(
-                  "Could not delete legacy HEIC key {} after conversion: {}",
-                  metadata.getFilePath(),
-                  e.toString());
-            }
+            uploads.submit(newKey, convertedLocation, "image/jpeg", false);
+            replacedHeicKey = metadata.getFilePath();
             metadata.setFilePath(newKey);
           } else {
             Files.deleteIfExists(currentFile);
@@ -142,19 +210,33 @@ public class FileProcessingService {
               "Failed to convert HEIC/HEIF file {} to JPEG; leaving original in place",
               originalName);
         }
+        DerivativeUploader.recordStage(meterRegistry, "convert", convertStart);
       }
 
+      // What the video steps and the metadata pass read: the staged file, or the object itself.
+      MediaInput source = streamed != null ? streamed : MediaInput.of(currentFile);
+
       // 2) Thumbnails (images)
       if (MimeTypePredicates.isImageFile(mimeType)) {
+        long thumbnailStart = System.nanoTime();
         Path[] thumbnails = thumbnailService.generateAllThumbnails(currentFile, currentFile);
+        DerivativeUploader.recordStage(meterRegistry, "thumbnails", thumbnailStart);
         if (thumbnails[0] == null && thumbnails[1] == null && thumbnails[2] == null) {
           // All sizes failed — bail out so we don't mark the asset DONE with no derivatives.
           // The catch block below routes this through markFailed.
           throw new StorageException("Thumbnail generation produced no output for " + originalName);
         }
+        // Before the JPEG PUTs are queued: each one deletes its local file once it lands.
+        metadata.setBlurhash(placeholderOf(thumbnails));
+        metadata.setPhash(phashOf(thumbnails));
+        if (s3Backed) {
+          metadata.setDerivativeFormats(
+              storeVariants(uploads, currentFile, fileMetadataId, thumbnails));
+        }
         if (thumbnails[0] != null) {
           metadata.setThumbnailPath(
               storeDerivative(
+                  uploads,
                   fileStorageLocation,
                   thumbnails[0],
                   s3Backed ? StoragePaths.derivativeThumbnailKey(fileMetadataId) : null,
@@ -163,6 +245,7 @@ public class FileProcessingService {
         if (thumbnails[1] != null) {
           metadata.setMediumPath(
               storeDerivative(
+                  uploads,
                   fileStorageLocation,
                   thumbnails[1],
                   s3Backed ? StoragePaths.derivativeMediumKey(fileMetadataId) : null,
@@ -171,6 +254,7 @@ public class FileProcessingService {
         if (thumbnails[2] != null) {
           metadata.setLargePath(
               storeDerivative(
+                  uploads,
                   fileStorageLocation,
                   thumbnails[2],
                   s3Backed ? StoragePaths.derivativeLargeKey(fileMetadataId) : null,
@@ -181,30 +265,66 @@ public class FileProcessingService {
         }
       }
 
-      // 3) Video transcode + video thumbnail
+      // 3) Video transcode + video thumbnail. One ffprobe of the source serves every stage below,
+      // the metadata pass included.
+      FfmpegService.VideoProbe probe = null;
       if (MimeTypePredicates.isVideoFile(mimeType)) {
+        probe = thumbnailService.probeVideo(source);
         String baseNameWithoutExt = storedFilename.substring(0, storedFilename.lastIndexOf('.'));
         String transcodedFilename = "web_" + baseNameWithoutExt + ".mp4";
         Path transcodedLocation =
             (workdir != null ? workdir : fileStorageLocation).resolve(transcodedFilename);
-        if (thumbnailService.transcodeVideo(currentFile, transcodedLocation)) {
-          metadata.setTranscodedVideoPath(
-              storeDerivative(
-                  fileStorageLocation,
-                  transcodedLocation,
-                  s3Backed ? StoragePaths.derivativeTranscodedKey(fileMetadataId) : null,
-                  "video/mp4"));
-          log.info("🎬 Transcoded video for Safari/iOS: {}", originalName);
+        if (s3Backed) {
+          segmentCount =
+              splitForSegmentedTranscode(source, probe, workdir, uploads, fileMetadataId);
+        }
+        if (segmentCount > 0) {
+          // The web MP4 (and HLS) arrive with the TRANSCODE_JOIN job; until then the original
+          // plays.
+          log.info(
+              "🎬 Split {} into {} segments for parallel transcoding", originalName, segmentCount);
         } else {
-          log.warn("⚠️ Video transcoding failed for: {}", originalName);
+          long transcodeStart = System.nanoTime();
+          boolean transcoded = thumbnailService.transcodeVideo(source, transcodedLocation, probe);
+          DerivativeUploader.recordStage(meterRegistry, "transcode", transcodeStart);
+          if (transcoded) {
+            if (s3Backed) {
+              // Before the MP4 is handed to the upload batch, which deletes it once the PUT lands.
+              // The web MP4 keeps the source's display size, duration and audio presence, so the
+              // source probe stands in for it.
+              storeHls(metadata, uploads, transcodedLocation, probe, workdir, fileMetadataId);
+            }
+            metadata.setTranscodedVideoPath(
+                storeDerivative(
+                    uploads,
+                    fileStorageLocation,
+                    transcodedLocation,
+                    s3Backed ? StoragePaths.derivativeTranscodedKey(fileMetadataId) : null,
+                    "video/mp4"));
+            log.info("🎬 Transcoded video for Safari/iOS: {}", originalName);
+          } else {
+            log.warn("⚠️ Video transcoding failed for: {}", originalName);
+          }
+        }
+
+        double posterSeconds = 1;
+        if (s3Backed) {
+          FfmpegService.Sprite sprite =
+              storeSprite(metadata, uploads, source, probe, workdir, fileMetadataId);
+          if (sprite != null) {
+            posterSeconds = sprite.posterSeconds();
+          }
         }
 
         String thumbnailFilename = "thumb_" + baseNameWithoutExt + ".jpg";
         Path thumbnailLocation =
             (workdir != null ? workdir : fileStorageLocation).resolve(thumbnailFilename);
-        if (thumbnailService.generateVideoThumbnail(currentFile, thumbnailLocation)) {
+        if (thumbnailService.generateVideoThumbnail(source, thumbnailLocation, posterSeconds)) {
+          metadata.setBlurhash(blurhashEncoder.encode(thumbnailLocation));
+          metadata.setPhash(PerceptualHash.of(thumbnailLocation));
           metadata.setThumbnailPath(
               storeDerivative(
+                  uploads,
                   fileStorageLocation,
                   thumbnailLocation,
                   s3Backed ? StoragePaths.derivativeThumbnailKey(fileMetadataId) : null,
@@ -215,28 +335,65 @@ public class FileProcessingService {
         }
       }
 
-      // 4) Capture date (image EXIF / video creation time), resolved to a true instant
-      CaptureDate captureDate = captureDateExtractor.extract(currentFile, mimeType);
+      // 4) One metadata pass over the original: capture date (image EXIF / video creation time,
+      // resolved to a true instant), capture location for the map filter, display dimensions and
+      // video duration. Read here and not later: this is the last point at which the original is
+      // guaranteed to be at hand, and retention eventually deletes it for good. Runs while the
+      // derivative PUTs queued above are still in flight.
+      long metadataStart = System.nanoTime();
+      MediaMetadata media =
+          probe != null
+              ? MediaMetadataExtractor.fromVideo(probe)
+              : mediaMetadataExtractor.extract(source, mimeType);
+      CaptureDate captureDate = media.captureDate();
       metadata.setExifDateSource(captureDate.source());
       if (captureDate.isPresent()) {
         metadata.setExifDateTimeOriginal(captureDate.instant());
         metadata.setCaptureUtcOffsetSeconds(captureDate.offsetSeconds());
       }
-
-      // 5) Capture location (EXIF GPS IFD / QuickTime location atom), for the map filter.
-      // Read here and not later: this is the last point at which the original is guaranteed to be
-      // on local disk, and retention eventually deletes it for good.
-      GpsCoordinates gps = gpsExtractor.extract(currentFile, mimeType);
+      GpsCoordinates gps = media.gps();
       metadata.setGpsSource(gps.source());
       metadata.setGpsLatitude(gps.latitude());
       metadata.setGpsLongitude(gps.longitude());
+      if (media.width() != null && media.height() != null) {
+        metadata.setWidth(media.width());
+        metadata.setHeight(media.height());
+      }
+      if (media.durationMs() != null) {
+        metadata.setDuration(media.durationMs());
+      }
+      DerivativeUploader.recordStage(meterRegistry, "metadata", metadataStart);
+
+      // Every derivative key the row is about to point at must exist before DONE is visible.
+      uploads.await();
+      if (replacedHeicKey != null) {
+        try {
+          objectStorage.get().delete(replacedHeicKey);
+        } catch (Exception e) {
+          // Non-fatal: leaves an orphan key but the row is correct. Log and continue.
+          log.warn(
+              "Could not delete legacy HEIC key {} after conversion: {}",
+              replacedHeicKey,
+              e.toString());
+        }
+      }
 
       // Persist all updates in one short transaction
       metadata.setProcessingStatus(ProcessingStatus.DONE);
       metadata.setProcessingCompletedAt(Instant.now());
       metadata.setProcessingError(null);
+      requireLease();
       final FileMetadata toSave = metadata;
-      tx.executeWithoutResult(status -> metadataRepository.save(toSave));
+      final int segments = segmentCount;
+      tx.executeWithoutResult(
+          status -> {
+            metadataRepository.save(toSave);
+            storageAccounting.record(fileMetadataId, uploads.storedBytes());
+            if (segments > 0) {
+              // Same commit as DONE: the segment jobs exist iff their source slices are in S3.
+              jobEnqueueService.enqueueSegmentedTranscode(fileMetadataId, segments);
+            }
+          });
       log.info("✅ Finished processing: {}", originalName);
     } catch (IOException e) {
       log.error("I/O error processing file {}", originalName, e);
@@ -245,19 +402,23 @@ public class FileProcessingService {
       log.error("Unexpected error processing file {}", originalName, e);
       markFailed(tx, fileMetadataId, e);
     } finally {
+      uploads.awaitQuietly();
       if (workdir != null) {
         deleteRecursive(workdir);
       }
     }
+    return UploadDedupeService.Outcome.KEPT;
   }
 
   /**
    * Worker-side rotate (Phase 4.5, D17). Mirrors {@link #processFile(Long)}: lease the asset into
    * PROCESSING, do all heavy work locally on the worker pod, then commit the result in one short
-   * TX. Bytes flow: download original from S3 → ImageMagick rotate-90-CCW → PUT same key →
-   * regenerate all derivatives → PUT derivative keys (overwrite). Metadata flips: {@code rotation}
-   * += 90 mod 360, swap {@code width}/{@code height}, regen {@code publicToken} (so the gallery URL
-   * changes and the browser cache misses), update {@code fileSize}.
+   * TX. Bytes flow: download original from S3 → rotate-90-CCW (EXIF orientation for a JPEG, D63) →
+   * PUT same key → download and turn the existing derivatives and variants → PUT derivative keys
+   * (overwrite). Derivatives are regenerated from the rotated source only when one is missing or
+   * cannot be turned, so a rotate never decodes a full-size original. Metadata flips: {@code
+   * rotation} += 90 mod 360, swap {@code width}/{@code height}, regen {@code publicToken} (so the
+   * gallery URL changes and the browser cache misses), update {@code fileSize}.
    *
    * <p>Pre-conditions enforced by the api pod before enqueue: image MIME type and S3-backed {@code
    * filePath}. We re-check defensively here so a stale or hand-crafted job row fails with a clear
@@ -317,28 +478,31 @@ public class FileProcessingService {
     boolean originalRetained = sourceKey.equals(metadata.getFilePath());
 
     Path workdir = null;
+    DerivativeUploader.Batch uploads = derivativeUploader.newBatch();
     try {
       workdir =
           Files.createDirectories(
               fileStorageLocation.resolve(PROCESSING_TMP).resolve(String.valueOf(fileMetadataId)));
-      Path localOriginal = workdir.resolve(metadata.getStoredFilename());
-      objectStorage.get().getToFile(sourceKey, localOriginal);
-
+      String staleRenditions =
+          StoragePaths.derivativeResizedPrefix(metadata.getLargePath(), metadata.getPublicToken());
       log.info(
           "🔄 Rotating asset {} ({}) 90° left (source={})",
           fileMetadataId,
           originalName,
           originalRetained ? "original" : sourceKey);
-      boolean rotated = thumbnailService.rotateImageLeft(localOriginal);
-      if (!rotated) {
-        throw new StorageException("ImageMagick rotate failed for " + originalName);
-      }
 
       // Push the rotated bytes back to originals/ only when an original existed. If retention
       // already purged it, we deliberately don't recreate the key — that would resurrect bytes
-      // the operator decided to drop, and would still only contain ≤2400px of pixels.
+      // the operator decided to drop, and would still only contain ≤2400px of pixels. A JPEG
+      // original only has its EXIF orientation rewritten (D63).
+      Path localOriginal = null;
       if (originalRetained) {
-        objectStorage.get().putFile(metadata.getFilePath(), localOriginal, mimeType);
+        localOriginal = workdir.resolve(metadata.getStoredFilename());
+        objectStorage.get().getToFile(sourceKey, localOriginal);
+        if (!thumbnailService.rotateOriginalLeft(localOriginal, mimeType)) {
+          throw new StorageException("Rotate failed for original " + originalName);
+        }
+        uploads.submit(metadata.getFilePath(), localOriginal, mimeType, false);
         try {
           metadata.setFileSize(Files.size(localOriginal));
         } catch (IOException sizeError) {
@@ -346,32 +510,18 @@ public class FileProcessingService {
         }
       }
 
-      // Regenerate thumbnails from the rotated original. Derivative keys are deterministic per
-      // assetId, so the PUT overwrites the old derivative bytes — no separate delete needed.
-      Path[] thumbnails = thumbnailService.generateAllThumbnails(localOriginal, localOriginal);
-      if (thumbnails[0] != null) {
-        metadata.setThumbnailPath(
-            storeDerivative(
-                fileStorageLocation,
-                thumbnails[0],
-                StoragePaths.derivativeThumbnailKey(fileMetadataId),
-                "image/jpeg"));
-      }
-      if (thumbnails[1] != null) {
-        metadata.setMediumPath(
-            storeDerivative(
-                fileStorageLocation,
-                thumbnails[1],
-                StoragePaths.derivativeMediumKey(fileMetadataId),
-                "image/jpeg"));
-      }
-      if (thumbnails[2] != null) {
-        metadata.setLargePath(
-            storeDerivative(
-                fileStorageLocation,
-                thumbnails[2],
-                StoragePaths.derivativeLargeKey(fileMetadataId),
-                "image/jpeg"));
+      // Turn the derivatives that already exist rather than decoding the original again; only
+      // when one is missing or cannot be turned are they regenerated from the rotated source.
+      if (!rotateDerivatives(uploads, workdir, metadata, fileMetadataId)) {
+        Path source = localOriginal;
+        if (source == null) {
+          source = workdir.resolve(metadata.getStoredFilename());
+          objectStorage.get().getToFile(sourceKey, source);
+          if (!thumbnailService.rotateImageLeft(source)) {
+            throw new StorageException("ImageMagick rotate failed for " + originalName);
+          }
+        }
+        regenerateRotated(uploads, fileStorageLocation, source, metadata, fileMetadataId);
       }
 
       int currentRotation = metadata.getRotation() != null ? metadata.getRotation() : 0;
@@ -388,12 +538,19 @@ public class FileProcessingService {
       new SecureRandom().nextBytes(tokenBytes);
       metadata.setPublicToken(HexFormat.of().formatHex(tokenBytes));
 
+      uploads.await();
       metadata.setProcessingStatus(ProcessingStatus.DONE);
       metadata.setProcessingCompletedAt(Instant.now());
       metadata.setProcessingError(null);
+      requireLease();
       final FileMetadata toSave = metadata;
-      tx.executeWithoutResult(status -> metadataRepository.save(toSave));
+      tx.executeWithoutResult(
+          status -> {
+            metadataRepository.save(toSave);
+            storageAccounting.record(fileMetadataId, uploads.storedBytes());
+          });
       log.info("✅ Rotated asset {} ({}) → {}°", fileMetadataId, originalName, toSave.getRotation());
+      dropResized(fileMetadataId, staleRenditions);
     } catch (IOException e) {
       log.error("I/O error rotating file {}", originalName, e);
       markFailed(tx, fileMetadataId, e);
@@ -401,6 +558,7 @@ public class FileProcessingService {
       log.error("Unexpected error rotating file {}", originalName, e);
       markFailed(tx, fileMetadataId, e);
     } finally {
+      uploads.awaitQuietly();
       if (workdir != null) {
         deleteRecursive(workdir);
       }
@@ -417,8 +575,8 @@ public class FileProcessingService {
    * miss, transition back to DONE.
    *
    * <p>Does <em>not</em> touch {@code rotation}, {@code width}/{@code height}, {@code fileSize}, or
-   * the original-key bytes. The original is never written back even when present — we read, we
-   * generate, that's it.
+   * the original-key bytes; the BlurHash is refreshed since it is derived from the new thumbnail.
+   * The original is never written back even when present — we read, we generate, that's it.
    */
   public void regenerateThumbnails(Long fileMetadataId) {
     TransactionTemplate tx = new TransactionTemplate(transactionManager);
@@ -471,10 +629,13 @@ public class FileProcessingService {
     boolean fromOriginal = sourceKey.equals(metadata.getFilePath());
 
     Path workdir = null;
+    DerivativeUploader.Batch uploads = derivativeUploader.newBatch();
     try {
       workdir =
           Files.createDirectories(
               fileStorageLocation.resolve(PROCESSING_TMP).resolve(String.valueOf(fileMetadataId)));
+      String staleRenditions =
+          StoragePaths.derivativeResizedPrefix(metadata.getLargePath(), metadata.getPublicToken());
       Path localSource = workdir.resolve(metadata.getStoredFilename());
       objectStorage.get().getToFile(sourceKey, localSource);
 
@@ -487,9 +648,14 @@ public class FileProcessingService {
       if (thumbnails[0] == null && thumbnails[1] == null && thumbnails[2] == null) {
         throw new StorageException("Thumbnail regeneration produced no output for " + originalName);
       }
+      metadata.setBlurhash(placeholderOf(thumbnails));
+      metadata.setPhash(phashOf(thumbnails));
+      metadata.setDerivativeFormats(
+          storeVariants(uploads, localSource, fileMetadataId, thumbnails));
       if (thumbnails[0] != null) {
         metadata.setThumbnailPath(
             storeDerivative(
+                uploads,
                 fileStorageLocation,
                 thumbnails[0],
                 StoragePaths.derivativeThumbnailKey(fileMetadataId),
@@ -498,6 +664,7 @@ public class FileProcessingService {
       if (thumbnails[1] != null) {
         metadata.setMediumPath(
             storeDerivative(
+                uploads,
                 fileStorageLocation,
                 thumbnails[1],
                 StoragePaths.derivativeMediumKey(fileMetadataId),
@@ -506,6 +673,7 @@ public class FileProcessingService {
       if (thumbnails[2] != null) {
         metadata.setLargePath(
             storeDerivative(
+                uploads,
                 fileStorageLocation,
                 thumbnails[2],
                 StoragePaths.derivativeLargeKey(fileMetadataId),
@@ -518,12 +686,19 @@ public class FileProcessingService {
       new SecureRandom().nextBytes(tokenBytes);
       metadata.setPublicToken(HexFormat.of().formatHex(tokenBytes));
 
+      uploads.await();
       metadata.setProcessingStatus(ProcessingStatus.DONE);
       metadata.setProcessingCompletedAt(Instant.now());
       metadata.setProcessingError(null);
+      requireLease();
       final FileMetadata toSave = metadata;
-      tx.executeWithoutResult(status -> metadataRepository.save(toSave));
+      tx.executeWithoutResult(
+          status -> {
+            metadataRepository.save(toSave);
+            storageAccounting.record(fileMetadataId, uploads.storedBytes());
+          });
       log.info("✅ Regenerated derivatives for asset {} ({})", fileMetadataId, originalName);
+      dropResized(fileMetadataId, staleRenditions);
     } catch (IOException e) {
       log.error("I/O error regenerating thumbnails for {}", originalName, e);
       markFailed(tx, fileMetadataId, e);
@@ -531,6 +706,7 @@ public class FileProcessingService {
       log.error("Unexpected error regenerating thumbnails for {}", originalName, e);
       markFailed(tx, fileMetadataId, e);
     } finally {
+      uploads.awaitQuietly();
       if (workdir != null) {
         deleteRecursive(workdir);
       }
@@ -586,20 +762,24 @@ public class FileProcessingService {
 
     Path workdir = null;
     try {
-      Path currentFile;
-      if (s3Backed) {
+      MediaInput source;
+      if (s3Backed && streamsOriginal(mimeType)) {
+        // ffprobe reads the container header and the moov atom, not the whole video.
+        source = streamOriginal(metadata.getFilePath(), metadata.getStoredFilename());
+      } else if (s3Backed) {
         workdir =
             Files.createDirectories(
                 fileStorageLocation
                     .resolve(PROCESSING_TMP)
                     .resolve(String.valueOf(fileMetadataId)));
-        currentFile = workdir.resolve(metadata.getStoredFilename());
+        Path currentFile = workdir.resolve(metadata.getStoredFilename());
         objectStorage.get().getToFile(metadata.getFilePath(), currentFile);
+        source = MediaInput.of(currentFile);
       } else {
-        currentFile = fileStorageLocation.resolve(metadata.getFilePath()).normalize();
+        source = MediaInput.of(fileStorageLocation.resolve(metadata.getFilePath()).normalize());
       }
 
-      CaptureDate captureDate = captureDateExtractor.extract(currentFile, mimeType);
+      CaptureDate captureDate = mediaMetadataExtractor.extract(source, mimeType).captureDate();
       Instant previous = metadata.getExifDateTimeOriginal();
       metadata.setExifDateSource(captureDate.source());
       if (captureDate.isPresent()) {
@@ -617,6 +797,7 @@ public class FileProcessingService {
       metadata.setProcessingStatus(ProcessingStatus.DONE);
       metadata.setProcessingCompletedAt(Instant.now());
       metadata.setProcessingError(null);
+      requireLease();
       final FileMetadata toSave = metadata;
       tx.executeWithoutResult(status -> metadataRepository.save(toSave));
       log.info(
@@ -688,20 +869,24 @@ public class FileProcessingService {
 
     Path workdir = null;
     try {
-      Path currentFile;
-      if (s3Backed) {
+      MediaInput source;
+      if (s3Backed && streamsOriginal(mimeType)) {
+        // ffprobe reads the container header and the moov atom, not the whole video.
+        source = streamOriginal(metadata.getFilePath(), metadata.getStoredFilename());
+      } else if (s3Backed) {
         workdir =
             Files.createDirectories(
                 fileStorageLocation
                     .resolve(PROCESSING_TMP)
                     .resolve(String.valueOf(fileMetadataId)));
-        currentFile = workdir.resolve(metadata.getStoredFilename());
+        Path currentFile = workdir.resolve(metadata.getStoredFilename());
         objectStorage.get().getToFile(metadata.getFilePath(), currentFile);
+        source = MediaInput.of(currentFile);
       } else {
-        currentFile = fileStorageLocation.resolve(metadata.getFilePath()).normalize();
+        source = MediaInput.of(fileStorageLocation.resolve(metadata.getFilePath()).normalize());
       }
 
-      GpsCoordinates gps = gpsExtractor.extract(currentFile, mimeType);
+      GpsCoordinates gps = mediaMetadataExtractor.extract(source, mimeType).gps();
       // A NONE result is written, not skipped: it is what takes the row out of the sweep's
       // eligible set, so repeat runs converge instead of re-reading every location-less asset.
       metadata.setGpsSource(gps.source());
@@ -710,6 +895,7 @@ public class FileProcessingService {
       metadata.setProcessingStatus(ProcessingStatus.DONE);
       metadata.setProcessingCompletedAt(Instant.now());
       metadata.setProcessingError(null);
+      requireLease();
       final FileMetadata toSave = metadata;
       tx.executeWithoutResult(status -> metadataRepository.save(toSave));
       log.info(
@@ -733,25 +919,789 @@ public class FileProcessingService {
   }
 
   /**
-   * Persist a freshly-generated derivative. When {@code s3Key} is non-null we PUT the local file to
-   * S3 and return the key as the DB pointer; the local file is deleted (it lives in the temp
-   * workdir which is wiped anyway, but we delete eagerly to keep peak disk small). Otherwise we
-   * fall back to storing the derivative on the PVC and returning its relative path.
+   * Computes the SHA-256 of an already-processed asset's original and nothing else.
+   *
+   * <p>Backfill for TUS uploads processed before the worker hashed its download: without a checksum
+   * they are invisible to {@code /api/sync/uploaded-checksums} and to upload dedupe. Same shape as
+   * {@link #reextractGps}, except the object is streamed through the digest instead of landing on
+   * disk. The checksum is only stored — an asset already in the user's albums is never collapsed or
+   * re-linked after the fact; {@link UploadDedupeService} runs for fresh uploads only.
+   */
+  public void computeChecksum(Long fileMetadataId) {
+    TransactionTemplate tx = new TransactionTemplate(transactionManager);
+    FileMetadata metadata =
+        tx.execute(
+            status -> {
+              FileMetadata found = metadataRepository.findById(fileMetadataId).orElse(null);
+              if (found == null) {
+                return null;
+              }
+              found.setProcessingStatus(ProcessingStatus.PROCESSING);
+              found.setProcessingAttempts(
+                  found.getProcessingAttempts() == null ? 1 : found.getProcessingAttempts() + 1);
+              found.setProcessingError(null);
+              return metadataRepository.save(found);
+            });
+    if (metadata == null) {
+      log.warn("computeChecksum: metadata id {} not found (deleted?)", fileMetadataId);
+      return;
+    }
+
+    String originalName = metadata.getOriginalName();
+    if (metadata.getFilePath() == null) {
+      markFailed(
+          tx,
+          fileMetadataId,
+          new StorageException(
+              "Cannot compute checksum for asset "
+                  + fileMetadataId
+                  + ": original is gone (retention-purged)"));
+      return;
+    }
+    try {
+      String checksum;
+      if (objectStorage.isPresent() && StoragePaths.isS3Key(metadata.getFilePath())) {
+        checksum = objectStorage.get().sha256(metadata.getFilePath());
+      } else {
+        Path fileStorageLocation =
+            Paths.get(properties.getUploadDir()).toAbsolutePath().normalize();
+        checksum = Sha256.of(fileStorageLocation.resolve(metadata.getFilePath()).normalize());
+      }
+      metadata.setChecksum(checksum);
+      metadata.setProcessingStatus(ProcessingStatus.DONE);
+      metadata.setProcessingCompletedAt(Instant.now());
+      metadata.setProcessingError(null);
+      requireLease();
+      final FileMetadata toSave = metadata;
+      tx.executeWithoutResult(status -> metadataRepository.save(toSave));
+      log.info("#️⃣ Checksum for asset {} ({}): {}", fileMetadataId, originalName, checksum);
+    } catch (IOException e) {
+      log.error("I/O error computing checksum for {}", originalName, e);
+      markFailed(tx, fileMetadataId, e);
+    } catch (Exception e) {
+      log.error("Unexpected error computing checksum for {}", originalName, e);
+      markFailed(tx, fileMetadataId, e);
+    }
+  }
+
+  /**
+   * Computes the layout placeholder of an already-processed asset and nothing else: the BlurHash
+   * and perceptual hash from its thumbnail and, when still unknown, the display dimensions from its
+   * original.
+   *
+   * <p>Backfill for every row processed before {@code blurhash} (or {@code phash}) existed; same
+   * shape as {@link #reextractGps}. The thumbnail is a derivative, so unlike the other metadata
+   * sweeps this one also covers retention-purged rows — those get a placeholder but keep null
+   * dimensions, because no derivative records the original's size. Dimensions are only read when
+   * missing: rows processed since the single metadata pass already carry them, and for a video
+   * reading them means a full GET of the original.
+   */
+  public void extractPlaceholder(Long fileMetadataId) {
+    TransactionTemplate tx = new TransactionTemplate(transactionManager);
+    FileMetadata metadata =
+        tx.execute(
+            status -> {
+              FileMetadata found = metadataRepository.findById(fileMetadataId).orElse(null);
+              if (found == null) {
+                return null;
+              }
+              found.setProcessingStatus(ProcessingStatus.PROCESSING);
+              found.setProcessingAttempts(
+                  found.getProcessingAttempts() == null ? 1 : found.getProcessingAttempts() + 1);
+              found.setProcessingError(null);
+              return metadataRepository.save(found);
+            });
+    if (metadata == null) {
+      log.warn("extractPlaceholder: metadata id {} not found (deleted?)", fileMetadataId);
+      return;
+    }
+
+    String originalName = metadata.getOriginalName();
+    Path fileStorageLocation = Paths.get(properties.getUploadDir()).toAbsolutePath().normalize();
+    if (metadata.getThumbnailPath() == null) {
+      markFailed(
+          tx,
+          fileMetadataId,
+          new StorageException(
+              "Cannot compute placeholder for asset " + fileMetadataId + ": no thumbnail"));
+      return;
+    }
+
+    Path workdir = null;
+    try {
+      workdir =
+          Files.createDirectories(
+              fileStorageLocation.resolve(PROCESSING_TMP).resolve(String.valueOf(fileMetadataId)));
+      Path thumbnail =
+          toLocalFile(metadata.getThumbnailPath(), fileStorageLocation, workdir, "thumb.jpg");
+      String blurhash = blurhashEncoder.encode(thumbnail);
+      if (blurhash == null) {
+        throw new StorageException("Thumbnail of asset " + fileMetadataId + " is not decodable");
+      }
+      metadata.setBlurhash(blurhash);
+      // Same thumbnail, same decode path: if the BlurHash read it, so does this.
+      Long phash = PerceptualHash.of(thumbnail);
+      if (phash == null) {
+        throw new StorageException("Thumbnail of asset " + fileMetadataId + " is not decodable");
+      }
+      metadata.setPhash(phash);
+
+      if ((metadata.getWidth() == null || metadata.getHeight() == null)
+          && metadata.getFilePath() != null) {
+        Path original =
+            toLocalFile(
+                metadata.getFilePath(), fileStorageLocation, workdir, metadata.getStoredFilename());
+        MediaMetadata media = mediaMetadataExtractor.extract(original, metadata.getMimeType());
+        if (media.width() != null && media.height() != null) {
+          metadata.setWidth(media.width());
+          metadata.setHeight(media.height());
+        }
+        if (metadata.getDuration() == null && media.durationMs() != null) {
+          metadata.setDuration(media.durationMs());
+        }
+      }
+
+      metadata.setProcessingStatus(ProcessingStatus.DONE);
+      metadata.setProcessingCompletedAt(Instant.now());
+      metadata.setProcessingError(null);
+      requireLease();
+      final FileMetadata toSave = metadata;
+      tx.executeWithoutResult(status -> metadataRepository.save(toSave));
+      log.info(
+          "🧩 Placeholder for asset {} ({}): {}x{} {}",
+          fileMetadataId,
+          originalName,
+          metadata.getWidth(),
+          metadata.getHeight(),
+          blurhash);
+    } catch (IOException e) {
+      log.error("I/O error computing placeholder for {}", originalName, e);
+      markFailed(tx, fileMetadataId, e);
+    } catch (Exception e) {
+      log.error("Unexpected error computing placeholder for {}", originalName, e);
+      markFailed(tx, fileMetadataId, e);
+    } finally {
+      if (workdir != null) {
+        deleteRecursive(workdir);
+      }
+    }
+  }
+
+  /**
+   * Encodes one slice of a split video ({@link JobType#TRANSCODE_SEGMENT}): GET {@code
+   * src_NNNNN.mp4}, encode, PUT {@code enc_NNNNN.mp4}. Touches neither the asset row nor its
+   * processing status — the asset is already DONE and playing its original. A failure is thrown, so
+   * the dispatcher retries the segment on its own.
+   */
+  public void transcodeSegment(Long fileMetadataId, int segmentIndex) {
+    ObjectStorageService s3 = requireObjectStorage("segment transcode");
+    Path workdir = null;
+    try {
+      workdir = createWorkdir(fileMetadataId + "-segment-" + segmentIndex);
+      Path source = workdir.resolve("src.mp4");
+      Path encoded = workdir.resolve("enc.mp4");
+      long downloadStart = System.nanoTime();
+      s3.getToFile(StoragePaths.derivativeSourceSegmentKey(fileMetadataId, segmentIndex), source);
+      DerivativeUploader.recordStage(meterRegistry, "download", downloadStart);
+
+      long encodeStart = System.nanoTime();
+      if (!thumbnailService.transcodeSegment(
+          source, encoded, properties.getSegmentTranscodeSeconds() * 1000L)) {
+        throw new StorageException(
+            "Encoding segment " + segmentIndex + " of asset " + fileMetadataId + " failed");
+      }
+      DerivativeUploader.recordStage(meterRegistry, "segment", encodeStart);
+      requireLease();
+      s3.putFile(
+          StoragePaths.derivativeEncodedSegmentKey(fileMetadataId, segmentIndex),
+          encoded,
+          "video/mp4");
+      log.info("🎬 Encoded segment {} of asset {}", segmentIndex, fileMetadataId);
+    } catch (IOException e) {
+      throw new StorageException(
+          "I/O error encoding segment " + segmentIndex + " of asset " + fileMetadataId, e);
+    } finally {
+      if (workdir != null) {
+        deleteRecursive(workdir);
+      }
+    }
+  }
+
+  /**
+   * Final step of a segmented transcode ({@link JobType#TRANSCODE_JOIN}): concatenates every
+   * encoded slice into the web MP4, muxes the original's audio back in, adds HLS exactly like the
+   * single-piece path, points the row at the result and deletes the segment objects. Only the two
+   * derivative columns are written, on a freshly read row, so edits made since the asset went DONE
+   * are kept. Failures are thrown for the dispatcher to retry.
+   */
+  public void joinSegments(Long fileMetadataId) {
+    ObjectStorageService s3 = requireObjectStorage("segment join");
+    FileMetadata metadata = metadataRepository.findById(fileMetadataId).orElse(null);
+    if (metadata == null) {
+      log.warn("joinSegments: metadata id {} not found (deleted?)", fileMetadataId);
+      return;
+    }
+    String prefix = StoragePaths.derivativeSegmentsPrefix(fileMetadataId);
+    Set<String> keys = new HashSet<>(s3.listKeys(prefix));
+    int count = 0;
+    while (keys.contains(StoragePaths.derivativeSourceSegmentKey(fileMetadataId, count))) {
+      count++;
+    }
+    if (count == 0) {
+      throw new StorageException("No segments found for asset " + fileMetadataId);
+    }
+
+    Path workdir = null;
+    DerivativeUploader.Batch uploads = derivativeUploader.newBatch();
+    try {
+      workdir = createWorkdir(fileMetadataId + "-join");
+      long downloadStart = System.nanoTime();
+      List<Path> encoded = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        String key = StoragePaths.derivativeEncodedSegmentKey(fileMetadataId, i);
+        if (!keys.contains(key)) {
+          throw new StorageException(
+              "Segment " + i + " of asset " + fileMetadataId + " has not been encoded");
+        }
+        Path local = workdir.resolve(String.format("enc_%05d.mp4", i));
+        s3.getToFile(key, local);
+        encoded.add(local);
+      }
+      // Retention may have purged the original since the split; the video is then joined silent.
+      MediaInput audioSource = null;
+      if (StoragePaths.isS3Key(metadata.getFilePath())) {
+        if (streamsOriginal(metadata.getMimeType())) {
+          audioSource = streamOriginal(metadata.getFilePath(), metadata.getStoredFilename());
+        } else {
+          Path localOriginal = workdir.resolve(metadata.getStoredFilename());
+          s3.getToFile(metadata.getFilePath(), localOriginal);
+          audioSource = MediaInput.of(localOriginal);
+        }
+      }
+      DerivativeUploader.recordStage(meterRegistry, "download", downloadStart);
+
+      long joinStart = System.nanoTime();
+      Path joined = workdir.resolve("transcoded.mp4");
+      if (!thumbnailService.joinSegments(encoded, audioSource, joined)) {
+        throw new StorageException("Joining segments of asset " + fileMetadataId + " failed");
+      }
+      DerivativeUploader.recordStage(meterRegistry, "join", joinStart);
+
+      storeHls(
+          metadata, uploads, joined, thumbnailService.probeVideo(joined), workdir, fileMetadataId);
+      String transcodedKey = StoragePaths.derivativeTranscodedKey(fileMetadataId);
+      uploads.submit(transcodedKey, joined, "video/mp4", true);
+      uploads.await();
+
+      String hlsPath = metadata.getHlsPath();
+      requireLease();
+      new TransactionTemplate(transactionManager)
+          .executeWithoutResult(
+              status ->
+                  metadataRepository
+                      .findById(fileMetadataId)
+                      .ifPresent(
+                          fresh -> {
+                            fresh.setTranscodedVideoPath(transcodedKey);
+                            fresh.setHlsPath(hlsPath);
+                            metadataRepository.save(fresh);
+                            storageAccounting.record(fileMetadataId, uploads.storedBytes());
+                          }));
+      log.info("🎬 Joined {} segments into the web MP4 of asset {}", count, fileMetadataId);
+    } catch (IOException e) {
+      throw new StorageException("I/O error joining segments of asset " + fileMetadataId, e);
+    } finally {
+      uploads.awaitQuietly();
+      if (workdir != null) {
+        deleteRecursive(workdir);
+      }
+    }
+
+    try {
+      s3.deleteKeys(keys);
+    } catch (Exception e) {
+      // Harmless leftovers: the admin orphan purge removes segment keys of finished assets.
+      log.warn("Could not delete segments of asset {}: {}", fileMetadataId, e.toString());
+    }
+  }
+
+  /**
+   * Deletes the asset's on-demand renditions (D65) once a new token is committed: they are keyed by
+   * the old one and can no longer be asked for. The api renders afresh from the new derivatives.
+   * Only the renditions under the old token go: rows sharing the derivative directory keep theirs.
+   */
+  private void dropResized(Long fileMetadataId, String staleRenditions) {
+    if (staleRenditions == null) {
+      return;
+    }
+    try {
+      ObjectStorageService s3 = objectStorage.orElseThrow();
+      List<String> keys = s3.listKeys(staleRenditions);
+      if (!keys.isEmpty()) {
+        s3.deleteKeys(keys);
+      }
+    } catch (Exception e) {
+      // Harmless leftovers, unreachable under the new token; deleted with the asset.
+      log.warn("Could not delete resized renditions of asset {}: {}", fileMetadataId, e.toString());
+    }
+  }
+
+  private ObjectStorageService requireObjectStorage(String operation) {
+    return objectStorage.orElseThrow(
+        () -> new StorageException("The " + operation + " requires object storage"));
+  }
+
+  /**
+   * Whether ffmpeg reads this original from MinIO instead of a staged copy (D61). Videos only:
+   * ffmpeg seeks over HTTP with range requests, but vips, the HEIC converter and the EXIF reader
+   * all want a file, and an image is small enough that staging it costs next to nothing.
+   */
+  private boolean streamsOriginal(String mimeType) {
+    return jobsProperties.getPipeline().isStreamVideoInput()
+        && MimeTypePredicates.isVideoFile(mimeType);
+  }
+
+  private MediaInput streamOriginal(String key, String name) {
+    Duration ttl = Duration.ofMinutes(jobsProperties.getPipeline().getStreamUrlTtlMinutes());
+    return MediaInput.url(objectStorage.get().presignGet(key, ttl).toString(), name);
+  }
+
+  /** Original bytes a job fed its tools, by whether they were staged on disk first or not. */
+  private void recordInputBytes(String mode, Long bytes) {
+    if (bytes != null) {
+      meterRegistry.counter(INPUT_BYTES, "mode", mode).increment(bytes);
+    }
+  }
+
+  private Path createWorkdir(String name) throws IOException {
+    return Files.createDirectories(
+        Paths.get(properties.getUploadDir())
+            .toAbsolutePath()
+            .normalize()
+            .resolve(PROCESSING_TMP)
+            .resolve(name));
+  }
+
+  /**
+   * A stored file as a local path: S3 keys are downloaded into {@code workdir} under {@code name},
+   * legacy PVC paths resolve in place.
+   */
+  private Path toLocalFile(String storedPath, Path fileStorageLocation, Path workdir, String name) {
+    if (objectStorage.isPresent() && StoragePaths.isS3Key(storedPath)) {
+      Path local = workdir.resolve(name);
+      objectStorage.get().getToFile(storedPath, local);
+      return local;
+    }
+    return fileStorageLocation.resolve(storedPath).normalize();
+  }
+
+  /**
+   * Encode every configured {@link DerivativeFormat} variant of the JPEG derivatives in {@code
+   * jpegs} from {@code source} and queue them on {@code uploads} under their deterministic keys.
+   * Returns the {@code derivative_formats} column value: a format is listed only if it was produced
+   * for every JPEG size that exists, so the serve path never negotiates into a missing key. Local
+   * files of a partially-produced format are dropped.
+   *
+   * <p>Each variant's size is recorded against its JPEG counterpart in {@value #DERIVATIVE_BYTES}
+   * ({@code format}, {@code size} tags) — the running byte-savings figure per deployment.
+   */
+  private String storeVariants(
+      DerivativeUploader.Batch uploads, Path source, Long fileMetadataId, Path[] jpegs) {
+    if (properties.getDerivativeFormats().isEmpty()) {
+      return null;
+    }
+    long start = System.nanoTime();
+    String[] jpegKeys = {
+      StoragePaths.derivativeThumbnailKey(fileMetadataId),
+      StoragePaths.derivativeMediumKey(fileMetadataId),
+      StoragePaths.derivativeLargeKey(fileMetadataId),
+    };
+    Set<DerivativeFormat> produced = EnumSet.noneOf(DerivativeFormat.class);
+    for (DerivativeFormat format : EnumSet.copyOf(properties.getDerivativeFormats())) {
+      Path[] variants = thumbnailService.generateVariants(source, source, format);
+      boolean complete = true;
+      for (int slot = 0; slot < jpegs.length; slot++) {
+        if (jpegs[slot] != null && variants[slot] == null) {
+          complete = false;
+        }
+      }
+      if (!complete) {
+        log.warn(
+            "⚠️ {} variants incomplete for asset {}; serving JPEG only", format, fileMetadataId);
+        for (Path variant : variants) {
+          deleteQuietly(variant);
+        }
+        continue;
+      }
+      for (int slot = 0; slot < jpegs.length; slot++) {
+        if (jpegs[slot] == null) {
+          deleteQuietly(variants[slot]);
+          continue;
+        }
+        recordDerivativeBytes(format.getExtension(), slot, variants[slot]);
+        recordDerivativeBytes("jpeg", slot, jpegs[slot]);
+        uploads.submit(
+            StoragePaths.derivativeVariantKey(jpegKeys[slot], format),
+            variants[slot],
+            format.getMimeType(),
+            true);
+      }
+      produced.add(format);
+    }
+    DerivativeUploader.recordStage(meterRegistry, "variants", start);
+    return DerivativeFormat.format(produced);
+  }
+
+  private void recordDerivativeBytes(String format, int slot, Path file) {
+    try {
+      meterRegistry
+          .summary(DERIVATIVE_BYTES, "format", format, "size", SLOT_NAMES[slot])
+          .record(Files.size(file));
+    } catch (IOException e) {
+      // Only a metric sample; never worth failing the job over.
+      log.debug("Could not stat derivative {}: {}", file, e.toString());
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      log.debug("Could not delete {}: {}", file, e.toString());
+    }
+  }
+
+  /**
+   * Adds an HLS ladder for videos of at least {@code file.upload.hls-min-duration-seconds}, encoded
+   * from the web MP4 (already 8-bit H.264, so the decode is cheap) and uploaded file by file under
+   * {@code derivatives/{id}/hls/}. Best-effort: on failure the row keeps whatever {@code hls_path}
+   * it had and the progressive MP4 remains the playback path. {@code probe} describes {@code mp4}.
+   */
+  private void storeHls(
+      FileMetadata metadata,
+      DerivativeUploader.Batch uploads,
+      Path mp4,
+      FfmpegService.VideoProbe probe,
+      Path workdir,
+      Long fileMetadataId) {
+    int minSeconds = properties.getHlsMinDurationSeconds();
+    if (minSeconds <= 0) {
+      return;
+    }
+    if (probe.durationMs() == null || probe.durationMs() < minSeconds * 1000L) {
+      return;
+    }
+    long start = System.nanoTime();
+    Path hlsDir = workdir.resolve("hls");
+    if (!thumbnailService.generateHls(mp4, hlsDir, probe)) {
+      log.warn("⚠️ HLS generation failed for asset {}", fileMetadataId);
+      return;
+    }
+    String prefix = StoragePaths.derivativeHlsPrefix(fileMetadataId);
+    try (Stream<Path> files = Files.walk(hlsDir)) {
+      for (Path file : files.filter(Files::isRegularFile).toList()) {
+        String entry = hlsDir.relativize(file).toString().replace('\\', '/');
+        uploads.submit(prefix + entry, file, HlsPlaylists.contentType(entry), true);
+      }
+    } catch (IOException e) {
+      log.warn("⚠️ Could not collect HLS output for asset {}: {}", fileMetadataId, e.toString());
+      return;
+    }
+    DerivativeUploader.recordStage(meterRegistry, "hls", start);
+    metadata.setHlsPath(StoragePaths.derivativeHlsMasterKey(fileMetadataId));
+  }
+
+  /**
+   * Writes the scrub-preview sprite and its WebVTT track ({@code file.upload.sprite-frames} frames
+   * at most) from {@code source} and queues both under {@code derivatives/{id}/}. Returns the
+   * sprite so the caller can take the poster from its best-scored frame, or null when the sprite is
+   * disabled or failed — the row then keeps whatever {@code sprite_vtt_path} it had.
+   */
+  private FfmpegService.Sprite storeSprite(
+      FileMetadata metadata,
+      DerivativeUploader.Batch uploads,
+      MediaInput source,
+      FfmpegService.VideoProbe probe,
+      Path workdir,
+      Long fileMetadataId) {
+    int frames = properties.getSpriteFrames();
+    if (frames <= 0) {
+      return null;
+    }
+    long start = System.nanoTime();
+    FfmpegService.Sprite sprite =
+        thumbnailService.generateSprite(
+            source,
+            workdir.resolve(StoragePaths.SPRITE_IMAGE),
+            workdir.resolve(StoragePaths.SPRITE_TRACK),
+            StoragePaths.SPRITE_IMAGE,
+            probe.durationMs(),
+            frames);
+    if (sprite == null) {
+      log.warn("⚠️ Sprite generation failed for asset {}", fileMetadataId);
+      return null;
+    }
+    uploads.submit(
+        StoragePaths.derivativeSpriteImageKey(fileMetadataId), sprite.image(), "image/jpeg", true);
+    uploads.submit(
+        StoragePaths.derivativeSpriteTrackKey(fileMetadataId),
+        sprite.track(),
+        SpriteSheets.VTT_MIME,
+        true);
+    DerivativeUploader.recordStage(meterRegistry, "sprite", start);
+    metadata.setSpriteVttPath(StoragePaths.derivativeSpriteTrackKey(fileMetadataId));
+    return sprite;
+  }
+
+  /**
+   * Splits a long video that needs a full re-encode into keyframe-aligned slices and queues their
+   * upload to {@code derivatives/{id}/segments/}, for {@code TRANSCODE_SEGMENT} jobs that any
+   * worker can lease. Returns the number of slices, or 0 when the video is encoded in one piece
+   * here: splitting is off, the clip is short, a stream copy suffices, or the split did not yield
+   * at least two slices.
+   */
+  private int splitForSegmentedTranscode(
+      MediaInput source,
+      FfmpegService.VideoProbe probe,
+      Path workdir,
+      DerivativeUploader.Batch uploads,
+      Long fileMetadataId) {
+    int minSeconds = properties.getSegmentTranscodeMinDurationSeconds();
+    if (minSeconds <= 0) {
+      return 0;
+    }
+    if (probe.durationMs() == null
+        || probe.durationMs() < minSeconds * 1000L
+        || FfmpegService.decide(probe) != FfmpegService.TranscodeDecision.REENCODE) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    List<Path> slices =
+        thumbnailService.splitAtKeyframes(
+            source, workdir.resolve("segments"), properties.getSegmentTranscodeSeconds());
+    DerivativeUploader.recordStage(meterRegistry, "split", start);
+    if (slices.size() < 2) {
+      log.warn(
+          "Split of asset {} gave {} slices, encoding in one piece", fileMetadataId, slices.size());
+      return 0;
+    }
+    for (int i = 0; i < slices.size(); i++) {
+      uploads.submit(
+          StoragePaths.derivativeSourceSegmentKey(fileMetadataId, i),
+          slices.get(i),
+          "video/mp4",
+          true);
+    }
+    return slices.size();
+  }
+
+  /**
+   * BlurHash of the smallest derivative that was produced — thumb, else medium, else large — or
+   * null if none decodes. Must run before the derivatives are handed to the upload batch.
+   */
+  private String placeholderOf(Path[] thumbnails) {
+    for (Path candidate : thumbnails) {
+      if (candidate != null) {
+        return blurhashEncoder.encode(candidate);
+      }
+    }
+    return null;
+  }
+
+  /** Perceptual hash of the smallest thumbnail that was produced (D55). */
+  private Long phashOf(Path[] thumbnails) {
+    for (Path candidate : thumbnails) {
+      if (candidate != null) {
+        return PerceptualHash.of(candidate);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Persist a freshly-generated derivative. When {@code s3Key} is non-null the local file is queued
+   * on {@code uploads} for a background PUT and the key is returned as the DB pointer straight away
+   * — the caller joins the batch before committing DONE. The local file is deleted once its PUT
+   * lands (it lives in the temp workdir which is wiped anyway, but we delete eagerly to keep peak
+   * disk small). Otherwise we fall back to storing the derivative on the PVC and returning its
+   * relative path.
    */
   private String storeDerivative(
-      Path fileStorageLocation, Path local, String s3Key, String contentType) throws IOException {
+      DerivativeUploader.Batch uploads,
+      Path fileStorageLocation,
+      Path local,
+      String s3Key,
+      String contentType) {
     if (s3Key != null) {
-      objectStorage.get().putFile(s3Key, local, contentType);
-      try {
-        Files.deleteIfExists(local);
-      } catch (IOException cleanup) {
-        log.warn("Could not delete derivative temp file {}: {}", local, cleanup.toString());
-      }
+      uploads.submit(s3Key, local, contentType, true);
       return s3Key;
     }
+    try {
+      uploads.recordStored(local.getFileName().toString(), Files.size(local));
+    } catch (IOException e) {
+      log.warn("Could not stat derivative {} for storage accounting: {}", local, e.toString());
+    }
     return toRelativePath(fileStorageLocation, local);
   }
 
+  /**
+   * The fast half of a rotate (D63): turn the JPEG derivatives already on S3, and the variants
+   * listed in {@code derivative_formats}, instead of regenerating them from the original, and queue
+   * them under the asset's own derivative keys. Blurhash and pHash are recomputed from the turned
+   * thumbnail. Returns false with nothing queued when a JPEG derivative is missing or cannot be
+   * turned; a variant format that cannot be fetched or turned is dropped from {@code
+   * derivative_formats}, as {@link #storeVariants} drops an incomplete one.
+   */
+  private boolean rotateDerivatives(
+      DerivativeUploader.Batch uploads, Path workdir, FileMetadata metadata, Long fileMetadataId) {
+    String[] sourceKeys = {
+      metadata.getThumbnailPath(), metadata.getMediumPath(), metadata.getLargePath()
+    };
+    for (String key : sourceKeys) {
+      if (!StoragePaths.isS3Key(key)) {
+        return false;
+      }
+    }
+    long start = System.nanoTime();
+    Path[] jpegs = new Path[sourceKeys.length];
+    for (int slot = 0; slot < sourceKeys.length; slot++) {
+      jpegs[slot] = workdir.resolve("rotate_" + SLOT_NAMES[slot] + ".jpg");
+      try {
+        objectStorage.get().getToFile(sourceKeys[slot], jpegs[slot]);
+      } catch (RuntimeException e) {
+        // Failing the job here would leave the original, already queued turned, a turn ahead of
+        // the row, and the retry would turn it again.
+        log.warn(
+            "⚠️ Could not fetch {} of asset {} ({}); regenerating derivatives",
+            SLOT_NAMES[slot],
+            fileMetadataId,
+            e.toString());
+        return false;
+      }
+      if (!thumbnailService.rotateDerivativeLeft(jpegs[slot], slot, null)) {
+        log.warn(
+            "⚠️ Could not turn {} of asset {}; regenerating derivatives",
+            SLOT_NAMES[slot],
+            fileMetadataId);
+        return false;
+      }
+    }
+
+    Map<DerivativeFormat, Path[]> variants = new EnumMap<>(DerivativeFormat.class);
+    for (DerivativeFormat format : DerivativeFormat.parse(metadata.getDerivativeFormats())) {
+      Path[] turned = new Path[sourceKeys.length];
+      boolean complete = true;
+      for (int slot = 0; slot < sourceKeys.length && complete; slot++) {
+        String key = StoragePaths.derivativeVariantKey(sourceKeys[slot], format);
+        if (key == null) {
+          complete = false;
+          break;
+        }
+        turned[slot] = workdir.resolve("rotate_" + SLOT_NAMES[slot] + "." + format.getExtension());
+        try {
+          objectStorage.get().getToFile(key, turned[slot]);
+        } catch (RuntimeException e) {
+          log.warn("Could not fetch {} for rotation: {}", key, e.toString());
+          complete = false;
+          break;
+        }
+        complete = thumbnailService.rotateDerivativeLeft(turned[slot], slot, format);
+      }
+      if (complete) {
+        variants.put(format, turned);
+      } else {
+        log.warn(
+            "⚠️ {} variants of asset {} not rotated; serving JPEG only", format, fileMetadataId);
+      }
+    }
+
+    String placeholder = placeholderOf(jpegs);
+    if (placeholder != null) {
+      metadata.setBlurhash(placeholder);
+    }
+    Long phash = phashOf(jpegs);
+    if (phash != null) {
+      metadata.setPhash(phash);
+    }
+    String[] jpegKeys = {
+      StoragePaths.derivativeThumbnailKey(fileMetadataId),
+      StoragePaths.derivativeMediumKey(fileMetadataId),
+      StoragePaths.derivativeLargeKey(fileMetadataId),
+    };
+    for (Map.Entry<DerivativeFormat, Path[]> variant : variants.entrySet()) {
+      for (int slot = 0; slot < jpegKeys.length; slot++) {
+        uploads.submit(
+            StoragePaths.derivativeVariantKey(jpegKeys[slot], variant.getKey()),
+            variant.getValue()[slot],
+            variant.getKey().getMimeType(),
+            true);
+      }
+    }
+    metadata.setDerivativeFormats(DerivativeFormat.format(variants.keySet()));
+    for (int slot = 0; slot < jpegKeys.length; slot++) {
+      uploads.submit(jpegKeys[slot], jpegs[slot], "image/jpeg", true);
+    }
+    metadata.setThumbnailPath(jpegKeys[0]);
+    metadata.setMediumPath(jpegKeys[1]);
+    metadata.setLargePath(jpegKeys[2]);
+    DerivativeUploader.recordStage(meterRegistry, "rotate", start);
+    return true;
+  }
+
+  /**
+   * The slow half of a rotate: every derivative and variant regenerated from {@code source}, which
+   * is already turned. Derivative keys are deterministic per assetId, so the PUT overwrites the old
+   * derivative bytes — no separate delete needed.
+   */
+  private void regenerateRotated(
+      DerivativeUploader.Batch uploads,
+      Path fileStorageLocation,
+      Path source,
+      FileMetadata metadata,
+      Long fileMetadataId) {
+    Path[] thumbnails = thumbnailService.generateAllThumbnails(source, source);
+    String rotatedPlaceholder = placeholderOf(thumbnails);
+    if (rotatedPlaceholder != null) {
+      metadata.setBlurhash(rotatedPlaceholder);
+    }
+    Long rotatedPhash = phashOf(thumbnails);
+    if (rotatedPhash != null) {
+      metadata.setPhash(rotatedPhash);
+    }
+    // Variants are regenerated too — the old ones show the unrotated image under the same keys.
+    metadata.setDerivativeFormats(storeVariants(uploads, source, fileMetadataId, thumbnails));
+    if (thumbnails[0] != null) {
+      metadata.setThumbnailPath(
+          storeDerivative(
+              uploads,
+              fileStorageLocation,
+              thumbnails[0],
+              StoragePaths.derivativeThumbnailKey(fileMetadataId),
+              "image/jpeg"));
+    }
+    if (thumbnails[1] != null) {
+      metadata.setMediumPath(
+          storeDerivative(
+              uploads,
+              fileStorageLocation,
+              thumbnails[1],
+              StoragePaths.derivativeMediumKey(fileMetadataId),
+              "image/jpeg"));
+    }
+    if (thumbnails[2] != null) {
+      metadata.setLargePath(
+          storeDerivative(
+              uploads,
+              fileStorageLocation,
+              thumbnails[2],
+              StoragePaths.derivativeLargeKey(fileMetadataId),
+              "image/jpeg"));
+    }
+  }
+
   /**
    * Pick the best S3-backed source for a rotation. Original first; if retention has nulled {@code
    * file_path} we step down through the derivative ladder. Returns null if no S3-backed source
@@ -793,7 +1743,22 @@ public class FileProcessingService {
     }
   }
 
+  /**
+   * Throws once the dispatcher has lost this job's lease: another worker owns the asset now, and
+   * its run, not this one, writes the row. Called right before a job's results are persisted.
+   */
+  private void requireLease() {
+    if (jobProgress.abandoned()) {
+      throw new CancellationException("Lease lost; results of this run are discarded");
+    }
+  }
+
   private void markFailed(TransactionTemplate tx, Long fileMetadataId, Throwable cause) {
+    if (jobProgress.abandoned()) {
+      // The failure is most likely our own tools being stopped; it is not a verdict on the asset.
+      log.info("Not marking asset {} FAILED: its job's lease was lost", fileMetadataId);
+      return;
+    }
     try {
       tx.executeWithoutResult(
           status -> {
@@ -6,6 +6,7 @@ import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.entity.Album;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.entity.ImageTag;
+import com.oglimmer.photoupload.entity.JobLane;
 import com.oglimmer.photoupload.entity.JobType;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
 import com.oglimmer.photoupload.entity.Tag;
@@ -24,8 +25,13 @@ import com.oglimmer.photoupload.repository.FileMetadataRepository;
 import com.oglimmer.photoupload.repository.ImageTagRepository;
 import com.oglimmer.photoupload.repository.TagRepository;
 import com.oglimmer.photoupload.security.UserContext;
+import com.oglimmer.photoupload.storage.DerivativeFormat;
+import com.oglimmer.photoupload.storage.KeyMergeJoin;
 import com.oglimmer.photoupload.storage.StoragePaths;
+import com.oglimmer.photoupload.util.HlsPlaylists;
 import com.oglimmer.photoupload.util.MimeTypePredicates;
+import com.oglimmer.photoupload.util.Sha256;
+import com.oglimmer.photoupload.util.SpriteSheets;
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,9 +39,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.time.Instant;
@@ -45,13 +48,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
@@ -112,6 +118,7 @@ public class FileStorageService {
   private final UserContext userContext;
   private final TransactionTemplate transactionTemplate;
   private final JobEnqueueService jobEnqueueService;
+  private final StorageAccountingService storageAccounting;
   // Optional: present iff storage.s3.enabled=true. When present, the upload path PUTs the body
   // directly to MinIO and stores an S3 key in file_path; the local PVC is used only for Spring's
   // transient .multipart-tmp staging (auto-cleaned per request) and per-job processing scratch.
@@ -130,6 +137,7 @@ public class FileStorageService {
       UserContext userContext,
       PlatformTransactionManager transactionManager,
       JobEnqueueService jobEnqueueService,
+      StorageAccountingService storageAccounting,
       Optional<ObjectStorageService> objectStorage) {
     this.properties = properties;
     this.metadataRepository = metadataRepository;
@@ -144,6 +152,7 @@ public class FileStorageService {
     this.fileStorageLocation = Paths.get(properties.getUploadDir()).toAbsolutePath().normalize();
     this.transactionTemplate = new TransactionTemplate(transactionManager);
     this.jobEnqueueService = jobEnqueueService;
+    this.storageAccounting = storageAccounting;
     this.objectStorage = objectStorage;
   }
 
@@ -266,9 +275,10 @@ public class FileStorageService {
     try (InputStream in = file.getInputStream()) {
       Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
     }
-    final String checksum = computeSha256(tempFile);
+    final String checksum = Sha256.of(tempFile);
 
-    // Check for duplicate by checksum (same album and other albums) in a single transaction.
+    // Check for duplicate by checksum (same album, then the user's other albums) in a single
+    // transaction. Both lookups are index probes (V43) and never match another user's assets.
     FileInfo duplicateByChecksum =
         !properties.isDuplicateDetectionEnabled()
             ? null
@@ -288,7 +298,7 @@ public class FileStorageService {
                   }
 
                   List<FileMetadata> existingInOtherAlbum =
-                      metadataRepository.findByChecksum(checksum);
+                      metadataRepository.findByChecksumAndUserId(checksum, currentUser.getId());
                   if (!existingInOtherAlbum.isEmpty()) {
                     FileMetadata existing = existingInOtherAlbum.get(0);
                     if (existingInOtherAlbum.size() > 1) {
@@ -358,12 +368,11 @@ public class FileStorageService {
                           () -> new ResourceNotFoundException("Album", "id", effectiveAlbumId));
               metadata.setAlbum(album);
 
-              Integer maxOrder =
-                  metadataRepository.findMaxDisplayOrderByAlbumIdAndUserId(
-                      effectiveAlbumId, currentUser.getId());
-              metadata.setDisplayOrder(maxOrder != null ? maxOrder + 1 : 0);
+              metadata.setDisplayOrder(albumRepository.allocateFileOrder(effectiveAlbumId));
 
               FileMetadata saved = metadataRepository.save(metadata);
+              storageAccounting.record(
+                  saved.getId(), Map.of(StorageAccountingService.ORIGINAL, file.getSize()));
               ensureNoTagExists(currentUser);
               addNoTagToFile(saved, currentUser);
               // Same TX as the metadata insert → either both visible or neither.
@@ -380,10 +389,11 @@ public class FileStorageService {
 
   /**
    * Phase 5 — TUS resumable upload landing path. Bytes are already in MinIO at {@code tusS3Key}
-   * (where tusd put them as a multipart upload). We rename them server-side to the canonical {@code
-   * originals/{stored_filename}} convention via S3 COPY+DELETE — see D24/D25 — then insert the
-   * {@code file_metadata} row and enqueue a PROCESS job in the same TX, exactly like {@link
-   * #storeFile}.
+   * (where tusd put them as a multipart upload). When tusd writes under {@code originals/tus/}
+   * (D58) that object is the original and the row simply points at it; otherwise it is renamed to
+   * the canonical {@code originals/{stored_filename}} via S3 COPY+DELETE — see D24/D25. Either way
+   * the {@code file_metadata} row is inserted and a PROCESS job enqueued in the same TX, exactly
+   * like {@link #storeFile}.
    *
    * <p>The hook controller is the only caller. The user has already been authenticated upstream
    * from {@code Upload-Metadata.auth}; we accept it as a plain {@link User} argument rather than
@@ -395,9 +405,10 @@ public class FileStorageService {
    * post-finish fires twice (network retry), the caller short-circuits on the existing row before
    * invoking us — see {@code TusHookService.handlePostFinish}.
    *
-   * <p>The COPY is server-side in MinIO (no JVM bytes); the cleanup of {@code tusS3Key} and its
-   * companion {@code .info} object is best-effort — a stale tus-uploads/{uuid} object is mopped up
-   * by tusd's own {@code -expire-after} sweep.
+   * <p>The COPY is server-side in MinIO (no JVM bytes), but on a single-drive MinIO it still
+   * rewrites every byte, which is why in-place finalisation is the default. The cleanup of the
+   * companion {@code .info} object (and, after a COPY, of {@code tusS3Key}) is best-effort — the
+   * retention CronJob's TUS pass mops up whatever is left.
    */
   public FileInfo registerTusUpload(
       User currentUser,
@@ -429,10 +440,19 @@ public class FileStorageService {
     String uniqueSuffix =
         System.currentTimeMillis() + "-" + UUID.randomUUID().toString().substring(0, 9);
     String newFilename = nameWithoutExtension + "-" + uniqueSuffix + "." + extension;
-    String originalKey = StoragePaths.ORIGINALS_PREFIX + newFilename;
 
+    // D58: tusd writing under originals/tus/ means its object already is the original — the row
+    // points at it and nothing is rewritten. Anything else (uploads started under the old
+    // tus-uploads/ prefix) is copied into originals/ as before.
     ObjectStorageService storage = objectStorage.get();
-    storage.copy(tusS3Key, originalKey, contentType);
+    boolean inPlace = StoragePaths.isTusOriginalKey(tusS3Key);
+    String originalKey;
+    if (inPlace) {
+      originalKey = tusS3Key;
+    } else {
+      originalKey = StoragePaths.ORIGINALS_PREFIX + newFilename;
+      storage.copy(tusS3Key, originalKey, contentType);
+    }
 
     final String finalContentType = contentType;
     final String finalNewFilename = newFilename;
@@ -457,12 +477,11 @@ public class FileStorageService {
                           () -> new ResourceNotFoundException("Album", "id", effectiveAlbumId));
               metadata.setAlbum(album);
 
-              Integer maxOrder =
-                  metadataRepository.findMaxDisplayOrderByAlbumIdAndUserId(
-                      effectiveAlbumId, currentUser.getId());
-              metadata.setDisplayOrder(maxOrder != null ? maxOrder + 1 : 0);
+              metadata.setDisplayOrder(albumRepository.allocateFileOrder(effectiveAlbumId));
 
               FileMetadata saved = metadataRepository.save(metadata);
+              storageAccounting.record(
+                  saved.getId(), Map.of(StorageAccountingService.ORIGINAL, fileSize));
               ensureNoTagExists(currentUser);
               addNoTagToFile(saved, currentUser);
               jobEnqueueService.enqueue(saved.getId(), JobType.PROCESS);
@@ -470,7 +489,8 @@ public class FileStorageService {
             });
 
     try {
-      storage.deleteKeys(java.util.List.of(tusS3Key, tusS3Key + ".info"));
+      String infoKey = tusS3Key + StoragePaths.TUS_INFO_SUFFIX;
+      storage.deleteKeys(inPlace ? List.of(infoKey) : List.of(tusS3Key, infoKey));
     } catch (Exception e) {
       log.warn("TUS cleanup failed for {} ({}); orphan job will mop up", tusS3Key, e.toString());
     }
@@ -636,31 +656,15 @@ public class FileStorageService {
     return byteCountToDisplaySize(bytes);
   }
 
-  private String computeSha256(Path file) throws IOException {
-    MessageDigest digest;
-    try {
-      digest = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalStateException("SHA-256 unavailable", e);
-    }
-    byte[] buf = new byte[64 * 1024];
-    try (InputStream in = Files.newInputStream(file);
-        DigestInputStream dis = new DigestInputStream(in, digest)) {
-      while (dis.read(buf) != -1) {}
-    }
-    byte[] hash = digest.digest();
-    StringBuilder hex = new StringBuilder(hash.length * 2);
-    for (byte b : hash) {
-      hex.append(String.format("%02x", b));
-    }
-    return hex.toString();
-  }
-
-  @Transactional
+  @Transactional(readOnly = true)
   /**
    * Compares every key in the S3 bucket against the paths recorded in the DB and deletes any key
    * that has no corresponding row. Pass {@code dryRun=true} to log what would be deleted without
    * touching MinIO — always run a dry-run first to sanity-check the numbers.
+   *
+   * <p>Streams both sides in key order and merge-joins them one asset directory at a time ({@link
+   * KeyMergeJoin}), so memory stays flat however large the bucket is; orphans are deleted in {@code
+   * DeleteObjects} batches as the walk goes.
    */
   public Map<String, Object> purgeOrphanedS3Objects(boolean dryRun) {
     if (objectStorage.isEmpty()) {
@@ -668,49 +672,175 @@ public class FileStorageService {
     }
     ObjectStorageService s3 = objectStorage.get();
 
-    Set<String> knownPaths = new HashSet<>(metadataRepository.findAllStoredPaths());
-    List<String> bucketKeys = s3.listKeys();
-
-    int orphaned = 0;
-    int deleted = 0;
-    int failed = 0;
-    for (String key : bucketKeys) {
-      if (!knownPaths.contains(key)) {
-        orphaned++;
-        if (dryRun) {
-          log.info("Dry run — orphaned S3 object: {}", key);
-        } else {
-          try {
-            s3.delete(key);
-            deleted++;
-            log.info("Deleted orphaned S3 object: {}", key);
-          } catch (Exception e) {
-            failed++;
-            log.warn("Failed to delete orphaned S3 object {}: {}", key, e.getMessage());
-          }
-        }
-      }
+    int[] totals = new int[3]; // orphaned, deleted, failed
+    List<String> batch = new ArrayList<>(ObjectStorageService.DELETE_BATCH_SIZE);
+    KeyMergeJoin.Stats stats;
+    try (Stream<String> bucketKeys = s3.streamKeys(null);
+        Stream<String> storedPaths = metadataRepository.streamStoredPaths()) {
+      stats =
+          KeyMergeJoin.join(
+              bucketKeys.iterator(),
+              storedPaths.iterator(),
+              KeyMergeJoin::assetGroupOf,
+              (group, listed, known) -> {
+                for (String key : orphansOf(listed, known)) {
+                  totals[0]++;
+                  if (dryRun) {
+                    log.info("Dry run — orphaned S3 object: {}", key);
+                    continue;
+                  }
+                  batch.add(key);
+                  if (batch.size() == ObjectStorageService.DELETE_BATCH_SIZE) {
+                    deleteOrphanBatch(s3, batch, totals);
+                  }
+                }
+                return true;
+              });
     }
+    deleteOrphanBatch(s3, batch, totals);
+    int orphaned = totals[0];
+    int deleted = totals[1];
+    int failed = totals[2];
 
     log.info(
         "S3 orphan purge complete (dryRun={}): {} bucket keys, {} known DB paths, {} orphaned, {} deleted, {} failed",
         dryRun,
-        bucketKeys.size(),
-        knownPaths.size(),
+        stats.bucketKeys(),
+        stats.knownKeys(),
         orphaned,
         deleted,
         failed);
 
     Map<String, Object> result = new HashMap<>();
     result.put("dryRun", dryRun);
-    result.put("totalBucketKeys", bucketKeys.size());
-    result.put("knownDbPaths", knownPaths.size());
+    result.put("totalBucketKeys", stats.bucketKeys());
+    result.put("knownDbPaths", stats.knownKeys());
     result.put("orphaned", orphaned);
     result.put("deleted", deleted);
     result.put("failed", failed);
     return result;
   }
 
+  /**
+   * The keys of one asset directory (or one loose key) that nothing on record keeps alive. {@code
+   * known} are the stored paths of the same group.
+   */
+  static List<String> orphansOf(List<String> listed, List<String> known) {
+    Set<String> knownPaths = new HashSet<>(known);
+    for (String path : known) {
+      // WebP/AVIF variants have no column of their own; they live beside a known JPEG derivative.
+      knownPaths.addAll(StoragePaths.derivativeVariantKeys(path));
+      // The sprite image is referenced through its track.
+      String spriteImage = StoragePaths.spriteImageKeyOf(path);
+      if (spriteImage != null) {
+        knownPaths.add(spriteImage);
+      }
+    }
+    // An HLS rendition is referenced by its master key; every segment under that prefix is live.
+    Set<String> knownHlsPrefixes =
+        known.stream()
+            .map(StoragePaths::hlsPrefixOf)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toSet());
+    List<String> orphans = new ArrayList<>();
+    for (String key : listed) {
+      // Segments of a split transcode are referenced by nothing until the join, and on-demand
+      // renditions by nothing ever; both are live for as long as their asset has any derivative
+      // on record.
+      boolean liveUnreferenced =
+          (StoragePaths.isSegmentKey(key) || StoragePaths.isResizedKey(key)) && !known.isEmpty();
+      if (!knownPaths.contains(key)
+          && !knownHlsPrefixes.contains(StoragePaths.hlsPrefixOf(key))
+          && !liveUnreferenced) {
+        orphans.add(key);
+      }
+    }
+    return orphans;
+  }
+
+  private static void deleteOrphanBatch(ObjectStorageService s3, List<String> batch, int[] totals) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      s3.deleteKeys(List.copyOf(batch));
+      totals[1] += batch.size();
+      batch.forEach(key -> log.info("Deleted orphaned S3 object: {}", key));
+    } catch (Exception e) {
+      totals[2] += batch.size();
+      log.warn("Failed to delete {} orphaned S3 objects: {}", batch.size(), e.getMessage());
+    }
+    batch.clear();
+  }
+
+  /**
+   * Measured byte savings of the WebP/AVIF variants over their JPEG siblings for up to {@code
+   * sample} assets of one album (hard cap 500). Sizes come from S3 HEADs, nothing is downloaded. A
+   * pair only counts when both objects exist, so a half-written variant set can't flatter the
+   * numbers.
+   *
+   * <p>Stats: {@code sampled}, then per format a map of {@code thumb / medium / large / total},
+   * each holding {@code jpegBytes}, {@code variantBytes}, {@code pairs} and {@code savedPercent}.
+   */
+  @Transactional(readOnly = true)
+  public Map<String, Object> measureDerivativeSavings(Long albumId, int sample) {
+    if (objectStorage.isEmpty()) {
+      throw new IllegalStateException("S3 storage is not enabled");
+    }
+    ObjectStorageService s3 = objectStorage.get();
+    int safeSample = Math.max(1, Math.min(sample, 500));
+    List<FileMetadata> rows =
+        metadataRepository.findWithDerivativeFormatsByAlbumId(
+            albumId, PageRequest.of(0, safeSample));
+
+    String[] slots = {"thumb", "medium", "large"};
+    // [format][slot] -> {jpegBytes, variantBytes, pairs}; the extra slot row is the total.
+    long[][][] acc = new long[DerivativeFormat.values().length][slots.length + 1][3];
+    for (FileMetadata row : rows) {
+      String[] jpegKeys = {row.getThumbnailPath(), row.getMediumPath(), row.getLargePath()};
+      for (DerivativeFormat format : DerivativeFormat.parse(row.getDerivativeFormats())) {
+        for (int slot = 0; slot < slots.length; slot++) {
+          String variantKey = StoragePaths.derivativeVariantKey(jpegKeys[slot], format);
+          if (variantKey == null) {
+            continue;
+          }
+          Long jpegBytes = s3.objectSize(jpegKeys[slot]);
+          Long variantBytes = s3.objectSize(variantKey);
+          if (jpegBytes == null || variantBytes == null) {
+            continue;
+          }
+          for (long[] bucket :
+              new long[][] {acc[format.ordinal()][slot], acc[format.ordinal()][slots.length]}) {
+            bucket[0] += jpegBytes;
+            bucket[1] += variantBytes;
+            bucket[2]++;
+          }
+        }
+      }
+    }
+
+    Map<String, Object> result = new HashMap<>();
+    result.put("albumId", albumId);
+    result.put("sampled", rows.size());
+    for (DerivativeFormat format : DerivativeFormat.values()) {
+      Map<String, Object> perFormat = new HashMap<>();
+      for (int slot = 0; slot <= slots.length; slot++) {
+        long[] bucket = acc[format.ordinal()][slot];
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("jpegBytes", bucket[0]);
+        entry.put("variantBytes", bucket[1]);
+        entry.put("pairs", bucket[2]);
+        entry.put(
+            "savedPercent",
+            bucket[0] == 0 ? 0.0 : Math.round(1000.0 * (bucket[0] - bucket[1]) / bucket[0]) / 10.0);
+        perFormat.put(slot < slots.length ? slots[slot] : "total", entry);
+      }
+      result.put(format.getExtension(), perFormat);
+    }
+    log.info("Derivative savings for album {} over {} assets: {}", albumId, rows.size(), result);
+    return result;
+  }
+
   private void deleteS3Objects(FileMetadata metadata) {
     if (objectStorage.isEmpty()) {
       log.warn(
@@ -724,6 +854,90 @@ public class FileStorageService {
     deleteS3Key(s3, metadata.getMediumPath(), "medium");
     deleteS3Key(s3, metadata.getLargePath(), "large");
     deleteS3Key(s3, metadata.getTranscodedVideoPath(), "transcoded");
+    for (String variantKey : variantKeys(metadata)) {
+      deleteS3Key(s3, variantKey, "variant");
+    }
+    deleteS3Key(s3, metadata.getSpriteVttPath(), "sprite track");
+    deleteS3Key(s3, StoragePaths.spriteImageKeyOf(metadata.getSpriteVttPath()), "sprite");
+    List<String> hlsKeys = hlsKeys(s3, metadata);
+    if (!hlsKeys.isEmpty()) {
+      try {
+        s3.deleteKeys(hlsKeys);
+      } catch (Exception e) {
+        // Same leniency as deleteS3Key: the orphan purge picks up whatever is left.
+        log.warn("Failed to delete HLS objects of {}: {}", metadata.getHlsPath(), e.getMessage());
+      }
+    }
+    try {
+      List<String> resizedKeys = resizedKeys(s3, metadata);
+      if (!resizedKeys.isEmpty()) {
+        s3.deleteKeys(resizedKeys);
+      }
+    } catch (Exception e) {
+      log.warn(
+          "Failed to delete resized objects of asset {}: {}", metadata.getId(), e.getMessage());
+    }
+  }
+
+  private static void deleteOwnResized(ObjectStorageService s3, FileMetadata metadata) {
+    try {
+      List<String> keys = ownResizedKeys(s3, metadata);
+      if (!keys.isEmpty()) {
+        s3.deleteKeys(keys);
+      }
+    } catch (Exception e) {
+      log.warn(
+          "Failed to delete resized objects of asset {}: {}", metadata.getId(), e.getMessage());
+    }
+  }
+
+  /** Every object of the row's HLS rendition, listed under its prefix; empty when it has none. */
+  private static List<String> hlsKeys(ObjectStorageService s3, FileMetadata metadata) {
+    String prefix = StoragePaths.hlsPrefixOf(metadata.getHlsPath());
+    return prefix == null ? List.of() : s3.listKeys(prefix);
+  }
+
+  /**
+   * Every on-demand rendition (D65) next to the row's derivatives, listed under their prefix: the
+   * row's own and those of rows sharing them, which lose their source with the derivatives. Only
+   * images with derivatives in object storage can have any.
+   */
+  private static List<String> resizedKeys(ObjectStorageService s3, FileMetadata metadata) {
+    if (MimeTypePredicates.isVideoFile(metadata.getMimeType())
+        || !StoragePaths.isS3Key(metadata.getThumbnailPath())) {
+      return List.of();
+    }
+    String prefix = StoragePaths.derivativeResizedPrefix(metadata.getLargePath());
+    return prefix == null ? List.of() : s3.listKeys(prefix);
+  }
+
+  /**
+   * The row's own renditions, under its token: what a row whose derivatives stay with another row
+   * leaves behind when it goes.
+   */
+  private static List<String> ownResizedKeys(ObjectStorageService s3, FileMetadata metadata) {
+    if (MimeTypePredicates.isVideoFile(metadata.getMimeType())
+        || !StoragePaths.isS3Key(metadata.getThumbnailPath())) {
+      return List.of();
+    }
+    String prefix =
+        StoragePaths.derivativeResizedPrefix(metadata.getLargePath(), metadata.getPublicToken());
+    return prefix == null ? List.of() : s3.listKeys(prefix);
+  }
+
+  /**
+   * WebP/AVIF keys of the row's image derivatives. Every format, not just the ones the column lists
+   * today: a rotate or regen under a narrower {@code derivative-formats} leaves the older variants
+   * in place, and a no-op S3 DELETE is cheaper than leaking them. An empty or null column is no
+   * exception: a row whose variants failed to record, or were cleared by a later regen, can still
+   * have them on S3.
+   */
+  private static List<String> variantKeys(FileMetadata metadata) {
+    List<String> keys = new ArrayList<>();
+    keys.addAll(StoragePaths.derivativeVariantKeys(metadata.getThumbnailPath()));
+    keys.addAll(StoragePaths.derivativeVariantKeys(metadata.getMediumPath()));
+    keys.addAll(StoragePaths.derivativeVariantKeys(metadata.getLargePath()));
+    return keys;
   }
 
   private void deleteS3Key(ObjectStorageService s3, String key, String label) {
@@ -783,6 +997,7 @@ public class FileStorageService {
         log.debug(
             "Skipping physical deletion for {} — file_path shared with another album",
             f.getStoredFilename());
+        objectStorage.ifPresent(s3 -> s3KeysToDelete.addAll(ownResizedKeys(s3, f)));
         continue;
       }
       if (StoragePaths.isS3Key(f.getFilePath())) {
@@ -791,6 +1006,11 @@ public class FileStorageService {
         addIfNotBlank(s3KeysToDelete, f.getMediumPath());
         addIfNotBlank(s3KeysToDelete, f.getLargePath());
         addIfNotBlank(s3KeysToDelete, f.getTranscodedVideoPath());
+        s3KeysToDelete.addAll(variantKeys(f));
+        addIfNotBlank(s3KeysToDelete, f.getSpriteVttPath());
+        addIfNotBlank(s3KeysToDelete, StoragePaths.spriteImageKeyOf(f.getSpriteVttPath()));
+        objectStorage.ifPresent(s3 -> s3KeysToDelete.addAll(hlsKeys(s3, f)));
+        objectStorage.ifPresent(s3 -> s3KeysToDelete.addAll(resizedKeys(s3, f)));
       } else {
         deleteLocalQuietly(f.getFilePath());
         localFileCleanupService.deleteThumbnails(
@@ -849,6 +1069,7 @@ public class FileStorageService {
       log.info(
           "Skipping physical file deletion for {} — shared with other records",
           metadata.getStoredFilename());
+      objectStorage.ifPresent(s3 -> deleteOwnResized(s3, metadata));
     } else if (StoragePaths.isS3Key(metadata.getFilePath())) {
       deleteS3Objects(metadata);
     } else {
@@ -873,8 +1094,12 @@ public class FileStorageService {
       }
     }
 
-    // Delete metadata (cascade will delete image_tags)
-    metadataRepository.delete(metadata);
+    // Delete metadata (cascade will delete image_tags) and stop charging for its objects
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          storageAccounting.release(List.of(metadata.getId()), null);
+          metadataRepository.delete(metadata);
+        });
   }
 
   @Transactional
@@ -1159,6 +1384,74 @@ public class FileStorageService {
     log.info("Reordered {} files", fileIds.size());
   }
 
+  /**
+   * Serve information for one entry of an asset's HLS rendition ({@code master.m3u8}, {@code
+   * 720p/seg_00001.m4s}, ...). The public token authorizes exactly as for {@code /api/i/{token}};
+   * the entry is validated before it becomes part of an object key, so it can never reach outside
+   * {@code derivatives/{id}/hls/}.
+   */
+  @Transactional(readOnly = true)
+  public FileServeInfo getHlsServeInfo(String publicToken, String entry) {
+    FileMetadata metadata =
+        metadataRepository
+            .findByPublicToken(publicToken)
+            .orElseThrow(() -> new ResourceNotFoundException("File not found"));
+    String prefix = StoragePaths.hlsPrefixOf(metadata.getHlsPath());
+    if (prefix == null || !HlsPlaylists.isSafeEntry(entry)) {
+      throw new ResourceNotFoundException("HLS rendition not found");
+    }
+    return new FileServeInfo(
+        HlsPlaylists.contentType(entry),
+        metadata.getChecksum(),
+        metadata.getUploadedAt(),
+        null,
+        metadata.getStoredFilename(),
+        metadata.getProcessingStatus(),
+        true,
+        prefix + entry,
+        null,
+        false);
+  }
+
+  /**
+   * Serve information for a video's scrub-preview sprite: {@code entry} is {@value
+   * StoragePaths#SPRITE_TRACK} (the WebVTT thumbnails track) or {@value StoragePaths#SPRITE_IMAGE}
+   * (the tiled image its cues address). Authorized by the public token like {@code /api/i/{token}}.
+   */
+  @Transactional(readOnly = true)
+  public FileServeInfo getSpriteServeInfo(String publicToken, String entry) {
+    FileMetadata metadata =
+        metadataRepository
+            .findByPublicToken(publicToken)
+            .orElseThrow(() -> new ResourceNotFoundException("File not found"));
+    String trackKey = metadata.getSpriteVttPath();
+    if (trackKey == null) {
+      throw new ResourceNotFoundException("Sprite not found");
+    }
+    String storageKey;
+    String mimeType;
+    if (StoragePaths.SPRITE_TRACK.equals(entry)) {
+      storageKey = trackKey;
+      mimeType = SpriteSheets.VTT_MIME;
+    } else if (StoragePaths.SPRITE_IMAGE.equals(entry)) {
+      storageKey = StoragePaths.spriteImageKeyOf(trackKey);
+      mimeType = "image/jpeg";
+    } else {
+      throw new ResourceNotFoundException("Sprite not found");
+    }
+    return new FileServeInfo(
+        mimeType,
+        metadata.getChecksum(),
+        metadata.getUploadedAt(),
+        null,
+        metadata.getStoredFilename(),
+        metadata.getProcessingStatus(),
+        true,
+        storageKey,
+        null,
+        false);
+  }
+
   /**
    * Get file serve information by public token (for serving files)
    *
@@ -1168,6 +1461,17 @@ public class FileStorageService {
    */
   @Transactional(readOnly = true)
   public FileServeInfo getFileServeInfoByPublicToken(String publicToken, String size) {
+    return getFileServeInfoByPublicToken(publicToken, size, null);
+  }
+
+  /**
+   * As {@link #getFileServeInfoByPublicToken(String, String)}, but when the chosen file is a JPEG
+   * image derivative that also exists as WebP/AVIF (see {@link DerivativeFormat}), picks the best
+   * variant {@code acceptHeader} names and serves that key instead.
+   */
+  @Transactional(readOnly = true)
+  public FileServeInfo getFileServeInfoByPublicToken(
+      String publicToken, String size, String acceptHeader) {
     FileMetadata metadata =
         metadataRepository
             .findByPublicToken(publicToken)
@@ -1278,6 +1582,29 @@ public class FileStorageService {
     boolean s3Backed = StoragePaths.isS3Key(filePath);
     Path absolutePath = s3Backed ? null : toAbsolutePath(filePath);
 
+    // Variants exist only for S3-backed image derivatives, and only for the formats the worker
+    // recorded on the row.
+    Set<DerivativeFormat> formats = DerivativeFormat.parse(metadata.getDerivativeFormats());
+    boolean negotiable =
+        s3Backed
+            && !formats.isEmpty()
+            && !isVideo
+            && (filePath.equals(metadata.getThumbnailPath())
+                || filePath.equals(metadata.getMediumPath())
+                || filePath.equals(metadata.getLargePath()));
+    String variant = null;
+    if (negotiable) {
+      Optional<DerivativeFormat> chosen = DerivativeFormat.negotiate(acceptHeader, formats);
+      String jpegKey = filePath;
+      String variantKey =
+          chosen.map(f -> StoragePaths.derivativeVariantKey(jpegKey, f)).orElse(null);
+      if (variantKey != null) {
+        filePath = variantKey;
+        mimeType = chosen.get().getMimeType();
+        variant = chosen.get().getExtension();
+      }
+    }
+
     return new FileServeInfo(
         mimeType,
         metadata.getChecksum(),
@@ -1286,7 +1613,9 @@ public class FileStorageService {
         metadata.getStoredFilename(),
         metadata.getProcessingStatus(),
         derivativeReady,
-        s3Backed ? filePath : null);
+        s3Backed ? filePath : null,
+        variant,
+        negotiable);
   }
 
   /**
@@ -1522,7 +1851,7 @@ public class FileStorageService {
             locked.setProcessingError(null);
             locked.setProcessingCompletedAt(null);
             metadataRepository.save(locked);
-            jobEnqueueService.enqueue(id, JobType.PROCESS);
+            jobEnqueueService.enqueue(id, JobType.PROCESS, JobLane.BACKFILL);
           }
         });
     log.info("Video-transcode sweep: enqueued {} jobs", ids.size());
@@ -1605,4 +1934,74 @@ public class FileStorageService {
     log.info("GPS sweep: enqueued {} jobs", ids.size());
     return ids.size();
   }
+
+  /**
+   * Enqueues an {@code EXTRACT_PLACEHOLDER} job per asset that has a thumbnail but no BlurHash —
+   * the backfill that lets the gallery lay out albums uploaded before placeholders existed. Mirrors
+   * {@link #enqueueGpsExtract}; retention-purged rows are included because the placeholder comes
+   * from the thumbnail.
+   *
+   * @return how many jobs were enqueued; re-invoke until this returns 0
+   */
+  public int enqueuePlaceholderExtract(int maxRows) {
+    int safeMax = Math.max(1, Math.min(maxRows, 5000));
+    List<Long> ids = metadataRepository.findMissingPlaceholderIds(safeMax);
+    if (ids.isEmpty()) {
+      log.info("Placeholder sweep: no eligible assets");
+      return 0;
+    }
+    log.info("Placeholder sweep: enqueuing {} jobs (cap={})", ids.size(), safeMax);
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          for (Long id : ids) {
+            FileMetadata locked =
+                metadataRepository
+                    .findById(id)
+                    .orElseThrow(() -> new ResourceNotFoundException("File", "id", id));
+            locked.setProcessingStatus(ProcessingStatus.QUEUED);
+            locked.setProcessingAttempts(0);
+            locked.setProcessingError(null);
+            locked.setProcessingCompletedAt(null);
+            metadataRepository.save(locked);
+            jobEnqueueService.enqueue(id, JobType.EXTRACT_PLACEHOLDER);
+          }
+        });
+    log.info("Placeholder sweep: enqueued {} jobs", ids.size());
+    return ids.size();
+  }
+
+  /**
+   * Enqueues a {@code COMPUTE_CHECKSUM} job per asset that has an original but no checksum — the
+   * TUS uploads processed before the worker hashed its download, which sync and upload dedupe could
+   * not see. Mirrors {@link #enqueueGpsExtract}: hash-only work, capped per call, idempotent
+   * because the worker always writes the checksum or fails the job.
+   *
+   * @return how many jobs were enqueued; re-invoke until this returns 0
+   */
+  public int enqueueChecksumBackfill(int maxRows) {
+    int safeMax = Math.max(1, Math.min(maxRows, 5000));
+    List<Long> ids = metadataRepository.findMissingChecksumIds(safeMax);
+    if (ids.isEmpty()) {
+      log.info("Checksum sweep: no eligible assets");
+      return 0;
+    }
+    log.info("Checksum sweep: enqueuing {} jobs (cap={})", ids.size(), safeMax);
+    transactionTemplate.executeWithoutResult(
+        status -> {
+          for (Long id : ids) {
+            FileMetadata locked =
+                metadataRepository
+                    .findById(id)
+                    .orElseThrow(() -> new ResourceNotFoundException("File", "id", id));
+            locked.setProcessingStatus(ProcessingStatus.QUEUED);
+            locked.setProcessingAttempts(0);
+            locked.setProcessingError(null);
+            locked.setProcessingCompletedAt(null);
+            metadataRepository.save(locked);
+            jobEnqueueService.enqueue(id, JobType.COMPUTE_CHECKSUM);
+          }
+        });
+    log.info("Checksum sweep: enqueued {} jobs", ids.size());
+    return ids.size();
+  }
 }
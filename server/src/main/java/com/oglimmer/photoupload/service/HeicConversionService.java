@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
@@ -24,12 +25,15 @@ import org.springframework.stereotype.Service;
  */
 @Service
 @Profile(Profiles.WORKER)
+@RequiredArgsConstructor
 @Slf4j
 public class HeicConversionService {
 
   private static final long TIMEOUT_SECONDS = 180;
   private static final String JPEG_QUALITY = "95";
 
+  private final ProcessRunner processRunner;
+
   public boolean convertHeicToJpeg(Path originalFile, Path outputPath) {
     File outputFile = outputPath.toFile();
     outputFile.getParentFile().mkdirs();
@@ -53,7 +57,7 @@ public class HeicConversionService {
             dst.toAbsolutePath().toString());
     try {
       log.info("Converting HEIC via heif-convert: {} -> {}", src.getFileName(), dst.getFileName());
-      ProcessRunner.Result r = ProcessRunner.run(cmd, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      ProcessRunner.Result r = processRunner.run(cmd, TIMEOUT_SECONDS, TimeUnit.SECONDS);
       File out = dst.toFile();
       if (r.success() && out.exists() && out.length() > 0) {
         log.info("✅ HEIC → JPEG via heif-convert: {} -> {}", src.getFileName(), dst.getFileName());
@@ -93,7 +97,7 @@ public class HeicConversionService {
             JPEG_QUALITY,
             dst.toAbsolutePath().toString());
     try {
-      ProcessRunner.Result r = ProcessRunner.run(cmd, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      ProcessRunner.Result r = processRunner.run(cmd, TIMEOUT_SECONDS, TimeUnit.SECONDS);
       File out = dst.toFile();
       if (r.success() && out.exists() && out.length() > 0) {
         log.info("✅ HEIC → JPEG via ImageMagick fallback: {}", src.getFileName());
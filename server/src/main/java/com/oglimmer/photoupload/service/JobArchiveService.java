@@ -0,0 +1,106 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Moves finished jobs out of {@code processing_jobs} into {@code processing_jobs_archive} (D57), so
+ * the queue table — and with it the lease query, the queue-depth refresh and the "asset has a live
+ * job" checks of the backfill sweeps — stays the size of the backlog however long the history gets.
+ *
+ * <p>Each batch locks its rows with {@code SKIP LOCKED}, copies them and deletes them in one
+ * transaction, so every worker replica can run the sweep without coordination. Only DONE rows move;
+ * dead letters stay where the admin view and a re-enqueue can find them.
+ */
+@Service
+@Profile(Profiles.WORKER)
+@RequiredArgsConstructor
+@Slf4j
+public class JobArchiveService {
+
+  static final String ARCHIVED_METRIC = "photoupload.jobs.archived";
+
+  private final ProcessingJobRepository jobRepository;
+  private final JobsProperties jobsProperties;
+  private final TransactionTemplate transactionTemplate;
+  private final MeterRegistry meterRegistry;
+
+  @Scheduled(
+      fixedDelayString = "${jobs.archive.interval-ms:300000}",
+      initialDelayString = "${jobs.archive.interval-ms:300000}")
+  public void sweep() {
+    JobsProperties.Archive config = jobsProperties.getArchive();
+    if (!config.isEnabled()) {
+      return;
+    }
+    try {
+      int archived = archive(Instant.now().minus(Duration.ofMinutes(config.getAfterMinutes())));
+      int pruned =
+          config.getRetainDays() > 0
+              ? prune(Instant.now().minus(Duration.ofDays(config.getRetainDays())))
+              : 0;
+      if (archived > 0 || pruned > 0) {
+        log.info("Job archive sweep: archived {} finished jobs, pruned {}", archived, pruned);
+      }
+    } catch (Exception e) {
+      // The next sweep picks up where this one stopped; every batch committed on its own.
+      log.warn("Job archive sweep failed: {}", e.getMessage());
+    }
+  }
+
+  /** Moves DONE rows finished before {@code cutoff}, batch by batch; returns how many moved. */
+  int archive(Instant cutoff) {
+    JobsProperties.Archive config = jobsProperties.getArchive();
+    int total = 0;
+    for (int batch = 0; batch < config.getMaxBatches(); batch++) {
+      Integer moved =
+          transactionTemplate.execute(
+              status -> {
+                List<Long> ids = jobRepository.lockArchivableIds(cutoff, config.getBatchSize());
+                if (ids.isEmpty()) {
+                  return 0;
+                }
+                jobRepository.copyToArchive(ids);
+                return jobRepository.deleteByIds(ids);
+              });
+      int count = moved == null ? 0 : moved;
+      total += count;
+      if (count < config.getBatchSize()) {
+        break;
+      }
+    }
+    if (total > 0) {
+      meterRegistry.counter(ARCHIVED_METRIC).increment(total);
+    }
+    return total;
+  }
+
+  /** Deletes archived rows finished before {@code cutoff}; returns how many went. */
+  int prune(Instant cutoff) {
+    JobsProperties.Archive config = jobsProperties.getArchive();
+    int total = 0;
+    for (int batch = 0; batch < config.getMaxBatches(); batch++) {
+      Integer deleted =
+          transactionTemplate.execute(
+              status -> jobRepository.pruneArchive(cutoff, config.getBatchSize()));
+      int count = deleted == null ? 0 : deleted;
+      total += count;
+      if (count < config.getBatchSize()) {
+        break;
+      }
+    }
+    return total;
+  }
+}
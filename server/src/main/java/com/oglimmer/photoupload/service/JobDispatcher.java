@@ -8,8 +8,13 @@ import com.oglimmer.photoupload.entity.JobType;
 import com.oglimmer.photoupload.entity.ProcessingJob;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
 import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import jakarta.annotation.PreDestroy;
 import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.annotation.Scheduled;
@@ -23,6 +28,12 @@ import org.springframework.stereotype.Component;
  *
  * <p>A {@link Semaphore} of size 1 per pod guarantees we never run two encodes in parallel — image
  * and video tooling already saturates the Pi's memory budget at {@code Semaphore(1)}, per D13.
+ *
+ * <p>While a job runs, a heartbeat thread extends its lease every {@code lease.heartbeat-seconds}
+ * and copies {@link JobProgress} onto the row (D49), so the lease can be short without a long
+ * encode ever being leased twice. Every settle is fenced by the lease: a run whose lease was lost
+ * writes neither the job row nor the asset row. On graceful shutdown the running job's lease is
+ * released and its tool processes are stopped, so another worker picks the job up on its next poll.
  */
 @Component
 @Profile(Profiles.WORKER)
@@ -32,25 +43,55 @@ public class JobDispatcher {
   private final JobLeaseService jobLeaseService;
   private final FileProcessingService fileProcessingService;
   private final FileMetadataRepository fileMetadataRepository;
+  private final OriginalPrefetcher originalPrefetcher;
   private final JobsProperties jobsProperties;
+  private final JobProgress jobProgress;
+  private final ProcessRunner processRunner;
+  private final UploadDedupeService uploadDedupeService;
   private final Semaphore semaphore = new Semaphore(1);
   private final String workerId;
+  private final ScheduledExecutorService heartbeatExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread t = new Thread(r, "job-heartbeat");
+            t.setDaemon(true);
+            return t;
+          });
+
+  /** The job the poll thread is running right now; read by the heartbeat and by shutdown. */
+  private volatile ProcessingJob currentJob;
+
+  private volatile boolean stopping;
+
+  /** Set by {@link #shutdown()} once it handed {@link #currentJob} back to the queue. */
+  private volatile boolean currentJobReleased;
 
   public JobDispatcher(
       JobLeaseService jobLeaseService,
       FileProcessingService fileProcessingService,
       FileMetadataRepository fileMetadataRepository,
-      JobsProperties jobsProperties) {
+      OriginalPrefetcher originalPrefetcher,
+      JobsProperties jobsProperties,
+      JobProgress jobProgress,
+      ProcessRunner processRunner,
+      UploadDedupeService uploadDedupeService) {
     this.jobLeaseService = jobLeaseService;
     this.fileProcessingService = fileProcessingService;
     this.fileMetadataRepository = fileMetadataRepository;
+    this.originalPrefetcher = originalPrefetcher;
     this.jobsProperties = jobsProperties;
+    this.jobProgress = jobProgress;
+    this.processRunner = processRunner;
+    this.uploadDedupeService = uploadDedupeService;
     this.workerId = computeWorkerId();
     log.info("JobDispatcher initialised (workerId={})", this.workerId);
   }
 
   @Scheduled(fixedDelayString = "${jobs.poll.interval-ms:2000}")
   public void poll() {
+    if (stopping) {
+      return;
+    }
     if (!semaphore.tryAcquire()) {
       // Previous tick is still running. Spring's @Scheduled with fixedDelay already serialises
       // invocations on a single scheduler thread, but the explicit guard makes the intent clear
@@ -80,19 +121,75 @@ public class JobDispatcher {
         job.getAttempts(),
         job.getMaxAttempts());
 
+    // Overlap the next job's GET with this job's encode. The download runs on the prefetcher's own
+    // thread; D13's one-encode-at-a-time guarantee is untouched.
+    originalPrefetcher.prefetchNext(job.getAssetId());
+
+    jobProgress.reset();
+    currentJobReleased = false;
+    currentJob = job;
+    int heartbeatSeconds = jobsProperties.getLease().getHeartbeatSeconds();
+    ScheduledFuture<?> heartbeat =
+        heartbeatExecutor.scheduleAtFixedRate(
+            () -> heartbeat(job), heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    try {
+      // The job's tools run niced for its lane: a backfill sweep yields the CPU, an upload does
+      // not.
+      processRunner.inLane(job.getPriority(), () -> runAndSettle(job, jobType));
+    } finally {
+      heartbeat.cancel(false);
+      currentJob = null;
+      jobProgress.reset();
+    }
+  }
+
+  private void runAndSettle(ProcessingJob job, JobType jobType) {
+    UploadDedupeService.Outcome dedupe = UploadDedupeService.Outcome.KEPT;
     try {
       switch (jobType) {
-        case PROCESS -> fileProcessingService.processFile(job.getAssetId());
+        case PROCESS -> dedupe = fileProcessingService.processFile(job.getAssetId());
         case ROTATE_LEFT -> fileProcessingService.rotateAndReprocess(job.getAssetId());
         case REGEN_THUMBNAILS -> fileProcessingService.regenerateThumbnails(job.getAssetId());
         case EXTRACT_CAPTURE_DATE -> fileProcessingService.reextractCaptureDate(job.getAssetId());
         case EXTRACT_GPS -> fileProcessingService.reextractGps(job.getAssetId());
+        case EXTRACT_PLACEHOLDER -> fileProcessingService.extractPlaceholder(job.getAssetId());
+        case COMPUTE_CHECKSUM -> fileProcessingService.computeChecksum(job.getAssetId());
+        case TRANSCODE_SEGMENT ->
+            fileProcessingService.transcodeSegment(job.getAssetId(), job.getSegmentIndex());
+        case TRANSCODE_JOIN -> fileProcessingService.joinSegments(job.getAssetId());
       }
     } catch (Exception e) {
       // The service-layer methods catch their own exceptions today, but treat any leak
       // defensively so the lease is released cleanly.
+      if (jobProgress.abandoned()) {
+        log.info("Job {} failed after it was abandoned: {}", job.getId(), e.toString());
+        return;
+      }
       log.error("{} threw for asset {}: {}", jobType, job.getAssetId(), e.getMessage(), e);
-      jobLeaseService.markFailedOrDeadLetter(job.getId(), e.toString());
+      if (!currentJobReleased) {
+        jobLeaseService.markFailedOrDeadLetter(job.getId(), workerId, e.toString());
+      }
+      return;
+    }
+    if (currentJobReleased) {
+      // Shutdown handed the row back to the queue while the tools were being stopped; whatever
+      // the interrupted run left behind is not a verdict on the job.
+      log.info("Job {} was released during shutdown, leaving it QUEUED", job.getId());
+      return;
+    }
+    if (jobProgress.abandoned()) {
+      // Another worker owns the job now; its run settles the row.
+      log.info("Job {} lost its lease while running, leaving it to the new owner", job.getId());
+      return;
+    }
+
+    // Segment work runs on an asset that is already DONE; its failures arrive as exceptions above.
+    if (jobType == JobType.TRANSCODE_SEGMENT) {
+      jobLeaseService.markSegmentDone(job.getId(), workerId);
+      return;
+    }
+    if (jobType == JobType.TRANSCODE_JOIN) {
+      jobLeaseService.markDone(job.getId(), workerId);
       return;
     }
 
@@ -101,18 +198,92 @@ public class JobDispatcher {
     FileMetadata asset = fileMetadataRepository.findById(job.getAssetId()).orElse(null);
     if (asset == null) {
       log.warn("Asset {} disappeared during processing of job {}", job.getAssetId(), job.getId());
-      jobLeaseService.markFailedOrDeadLetter(job.getId(), "Asset disappeared during processing");
+      jobLeaseService.markFailedOrDeadLetter(
+          job.getId(), workerId, "Asset disappeared during processing");
       return;
     }
     if (asset.getProcessingStatus() == ProcessingStatus.DONE) {
-      jobLeaseService.markDone(job.getId());
+      if (jobLeaseService.markDone(job.getId(), workerId)
+          && dedupe == UploadDedupeService.Outcome.COLLAPSED) {
+        // A duplicate of a twin in the same album: only now may the row go.
+        try {
+          uploadDedupeService.dropCollapsed(job.getAssetId(), job.getId());
+        } catch (Exception e) {
+          // The row stays, DONE on its twin's objects; the user sees the duplicate they uploaded.
+          log.warn("Could not drop collapsed asset {}: {}", job.getAssetId(), e.getMessage());
+        }
+      }
     } else {
       String error = asset.getProcessingError();
       jobLeaseService.markFailedOrDeadLetter(
-          job.getId(), error != null ? error : "Unknown processing failure");
+          job.getId(), workerId, error != null ? error : "Unknown processing failure");
     }
   }
 
+  /**
+   * Extends {@code job}'s lease and stores its progress. A false answer means the lease was lost —
+   * a previous heartbeat came too late (GC pause, DB outage) and another worker owns the job now.
+   * The run here is abandoned: its tool processes are stopped, and neither the asset row nor the
+   * job row is written when it returns. The new owner's run is the one that counts.
+   */
+  private void heartbeat(ProcessingJob job) {
+    if (jobProgress.abandoned()) {
+      return;
+    }
+    try {
+      boolean extended =
+          jobLeaseService.heartbeat(
+              job.getId(), workerId, jobsProperties.getLease().getSeconds(), jobProgress.current());
+      if (!extended) {
+        log.warn(
+            "Lost the lease on job {} (asset {}), abandoning the run",
+            job.getId(),
+            job.getAssetId());
+        jobProgress.abandon();
+        stopTools();
+      }
+    } catch (Exception e) {
+      // The next tick retries; the lease has heartbeat-seconds × n of slack before it expires.
+      log.warn("Heartbeat for job {} failed: {}", job.getId(), e.getMessage());
+    }
+  }
+
+  /**
+   * Graceful shutdown: stop leasing, hand the running job back to the queue, abandon its run and
+   * stop the tool processes working on it. Without the release the row would sit in PROCESSING
+   * until its lease expired, and the interrupted attempt would count against {@code max_attempts}.
+   */
+  @PreDestroy
+  void shutdown() {
+    stopping = true;
+    heartbeatExecutor.shutdownNow();
+    ProcessingJob job = currentJob;
+    if (job == null) {
+      return;
+    }
+    try {
+      if (jobLeaseService.release(job.getId(), workerId)) {
+        currentJobReleased = true;
+        // Before the tools are stopped: the failure that causes must not be written to the asset
+        // row of a job that goes back to the queue.
+        jobProgress.abandon();
+        log.info("Released lease on job {} (asset {}) for shutdown", job.getId(), job.getAssetId());
+      }
+    } catch (Exception e) {
+      log.warn("Could not release job {} on shutdown: {}", job.getId(), e.getMessage());
+    }
+    // ffmpeg / vips children would otherwise keep encoding until the pod is killed.
+    stopTools();
+  }
+
+  /**
+   * Stops every tool process this JVM started. The worker runs one job at a time (D13), and the
+   * prefetcher and uploader only talk to S3, so these are the running job's children.
+   */
+  private static void stopTools() {
+    ProcessHandle.current().descendants().forEach(ProcessHandle::destroy);
+  }
+
   /**
    * Identifies the worker that holds a lease so we can correlate logs across replicas. {@code
    * HOSTNAME-PID} is enough — the audit trail is in app logs, not the row itself.
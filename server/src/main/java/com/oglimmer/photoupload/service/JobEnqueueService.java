@@ -2,10 +2,14 @@
 package com.oglimmer.photoupload.service;
 
 import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.entity.JobLane;
 import com.oglimmer.photoupload.entity.JobStatus;
 import com.oglimmer.photoupload.entity.JobType;
 import com.oglimmer.photoupload.entity.ProcessingJob;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
 import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -16,6 +20,7 @@ import org.springframework.stereotype.Service;
 public class JobEnqueueService {
 
   private final ProcessingJobRepository jobRepository;
+  private final FileMetadataRepository metadataRepository;
   private final JobsProperties jobsProperties;
 
   /**
@@ -27,15 +32,70 @@ public class JobEnqueueService {
     return enqueue(assetId, JobType.PROCESS);
   }
 
-  /** Insert a QUEUED job row of the given type. Used by admin actions like rotate. */
+  /**
+   * Insert a QUEUED job row of the given type in the type's {@link JobType#defaultLane() default
+   * lane}. Used by admin actions like rotate and by the backfill sweeps.
+   */
   public ProcessingJob enqueue(Long assetId, JobType jobType) {
+    return enqueue(assetId, jobType, jobType.defaultLane());
+  }
+
+  /** Insert a QUEUED job row of the given type in an explicit lane (D56). */
+  public ProcessingJob enqueue(Long assetId, JobType jobType, JobLane lane) {
     ProcessingJob job = new ProcessingJob();
     job.setAssetId(assetId);
     job.setJobType(jobType);
+    job.setPriority(lane);
+    job.setUserId(metadataRepository.findOwnerIdById(assetId).orElse(null));
     job.setStatus(JobStatus.QUEUED);
     job.setMaxAttempts(jobsProperties.getMaxAttempts());
     ProcessingJob saved = jobRepository.save(job);
-    log.debug("Enqueued {} job {} for asset {}", jobType, saved.getId(), assetId);
+    log.debug("Enqueued {} job {} for asset {} ({})", jobType, saved.getId(), assetId, lane);
     return saved;
   }
+
+  /**
+   * Fan out a split video: one WAITING {@code TRANSCODE_JOIN} row and {@code segmentCount} QUEUED
+   * {@code TRANSCODE_SEGMENT} rows pointing at it. Called in the transaction that commits the
+   * PROCESS job's result, so the segments become leaseable exactly when their sources are in S3.
+   * All rows inherit the lane of that PROCESS job — a video re-processed by a backfill sweep must
+   * not jump ahead of fresh uploads once it is split.
+   *
+   * @return the join row
+   */
+  public ProcessingJob enqueueSegmentedTranscode(Long assetId, int segmentCount) {
+    JobLane lane =
+        jobRepository
+            .findRunningProcessPriority(assetId)
+            .map(priority -> JobLane.values()[priority])
+            .orElse(JobLane.INTERACTIVE);
+    Long userId = metadataRepository.findOwnerIdById(assetId).orElse(null);
+
+    ProcessingJob join = new ProcessingJob();
+    join.setAssetId(assetId);
+    join.setJobType(JobType.TRANSCODE_JOIN);
+    join.setPriority(lane);
+    join.setUserId(userId);
+    join.setStatus(JobStatus.WAITING);
+    join.setMaxAttempts(jobsProperties.getMaxAttempts());
+    join = jobRepository.save(join);
+
+    List<ProcessingJob> segments = new ArrayList<>(segmentCount);
+    for (int i = 0; i < segmentCount; i++) {
+      ProcessingJob segment = new ProcessingJob();
+      segment.setAssetId(assetId);
+      segment.setJobType(JobType.TRANSCODE_SEGMENT);
+      segment.setPriority(lane);
+      segment.setUserId(userId);
+      segment.setStatus(JobStatus.QUEUED);
+      segment.setMaxAttempts(jobsProperties.getMaxAttempts());
+      segment.setParentJobId(join.getId());
+      segment.setSegmentIndex(i);
+      segments.add(segment);
+    }
+    jobRepository.saveAll(segments);
+    log.debug(
+        "Enqueued {} segment jobs under join {} for asset {}", segmentCount, join.getId(), assetId);
+    return join;
+  }
 }
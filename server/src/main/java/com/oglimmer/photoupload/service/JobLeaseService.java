@@ -2,10 +2,16 @@
 package com.oglimmer.photoupload.service;
 
 import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.entity.JobLane;
 import com.oglimmer.photoupload.entity.JobStatus;
 import com.oglimmer.photoupload.entity.ProcessingJob;
 import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
@@ -22,71 +28,170 @@ import org.springframework.transaction.annotation.Transactional;
 @Slf4j
 public class JobLeaseService {
 
+  /** Time from enqueue to first lease, per lane — what a user waits before work even starts. */
+  static final String QUEUE_WAIT_METRIC = "photoupload.jobs.queue.wait";
+
+  /**
+   * Candidates read per lease. Workers that poll in lockstep skip each other's locked rows, so a
+   * few more than the worker count keeps them from coming back empty while the queue is not.
+   */
+  static final int LEASE_CANDIDATES = 8;
+
   private final ProcessingJobRepository jobRepository;
+  private final MeterRegistry meterRegistry;
 
   /**
-   * Atomically claim the next leaseable job for {@code workerId}. The native query uses {@code
-   * SELECT ... FOR UPDATE SKIP LOCKED} so concurrent workers never race for the same row.
+   * Atomically claim the next leaseable job for {@code workerId}: the first candidate that {@code
+   * SELECT ... FOR UPDATE SKIP LOCKED} still hands us, so concurrent workers never race for the
+   * same row. Expired leases come first — their job has waited longest, its worker died — then the
+   * QUEUED rows, lane first and round-robin over users within a lane (D56). The two halves are
+   * separate index ranges (D57).
    *
    * @return the leased job (already in PROCESSING with attempts incremented) or {@code null} if the
    *     queue is empty.
    */
   @Transactional
   public ProcessingJob leaseNext(String workerId, int leaseSeconds) {
-    Long id = jobRepository.findNextLeaseableId().orElse(null);
+    List<Long> candidates = new ArrayList<>(jobRepository.findExpiredLeaseIds(LEASE_CANDIDATES));
+    candidates.addAll(jobRepository.findQueuedCandidateIds(LEASE_CANDIDATES));
+    Long id = null;
+    for (Long candidate : candidates) {
+      if (jobRepository.lockIfLeaseable(candidate).isPresent()) {
+        id = candidate;
+        break;
+      }
+    }
     if (id == null) {
       return null;
     }
     int updated = jobRepository.acquireLease(id, workerId, leaseSeconds);
     if (updated != 1) {
-      // Should not happen — we just selected this row inside the same TX with SKIP LOCKED.
+      // Should not happen — we just locked this row inside the same TX with SKIP LOCKED.
       log.warn("acquireLease updated {} rows for job {}", updated, id);
       return null;
     }
     // Re-read so the caller sees the updated attempts/leased_until/started_at.
-    return jobRepository.findById(id).orElse(null);
+    ProcessingJob job = jobRepository.findById(id).orElse(null);
+    if (job != null) {
+      recordQueueWait(job);
+    }
+    return job;
+  }
+
+  /**
+   * First attempts only: a retry's {@code created_at} is the original enqueue, so its wait would
+   * include the failed runs.
+   */
+  private void recordQueueWait(ProcessingJob job) {
+    if (job.getAttempts() == null || job.getAttempts() != 1 || job.getCreatedAt() == null) {
+      return;
+    }
+    JobLane lane = job.getPriority() != null ? job.getPriority() : JobLane.INTERACTIVE;
+    Duration wait = Duration.between(job.getCreatedAt(), Instant.now());
+    Timer.builder(QUEUE_WAIT_METRIC)
+        .description("Time from enqueue to first lease")
+        .tag("lane", lane.tag())
+        .publishPercentileHistogram()
+        .register(meterRegistry)
+        .record(wait.isNegative() ? Duration.ZERO : wait);
+  }
+
+  /**
+   * Extends the lease of a running job and stores its latest progress.
+   *
+   * @return false when the row is no longer leased by {@code workerId} — the lease expired and
+   *     another worker took the job over, or it was released.
+   */
+  @Transactional
+  public boolean heartbeat(Long jobId, String workerId, int leaseSeconds, Integer progress) {
+    return jobRepository.extendLease(jobId, workerId, leaseSeconds, progress) == 1;
+  }
+
+  /**
+   * Returns a running job to QUEUED on graceful shutdown, so the next worker picks it up on its
+   * next poll instead of after the lease runs out. The attempt is not counted.
+   */
+  @Transactional
+  public boolean release(Long jobId, String workerId) {
+    return jobRepository.releaseLease(jobId, workerId) == 1;
   }
 
+  /**
+   * Settles a finished run as DONE.
+   *
+   * @return false when the row is no longer PROCESSING under {@code workerId}'s lease — another
+   *     worker took the job over — in which case nothing was written.
+   */
   @Transactional
-  public void markDone(Long jobId) {
+  public boolean markDone(Long jobId, String workerId) {
+    return settle(jobId, workerId, JobStatus.DONE, null, "markDone");
+  }
+
+  /**
+   * {@link #markDone} for a TRANSCODE_SEGMENT row, plus the fan-in: the segment that finishes last
+   * moves its WAITING join row to QUEUED. The join row is locked before anything else so that two
+   * segments finishing together cannot both conclude a sibling is still running. A segment whose
+   * lease was lost settles nothing and wakes nothing; the worker that owns it now does both.
+   */
+  @Transactional
+  public boolean markSegmentDone(Long jobId, String workerId) {
     ProcessingJob job = jobRepository.findById(jobId).orElse(null);
     if (job == null) {
-      log.warn("markDone: job {} disappeared (asset deleted?)", jobId);
-      return;
+      log.warn("markSegmentDone: job {} disappeared (asset deleted?)", jobId);
+      return false;
     }
-    job.setStatus(JobStatus.DONE);
-    job.setFinishedAt(Instant.now());
-    job.setLeasedUntil(null);
-    job.setLeasedBy(null);
-    job.setLastError(null);
+    Long joinId = job.getParentJobId();
+    if (joinId != null && jobRepository.lockById(joinId).isEmpty()) {
+      joinId = null;
+    }
+    if (!settle(jobId, workerId, JobStatus.DONE, null, "markSegmentDone")) {
+      return false;
+    }
+    if (joinId == null) {
+      log.warn("Segment job {} has no join row to wake", jobId);
+      return true;
+    }
+    if (jobRepository.countUnfinishedSiblings(joinId, jobId) == 0
+        && jobRepository.settleWaiting(joinId, JobStatus.QUEUED.name(), null) == 1) {
+      log.info("Last segment of asset {} done → join job {} queued", job.getAssetId(), joinId);
+    }
+    return true;
   }
 
   /**
    * Mark a failed attempt. If the job is already at {@code max_attempts}, it goes to {@code
    * DEAD_LETTER} instead — the original blob is preserved (per D15) so the admin can re-enqueue.
+   *
+   * @return false when the lease was lost and nothing was written; see {@link #markDone}.
    */
   @Transactional
-  public void markFailedOrDeadLetter(Long jobId, String errorMessage) {
+  public boolean markFailedOrDeadLetter(Long jobId, String workerId, String errorMessage) {
     ProcessingJob job = jobRepository.findById(jobId).orElse(null);
     if (job == null) {
       log.warn("markFailedOrDeadLetter: job {} disappeared", jobId);
-      return;
+      return false;
     }
     boolean exhausted = job.getAttempts() != null && job.getAttempts() >= job.getMaxAttempts();
+    // Back to QUEUED on a retry, not FAILED: the lease query only selects QUEUED rows, so a job
+    // parked in FAILED would never be retried.
+    JobStatus next = exhausted ? JobStatus.DEAD_LETTER : JobStatus.QUEUED;
+    if (!settle(jobId, workerId, next, truncate(errorMessage), "markFailedOrDeadLetter")) {
+      return false;
+    }
     if (exhausted) {
-      job.setStatus(JobStatus.DEAD_LETTER);
-      job.setFinishedAt(Instant.now());
       log.error(
           "Job {} (asset {}) → DEAD_LETTER after {} attempts",
           jobId,
           job.getAssetId(),
           job.getAttempts());
+      if (job.getParentJobId() != null) {
+        // The join can never run with a slice missing; park it where the admin will see it.
+        jobRepository.settleWaiting(
+            job.getParentJobId(),
+            JobStatus.DEAD_LETTER.name(),
+            "Segment " + job.getSegmentIndex() + " (job " + jobId + ") went to DEAD_LETTER");
+      }
     } else {
-      // Return to QUEUED so the dispatcher picks it up on the next poll for retry.
-      // FAILED was previously used here but findNextLeaseableId only selects QUEUED rows,
-      // so failed jobs were silently orphaned and never retried.
-      job.setStatus(JobStatus.QUEUED);
-      job.setFinishedAt(null);
       log.warn(
           "Job {} (asset {}) failed on attempt {}/{} → re-queued for retry",
           jobId,
@@ -94,9 +199,21 @@ public class JobLeaseService {
           job.getAttempts(),
           job.getMaxAttempts());
     }
-    job.setLeasedUntil(null);
-    job.setLeasedBy(null);
-    job.setLastError(truncate(errorMessage));
+    return true;
+  }
+
+  private boolean settle(
+      Long jobId, String workerId, JobStatus status, String lastError, String caller) {
+    if (jobRepository.settleLease(jobId, workerId, status.name(), lastError) == 1) {
+      return true;
+    }
+    log.warn(
+        "{}: job {} is no longer leased by {} (lease lost or job gone), not settling it as {}",
+        caller,
+        jobId,
+        workerId,
+        status);
+    return false;
   }
 
   private String truncate(String s) {
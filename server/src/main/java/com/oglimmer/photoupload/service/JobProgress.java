@@ -0,0 +1,53 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.Profiles;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Progress of the job the worker is running right now, as a 0-100 figure. The tooling reports into
+ * it from the job thread; the {@link JobDispatcher} heartbeat reads it and writes it to the {@code
+ * processing_jobs} row. One slot is enough because the worker runs one job at a time (D13).
+ *
+ * <p>It also carries the one signal that flows the other way: the heartbeat marks the job abandoned
+ * when its lease was lost, and shutdown when it handed the job back to the queue, and {@link
+ * FileProcessingService} then leaves the asset row to the run that owns the job next.
+ */
+@Component
+@Profile(Profiles.WORKER)
+public class JobProgress {
+
+  private volatile Integer percent;
+
+  private volatile boolean abandoned;
+
+  /** Clears the slot; called by the dispatcher as a job starts and again when it ends. */
+  public void reset() {
+    percent = null;
+    abandoned = false;
+  }
+
+  /** Marks the running job as no longer ours: its lease was lost or released on shutdown. */
+  public void abandon() {
+    abandoned = true;
+  }
+
+  /** Whether the running job was abandoned; its results must not be persisted. */
+  public boolean abandoned() {
+    return abandoned;
+  }
+
+  /**
+   * Records {@code value}, clamped to 0-100. A job that runs several tool invocations (transcode,
+   * then HLS) starts each one from 0 again; the figure is coarse by design.
+   */
+  public void report(int value) {
+    percent = Math.max(0, Math.min(100, value));
+  }
+
+  /** The latest figure, or null if the running job has not reported any. */
+  public Integer current() {
+    return percent;
+  }
+}
@@ -21,6 +21,10 @@ import org.springframework.stereotype.Service;
  *   <li>The Prometheus gauge for {@code photoupload.jobs.queued{status=...}} — exposed via
  *       Micrometer so alerts can fire on QUEUED depth or any DEAD_LETTER row.
  * </ul>
+ *
+ * <p>Finished jobs are archived after an hour (D57), so the refresh is an index-only scan over the
+ * live queue and stays cheap as history grows; the DONE figure is correspondingly "done recently",
+ * and throughput is better read from {@code photoupload.jobs.archived}.
  */
 @Service
 @RequiredArgsConstructor
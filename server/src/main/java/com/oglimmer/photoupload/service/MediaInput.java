@@ -0,0 +1,40 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import java.nio.file.Path;
+
+/**
+ * What {@code ffmpeg}/{@code ffprobe} is told to read (D61): a file on local disk, or a presigned
+ * URL the tool fetches itself with HTTP range requests, so an original does not have to be staged
+ * in the job's scratch dir first. {@link #toString()} is the name only — a presigned URL carries
+ * its signature and must not end up in the logs.
+ *
+ * @param argument what goes after {@code -i}
+ * @param name the file name, for log lines
+ * @param file the local file, or null for a streamed input
+ */
+public record MediaInput(String argument, String name, Path file) {
+
+  public static MediaInput of(Path file) {
+    return new MediaInput(
+        file.toAbsolutePath().toString(), String.valueOf(file.getFileName()), file);
+  }
+
+  public static MediaInput url(String url, String name) {
+    return new MediaInput(url, name, null);
+  }
+
+  public boolean streamed() {
+    return file == null;
+  }
+
+  /** {@code toolOutput} with the URL replaced by the name; ffmpeg echoes its inputs on failure. */
+  public String redact(String toolOutput) {
+    return streamed() && toolOutput != null ? toolOutput.replace(argument, name) : toolOutput;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
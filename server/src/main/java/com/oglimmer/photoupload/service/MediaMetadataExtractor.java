@@ -0,0 +1,150 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.bmp.BmpHeaderDirectory;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.gif.GifHeaderDirectory;
+import com.drew.metadata.heif.HeifDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.drew.metadata.png.PngDirectory;
+import com.drew.metadata.webp.WebpDirectory;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.model.MediaMetadata;
+import com.oglimmer.photoupload.util.MimeTypePredicates;
+import java.nio.file.Path;
+import java.util.List;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+/**
+ * The worker's single metadata pass over an original. An image is parsed by metadata-extractor
+ * exactly once and the same {@link Metadata} feeds capture date, GPS and dimensions; a video is
+ * probed by one JSON {@code ffprobe} that yields tags, dimensions and duration together. Before
+ * this, capture date and GPS each re-read the whole file (two EXIF parses per photo, two ffprobe
+ * forks per video) and dimensions were never recorded at all.
+ *
+ * <p>Same contract as the extractors it composes: never throws, every field falls back to "not
+ * known".
+ */
+@Service
+@Profile(Profiles.WORKER)
+@Slf4j
+@RequiredArgsConstructor
+public class MediaMetadataExtractor {
+
+  /** Container headers first — they describe the pixels actually stored — then EXIF's claim. */
+  private static final List<DimensionTags> IMAGE_DIMENSION_TAGS =
+      List.of(
+          new DimensionTags(
+              JpegDirectory.class, JpegDirectory.TAG_IMAGE_WIDTH, JpegDirectory.TAG_IMAGE_HEIGHT),
+          new DimensionTags(
+              PngDirectory.class, PngDirectory.TAG_IMAGE_WIDTH, PngDirectory.TAG_IMAGE_HEIGHT),
+          new DimensionTags(
+              WebpDirectory.class, WebpDirectory.TAG_IMAGE_WIDTH, WebpDirectory.TAG_IMAGE_HEIGHT),
+          new DimensionTags(
+              GifHeaderDirectory.class,
+              GifHeaderDirectory.TAG_IMAGE_WIDTH,
+              GifHeaderDirectory.TAG_IMAGE_HEIGHT),
+          new DimensionTags(
+              BmpHeaderDirectory.class,
+              BmpHeaderDirectory.TAG_IMAGE_WIDTH,
+              BmpHeaderDirectory.TAG_IMAGE_HEIGHT),
+          new DimensionTags(
+              HeifDirectory.class, HeifDirectory.TAG_IMAGE_WIDTH, HeifDirectory.TAG_IMAGE_HEIGHT),
+          new DimensionTags(
+              ExifSubIFDDirectory.class,
+              ExifSubIFDDirectory.TAG_EXIF_IMAGE_WIDTH,
+              ExifSubIFDDirectory.TAG_EXIF_IMAGE_HEIGHT));
+
+  private record DimensionTags(Class<? extends Directory> type, int widthTag, int heightTag) {}
+
+  private final CaptureDateExtractor captureDateExtractor;
+  private final GpsExtractor gpsExtractor;
+  private final ThumbnailService thumbnailService;
+
+  /** Dispatches on mime type; anything that is neither image nor video has no metadata. */
+  public MediaMetadata extract(Path file, String mimeType) {
+    if (MimeTypePredicates.isImageFile(mimeType)) {
+      return fromImage(file);
+    }
+    if (MimeTypePredicates.isVideoFile(mimeType)) {
+      return fromVideo(file);
+    }
+    return MediaMetadata.none();
+  }
+
+  /**
+   * Same, for what the pipeline handed its tools. A video is probed wherever it lives; an image is
+   * parsed from disk, so a streamed one has nothing to read — only videos are ever streamed.
+   */
+  public MediaMetadata extract(MediaInput input, String mimeType) {
+    if (MimeTypePredicates.isVideoFile(mimeType)) {
+      return fromVideo(thumbnailService.probeVideo(input));
+    }
+    return input.streamed() ? MediaMetadata.none() : extract(input.file(), mimeType);
+  }
+
+  private MediaMetadata fromImage(Path imagePath) {
+    Metadata metadata;
+    try {
+      metadata = ImageMetadataReader.readMetadata(imagePath.toFile());
+    } catch (Exception e) {
+      log.debug(
+          "Could not read image metadata from {}: {}", imagePath.getFileName(), e.getMessage());
+      return MediaMetadata.none();
+    }
+    int[] dimensions = imageDimensions(metadata);
+    return new MediaMetadata(
+        captureDateExtractor.fromImageMetadata(metadata),
+        gpsExtractor.fromImageMetadata(metadata),
+        dimensions == null ? null : dimensions[0],
+        dimensions == null ? null : dimensions[1],
+        null);
+  }
+
+  private MediaMetadata fromVideo(Path videoPath) {
+    return fromVideo(thumbnailService.probeVideo(videoPath));
+  }
+
+  /** The metadata of a video the caller has already probed. */
+  static MediaMetadata fromVideo(FfmpegService.VideoProbe probe) {
+    return new MediaMetadata(
+        probe.captureDate(), probe.location(), probe.width(), probe.height(), probe.durationMs());
+  }
+
+  /**
+   * {@code {width, height}} as displayed, or null. EXIF orientations 5–8 store the frame on its
+   * side; vipsthumbnail auto-rotates by them, so the derivatives — and therefore what the gallery
+   * lays out — have width and height swapped relative to the stored pixels.
+   */
+  static int[] imageDimensions(Metadata metadata) {
+    int[] stored = null;
+    for (DimensionTags tags : IMAGE_DIMENSION_TAGS) {
+      Directory directory = metadata.getFirstDirectoryOfType(tags.type());
+      if (directory == null) {
+        continue;
+      }
+      Integer width = directory.getInteger(tags.widthTag());
+      Integer height = directory.getInteger(tags.heightTag());
+      if (width != null && height != null && width > 0 && height > 0) {
+        stored = new int[] {width, height};
+        break;
+      }
+    }
+    if (stored == null) {
+      return null;
+    }
+    ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+    Integer orientation = ifd0 == null ? null : ifd0.getInteger(ExifIFD0Directory.TAG_ORIENTATION);
+    if (orientation != null && orientation >= 5 && orientation <= 8) {
+      return new int[] {stored[1], stored[0]};
+    }
+    return stored;
+  }
+}
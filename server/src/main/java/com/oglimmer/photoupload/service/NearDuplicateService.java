@@ -0,0 +1,254 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.entity.User;
+import com.oglimmer.photoupload.exception.ResourceNotFoundException;
+import com.oglimmer.photoupload.exception.ValidationException;
+import com.oglimmer.photoupload.model.NearDuplicateGroup;
+import com.oglimmer.photoupload.model.NearDuplicateMatch;
+import com.oglimmer.photoupload.model.NearDuplicatesResponse;
+import com.oglimmer.photoupload.repository.AlbumRepository;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.security.UserContext;
+import com.oglimmer.photoupload.util.HammingBkTree;
+import com.oglimmer.photoupload.util.PerceptualHash;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Near-duplicate lookup over perceptual hashes (D55). Each user who asks gets an in-memory {@link
+ * HammingBkTree} of every hashed asset in their library, so "everything within k bits of this
+ * photo" is a tree walk, not a table scan.
+ *
+ * <p>The worker writes {@code phash} on another pod, so the index is a cache with two clocks: every
+ * {@value #CATCH_UP_SECONDS}s a query first pulls the rows whose processing finished since the last
+ * pull (new uploads, rotations, regenerations), and every {@value #REBUILD_MINUTES} minutes it is
+ * rebuilt from scratch, which is what forgets deleted rows and superseded hashes. Between rebuilds
+ * those stale entries are filtered out by re-checking every candidate against the live rows, so an
+ * answer is never wrong, at worst up to {@value #CATCH_UP_SECONDS}s late.
+ */
+@Service
+@Profile(Profiles.API)
+@RequiredArgsConstructor
+@Slf4j
+public class NearDuplicateService {
+
+  /** Default radius: re-encodes and rescales of one photo typically differ by 0-4 bits. */
+  public static final int DEFAULT_DISTANCE = 6;
+
+  /** Beyond this, unrelated photos start to match (random hashes differ by 32 ± 4 bits). */
+  public static final int MAX_DISTANCE = 16;
+
+  static final int CATCH_UP_SECONDS = 10;
+  static final int REBUILD_MINUTES = 15;
+
+  /** A row's processing_completed_at is stamped before its commit; re-read that window. */
+  private static final Duration COMMIT_SKEW = Duration.ofMinutes(1);
+
+  private final FileMetadataRepository metadataRepository;
+  private final AlbumRepository albumRepository;
+  private final UserContext userContext;
+
+  private final Map<Long, UserIndex> indexes = new ConcurrentHashMap<>();
+
+  /** One user's tree, plus the hash each asset had when it was last added. Guarded by itself. */
+  private static final class UserIndex {
+    private HammingBkTree tree = new HammingBkTree();
+    private Map<Long, Long> hashes = new HashMap<>();
+    private Instant builtAt;
+    private Instant caughtUpAt;
+    private volatile Instant lastUsed = Instant.now();
+  }
+
+  /** A hashed row as read from the DB. */
+  private record Row(long id, long albumId, long hash) {}
+
+  /**
+   * Groups of near-duplicate files in one of the caller's albums, each with its near-duplicates in
+   * the caller's other albums. Files without a hash yet (still processing, or not swept) are left
+   * out.
+   */
+  public NearDuplicatesResponse findInAlbum(Long albumId, Integer maxDistance) {
+    int k = maxDistance == null ? DEFAULT_DISTANCE : maxDistance;
+    if (k < 0 || k > MAX_DISTANCE) {
+      throw new ValidationException("maxDistance must be between 0 and " + MAX_DISTANCE);
+    }
+    User user = userContext.getCurrentUser();
+    albumRepository
+        .findByUserAndId(user, albumId)
+        .orElseThrow(() -> new ResourceNotFoundException("Album", "id", albumId));
+
+    Map<Long, Row> album = new LinkedHashMap<>();
+    for (Row row : rows(metadataRepository.findPhashesByAlbumId(albumId))) {
+      album.put(row.id(), row);
+    }
+
+    Map<Long, List<HammingBkTree.Match>> candidates = new LinkedHashMap<>();
+    UserIndex index = indexFor(user.getId());
+    synchronized (index) {
+      for (Row row : album.values()) {
+        candidates.put(row.id(), index.tree.search(row.hash(), k));
+      }
+    }
+
+    // Candidates outside the album are re-read; inside it, the album rows are the live values.
+    List<Long> outside = new ArrayList<>();
+    candidates.values().stream()
+        .flatMap(List::stream)
+        .map(HammingBkTree.Match::id)
+        .distinct()
+        .filter(id -> !album.containsKey(id))
+        .forEach(outside::add);
+    Map<Long, Row> live = new HashMap<>(album);
+    if (!outside.isEmpty()) {
+      for (Row row : rows(metadataRepository.findPhashesByIds(outside))) {
+        live.put(row.id(), row);
+      }
+    }
+
+    Map<Long, Long> parent = new HashMap<>();
+    Map<Long, List<NearDuplicateMatch>> elsewhere = new HashMap<>();
+    for (Map.Entry<Long, List<HammingBkTree.Match>> entry : candidates.entrySet()) {
+      Row self = album.get(entry.getKey());
+      for (HammingBkTree.Match match : entry.getValue()) {
+        Row other = live.get(match.id());
+        if (other == null || other.id() == self.id()) {
+          continue; // deleted since the index was built, or the file itself
+        }
+        int distance = PerceptualHash.distance(self.hash(), other.hash());
+        if (distance > k) {
+          continue; // its hash changed since the index saw it
+        }
+        if (album.containsKey(other.id())) {
+          union(parent, self.id(), other.id());
+        } else {
+          elsewhere
+              .computeIfAbsent(self.id(), id -> new ArrayList<>())
+              .add(
+                  NearDuplicateMatch.builder()
+                      .fileId(other.id())
+                      .albumId(other.albumId())
+                      .matchedFileId(self.id())
+                      .distance(distance)
+                      .build());
+        }
+      }
+    }
+
+    Map<Long, List<Long>> members = new TreeMap<>();
+    for (Long id : album.keySet()) {
+      if (parent.containsKey(id) || elsewhere.containsKey(id)) {
+        members.computeIfAbsent(find(parent, id), root -> new ArrayList<>()).add(id);
+      }
+    }
+    List<NearDuplicateGroup> groups = new ArrayList<>();
+    for (List<Long> fileIds : members.values()) {
+      fileIds.sort(Comparator.naturalOrder());
+      List<NearDuplicateMatch> outsideMatches = new ArrayList<>();
+      for (Long id : fileIds) {
+        outsideMatches.addAll(elsewhere.getOrDefault(id, List.of()));
+      }
+      outsideMatches.sort(
+          Comparator.comparingInt(NearDuplicateMatch::getDistance)
+              .thenComparing(NearDuplicateMatch::getFileId));
+      groups.add(NearDuplicateGroup.builder().fileIds(fileIds).elsewhere(outsideMatches).build());
+    }
+    groups.sort(Comparator.comparing(group -> group.getFileIds().get(0)));
+
+    return NearDuplicatesResponse.builder()
+        .success(true)
+        .albumId(albumId)
+        .maxDistance(k)
+        .groups(groups)
+        .build();
+  }
+
+  /** The user's index, rebuilt or caught up first when its clock says so. */
+  UserIndex indexFor(Long userId) {
+    UserIndex index = indexes.computeIfAbsent(userId, id -> new UserIndex());
+    synchronized (index) {
+      Instant now = Instant.now();
+      index.lastUsed = now;
+      if (index.builtAt == null
+          || index.builtAt.plus(Duration.ofMinutes(REBUILD_MINUTES)).isBefore(now)) {
+        HammingBkTree tree = new HammingBkTree();
+        Map<Long, Long> hashes = new HashMap<>();
+        for (Row row : rows(metadataRepository.findPhashesByUserId(userId))) {
+          tree.add(row.hash(), row.id());
+          hashes.put(row.id(), row.hash());
+        }
+        index.tree = tree;
+        index.hashes = hashes;
+        index.builtAt = now;
+        index.caughtUpAt = now;
+        log.debug("Near-duplicate index for user {} rebuilt: {} hashes", userId, hashes.size());
+      } else if (index.caughtUpAt.plusSeconds(CATCH_UP_SECONDS).isBefore(now)) {
+        List<Object[]> changed =
+            metadataRepository.findPhashesByUserIdCompletedSince(
+                userId, index.caughtUpAt.minus(COMMIT_SKEW));
+        for (Row row : rows(changed)) {
+          Long known = index.hashes.put(row.id(), row.hash());
+          if (known == null || known != row.hash()) {
+            index.tree.add(row.hash(), row.id());
+          }
+        }
+        index.caughtUpAt = now;
+      }
+    }
+    return index;
+  }
+
+  /** Drops the indexes of users who have not asked for a while; they are rebuilt on demand. */
+  @Scheduled(fixedDelay = REBUILD_MINUTES * 60_000L)
+  public void evictIdle() {
+    Instant cutoff = Instant.now().minus(Duration.ofMinutes(REBUILD_MINUTES));
+    indexes.values().removeIf(index -> index.lastUsed.isBefore(cutoff));
+  }
+
+  private static List<Row> rows(List<Object[]> raw) {
+    List<Row> rows = new ArrayList<>(raw.size());
+    for (Object[] r : raw) {
+      rows.add(new Row((Long) r[0], (Long) r[1], (Long) r[2]));
+    }
+    return rows;
+  }
+
+  private static void union(Map<Long, Long> parent, long a, long b) {
+    long rootA = find(parent, a);
+    long rootB = find(parent, b);
+    if (rootA != rootB) {
+      // Smaller id as root keeps the group order stable.
+      parent.put(Math.max(rootA, rootB), Math.min(rootA, rootB));
+    }
+  }
+
+  private static long find(Map<Long, Long> parent, long id) {
+    parent.putIfAbsent(id, id);
+    long root = id;
+    while (parent.get(root) != root) {
+      root = parent.get(root);
+    }
+    // Path compression.
+    long node = id;
+    while (node != root) {
+      long next = parent.get(node);
+      parent.put(node, root);
+      node = next;
+    }
+    return root;
+  }
+}
@@ -3,16 +3,32 @@ package com.oglimmer.photoupload.service;
 
 import com.oglimmer.photoupload.config.ObjectStorageProperties;
 import com.oglimmer.photoupload.exception.MinioUnavailableException;
+import com.oglimmer.photoupload.util.Sha256;
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -27,11 +43,14 @@ import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
 import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.MetadataDirective;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.model.S3Object;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
@@ -47,6 +66,9 @@ import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignReques
 @Slf4j
 public class ObjectStorageService {
 
+  /** Most keys one {@code DeleteObjects} call accepts. */
+  public static final int DELETE_BATCH_SIZE = 1000;
+
   private final S3Client s3;
   private final S3Presigner presigner;
   private final ObjectStorageProperties properties;
@@ -116,6 +138,68 @@ public class ObjectStorageService {
     log.debug("S3 GET s3://{}/{} → {}", properties.getBucket(), key, destination);
   }
 
+  /**
+   * {@link #getToFile}, hashing the bytes on their way to disk, and returns their SHA-256 as {@code
+   * file_metadata.checksum} stores it. Same single pass over the body — the digest reads the buffer
+   * the copy already holds — so a TUS upload, which arrives without a hash, gets one for free on
+   * its first worker download.
+   */
+  public String getToFileWithSha256(String key, Path destination) {
+    GetObjectRequest req =
+        GetObjectRequest.builder().bucket(properties.getBucket()).key(key).build();
+    String checksum =
+        withBreaker(
+            () -> {
+              MessageDigest digest = Sha256.newDigest();
+              try (ResponseInputStream<GetObjectResponse> in = s3.getObject(req);
+                  DigestInputStream hashing = new DigestInputStream(in, digest)) {
+                Files.copy(hashing, destination, StandardCopyOption.REPLACE_EXISTING);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+              return Sha256.hex(digest);
+            });
+    log.debug("S3 GET s3://{}/{} → {} (sha256)", properties.getBucket(), key, destination);
+    return checksum;
+  }
+
+  /**
+   * SHA-256 of an object, streamed through the digest without touching local disk. For the checksum
+   * backfill, which needs the hash and nothing else.
+   */
+  public String sha256(String key) {
+    GetObjectRequest req =
+        GetObjectRequest.builder().bucket(properties.getBucket()).key(key).build();
+    return withBreaker(
+        () -> {
+          try (ResponseInputStream<GetObjectResponse> in = s3.getObject(req)) {
+            return Sha256.of(in);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * Size in bytes of an object, or {@code null} when it does not exist. A HEAD only — used by the
+   * admin derivative-savings report, which must not pull whole images through the api pod, and to
+   * find on-demand renditions that already exist.
+   */
+  public Long objectSize(String key) {
+    HeadObjectRequest req =
+        HeadObjectRequest.builder().bucket(properties.getBucket()).key(key).build();
+    try {
+      return withBreaker(() -> s3.headObject(req)).contentLength();
+    } catch (NoSuchKeyException e) {
+      return null;
+    } catch (S3Exception e) {
+      if (e.statusCode() == 404) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
   /** Stream an object straight to a caller (controller). Closes the {@link ResponseInputStream}. */
   public ResponseInputStream<GetObjectResponse> openStream(String key) {
     GetObjectRequest req =
@@ -168,12 +252,17 @@ public class ObjectStorageService {
 
   /** List every object key in the bucket, handling S3 pagination transparently. */
   public List<String> listKeys() {
+    return listKeys(null);
+  }
+
+  /** As {@link #listKeys()}, restricted to keys under {@code prefix} (null = whole bucket). */
+  public List<String> listKeys(String prefix) {
     List<String> keys = new ArrayList<>();
     String continuationToken = null;
     do {
       final String token = continuationToken;
       ListObjectsV2Request.Builder req =
-          ListObjectsV2Request.builder().bucket(properties.getBucket());
+          ListObjectsV2Request.builder().bucket(properties.getBucket()).prefix(prefix);
       if (token != null) {
         req.continuationToken(token);
       }
@@ -184,6 +273,58 @@ public class ObjectStorageService {
     return keys;
   }
 
+  /**
+   * Keys under {@code prefix} (null = whole bucket) in listing order — ascending UTF-8 bytes — read
+   * one ListObjectsV2 page at a time as the stream is consumed, so a caller walking the whole
+   * bucket holds a single page. Each page fetch goes through the breaker like every other call.
+   */
+  public Stream<String> streamKeys(String prefix) {
+    return streamObjects(prefix).map(S3Object::key);
+  }
+
+  /** As {@link #streamKeys}, keeping only objects last modified strictly before {@code cutoff}. */
+  public Stream<String> streamKeysOlderThan(String prefix, java.time.Instant cutoff) {
+    return streamObjects(prefix)
+        .filter(obj -> obj.lastModified() != null && obj.lastModified().isBefore(cutoff))
+        .map(S3Object::key);
+  }
+
+  private Stream<S3Object> streamObjects(String prefix) {
+    Iterator<S3Object> pages =
+        new Iterator<>() {
+          private Iterator<S3Object> page = Collections.emptyIterator();
+          private String continuationToken;
+          private boolean last;
+
+          @Override
+          public boolean hasNext() {
+            while (!page.hasNext() && !last) {
+              ListObjectsV2Request.Builder req =
+                  ListObjectsV2Request.builder().bucket(properties.getBucket()).prefix(prefix);
+              if (continuationToken != null) {
+                req.continuationToken(continuationToken);
+              }
+              ListObjectsV2Response response = withBreaker(() -> s3.listObjectsV2(req.build()));
+              page = response.contents().iterator();
+              continuationToken = response.isTruncated() ? response.nextContinuationToken() : null;
+              last = continuationToken == null;
+            }
+            return page.hasNext();
+          }
+
+          @Override
+          public S3Object next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return page.next();
+          }
+        };
+    return StreamSupport.stream(
+        Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
+  }
+
   public void delete(String key) {
     runWithBreaker(
         () ->
@@ -224,13 +365,17 @@ public class ObjectStorageService {
    * Bulk delete using the {@code DeleteObjects} API. Splits the input into batches of up to 1000
    * keys (the S3 per-call limit). Per-key errors reported by S3 are logged but do not throw — the
    * caller has already orphaned the metadata rows, so a half-deleted set of S3 objects is purged
-   * out-of-band by the orphan sweeper rather than aborting the request.
+   * out-of-band by the orphan sweeper rather than aborting the request. Callers that still hold
+   * state for each key (the retention purge) get the rejected keys back.
+   *
+   * @return the keys S3 reported an error for; empty when every delete went through
    */
-  public void deleteKeys(Collection<String> keys) {
+  public Set<String> deleteKeys(Collection<String> keys) {
+    Set<String> failed = new HashSet<>();
     if (keys == null || keys.isEmpty()) {
-      return;
+      return failed;
     }
-    final int batchSize = 1000;
+    final int batchSize = DELETE_BATCH_SIZE;
     List<ObjectIdentifier> batch = new ArrayList<>(batchSize);
     for (String key : keys) {
       if (key == null || key.isBlank()) {
@@ -238,16 +383,17 @@ public class ObjectStorageService {
       }
       batch.add(ObjectIdentifier.builder().key(key).build());
       if (batch.size() == batchSize) {
-        deleteObjectsBatch(batch);
+        deleteObjectsBatch(batch, failed);
         batch = new ArrayList<>(batchSize);
       }
     }
     if (!batch.isEmpty()) {
-      deleteObjectsBatch(batch);
+      deleteObjectsBatch(batch, failed);
     }
+    return failed;
   }
 
-  private void deleteObjectsBatch(List<ObjectIdentifier> batch) {
+  private void deleteObjectsBatch(List<ObjectIdentifier> batch, Set<String> failed) {
     DeleteObjectsRequest req =
         DeleteObjectsRequest.builder()
             .bucket(properties.getBucket())
@@ -257,12 +403,14 @@ public class ObjectStorageService {
     if (resp.hasErrors() && !resp.errors().isEmpty()) {
       resp.errors()
           .forEach(
-              e ->
-                  log.warn(
-                      "S3 batch DELETE error key={} code={} message={}",
-                      e.key(),
-                      e.code(),
-                      e.message()));
+              e -> {
+                failed.add(e.key());
+                log.warn(
+                    "S3 batch DELETE error key={} code={} message={}",
+                    e.key(),
+                    e.code(),
+                    e.message());
+              });
     }
     log.debug("S3 batch DELETE {} keys from s3://{}", batch.size(), properties.getBucket());
   }
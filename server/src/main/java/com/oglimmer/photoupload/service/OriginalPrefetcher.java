@@ -0,0 +1,218 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import com.oglimmer.photoupload.storage.StoragePaths;
+import com.oglimmer.photoupload.util.MimeTypePredicates;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Downloads the original of the job this worker is likely to lease next while the current job is
+ * still encoding. {@link JobDispatcher} calls {@link #prefetchNext(Long)} right after each lease;
+ * {@link FileProcessingService} calls {@link #claim(Long, String, Path)} before its own GET and
+ * takes the bytes from here when the guess was right.
+ *
+ * <p>At most one original is held at a time. The guess is a plain read of the queue, not a lease,
+ * so another worker may take that job first — the prefetched file is then simply replaced by the
+ * next guess. Only {@code PROCESS} jobs are prefetched: they are the only job type whose source key
+ * cannot be rewritten in place between the prefetch and the lease (rotate overwrites {@code
+ * originals/} bytes under the same key; HEIC conversion changes the key, which {@link #claim}
+ * checks).
+ */
+@Component
+@Profile(Profiles.WORKER)
+@Slf4j
+public class OriginalPrefetcher {
+
+  static final String PREFETCH_DIR = "prefetch";
+  static final String METRIC_NAME = "photoupload.worker.prefetch";
+
+  private final Optional<ObjectStorageService> objectStorage;
+  private final ProcessingJobRepository jobRepository;
+  private final FileMetadataRepository metadataRepository;
+  private final FileStorageProperties storageProperties;
+  private final JobsProperties jobsProperties;
+  private final MeterRegistry meterRegistry;
+  private final ExecutorService prefetchExecutor;
+
+  /** The one prefetch in flight or on disk, or null. Guarded by {@code this}. */
+  private Prefetch current;
+
+  /** {@code download} yields the SHA-256 of the file, hashed as it was written. */
+  private record Prefetch(Long assetId, String key, Path file, Future<String> download) {}
+
+  public OriginalPrefetcher(
+      Optional<ObjectStorageService> objectStorage,
+      ProcessingJobRepository jobRepository,
+      FileMetadataRepository metadataRepository,
+      FileStorageProperties storageProperties,
+      JobsProperties jobsProperties,
+      MeterRegistry meterRegistry) {
+    this.objectStorage = objectStorage;
+    this.jobRepository = jobRepository;
+    this.metadataRepository = metadataRepository;
+    this.storageProperties = storageProperties;
+    this.jobsProperties = jobsProperties;
+    this.meterRegistry = meterRegistry;
+    this.prefetchExecutor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "original-prefetch");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @PreDestroy
+  void shutdown() {
+    prefetchExecutor.shutdownNow();
+    synchronized (this) {
+      discard();
+    }
+  }
+
+  /**
+   * Start downloading the original of the oldest queued PROCESS job other than {@code
+   * leasedAssetId} (the one the caller is about to process). No-op when prefetch is disabled, when
+   * there is no object storage, or when that original is already held.
+   */
+  public void prefetchNext(Long leasedAssetId) {
+    if (!jobsProperties.getPipeline().isPrefetchEnabled() || objectStorage.isEmpty()) {
+      return;
+    }
+    try {
+      Long nextAssetId =
+          jobRepository.findNextQueuedProcessAssetIds(2).stream()
+              .filter(id -> !id.equals(leasedAssetId))
+              .findFirst()
+              .orElse(null);
+      if (nextAssetId == null) {
+        return;
+      }
+      FileMetadata next = metadataRepository.findById(nextAssetId).orElse(null);
+      if (next == null || !StoragePaths.isS3Key(next.getFilePath())) {
+        return;
+      }
+      if (jobsProperties.getPipeline().isStreamVideoInput()
+          && MimeTypePredicates.isVideoFile(next.getMimeType())) {
+        // ffmpeg will read this one from MinIO itself (D61); staging it would defeat the point.
+        return;
+      }
+      start(nextAssetId, next.getFilePath(), next.getStoredFilename());
+    } catch (Exception e) {
+      // Prefetch is an optimisation; the job will GET its own original if this fails.
+      log.debug("Prefetch lookup failed: {}", e.toString());
+    }
+  }
+
+  private synchronized void start(Long assetId, String key, String storedFilename)
+      throws IOException {
+    if (current != null && current.assetId().equals(assetId) && current.key().equals(key)) {
+      return;
+    }
+    discard();
+    Path dir =
+        Paths.get(storageProperties.getUploadDir())
+            .toAbsolutePath()
+            .normalize()
+            .resolve(".processing-tmp")
+            .resolve(PREFETCH_DIR)
+            .resolve(String.valueOf(assetId));
+    Files.createDirectories(dir);
+    Path file = dir.resolve(storedFilename);
+    ObjectStorageService storage = objectStorage.get();
+    Future<String> download =
+        prefetchExecutor.submit(
+            () -> {
+              long start = System.nanoTime();
+              String checksum = storage.getToFileWithSha256(key, file);
+              DerivativeUploader.recordStage(meterRegistry, "prefetch", start);
+              return checksum;
+            });
+    current = new Prefetch(assetId, key, file, download);
+    log.debug("Prefetching original of asset {} ({})", assetId, key);
+  }
+
+  /**
+   * Move the prefetched original of {@code assetId} to {@code destination} if one is held for the
+   * same {@code key}. Waits for a download that is still running — it had a head start on the GET
+   * the caller would otherwise issue. Returns the SHA-256 of the moved file, hashed during the
+   * download like {@link ObjectStorageService#getToFileWithSha256}, or null (and the caller
+   * downloads as usual) on any mismatch or failure.
+   */
+  public String claim(Long assetId, String key, Path destination) {
+    Prefetch held;
+    synchronized (this) {
+      if (current == null || !current.assetId().equals(assetId) || !current.key().equals(key)) {
+        meterRegistry.counter(METRIC_NAME, "result", "miss").increment();
+        return null;
+      }
+      held = current;
+      current = null;
+    }
+    try {
+      String checksum = held.download().get();
+      Files.move(held.file(), destination, StandardCopyOption.REPLACE_EXISTING);
+      meterRegistry.counter(METRIC_NAME, "result", "hit").increment();
+      log.debug("Using prefetched original for asset {}", assetId);
+      return checksum;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | IOException e) {
+      log.warn("Prefetched original of asset {} unusable: {}", assetId, e.toString());
+    } finally {
+      deleteRecursive(held.file().getParent());
+    }
+    meterRegistry.counter(METRIC_NAME, "result", "failed").increment();
+    return null;
+  }
+
+  private void discard() {
+    if (current == null) {
+      return;
+    }
+    current.download().cancel(true);
+    deleteRecursive(current.file().getParent());
+    current = null;
+  }
+
+  private static void deleteRecursive(Path dir) {
+    if (dir == null || !Files.exists(dir)) {
+      return;
+    }
+    try (var paths = Files.walk(dir)) {
+      paths
+          .sorted(Comparator.reverseOrder())
+          .forEach(
+              p -> {
+                try {
+                  Files.deleteIfExists(p);
+                } catch (IOException ignored) {
+                  // Best-effort; the next prefetch of the same asset overwrites anyway.
+                }
+              });
+    } catch (IOException e) {
+      log.debug("Could not wipe prefetch dir {}: {}", dir, e.toString());
+    }
+  }
+}
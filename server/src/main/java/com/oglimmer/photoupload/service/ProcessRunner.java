@@ -1,21 +1,103 @@
 /* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
 package com.oglimmer.photoupload.service;
 
+import com.oglimmer.photoupload.config.ToolsProperties;
+import com.oglimmer.photoupload.entity.JobLane;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
 
 /**
  * Runs an external command, captures combined stdout/stderr, and enforces a timeout. On timeout the
- * process is force-killed; previous code paths blocked indefinitely on hung ffmpeg invocations.
+ * process is force-killed; previous code paths blocked indefinitely on hung ffmpeg invocations. The
+ * kill is scheduled up front: the deadline used to be checked only once the tool had closed its
+ * output, so a tool that hung with its pipe open was never reached.
+ *
+ * <p>Governed per tool (D62), keyed by the executable's name: only the last {@code
+ * tools.output-tail-chars} of output are kept, the child can be started with address-space and
+ * CPU-time rlimits, and its peak RSS and CPU time are sampled from {@code /proc} and published per
+ * tool. Priority follows the caller instead: a tool started inside {@link #inLane} runs under
+ * {@code nice} as {@link ToolsProperties#getNice() tools.nice} sets for that job lane; tools
+ * started outside a job are never niced.
  */
+@Component
 @Slf4j
-final class ProcessRunner {
+class ProcessRunner {
 
-  private ProcessRunner() {}
+  static final String PEAK_RSS = "photoupload.tool.peak.rss";
+  static final String CPU_SECONDS = "photoupload.tool.cpu.seconds";
+  static final String DURATION = "photoupload.tool.duration";
+
+  private final ToolsProperties properties;
+  private final MeterRegistry meterRegistry;
+
+  /** Deadlines and usage samples of every running tool; each task is a few syscalls at most. */
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "tool-watchdog");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** Lane of the job the current thread is running, if it is running one. */
+  private final ThreadLocal<JobLane> lane = new ThreadLocal<>();
+
+  /** {@code meterRegistry} may be null to publish nothing. */
+  ProcessRunner(ToolsProperties properties, MeterRegistry meterRegistry) {
+    this.properties = properties;
+    this.meterRegistry = meterRegistry;
+    if (!properties.getLimits().isEmpty() || !properties.getNice().isEmpty()) {
+      log.info(
+          "External tool limits: {}, nice by lane: {}",
+          properties.getLimits(),
+          properties.getNice());
+    }
+  }
+
+  @PreDestroy
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Runs {@code work} with every tool it starts on this thread niced for {@code jobLane}. The job
+   * dispatcher wraps each job in it; the tools of a job all run on the job's thread.
+   */
+  void inLane(JobLane jobLane, Runnable work) {
+    JobLane previous = lane.get();
+    lane.set(jobLane);
+    try {
+      work.run();
+    } finally {
+      if (previous == null) {
+        lane.remove();
+      } else {
+        lane.set(previous);
+      }
+    }
+  }
 
   record Result(int exitCode, String output, boolean timedOut) {
     boolean success() {
@@ -23,26 +105,75 @@ final class ProcessRunner {
     }
   }
 
-  static Result run(List<String> command, long timeout, TimeUnit unit) throws IOException {
-    ProcessBuilder pb = new ProcessBuilder(command).redirectErrorStream(true);
+  Result run(List<String> command, long timeout, TimeUnit unit) throws IOException {
+    return run(command, timeout, unit, line -> false);
+  }
+
+  /**
+   * Like {@link #run(List, long, TimeUnit)}, but hands every output line to {@code lineConsumer} as
+   * it arrives. Lines the consumer returns true for are not kept in {@link Result#output()} — used
+   * for ffmpeg's {@code -progress} blocks, which would otherwise dwarf the useful output.
+   */
+  Result run(List<String> command, long timeout, TimeUnit unit, Predicate<String> lineConsumer)
+      throws IOException {
+    String tool = toolName(command);
+    ToolsProperties.Limits limits = properties.getLimits().get(tool);
+    JobLane jobLane = lane.get();
+    int nice = jobLane != null ? properties.getNice().getOrDefault(jobLane, 0) : 0;
+    ProcessBuilder pb =
+        new ProcessBuilder(governed(command, limits, nice)).redirectErrorStream(true);
+    long start = System.nanoTime();
     Process process = pb.start();
 
-    StringBuilder out = new StringBuilder();
-    try (BufferedReader reader =
-        new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+    AtomicBoolean killed = new AtomicBoolean();
+    ScheduledFuture<?> deadline =
+        scheduler.schedule(
+            () -> {
+              if (process.isAlive()) {
+                killed.set(true);
+                destroy(process);
+              }
+            },
+            timeout,
+            unit);
+    Usage usage = new Usage(process);
+    ScheduledFuture<?> sampling = null;
+    if (meterRegistry != null) {
+      long interval = Math.max(10, properties.getSampleIntervalMs());
+      sampling = scheduler.scheduleAtFixedRate(usage::sample, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    OutputTail out = new OutputTail(properties.getOutputTailChars());
+    try (Reader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
       String line;
-      while ((line = reader.readLine()) != null) {
-        out.append(line).append('\n');
+      while ((line = readLine(reader, out.budget())) != null) {
+        if (!lineConsumer.test(line)) {
+          out.add(line);
+        }
+      }
+    } catch (IOException e) {
+      // The kill can close the pipe under a blocked read ("Stream closed"): the output ends here.
+      if (!killed.get()) {
+        throw e;
+      }
+    } finally {
+      if (sampling != null) {
+        sampling.cancel(false);
+        // Output closes as the tool exits; one more read usually still sees the live process.
+        usage.sample();
       }
     }
 
     boolean finished;
     try {
-      finished = process.waitFor(timeout, unit);
+      long remaining = start + unit.toNanos(timeout) - System.nanoTime();
+      finished = !killed.get() && process.waitFor(remaining, TimeUnit.NANOSECONDS);
     } catch (InterruptedException e) {
-      process.destroyForcibly();
+      destroy(process);
       Thread.currentThread().interrupt();
       return new Result(-1, out.toString(), false);
+    } finally {
+      deadline.cancel(false);
     }
 
     if (!finished) {
@@ -51,14 +182,182 @@ final class ProcessRunner {
           timeout,
           unit.name().toLowerCase(),
           command.get(0));
-      process.destroyForcibly();
+      destroy(process);
       try {
         process.waitFor(5, TimeUnit.SECONDS);
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
       }
+      record(tool, "timeout", start, usage);
       return new Result(-1, out.toString(), true);
     }
-    return new Result(process.exitValue(), out.toString(), false);
+    int exitCode = process.exitValue();
+    record(tool, exitCode == 0 ? "success" : "failure", start, usage);
+    return new Result(exitCode, out.toString(), false);
+  }
+
+  /** Kills the tool and anything it forked that could still hold the output pipe open. */
+  private static void destroy(Process process) {
+    process.descendants().forEach(ProcessHandle::destroyForcibly);
+    process.destroyForcibly();
+  }
+
+  /** The executable's file name: {@code /usr/bin/ffmpeg} and {@code ffmpeg} share one key. */
+  static String toolName(List<String> command) {
+    return Path.of(command.get(0)).getFileName().toString();
+  }
+
+  /**
+   * {@code command} wrapped in what its limits and the caller's {@code nice} increment ask for.
+   * rlimits go through the shell's {@code ulimit} and then {@code exec}, and {@code nice} execs as
+   * well, so the pid we sample is the tool's own.
+   */
+  static List<String> governed(List<String> command, ToolsProperties.Limits limits, int nice) {
+    if (limits == null && nice <= 0) {
+      return command;
+    }
+    List<String> inner = new ArrayList<>();
+    if (nice > 0) {
+      inner.addAll(List.of("nice", "-n", String.valueOf(nice)));
+    }
+    inner.addAll(command);
+    if (limits == null) {
+      return inner;
+    }
+    StringBuilder ulimits = new StringBuilder();
+    if (limits.getMaxMemoryMb() > 0) {
+      // ulimit -v is in KiB and caps the address space, not RSS: set it with headroom.
+      ulimits.append("ulimit -v ").append(limits.getMaxMemoryMb() * 1024).append("; ");
+    }
+    if (limits.getMaxCpuSeconds() > 0) {
+      ulimits.append("ulimit -t ").append(limits.getMaxCpuSeconds()).append("; ");
+    }
+    if (ulimits.isEmpty()) {
+      return inner;
+    }
+    List<String> wrapped = new ArrayList<>(List.of("sh", "-c", ulimits + "exec \"$@\"", "sh"));
+    wrapped.addAll(inner);
+    return wrapped;
+  }
+
+  private void record(String tool, String result, long startNanos, Usage usage) {
+    if (meterRegistry == null) {
+      return;
+    }
+    Timer.builder(DURATION)
+        .tag("tool", tool)
+        .tag("result", result)
+        .register(meterRegistry)
+        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    if (usage.peakRssBytes.get() > 0) {
+      DistributionSummary.builder(PEAK_RSS)
+          .baseUnit("bytes")
+          .tag("tool", tool)
+          .publishPercentileHistogram()
+          .register(meterRegistry)
+          .record(usage.peakRssBytes.get());
+    }
+    if (usage.cpuNanos.get() > 0) {
+      DistributionSummary.builder(CPU_SECONDS)
+          .baseUnit("seconds")
+          .tag("tool", tool)
+          .publishPercentileHistogram()
+          .register(meterRegistry)
+          .record(usage.cpuNanos.get() / 1e9);
+    }
+  }
+
+  /**
+   * One line of at most {@code maxChars}; the rest of an overlong line is read and discarded, so a
+   * tool that writes binary garbage without newlines cannot grow the buffer.
+   */
+  private static String readLine(Reader reader, int maxChars) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    boolean any = false;
+    while ((c = reader.read()) != -1) {
+      any = true;
+      if (c == '\n') {
+        break;
+      }
+      if (c != '\r' && line.length() < maxChars) {
+        line.append((char) c);
+      }
+    }
+    return any ? line.toString() : null;
+  }
+
+  /** The newest lines whose total length fits the budget, and a count of the ones let go. */
+  static final class OutputTail {
+    private final int budget;
+    private final Deque<String> lines = new ArrayDeque<>();
+    private long chars;
+    private long dropped;
+
+    OutputTail(int budget) {
+      this.budget = Math.max(1, budget);
+    }
+
+    int budget() {
+      return budget;
+    }
+
+    void add(String line) {
+      lines.addLast(line);
+      chars += line.length() + 1;
+      while (chars > budget && lines.size() > 1) {
+        chars -= lines.removeFirst().length() + 1;
+        dropped++;
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder out = new StringBuilder();
+      if (dropped > 0) {
+        out.append("[").append(dropped).append(" earlier lines dropped]\n");
+      }
+      for (String line : lines) {
+        out.append(line).append('\n');
+      }
+      return out.toString();
+    }
+  }
+
+  /**
+   * Peak RSS and CPU time of the child, read while it runs. {@code VmHWM} is the kernel's own
+   * high-water mark, so a late sample still sees an earlier peak; CPU time only grows. Where there
+   * is no {@code /proc} both stay 0 and nothing is published.
+   */
+  private static final class Usage {
+    private final Process process;
+    private final Path status;
+    private final AtomicLong peakRssBytes = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    Usage(Process process) {
+      this.process = process;
+      this.status = Path.of("/proc", String.valueOf(process.pid()), "status");
+    }
+
+    void sample() {
+      process
+          .toHandle()
+          .info()
+          .totalCpuDuration()
+          .map(Duration::toNanos)
+          .ifPresent(nanos -> cpuNanos.accumulateAndGet(nanos, Math::max));
+      try {
+        for (String line : Files.readAllLines(status)) {
+          if (line.startsWith("VmHWM:")) {
+            long kib = Long.parseLong(line.replaceAll("\\D", ""));
+            peakRssBytes.accumulateAndGet(kib * 1024, Math::max);
+            return;
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // Gone already, or not Linux: keep what was seen so far.
+      }
+    }
   }
 }
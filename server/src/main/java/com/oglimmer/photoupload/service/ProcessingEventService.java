@@ -0,0 +1,280 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.model.AssetProcessingEvent;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Per-album Server-Sent Events fan-out of asset processing transitions (QUEUED → PROCESSING → DONE
+ * / FAILED), so the gallery can swap a placeholder for its thumbnail the moment the worker commits
+ * instead of re-polling {@code /api/i/{token}} on every {@code 202 + Retry-After}.
+ *
+ * <p>The worker runs in its own pod and has no channel to the api pod other than the database, so
+ * transitions are observed here, not pushed from {@link FileProcessingService}: one scheduled query
+ * per tick covers every album that currently has a subscriber and is skipped entirely when nobody
+ * is listening. Each subscriber keeps its own last-seen state, so a fresh connection receives the
+ * album's in-flight rows as its opening events and then only changes.
+ *
+ * <p>Granularity is the poll interval: a row that goes QUEUED → PROCESSING → DONE between two ticks
+ * is reported once, as DONE. That is the transition clients act on; the intermediate states only
+ * drive spinners.
+ *
+ * <p>Sends run on a small pool of their own, never on the scheduler thread: a blocking write to one
+ * slow or half-open client must not hold up every other subscriber, nor the other scheduled tasks.
+ * A subscriber still busy with its previous delivery is skipped for the tick — its last-seen state
+ * is untouched, so it catches up on the next one — and dropped once a delivery has been running
+ * longer than {@code jobs.events.send-timeout-ms}.
+ */
+@Profile(Profiles.API)
+@Service
+@Slf4j
+public class ProcessingEventService {
+
+  static final String EVENT_NAME = "status";
+
+  private static final Set<ProcessingStatus> ACTIVE =
+      EnumSet.of(ProcessingStatus.QUEUED, ProcessingStatus.PROCESSING);
+
+  private final FileMetadataRepository fileMetadataRepository;
+  private final JobsProperties jobsProperties;
+
+  private final Map<Long, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+  private final ThreadPoolExecutor senderPool;
+
+  // Package-private and not final so the test can deliver on the calling thread.
+  Executor sender;
+
+  /** Start of the previous tick; the next query looks back from here (minus the skew window). */
+  private volatile Instant lastTick = Instant.now();
+
+  private volatile Instant lastHeartbeat = Instant.now();
+
+  /** What a subscriber has already been told about one asset. Attempts distinguish retries. */
+  private record Seen(ProcessingStatus status, Integer attempts) {}
+
+  private static final class Subscriber {
+    private final SseEmitter emitter;
+    // Touched only by the delivery in flight; busy hands it from one delivery to the next.
+    private final Map<Long, Seen> seen = new HashMap<>();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile long busySinceNanos;
+
+    private Subscriber(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+  }
+
+  public ProcessingEventService(
+      FileMetadataRepository fileMetadataRepository, JobsProperties jobsProperties) {
+    this.fileMetadataRepository = fileMetadataRepository;
+    this.jobsProperties = jobsProperties;
+    AtomicInteger threadCount = new AtomicInteger();
+    // No queue: a tick that finds every sender busy skips the subscriber rather than piling up.
+    this.senderPool =
+        new ThreadPoolExecutor(
+            0,
+            Math.max(1, jobsProperties.getEvents().getSendThreads()),
+            60,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "sse-send-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.sender = senderPool;
+  }
+
+  @PreDestroy
+  void shutdown() {
+    senderPool.shutdownNow();
+  }
+
+  /** Opens a stream for {@code albumId}. Ownership is the caller's responsibility. */
+  public SseEmitter subscribe(Long albumId) {
+    return register(albumId, new SseEmitter(jobsProperties.getEvents().getEmitterTimeoutMs()));
+  }
+
+  // Package-private so the test can hand in an emitter that records what was sent.
+  SseEmitter register(Long albumId, SseEmitter emitter) {
+    Subscriber subscriber = new Subscriber(emitter);
+    subscribers.computeIfAbsent(albumId, id -> new CopyOnWriteArrayList<>()).add(subscriber);
+    Runnable remove = () -> unregister(albumId, subscriber);
+    emitter.onCompletion(remove);
+    emitter.onTimeout(remove);
+    emitter.onError(e -> remove.run());
+    log.debug("Processing-event subscriber added for album {}", albumId);
+    return emitter;
+  }
+
+  private void unregister(Long albumId, Subscriber subscriber) {
+    subscribers.computeIfPresent(
+        albumId,
+        (id, list) -> {
+          list.remove(subscriber);
+          return list.isEmpty() ? null : list;
+        });
+  }
+
+  /** Number of open streams across all albums. */
+  public int getSubscriberCount() {
+    return subscribers.values().stream().mapToInt(List::size).sum();
+  }
+
+  @Scheduled(fixedDelayString = "${jobs.events.poll-ms:1000}")
+  public void poll() {
+    if (subscribers.isEmpty()) {
+      return;
+    }
+    Instant tickStart = Instant.now();
+    // Look back past the previous tick: processing_completed_at is stamped by the worker's clock,
+    // not ours, and a row committed mid-query must not fall between two windows.
+    Instant since = lastTick.minusMillis(jobsProperties.getEvents().getLookbackMs());
+    List<Object[]> rows;
+    try {
+      rows =
+          fileMetadataRepository.findProcessingStateByAlbumIds(
+              List.copyOf(subscribers.keySet()), ACTIVE, since);
+    } catch (Exception e) {
+      // A DB blip should not crash the scheduler; the next tick re-reads the same window.
+      log.warn("Failed to poll processing state for SSE subscribers: {}", e.getMessage());
+      return;
+    }
+    lastTick = tickStart;
+
+    Map<Long, List<AssetProcessingEvent>> byAlbum = new HashMap<>();
+    for (Object[] row : rows) {
+      AssetProcessingEvent event = toEvent(row);
+      byAlbum.computeIfAbsent(event.getAlbumId(), id -> new ArrayList<>()).add(event);
+    }
+
+    boolean heartbeatDue =
+        !tickStart.isBefore(lastHeartbeat.plusMillis(jobsProperties.getEvents().getHeartbeatMs()));
+    subscribers.forEach(
+        (albumId, list) -> {
+          List<AssetProcessingEvent> current = byAlbum.getOrDefault(albumId, List.of());
+          for (Subscriber subscriber : list) {
+            dispatch(albumId, subscriber, current, heartbeatDue);
+          }
+        });
+    if (heartbeatDue) {
+      lastHeartbeat = tickStart;
+    }
+  }
+
+  /** Hands one subscriber's delivery to the sender pool, unless its previous one is still going. */
+  private void dispatch(
+      Long albumId,
+      Subscriber subscriber,
+      List<AssetProcessingEvent> current,
+      boolean heartbeatDue) {
+    if (!subscriber.busy.compareAndSet(false, true)) {
+      long stuckMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - subscriber.busySinceNanos);
+      if (stuckMs > jobsProperties.getEvents().getSendTimeoutMs()) {
+        log.debug(
+            "Dropping processing-event subscriber for album {}: send blocked for {} ms",
+            albumId,
+            stuckMs);
+        drop(albumId, subscriber, new IOException("SSE send blocked for " + stuckMs + " ms"));
+      }
+      return;
+    }
+    subscriber.busySinceNanos = System.nanoTime();
+    try {
+      sender.execute(
+          () -> {
+            try {
+              deliver(albumId, subscriber, current, heartbeatDue);
+            } finally {
+              subscriber.busy.set(false);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // Every sender is tied up (or shutting down); this subscriber catches up next tick.
+      subscriber.busy.set(false);
+    }
+  }
+
+  private void drop(Long albumId, Subscriber subscriber, Exception cause) {
+    unregister(albumId, subscriber);
+    try {
+      subscriber.emitter.completeWithError(cause);
+    } catch (RuntimeException e) {
+      log.debug("Could not complete dropped SSE emitter: {}", e.getMessage());
+    }
+  }
+
+  private void deliver(
+      Long albumId,
+      Subscriber subscriber,
+      List<AssetProcessingEvent> current,
+      boolean heartbeatDue) {
+    Map<Long, Seen> next = new HashMap<>();
+    try {
+      boolean sent = false;
+      for (AssetProcessingEvent event : current) {
+        Seen seen = new Seen(event.getProcessingStatus(), event.getAttempts());
+        next.put(event.getId(), seen);
+        if (!seen.equals(subscriber.seen.get(event.getId()))) {
+          subscriber.emitter.send(
+              SseEmitter.event()
+                  .name(EVENT_NAME)
+                  .id(event.getId() + "-" + event.getProcessingStatus())
+                  .data(event));
+          sent = true;
+        }
+      }
+      if (!sent && heartbeatDue) {
+        // Comment line — ignored by EventSource, but keeps proxies from reaping an idle stream.
+        subscriber.emitter.send(SseEmitter.event().comment("keepalive"));
+      }
+    } catch (IOException | IllegalStateException e) {
+      log.debug("Dropping processing-event subscriber for album {}: {}", albumId, e.getMessage());
+      drop(albumId, subscriber, e);
+      return;
+    }
+    // Rows that settled before the look-back window no longer appear; forgetting them keeps the
+    // per-subscriber map bounded by the album's in-flight set.
+    subscriber.seen.clear();
+    subscriber.seen.putAll(next);
+  }
+
+  private static AssetProcessingEvent toEvent(Object[] row) {
+    return AssetProcessingEvent.builder()
+        .albumId((Long) row[0])
+        .id((Long) row[1])
+        .processingStatus((ProcessingStatus) row[2])
+        .attempts((Integer) row[3])
+        .completedAt((Instant) row[4])
+        .error((String) row[5])
+        .publicToken((String) row[6])
+        .build();
+  }
+}
@@ -0,0 +1,414 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.exception.ResourceNotFoundException;
+import com.oglimmer.photoupload.model.FileServeInfo;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.service.ThumbnailService.ThumbnailSize;
+import com.oglimmer.photoupload.storage.DerivativeFormat;
+import com.oglimmer.photoupload.storage.StoragePaths;
+import com.oglimmer.photoupload.util.MimeTypePredicates;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+
+/**
+ * Arbitrary widths of an image for {@code /api/i/{token}?w=} (D65). A requested width is rounded up
+ * to the next of {@code file.upload.resize-widths}, and each bucket is rendered once per asset and
+ * encoding from the smallest derivative at least that wide — never from the original, so a miss
+ * costs a shrink of at most a 2400 px JPEG. Renditions are stored under deterministic keys next to
+ * the derivatives they are made from ({@link StoragePaths#derivativeResizedKey}); a request whose
+ * key already exists just serves it.
+ *
+ * <p>Concurrent misses on one key share a single render within the pod. Another pod missing the
+ * same key at the same moment renders it too and writes identical bytes, which is harmless. Renders
+ * are bounded by {@code file.upload.resize-max-concurrent}, and a request thread waits at most
+ * {@code file.upload.resize-wait-ms} for a slot or for another request's render. When no derivative
+ * is wide enough the large one is served (no upscaling); when a render fails or the wait runs out,
+ * the derivative it would have been made from is.
+ *
+ * <p>Outcomes are counted in {@value #RENDITIONS}: {@code stored} (found), {@code rendered}, {@code
+ * joined} (waited for another request's render), {@code busy} (gave up waiting) and {@code failed};
+ * render time in {@value #RENDER}.
+ */
+@Service
+@Profile(Profiles.API)
+@Slf4j
+public class ResizeService {
+
+  static final String RENDITIONS = "photoupload.resize.renditions";
+  static final String RENDER = "photoupload.resize.render";
+
+  private static final long RENDER_TIMEOUT_SECONDS = 60;
+
+  /** Height bound handed to vipsthumbnail: derivatives are at most 2400 px, so width decides. */
+  private static final int UNBOUNDED_HEIGHT = 100_000;
+
+  /** Rendition keys seen in object storage, so a warm key costs no HEAD. */
+  private static final int KNOWN_KEYS = 10_000;
+
+  private static final ThumbnailSize[] SOURCES = {
+    ThumbnailSize.THUMBNAIL, ThumbnailSize.MEDIUM, ThumbnailSize.LARGE
+  };
+  private static final String[] SOURCE_SIZES = {"thumb", "medium", "large"};
+
+  private final FileMetadataRepository metadataRepository;
+  private final FileStorageService fileStorageService;
+  private final FileStorageProperties properties;
+  // Optional: only populated when storage.s3.enabled=true. Without it ?w= is ignored.
+  private final Optional<ObjectStorageService> objectStorage;
+  private final MeterRegistry meterRegistry;
+  private final ProcessRunner processRunner;
+  private final Semaphore renders;
+  private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+  private final Set<String> knownKeys =
+      Collections.synchronizedSet(
+          Collections.newSetFromMap(
+              new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                  return size() > KNOWN_KEYS;
+                }
+              }));
+
+  public ResizeService(
+      FileMetadataRepository metadataRepository,
+      FileStorageService fileStorageService,
+      FileStorageProperties properties,
+      Optional<ObjectStorageService> objectStorage,
+      MeterRegistry meterRegistry,
+      ProcessRunner processRunner) {
+    this.metadataRepository = metadataRepository;
+    this.fileStorageService = fileStorageService;
+    this.properties = properties;
+    this.objectStorage = objectStorage;
+    this.meterRegistry = meterRegistry;
+    this.processRunner = processRunner;
+    this.renders = new Semaphore(Math.max(1, properties.getResizeMaxConcurrent()), true);
+  }
+
+  /** A rendition to serve: its key, the derivative it is made from, and how it is encoded. */
+  record Plan(
+      String key,
+      String sourceKey,
+      int source,
+      int width,
+      int sourceWidth,
+      DerivativeFormat format,
+      boolean variesByAccept) {
+
+    String extension() {
+      return format == null ? "jpg" : format.getExtension();
+    }
+
+    String mimeType() {
+      return format == null ? "image/jpeg" : format.getMimeType();
+    }
+  }
+
+  /**
+   * What {@code /api/i/{token}?w={width}} serves: the rendition, rendered now if it is missing, or
+   * the derivative standing in for it. {@code formatHint} ({@code jpeg}, {@code webp}, {@code
+   * avif}) pins the encoding; without one it is negotiated from {@code accept}. Empty for assets
+   * that are not images, which the caller serves as if {@code w} had not been given; an image whose
+   * derivatives are not all in object storage yet gets the large one (or the 202 for it).
+   */
+  public Optional<FileServeInfo> serveInfo(
+      String token, int width, String formatHint, String accept) {
+    if (objectStorage.isEmpty() || properties.getResizeWidths().isEmpty()) {
+      return Optional.empty();
+    }
+    FileMetadata metadata =
+        metadataRepository
+            .findByPublicToken(token)
+            .orElseThrow(() -> new ResourceNotFoundException("File not found"));
+    String mime = metadata.getMimeType();
+    if (!MimeTypePredicates.isImageFile(mime) && !MimeTypePredicates.isHeicFile(mime)) {
+      return Optional.empty();
+    }
+    if (!resizable(metadata)) {
+      return Optional.of(fileStorageService.getFileServeInfoByPublicToken(token, "large", accept));
+    }
+    Plan plan = plan(metadata, token, width, formatHint, accept);
+    if (plan == null) {
+      // Nothing is wider than the bucket: the large derivative is as wide as the image gets.
+      return Optional.of(fileStorageService.getFileServeInfoByPublicToken(token, "large", accept));
+    }
+    if (plan.sourceWidth() == plan.width() || !ensure(plan, metadata.getId())) {
+      return Optional.of(
+          fileStorageService.getFileServeInfoByPublicToken(
+              token, SOURCE_SIZES[plan.source()], accept));
+    }
+    return Optional.of(
+        new FileServeInfo(
+            plan.mimeType(),
+            metadata.getChecksum(),
+            metadata.getUploadedAt(),
+            null,
+            metadata.getStoredFilename(),
+            metadata.getProcessingStatus(),
+            true,
+            plan.key(),
+            "w" + plan.width() + "." + plan.extension(),
+            plan.variesByAccept()));
+  }
+
+  /** Processed, with all three JPEG derivatives in object storage. */
+  private static boolean resizable(FileMetadata metadata) {
+    return metadata.getProcessingStatus() == ProcessingStatus.DONE
+        && StoragePaths.isS3Key(metadata.getThumbnailPath())
+        && StoragePaths.isS3Key(metadata.getMediumPath())
+        && StoragePaths.isS3Key(metadata.getLargePath());
+  }
+
+  /**
+   * The rendition for {@code requested} px, or null when no derivative is wide enough for it or the
+   * derivatives are not in a directory renditions can be kept next to.
+   */
+  Plan plan(FileMetadata metadata, String token, int requested, String formatHint, String accept) {
+    if (StoragePaths.derivativeResizedPrefix(metadata.getLargePath(), token) == null) {
+      return null;
+    }
+    int width = bucketFor(requested, properties.getResizeWidths());
+    String[] sourceKeys = {
+      metadata.getThumbnailPath(), metadata.getMediumPath(), metadata.getLargePath()
+    };
+    for (int source = 0; source < SOURCES.length; source++) {
+      int sourceWidth = derivativeWidth(metadata.getWidth(), metadata.getHeight(), SOURCES[source]);
+      if (sourceWidth < width) {
+        continue;
+      }
+      Set<DerivativeFormat> allowed =
+          properties.getResizeFormats().isEmpty()
+              ? EnumSet.noneOf(DerivativeFormat.class)
+              : EnumSet.copyOf(properties.getResizeFormats());
+      DerivativeFormat format;
+      boolean variesByAccept;
+      switch (formatHint == null ? "" : formatHint.trim().toLowerCase()) {
+        case "jpeg", "jpg" -> {
+          format = null;
+          variesByAccept = false;
+        }
+        case "webp", "avif" -> {
+          format = DerivativeFormat.parse(formatHint.trim()).stream().findFirst().orElse(null);
+          format = allowed.contains(format) ? format : null;
+          variesByAccept = false;
+        }
+        default -> {
+          format = DerivativeFormat.negotiate(accept, allowed).orElse(null);
+          variesByAccept = !allowed.isEmpty();
+        }
+      }
+      String extension = format == null ? "jpg" : format.getExtension();
+      return new Plan(
+          StoragePaths.derivativeResizedKey(metadata.getLargePath(), token, width, extension),
+          sourceKeys[source],
+          source,
+          width,
+          sourceWidth,
+          format,
+          variesByAccept);
+    }
+    return null;
+  }
+
+  /** The smallest bucket at least {@code requested} px wide, else the widest. */
+  static int bucketFor(int requested, List<Integer> widths) {
+    return widths.stream()
+        .filter(w -> w >= requested)
+        .min(Integer::compare)
+        .orElseGet(() -> Collections.max(widths));
+  }
+
+  /**
+   * Width of the derivative written into {@code box} for an image of {@code width}×{@code height}
+   * (display orientation): fitted into the box, never enlarged. The box itself when the dimensions
+   * are unknown.
+   */
+  static int derivativeWidth(Integer width, Integer height, ThumbnailSize box) {
+    if (width == null || height == null || width <= 0 || height <= 0) {
+      return box.getMaxWidth();
+    }
+    double scale =
+        Math.min(
+            1.0,
+            Math.min((double) box.getMaxWidth() / width, (double) box.getMaxHeight() / height));
+    return (int) Math.round(width * scale);
+  }
+
+  /**
+   * Makes sure the rendition exists in object storage, rendering it if it does not. Concurrent
+   * callers for one key wait for the first one's render, for at most {@code resize-wait-ms}. False
+   * when it could not be made in time.
+   */
+  boolean ensure(Plan plan, Long assetId) {
+    String key = plan.key();
+    if (knownKeys.contains(key)) {
+      count("stored");
+      return true;
+    }
+    CompletableFuture<Void> mine = new CompletableFuture<>();
+    CompletableFuture<Void> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      try {
+        running.get(properties.getResizeWaitMs(), TimeUnit.MILLISECONDS);
+        count("joined");
+        return true;
+      } catch (TimeoutException e) {
+        count("busy");
+        return false;
+      } catch (ExecutionException e) {
+        return false; // logged and counted by the request that rendered
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    try {
+      ObjectStorageService os = objectStorage.orElseThrow();
+      String outcome = "stored";
+      if (os.objectSize(key) == null) {
+        render(os, plan);
+        outcome = "rendered";
+      }
+      knownKeys.add(key);
+      count(outcome);
+      mine.complete(null);
+      return true;
+    } catch (NoRenderSlotException e) {
+      log.debug("No resize slot for {} within {} ms", key, properties.getResizeWaitMs());
+      count("busy");
+      mine.completeExceptionally(e);
+      return false;
+    } catch (Exception e) {
+      log.warn("Could not render {} for asset {}: {}", key, assetId, e.toString());
+      count("failed");
+      mine.completeExceptionally(e);
+      return false;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Forgets that {@code key} exists, after it turned out to be gone (deleted with the derivatives
+   * of another row, or by hand), so the next request renders it again.
+   */
+  public void forget(String key) {
+    knownKeys.remove(key);
+  }
+
+  private void render(ObjectStorageService os, Plan plan) throws IOException {
+    try {
+      if (!renders.tryAcquire(properties.getResizeWaitMs(), TimeUnit.MILLISECONDS)) {
+        throw new NoRenderSlotException();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a resize slot");
+    }
+    long start = System.nanoTime();
+    Path workdir = null;
+    try {
+      workdir = Files.createTempDirectory("resize-");
+      Path source = workdir.resolve("source.jpg");
+      os.getToFile(plan.sourceKey(), source);
+      Path output = workdir.resolve("w" + plan.width() + "." + plan.extension());
+      // The trailing [Q=N,...] is a vips save-option, not a shell glob; vips picks the saver from
+      // the extension.
+      List<String> cmd =
+          List.of(
+              "vipsthumbnail",
+              source.toAbsolutePath().toString(),
+              "--size",
+              plan.width() + "x" + UNBOUNDED_HEIGHT + ">",
+              "-o",
+              output.toAbsolutePath() + saveOptions(plan));
+      ProcessRunner.Result r = processRunner.run(cmd, RENDER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      if (!r.success() || !Files.exists(output) || Files.size(output) == 0) {
+        throw new IOException(
+            "vipsthumbnail failed (exit "
+                + r.exitCode()
+                + ", timedOut="
+                + r.timedOut()
+                + "): "
+                + r.output());
+      }
+      os.putFile(plan.key(), output, plan.mimeType());
+      log.debug("Rendered {} from {}", plan.key(), plan.sourceKey());
+    } finally {
+      renders.release();
+      Timer.builder(RENDER)
+          .tag("format", plan.extension())
+          .register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      if (workdir != null) {
+        deleteRecursive(workdir);
+      }
+    }
+  }
+
+  /** Quality by the size class of the width, on each codec's own scale like the derivatives. */
+  private String saveOptions(Plan plan) {
+    if (plan.format() == null) {
+      return "[Q=" + properties.getResizeJpegQuality() + ",optimize_coding,strip]";
+    }
+    int slot = 0;
+    while (slot < SOURCES.length - 1 && plan.width() > SOURCES[slot].getMaxWidth()) {
+      slot++;
+    }
+    return "[Q=" + plan.format().quality(slot) + ",strip]";
+  }
+
+  /** All render slots stayed taken for the whole wait. */
+  private static final class NoRenderSlotException extends IOException {
+    NoRenderSlotException() {
+      super("No resize slot free");
+    }
+  }
+
+  private void count(String result) {
+    meterRegistry.counter(RENDITIONS, "result", result).increment();
+  }
+
+  private static void deleteRecursive(Path dir) {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      paths
+          .sorted(Collections.reverseOrder())
+          .forEach(
+              path -> {
+                try {
+                  Files.deleteIfExists(path);
+                } catch (IOException e) {
+                  log.warn("Could not delete {}: {}", path, e.toString());
+                }
+              });
+    } catch (IOException e) {
+      log.warn("Could not clean up {}: {}", dir, e.toString());
+    }
+  }
+}
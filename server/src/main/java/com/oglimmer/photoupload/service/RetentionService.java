@@ -5,12 +5,22 @@ import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.config.RetentionProperties;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.storage.KeyMergeJoin;
 import com.oglimmer.photoupload.storage.StoragePaths;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
@@ -20,8 +30,9 @@ import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * Phase 6 / Gap 4-finish — purges originals from MinIO once their derivatives are durable and the
- * row is older than {@code retention.original-days}. Each row is processed in its own transaction
- * so a single S3 outage doesn't roll back the whole batch.
+ * row is older than {@code retention.original-days}. Rows are purged in chunks of up to 1000 — one
+ * {@code DeleteObjects} call and one bulk {@code UPDATE} in its own transaction each, a few chunks
+ * at a time — so a single S3 outage only fails the chunks it hits.
  *
  * <p>Idempotent: a re-run never matches the same row twice because the eligibility query filters on
  * {@code file_path IS NOT NULL}. Crash-safe in the same way — if the JVM dies between the S3 delete
@@ -38,6 +49,7 @@ public class RetentionService {
   private final ObjectStorageService objectStorage;
   private final RetentionProperties properties;
   private final PlatformTransactionManager transactionManager;
+  private final StorageAccountingService storageAccounting;
 
   /**
    * Result holder for the runner / tests. Counts are after the run; {@code dryRun=true} means no
@@ -62,71 +74,163 @@ public class RetentionService {
         maxRows,
         properties.isDryRun());
 
+    long start = System.nanoTime();
     List<FileMetadata> candidates =
         metadataRepository.findRetentionPurgeCandidates(cutoff, maxRows);
 
-    int purged = 0;
-    int failed = 0;
-    for (FileMetadata row : candidates) {
-      try {
-        if (properties.isDryRun()) {
-          log.info(
-              "Dry run — would purge original of asset {} ({}, key={}, uploaded_at={})",
-              row.getId(),
-              row.getOriginalName(),
-              row.getFilePath(),
-              row.getUploadedAt());
-        } else {
-          purgeOne(row);
-          purged++;
-        }
-      } catch (Exception e) {
-        failed++;
-        log.warn(
-            "Failed to purge original of asset {} (key={}): {}",
+    if (properties.isDryRun()) {
+      for (FileMetadata row : candidates) {
+        log.info(
+            "Dry run — would purge original of asset {} ({}, key={}, uploaded_at={})",
             row.getId(),
+            row.getOriginalName(),
             row.getFilePath(),
-            e.getMessage(),
-            e);
+            row.getUploadedAt());
       }
+      log.info(
+          "Retention sweep complete — eligible={}, purged=0, failed=0, dryRun=true",
+          candidates.size());
+      return new Result(candidates.size(), 0, 0, true);
+    }
+
+    List<List<FileMetadata>> chunks = new ArrayList<>();
+    for (int i = 0; i < candidates.size(); i += ObjectStorageService.DELETE_BATCH_SIZE) {
+      chunks.add(
+          candidates.subList(
+              i, Math.min(i + ObjectStorageService.DELETE_BATCH_SIZE, candidates.size())));
     }
+    PurgeTotals totals = new PurgeTotals();
+    runChunks(chunks, totals);
 
+    double seconds = Math.max((System.nanoTime() - start) / 1e9, 0.001);
+    double freedMiB = totals.freedBytes.get() / (1024.0 * 1024.0);
     log.info(
-        "Retention sweep complete — eligible={}, purged={}, failed={}, dryRun={}",
+        "Retention sweep complete — eligible={}, purged={}, failed={}, chunks={}, freed={} MiB,"
+            + " took {} s ({} rows/s, {} MiB/s), dryRun=false",
         candidates.size(),
-        purged,
-        failed,
-        properties.isDryRun());
-    return new Result(candidates.size(), purged, failed, properties.isDryRun());
+        totals.purged.get(),
+        totals.failed.get(),
+        chunks.size(),
+        String.format(Locale.ROOT, "%.1f", freedMiB),
+        String.format(Locale.ROOT, "%.2f", seconds),
+        String.format(Locale.ROOT, "%.1f", totals.purged.get() / seconds),
+        String.format(Locale.ROOT, "%.1f", freedMiB / seconds));
+    return new Result(candidates.size(), totals.purged.get(), totals.failed.get(), false);
+  }
+
+  /** Counters shared by the chunk threads. */
+  private static final class PurgeTotals {
+    private final AtomicInteger purged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong freedBytes = new AtomicLong();
   }
 
   /**
-   * Per-row TX. S3 delete first; on success the column nulls out in its own transaction. The S3
-   * delete is idempotent so a crash between the two halves leaves the row purgeable on the next run
-   * — which is the intended self-healing behaviour.
+   * Runs the chunks on a run-scoped pool of {@code retention.purge-parallelism} threads and waits
+   * for all of them. Chunks never throw; each one books its own outcome into {@code totals}.
    */
-  private void purgeOne(FileMetadata row) {
-    String key = row.getFilePath();
-    objectStorage.delete(key);
-
-    new TransactionTemplate(transactionManager)
-        .executeWithoutResult(
-            status -> {
-              FileMetadata locked =
-                  metadataRepository
-                      .findById(row.getId())
-                      .orElseThrow(
-                          () ->
-                              new IllegalStateException(
-                                  "Asset " + row.getId() + " vanished mid-purge"));
-              locked.setFilePath(null);
-              metadataRepository.save(locked);
+  private void runChunks(List<List<FileMetadata>> chunks, PurgeTotals totals) {
+    if (chunks.isEmpty()) {
+      return;
+    }
+    int threads = Math.max(1, Math.min(properties.getPurgeParallelism(), chunks.size()));
+    AtomicInteger counter = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool(
+            threads,
+            runnable -> {
+              Thread thread = new Thread(runnable, "retention-purge-" + counter.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
             });
-    log.info(
-        "Purged original for asset {} ({}, freed S3 key {})",
-        row.getId(),
-        row.getOriginalName(),
-        key);
+    try {
+      List<Future<?>> pending = new ArrayList<>(chunks.size());
+      for (List<FileMetadata> chunk : chunks) {
+        pending.add(pool.submit(() -> purgeChunk(chunk, totals)));
+      }
+      for (Future<?> future : pending) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      log.warn("Retention sweep interrupted; unfinished chunks are picked up by the next run");
+    } catch (ExecutionException e) {
+      log.error("Retention purge chunk failed unexpectedly", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * One chunk: a single {@code DeleteObjects} call for its keys, then a single bulk {@code UPDATE}
+   * nulling {@code file_path} of the rows whose object is gone, in its own transaction. S3 first,
+   * like the per-row purge before it: the delete is idempotent, so a crash or a failed UPDATE
+   * between the two halves leaves the rows purgeable on the next run — the intended self-healing
+   * behaviour. Rows whose key S3 rejected keep their path and count as failed.
+   */
+  private void purgeChunk(List<FileMetadata> chunk, PurgeTotals totals) {
+    // Duplicated albums share originals; each key goes to S3 once.
+    Set<String> keys = new LinkedHashSet<>();
+    chunk.forEach(row -> keys.add(row.getFilePath()));
+    Set<String> rejected;
+    try {
+      rejected = objectStorage.deleteKeys(keys);
+    } catch (Exception e) {
+      totals.failed.addAndGet(chunk.size());
+      log.warn(
+          "Failed to delete {} originals ({} .. {}): {}",
+          keys.size(),
+          chunk.get(0).getId(),
+          chunk.get(chunk.size() - 1).getId(),
+          e.getMessage(),
+          e);
+      return;
+    }
+    List<FileMetadata> gone = new ArrayList<>(chunk.size());
+    for (FileMetadata row : chunk) {
+      if (rejected.contains(row.getFilePath())) {
+        log.warn(
+            "S3 refused to delete original of asset {} (key={})", row.getId(), row.getFilePath());
+      } else {
+        gone.add(row);
+      }
+    }
+    totals.failed.addAndGet(chunk.size() - gone.size());
+    if (gone.isEmpty()) {
+      return;
+    }
+    List<Long> ids = gone.stream().map(FileMetadata::getId).toList();
+    try {
+      new TransactionTemplate(transactionManager)
+          .executeWithoutResult(
+              status -> {
+                // The row stays (derivatives live on); only the original stops being charged.
+                storageAccounting.release(ids, StorageAccountingService.ORIGINAL);
+                metadataRepository.clearFilePaths(ids);
+              });
+    } catch (Exception e) {
+      totals.failed.addAndGet(gone.size());
+      log.warn(
+          "Deleted {} originals but could not clear their rows ({} .. {}); next run retries: {}",
+          gone.size(),
+          ids.get(0),
+          ids.get(ids.size() - 1),
+          e.getMessage(),
+          e);
+      return;
+    }
+    long bytes = 0;
+    for (FileMetadata row : gone) {
+      bytes += row.getFileSize() != null ? row.getFileSize() : 0;
+      log.debug(
+          "Purged original for asset {} ({}, freed S3 key {})",
+          row.getId(),
+          row.getOriginalName(),
+          row.getFilePath());
+    }
+    totals.purged.addAndGet(gone.size());
+    totals.freedBytes.addAndGet(bytes);
+    log.info("Purged {} originals ({} .. {})", gone.size(), ids.get(0), ids.get(ids.size() - 1));
   }
 
   /**
@@ -139,8 +243,12 @@ public class RetentionService {
    * Anything still here older than {@link RetentionProperties#getTusUploadDays()} is something the
    * client never finished — safe to delete.
    *
-   * <p>No DB side: this is purely an S3 operation. Delete failures are counted but don't abort the
-   * sweep — the next nightly run will retry.
+   * <p>Uploads finalised in place (D58) live under {@code originals/tus/} instead, next to the
+   * originals they became. That prefix is merge-joined against the keys rows reference, like the
+   * orphan sweep, with the same cutoff: only an unreferenced key is deleted.
+   *
+   * <p>No DB writes. Delete failures are counted but don't abort the sweep — the next nightly run
+   * will retry.
    */
   public Result runTusCleanup() {
     int days = properties.getTusUploadDays();
@@ -184,13 +292,25 @@ public class RetentionService {
       }
     }
 
+    // D58: uploads tusd writes straight into originals/tus/. Finished ones are referenced by their
+    // row; an unreferenced key this old is an abandoned upload or a stale .info object.
+    OrphanSweep abandoned = new OrphanSweep();
+    try (Stream<String> aged =
+        objectStorage.streamKeysOlderThan(StoragePaths.TUS_ORIGINALS_PREFIX, cutoff)) {
+      sweepOrphans(aged, StoragePaths.TUS_ORIGINALS_PREFIX, abandoned, maxRows - candidates.size());
+    }
+    deleteOrphanBatch(abandoned);
+
+    int eligible = candidates.size() + abandoned.eligible;
+    purged += abandoned.purged;
+    failed += abandoned.failed;
     log.info(
         "TUS cleanup sweep complete — eligible={}, purged={}, failed={}, dryRun={}",
-        candidates.size(),
+        eligible,
         purged,
         failed,
         properties.isDryRun());
-    return new Result(candidates.size(), purged, failed, properties.isDryRun());
+    return new Result(eligible, purged, failed, properties.isDryRun());
   }
 
   /**
@@ -206,16 +326,21 @@ public class RetentionService {
    *       and the same row-insert TX.
    * </ul>
    *
-   * Algorithm: load the set of every {@code originals/} key currently referenced by any row, list
-   * {@code originals/} from S3 with a {@code lastModified < now - graceHours} filter, and delete
-   * the difference. The grace window prevents false positives from racing in-flight uploads.
+   * Algorithm: list {@code originals/} from S3 with a {@code lastModified < now - graceHours}
+   * filter and merge-join it ({@link KeyMergeJoin}) against the {@code originals/} keys referenced
+   * by any row, both streamed in key order; listed keys with no row are deleted in {@code
+   * DeleteObjects} batches as the walk goes. Memory is one page per side regardless of library
+   * size. The grace window prevents false positives from racing in-flight uploads. Keys under
+   * {@code originals/tus/} are skipped: in-flight TUS uploads live there for days, so {@link
+   * #runTusCleanup()} sweeps them with the TUS grace period instead.
    *
    * <p>The originals-purge sweep ({@link #run()}) leaves {@code file_path = NULL} on rows whose S3
    * object it has deleted, so retention-purged rows correctly do not appear in the live-key set —
    * but their S3 keys are gone too, so they don't appear in the listing either. No interference
    * between the two passes.
    *
-   * <p>No DB side: pure S3 operation. Failures are counted but don't abort.
+   * <p>No DB writes: pure S3 operation. A failed batch counts all its keys as failed but doesn't
+   * abort; they are picked up again on the next run.
    */
   public Result runOriginalsOrphanCleanup() {
     int graceHours = properties.getOrphanGraceHours();
@@ -235,48 +360,99 @@ public class RetentionService {
         maxRows,
         properties.isDryRun());
 
-    Set<String> liveKeys = new HashSet<>(metadataRepository.findAllOriginalsKeys());
-    List<String> aged = objectStorage.listKeysOlderThan(StoragePaths.ORIGINALS_PREFIX, cutoff);
-
-    List<String> orphans = new java.util.ArrayList<>();
-    for (String key : aged) {
-      if (!liveKeys.contains(key)) {
-        orphans.add(key);
-      }
-    }
-    if (orphans.size() > maxRows) {
-      log.warn(
-          "Orphan eligibility ({}) exceeds maxRowsPerRun ({}) — truncating to cap",
-          orphans.size(),
-          maxRows);
-      orphans = orphans.subList(0, maxRows);
+    // Both sides in listing order, a page at a time; an original is its own group. TUS uploads
+    // under originals/tus/ are left to runTusCleanup, which knows their (longer) grace period.
+    OrphanSweep sweep = new OrphanSweep();
+    KeyMergeJoin.Stats stats;
+    try (Stream<String> aged =
+        objectStorage.streamKeysOlderThan(StoragePaths.ORIGINALS_PREFIX, cutoff)) {
+      stats =
+          sweepOrphans(
+              aged.filter(key -> !StoragePaths.isTusOriginalKey(key)),
+              StoragePaths.ORIGINALS_PREFIX,
+              sweep,
+              maxRows);
     }
+    deleteOrphanBatch(sweep);
 
-    int purged = 0;
-    int failed = 0;
-    for (String key : orphans) {
+    log.info(
+        "Orphan-detection sweep complete — listed={}, liveRows={}, eligible={}, purged={}, failed={}, dryRun={}",
+        stats.bucketKeys(),
+        stats.knownKeys(),
+        sweep.eligible,
+        sweep.purged,
+        sweep.failed,
+        properties.isDryRun());
+    return new Result(sweep.eligible, sweep.purged, sweep.failed, properties.isDryRun());
+  }
+
+  /**
+   * Merge-joins aged bucket keys against the keys rows reference under {@code prefix} and queues
+   * every unreferenced one on {@code sweep}, deleting full batches as the walk goes. The caller
+   * deletes the last partial batch. The referenced keys are one streamed query, held open in a
+   * read-only transaction for the length of the walk.
+   */
+  private KeyMergeJoin.Stats sweepOrphans(
+      Stream<String> aged, String prefix, OrphanSweep sweep, int maxRows) {
+    TransactionTemplate tx = new TransactionTemplate(transactionManager);
+    tx.setReadOnly(true);
+    return tx.execute(
+        status -> {
+          try (Stream<String> live = metadataRepository.streamOriginalsKeys(prefix)) {
+            return KeyMergeJoin.join(
+                aged.iterator(),
+                live.iterator(),
+                key -> key,
+                (key, listed, known) -> {
+                  if (!known.isEmpty()) {
+                    return true;
+                  }
+                  if (sweep.eligible >= maxRows) {
+                    log.warn(
+                        "Orphan eligibility exceeds maxRowsPerRun ({}) — stopping at cap", maxRows);
+                    return false;
+                  }
+                  sweep.eligible++;
+                  sweep.batch.add(key);
+                  if (sweep.batch.size() == ObjectStorageService.DELETE_BATCH_SIZE) {
+                    deleteOrphanBatch(sweep);
+                  }
+                  return true;
+                });
+          }
+        });
+  }
+
+  /** Running totals of the orphan sweep plus the keys waiting for the next DeleteObjects call. */
+  private static final class OrphanSweep {
+    private final List<String> batch = new ArrayList<>();
+    private int eligible;
+    private int purged;
+    private int failed;
+  }
+
+  /** Deletes (or, on a dry run, logs) the pending batch with one DeleteObjects call. */
+  private void deleteOrphanBatch(OrphanSweep sweep) {
+    List<String> batch = sweep.batch;
+    if (batch.isEmpty()) {
+      return;
+    }
+    if (properties.isDryRun()) {
+      batch.forEach(key -> log.info("Dry run — would delete orphan original {}", key));
+    } else {
       try {
-        if (properties.isDryRun()) {
-          log.info("Dry run — would delete orphan original {}", key);
-        } else {
-          objectStorage.delete(key);
-          purged++;
-          log.info("Deleted orphan original {}", key);
-        }
+        objectStorage.deleteKeys(List.copyOf(batch));
+        sweep.purged += batch.size();
+        log.info(
+            "Deleted {} orphan originals, {} .. {}",
+            batch.size(),
+            batch.get(0),
+            batch.get(batch.size() - 1));
       } catch (Exception e) {
-        failed++;
-        log.warn("Failed to delete orphan original {}: {}", key, e.getMessage(), e);
+        sweep.failed += batch.size();
+        log.warn("Failed to delete {} orphan originals: {}", batch.size(), e.getMessage(), e);
       }
     }
-
-    log.info(
-        "Orphan-detection sweep complete — listed={}, liveRows={}, eligible={}, purged={}, failed={}, dryRun={}",
-        aged.size(),
-        liveKeys.size(),
-        orphans.size(),
-        purged,
-        failed,
-        properties.isDryRun());
-    return new Result(orphans.size(), purged, failed, properties.isDryRun());
+    batch.clear();
   }
 }
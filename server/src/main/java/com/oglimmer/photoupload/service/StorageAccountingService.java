@@ -0,0 +1,212 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.storage.StoragePaths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Bytes on record per stored object ({@code asset_storage}) and the running totals on {@code
+ * albums} and {@code users} derived from them (D54). Every method joins the caller's transaction —
+ * the row that makes an object live and the bytes charged for it commit or roll back together, so
+ * the totals never need a bucket listing to be right.
+ *
+ * <p>Two figures are kept per album and user: {@code stored_bytes}, everything referenced (original
+ * plus derivatives), and {@code original_bytes}, the originals alone — what the gallery reports as
+ * an album's size and what retention frees.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional(propagation = Propagation.MANDATORY)
+public class StorageAccountingService {
+
+  /** Slot of the uploaded file itself; every other slot is a derivative. */
+  public static final String ORIGINAL = StoragePaths.ORIGINAL_SLOT;
+
+  /** One slot for a whole HLS rendition: master, rung playlists and segments summed. */
+  public static final String HLS = StoragePaths.HLS_SLOT;
+
+  private final JdbcTemplate jdbcTemplate;
+
+  /**
+   * Set {@code slots} (slot → bytes) of one asset to the sizes just stored, moving the album and
+   * user totals by the difference to what was on record. Slots not named are left alone, so a
+   * thumbnail regeneration does not forget the transcode.
+   */
+  public void record(Long assetId, Map<String, Long> slots) {
+    if (assetId == null || slots.isEmpty()) {
+      return;
+    }
+    Map<String, Long> previous = new HashMap<>();
+    jdbcTemplate.query(
+        "SELECT slot, bytes FROM asset_storage WHERE file_metadata_id = ? FOR UPDATE",
+        rs -> {
+          previous.put(rs.getString(1), rs.getLong(2));
+        },
+        assetId);
+    long delta = 0;
+    long originalDelta = 0;
+    List<Object[]> rows = new ArrayList<>();
+    for (Map.Entry<String, Long> slot : slots.entrySet()) {
+      long difference = slot.getValue() - previous.getOrDefault(slot.getKey(), 0L);
+      delta += difference;
+      if (ORIGINAL.equals(slot.getKey())) {
+        originalDelta += difference;
+      }
+      rows.add(new Object[] {assetId, slot.getKey(), slot.getValue()});
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO asset_storage (file_metadata_id, slot, bytes) VALUES (?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE bytes = VALUES(bytes)",
+        rows);
+    if (delta != 0 || originalDelta != 0) {
+      jdbcTemplate.update(
+          "UPDATE albums a JOIN file_metadata f ON f.album_id = a.id "
+              + "SET a.stored_bytes = a.stored_bytes + ?, a.original_bytes = a.original_bytes + ? "
+              + "WHERE f.id = ?",
+          delta,
+          originalDelta,
+          assetId);
+      jdbcTemplate.update(
+          "UPDATE users u JOIN albums a ON a.user_id = u.id "
+              + "JOIN file_metadata f ON f.album_id = a.id "
+              + "SET u.stored_bytes = u.stored_bytes + ?, u.original_bytes = u.original_bytes + ? "
+              + "WHERE f.id = ?",
+          delta,
+          originalDelta,
+          assetId);
+    }
+  }
+
+  /**
+   * Stop charging for the objects of {@code assetIds} — all of them, or only {@code slot} when
+   * given (retention releases just the original). Call it before the rows or keys go away.
+   */
+  public void release(Collection<Long> assetIds, String slot) {
+    if (assetIds.isEmpty()) {
+      return;
+    }
+    NamedParameterJdbcTemplate named = new NamedParameterJdbcTemplate(jdbcTemplate);
+    MapSqlParameterSource params = new MapSqlParameterSource("ids", assetIds);
+    String slotFilter = "";
+    if (slot != null) {
+      params.addValue("slot", slot);
+      slotFilter = " AND s.slot = :slot";
+    }
+    Map<Long, long[]> albums = new HashMap<>();
+    Map<Long, long[]> users = new HashMap<>();
+    named.query(
+        "SELECT f.album_id, a.user_id, s.slot, s.bytes FROM asset_storage s "
+            + "JOIN file_metadata f ON f.id = s.file_metadata_id "
+            + "JOIN albums a ON a.id = f.album_id "
+            + "WHERE s.file_metadata_id IN (:ids)"
+            + slotFilter
+            + " FOR UPDATE",
+        params,
+        rs -> {
+          long bytes = rs.getLong(4);
+          long original = ORIGINAL.equals(rs.getString(3)) ? bytes : 0;
+          long[] album = albums.computeIfAbsent(rs.getLong(1), id -> new long[2]);
+          album[0] += bytes;
+          album[1] += original;
+          long[] user = users.computeIfAbsent(rs.getLong(2), id -> new long[2]);
+          user[0] += bytes;
+          user[1] += original;
+        });
+    subtract("albums", albums);
+    subtract("users", users);
+    named.update(
+        "DELETE s FROM asset_storage s WHERE s.file_metadata_id IN (:ids)" + slotFilter, params);
+  }
+
+  /**
+   * Take an album's totals off its owner before the album is deleted. The {@code asset_storage}
+   * rows go with their {@code file_metadata} rows (FK cascade), the album totals with the album.
+   */
+  public void releaseAlbum(Long albumId) {
+    jdbcTemplate.update(
+        "UPDATE users u JOIN albums a ON a.user_id = u.id "
+            + "SET u.stored_bytes = u.stored_bytes - a.stored_bytes, "
+            + "u.original_bytes = u.original_bytes - a.original_bytes "
+            + "WHERE a.id = ?",
+        albumId);
+  }
+
+  /**
+   * Charge each copy (key) for the slots of its source (value) — an album duplicate shares the
+   * source's objects — then bring the copies' album totals up to date.
+   */
+  public void copy(Map<Long, Long> sourceByCopy, Long albumId) {
+    if (sourceByCopy.isEmpty()) {
+      return;
+    }
+    List<Object[]> rows = new ArrayList<>();
+    sourceByCopy.forEach((copy, source) -> rows.add(new Object[] {copy, source}));
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO asset_storage (file_metadata_id, slot, bytes) "
+            + "SELECT ?, slot, bytes FROM asset_storage WHERE file_metadata_id = ?",
+        rows);
+    recountAlbum(albumId);
+  }
+
+  /**
+   * Re-derive an album's totals from its {@code asset_storage} rows and move the owner's totals by
+   * the correction. Cheap for one album; the incremental paths above never need it.
+   */
+  public void recountAlbum(Long albumId) {
+    long[] previous =
+        jdbcTemplate.queryForObject(
+            "SELECT stored_bytes, original_bytes FROM albums WHERE id = ? FOR UPDATE",
+            (rs, n) -> new long[] {rs.getLong(1), rs.getLong(2)},
+            albumId);
+    long[] current =
+        jdbcTemplate.queryForObject(
+            "SELECT COALESCE(SUM(s.bytes), 0), "
+                + "COALESCE(SUM(CASE WHEN s.slot = '"
+                + ORIGINAL
+                + "' THEN s.bytes END), 0) "
+                + "FROM asset_storage s JOIN file_metadata f ON f.id = s.file_metadata_id "
+                + "WHERE f.album_id = ?",
+            (rs, n) -> new long[] {rs.getLong(1), rs.getLong(2)},
+            albumId);
+    if (previous[0] == current[0] && previous[1] == current[1]) {
+      return;
+    }
+    jdbcTemplate.update(
+        "UPDATE albums SET stored_bytes = ?, original_bytes = ? WHERE id = ?",
+        current[0],
+        current[1],
+        albumId);
+    jdbcTemplate.update(
+        "UPDATE users u JOIN albums a ON a.user_id = u.id "
+            + "SET u.stored_bytes = u.stored_bytes + ?, u.original_bytes = u.original_bytes + ? "
+            + "WHERE a.id = ?",
+        current[0] - previous[0],
+        current[1] - previous[1],
+        albumId);
+  }
+
+  private void subtract(String table, Map<Long, long[]> totals) {
+    if (totals.isEmpty()) {
+      return;
+    }
+    List<Object[]> rows = new ArrayList<>();
+    totals.forEach((id, bytes) -> rows.add(new Object[] {bytes[0], bytes[1], id}));
+    jdbcTemplate.batchUpdate(
+        "UPDATE "
+            + table
+            + " SET stored_bytes = stored_bytes - ?, original_bytes = original_bytes - ? "
+            + "WHERE id = ?",
+        rows);
+  }
+}
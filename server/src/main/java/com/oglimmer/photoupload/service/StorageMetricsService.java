@@ -0,0 +1,66 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.Profiles;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Publishes the per-user storage totals kept by {@link StorageAccountingService} as {@code
+ * photoupload.storage.bytes{user=..., kind=stored|original}}. Like the job-queue gauges, a
+ * scheduled refresh reads one column pair per user into a {@link MultiGauge}, so a scrape never
+ * hits the DB. Registered on the api pod only — the figures are global, and one series per user is
+ * enough.
+ */
+@Service
+@Profile(Profiles.API)
+@Slf4j
+public class StorageMetricsService {
+
+  static final String METRIC_NAME = "photoupload.storage.bytes";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final MultiGauge gauge;
+
+  public StorageMetricsService(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.gauge =
+        MultiGauge.builder(METRIC_NAME)
+            .description("Bytes a user's assets occupy in storage, originals plus derivatives")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+  }
+
+  @PostConstruct
+  void primeOnStartup() {
+    refresh();
+  }
+
+  @Scheduled(fixedDelayString = "${storage.metrics.refresh-ms:60000}")
+  public void refresh() {
+    try {
+      List<MultiGauge.Row<?>> rows = new ArrayList<>();
+      jdbcTemplate.query(
+          "SELECT id, stored_bytes, original_bytes FROM users",
+          rs -> {
+            String user = String.valueOf(rs.getLong(1));
+            rows.add(MultiGauge.Row.of(Tags.of("user", user, "kind", "stored"), rs.getLong(2)));
+            rows.add(MultiGauge.Row.of(Tags.of("user", user, "kind", "original"), rs.getLong(3)));
+          });
+      // overwrite=true drops the series of deleted users.
+      gauge.register(rows, true);
+    } catch (Exception e) {
+      // Same policy as the queue gauges: a DB blip leaves the previous values for one tick.
+      log.warn("Failed to refresh storage gauges: {}", e.getMessage());
+    }
+  }
+}
@@ -4,10 +4,13 @@ package com.oglimmer.photoupload.service;
 import com.oglimmer.photoupload.config.FileStorageProperties;
 import com.oglimmer.photoupload.config.FileStorageProperties.Thumbnailer;
 import com.oglimmer.photoupload.config.Profiles;
-import com.oglimmer.photoupload.model.CaptureDate;
-import com.oglimmer.photoupload.model.GpsCoordinates;
+import com.oglimmer.photoupload.storage.DerivativeFormat;
+import com.oglimmer.photoupload.util.JpegOrientation;
+import com.oglimmer.photoupload.util.MimeTypePredicates;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import lombok.Getter;
@@ -31,6 +34,7 @@ public class ThumbnailService {
   private final VipsThumbnailService vipsThumbnailService;
   private final HeicConversionService heicConversionService;
   private final FfmpegService ffmpegService;
+  private final ProcessRunner processRunner;
 
   /**
    * Generate all thumbnail sizes for an image. Routes to vipsthumbnail by default; falls back to
@@ -116,7 +120,7 @@ public class ThumbnailService {
 
     try {
       log.info("Generating thumbnails via ImageMagick for: {}", originalFile.getFileName());
-      ProcessRunner.Result r = ProcessRunner.run(cmd, 90, TimeUnit.SECONDS);
+      ProcessRunner.Result r = processRunner.run(cmd, 90, TimeUnit.SECONDS);
 
       if (!r.success()) {
         log.error(
@@ -144,10 +148,51 @@ public class ThumbnailService {
     return thumbnailPaths;
   }
 
+  /**
+   * WebP/AVIF counterparts of {@link #generateAllThumbnails}, in the same [thumb, medium, large]
+   * order. Only the vips backend can write them; under the legacy ImageMagick thumbnailer every
+   * entry is null, which callers treat as "format not available".
+   */
+  public Path[] generateVariants(Path originalFile, Path baseOutputPath, DerivativeFormat format) {
+    if (properties.getThumbnailer() != Thumbnailer.VIPS) {
+      return new Path[3];
+    }
+    return vipsThumbnailService.generateVariants(originalFile, baseOutputPath, format);
+  }
+
   public boolean transcodeVideo(Path originalFile, Path outputPath) {
     return ffmpegService.transcodeVideo(originalFile, outputPath);
   }
 
+  public boolean transcodeVideo(MediaInput original, Path outputPath) {
+    return ffmpegService.transcodeVideo(original, outputPath);
+  }
+
+  public boolean transcodeVideo(
+      MediaInput original, Path outputPath, FfmpegService.VideoProbe probe) {
+    return ffmpegService.transcodeVideo(original, outputPath, probe);
+  }
+
+  public boolean generateHls(Path input, Path outputDir, FfmpegService.VideoProbe probe) {
+    return ffmpegService.generateHls(input, outputDir, probe);
+  }
+
+  public List<Path> splitAtKeyframes(Path input, Path outputDir, int segmentSeconds) {
+    return ffmpegService.splitAtKeyframes(input, outputDir, segmentSeconds);
+  }
+
+  public List<Path> splitAtKeyframes(MediaInput input, Path outputDir, int segmentSeconds) {
+    return ffmpegService.splitAtKeyframes(input, outputDir, segmentSeconds);
+  }
+
+  public boolean transcodeSegment(Path segment, Path outputPath, Long durationMs) {
+    return ffmpegService.transcodeSegment(segment, outputPath, durationMs);
+  }
+
+  public boolean joinSegments(List<Path> segments, MediaInput audioSource, Path outputPath) {
+    return ffmpegService.joinSegments(segments, audioSource, outputPath);
+  }
+
   public boolean convertHeicToJpeg(Path originalFile, Path outputPath) {
     return heicConversionService.convertHeicToJpeg(originalFile, outputPath);
   }
@@ -156,12 +201,84 @@ public class ThumbnailService {
     return ffmpegService.generateVideoThumbnail(videoFile, outputPath);
   }
 
-  public CaptureDate extractVideoCreationDate(Path videoFile) {
-    return ffmpegService.extractVideoCreationDate(videoFile);
+  public boolean generateVideoThumbnail(Path videoFile, Path outputPath, double seekSeconds) {
+    return ffmpegService.generateVideoThumbnail(videoFile, outputPath, seekSeconds);
+  }
+
+  public boolean generateVideoThumbnail(MediaInput video, Path outputPath, double seekSeconds) {
+    return ffmpegService.generateVideoThumbnail(video, outputPath, seekSeconds);
   }
 
-  public GpsCoordinates extractVideoLocation(Path videoFile) {
-    return ffmpegService.extractVideoLocation(videoFile);
+  public FfmpegService.Sprite generateSprite(
+      Path videoFile,
+      Path imagePath,
+      Path trackPath,
+      String spriteName,
+      Long durationMs,
+      int maxFrames) {
+    return ffmpegService.generateSprite(
+        videoFile, imagePath, trackPath, spriteName, durationMs, maxFrames);
+  }
+
+  public FfmpegService.Sprite generateSprite(
+      MediaInput video,
+      Path imagePath,
+      Path trackPath,
+      String spriteName,
+      Long durationMs,
+      int maxFrames) {
+    return ffmpegService.generateSprite(
+        video, imagePath, trackPath, spriteName, durationMs, maxFrames);
+  }
+
+  public FfmpegService.VideoProbe probeVideo(Path videoFile) {
+    return ffmpegService.probe(videoFile);
+  }
+
+  public FfmpegService.VideoProbe probeVideo(MediaInput video) {
+    return ffmpegService.probe(video);
+  }
+
+  /**
+   * Turn an original 90° to the left (D63). A JPEG only has its EXIF orientation rewritten — no
+   * decode, no generation loss however often it is turned; anything else, or a JPEG whose header
+   * cannot take the tag, goes through {@link #rotateImageLeft}.
+   */
+  public boolean rotateOriginalLeft(Path imageFile, String mimeType) {
+    if (MimeTypePredicates.isJpegFile(mimeType)) {
+      Path tempFile = imageFile.resolveSibling(imageFile.getFileName() + ".tmp");
+      try {
+        int orientation = JpegOrientation.rotateLeft(imageFile, tempFile);
+        Files.move(tempFile, imageFile, StandardCopyOption.REPLACE_EXISTING);
+        log.info(
+            "🔄 Rotated {} 90° left via EXIF orientation {}", imageFile.getFileName(), orientation);
+        return true;
+      } catch (IOException e) {
+        log.warn(
+            "Lossless rotate not possible for {} ({}); re-encoding instead",
+            imageFile.getFileName(),
+            e.getMessage());
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException ignored) {
+          // best-effort cleanup
+        }
+      }
+    }
+    return rotateImageLeft(imageFile);
+  }
+
+  /**
+   * Turn an existing derivative 90° to the left in place (D63) — {@code format} null for the JPEG,
+   * {@code slot} 0 = thumb, 1 = medium, 2 = large. Derivatives are stripped, so this has to move
+   * pixels, but at most 2400 px of them. vips re-encodes at the slot's quality; the ImageMagick
+   * fallback handles JPEGs only, which is all that backend ever writes.
+   */
+  public boolean rotateDerivativeLeft(Path file, int slot, DerivativeFormat format) {
+    if (properties.getThumbnailer() == Thumbnailer.VIPS) {
+      return vipsThumbnailService.rotateLeft(file, slot, format);
+    }
+    return format == null && rotateImageLeft(file);
   }
 
   /** Rotate an image 90 degrees counterclockwise via ImageMagick. */
@@ -176,7 +293,7 @@ public class ThumbnailService {
             tempFile.toAbsolutePath().toString());
     try {
       log.info("🔄 Rotating left: {}", imageFile.getFileName());
-      ProcessRunner.Result r = ProcessRunner.run(cmd, 60, TimeUnit.SECONDS);
+      ProcessRunner.Result r = processRunner.run(cmd, 60, TimeUnit.SECONDS);
       if (r.success() && tempFile.toFile().exists()) {
         java.nio.file.Files.delete(imageFile);
         java.nio.file.Files.move(tempFile, imageFile);
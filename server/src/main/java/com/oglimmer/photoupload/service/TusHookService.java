@@ -3,6 +3,7 @@ package com.oglimmer.photoupload.service;
 
 import com.oglimmer.photoupload.config.JobsProperties;
 import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.config.TusProperties;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.entity.User;
 import com.oglimmer.photoupload.model.FileInfo;
@@ -53,9 +54,6 @@ import org.springframework.stereotype.Service;
 @Slf4j
 public class TusHookService {
 
-  /** S3 prefix tusd writes uploads under (must match the {@code -s3-object-prefix} flag). */
-  private static final String TUS_UPLOADS_PREFIX = "tus-uploads/";
-
   /** Metadata key carrying the iOS / web bearer credentials. */
   private static final String META_AUTH = "auth";
 
@@ -77,6 +75,7 @@ public class TusHookService {
   private final AuthenticationManager authenticationManager;
   private final JobsProperties jobsProperties;
   private final JobQueueDepthService queueDepthService;
+  private final TusProperties tusProperties;
 
   public TusHookResponse handlePreCreate(TusHookRequest request) {
     Map<String, String> meta = metadataOf(request);
@@ -188,7 +187,7 @@ public class TusHookService {
    * <multipartUploadId>} format of {@code Upload.ID}. Falls back to the splitting heuristic only if
    * {@code Storage} is missing (older tusd, or a hook event we don't fully understand).
    */
-  private static String resolveTusKey(TusHookRequest.TusUpload upload) {
+  private String resolveTusKey(TusHookRequest.TusUpload upload) {
     if (upload.storage() != null) {
       String key = upload.storage().get("Key");
       if (key != null && !key.isBlank()) {
@@ -201,7 +200,7 @@ public class TusHookService {
     }
     int plus = id.indexOf('+');
     String objectName = plus < 0 ? id : id.substring(0, plus);
-    return TUS_UPLOADS_PREFIX + objectName;
+    return tusProperties.getObjectPrefix() + objectName;
   }
 
   private TusHookRequest.TusUpload uploadOf(TusHookRequest request) {
@@ -0,0 +1,211 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.Profiles;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Checksum dedupe for uploads that arrive without a hash (D59). The multipart path hashes the body
+ * before it creates a row and skips the upload on a match; a TUS upload only gets its SHA-256 from
+ * the worker's first download, so the same check runs here, after the fact, before any derivative
+ * is made:
+ *
+ * <ul>
+ *   <li>an earlier, processed twin in the <b>same album</b> — the multipart path would never have
+ *       created this row, so it is <b>collapsed</b>: linked to the twin like below, uploaded object
+ *       deleted, and the row itself dropped by {@link #dropCollapsed} once the dispatcher has
+ *       settled its job — deleting it under the running job would cascade the job row away;
+ *   <li>an earlier, processed twin with its original in <b>another album</b> of the same user — the
+ *       row stays where the user put it but is <b>linked</b> to the twin's objects, the same
+ *       sharing {@code duplicateAlbum} does, and its own upload is deleted;
+ *   <li>otherwise the row <b>keeps</b> its upload and is processed as usual.
+ * </ul>
+ *
+ * Only earlier rows count, so two concurrent uploads of one file can never resolve against each
+ * other. Never across users. With {@code file.upload.duplicate-detection-enabled=false} the
+ * checksum is stored and nothing else happens.
+ */
+@Service
+@Profile(Profiles.WORKER)
+@RequiredArgsConstructor
+@Slf4j
+public class UploadDedupeService {
+
+  public enum Outcome {
+    KEPT,
+    COLLAPSED,
+    LINKED
+  }
+
+  /** What the transaction decided, plus the upload object that no row references any more. */
+  private record Decision(Outcome outcome, String unreferencedKey) {}
+
+  private final FileMetadataRepository metadataRepository;
+  private final ProcessingJobRepository jobRepository;
+  private final FileStorageProperties properties;
+  private final PlatformTransactionManager transactionManager;
+  private final StorageAccountingService storageAccounting;
+  private final Optional<ObjectStorageService> objectStorage;
+
+  /**
+   * Store {@code checksum} on asset {@code assetId} and resolve it against the owner's earlier
+   * uploads. On {@link Outcome#KEPT} the caller carries on processing (and must keep the checksum
+   * on its own copy of the row); on the other two there is nothing left to process.
+   */
+  public Outcome adopt(Long assetId, String checksum) {
+    TransactionTemplate tx = new TransactionTemplate(transactionManager);
+    Decision decision = tx.execute(status -> decide(assetId, checksum));
+    if (decision == null) {
+      return Outcome.KEPT;
+    }
+    if (decision.unreferencedKey() != null && objectStorage.isPresent()) {
+      try {
+        objectStorage.get().delete(decision.unreferencedKey());
+      } catch (Exception e) {
+        // No row points at it any more, so the originals orphan sweep picks it up.
+        log.warn(
+            "Could not delete duplicate upload {}: {}", decision.unreferencedKey(), e.toString());
+      }
+    }
+    return decision.outcome();
+  }
+
+  private Decision decide(Long assetId, String checksum) {
+    FileMetadata row = metadataRepository.findById(assetId).orElse(null);
+    if (row == null) {
+      return null;
+    }
+    row.setChecksum(checksum);
+    Long userId = metadataRepository.findOwnerIdById(assetId).orElse(null);
+    if (!properties.isDuplicateDetectionEnabled() || userId == null) {
+      metadataRepository.save(row);
+      return new Decision(Outcome.KEPT, null);
+    }
+    List<FileMetadata> twins =
+        metadataRepository.findByChecksumAndUserId(checksum, userId).stream()
+            .filter(twin -> twin.getId() < assetId)
+            .filter(twin -> twin.getProcessingStatus() == ProcessingStatus.DONE)
+            .toList();
+    Long albumId = row.getAlbum().getId();
+    String upload = row.getFilePath();
+
+    Optional<FileMetadata> sameAlbum =
+        twins.stream().filter(twin -> twin.getAlbum().getId().equals(albumId)).findFirst();
+    if (sameAlbum.isPresent()) {
+      // DONE on the twin's objects until the row is dropped, so nothing in between sees a
+      // half-processed asset.
+      FileMetadata twin = sameAlbum.get();
+      link(row, twin);
+      metadataRepository.save(row);
+      storageAccounting.release(List.of(assetId), null);
+      storageAccounting.copy(Map.of(assetId, twin.getId()), albumId);
+      log.info(
+          "⚠️ Duplicate upload {} ({}) collapsed into asset {} of album {}",
+          assetId,
+          row.getOriginalName(),
+          twin.getId(),
+          albumId);
+      return new Decision(Outcome.COLLAPSED, unreferenced(upload));
+    }
+
+    Optional<FileMetadata> elsewhere =
+        twins.stream().filter(twin -> twin.getFilePath() != null).findFirst();
+    if (elsewhere.isPresent()) {
+      FileMetadata source = elsewhere.get();
+      link(row, source);
+      metadataRepository.save(row);
+      // The row now references the twin's objects, so it is charged the twin's bytes.
+      storageAccounting.release(List.of(assetId), null);
+      storageAccounting.copy(Map.of(assetId, source.getId()), albumId);
+      log.info(
+          "⚠️ Duplicate upload {} ({}) linked to asset {} of album {}",
+          assetId,
+          row.getOriginalName(),
+          source.getId(),
+          source.getAlbum().getId());
+      return new Decision(Outcome.LINKED, unreferenced(upload));
+    }
+
+    metadataRepository.save(row);
+    return new Decision(Outcome.KEPT, null);
+  }
+
+  /**
+   * Deletes a {@link Outcome#COLLAPSED} row once {@code jobId}, the job that collapsed it, is
+   * settled. The job row is archived first, in the same transaction: the asset delete would
+   * otherwise cascade it away unrecorded. The row's objects are its twin's and stay.
+   */
+  public void dropCollapsed(Long assetId, Long jobId) {
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(
+            status -> {
+              jobRepository.copyToArchive(List.of(jobId));
+              jobRepository.deleteByIds(List.of(jobId));
+              metadataRepository
+                  .findById(assetId)
+                  .ifPresent(
+                      row -> {
+                        storageAccounting.release(List.of(assetId), null);
+                        metadataRepository.delete(row);
+                      });
+            });
+    log.info("Dropped collapsed duplicate upload {}", assetId);
+  }
+
+  /**
+   * {@code key}, unless a row still references it after this transaction's change — an album
+   * duplicated while the upload was processing shares it, as {@code FileStorageService.deleteFile}
+   * checks before deleting bytes. The count query flushes the delete or relink first.
+   */
+  private String unreferenced(String key) {
+    if (key == null || metadataRepository.countByFilePath(key) > 0) {
+      return null;
+    }
+    return key;
+  }
+
+  /**
+   * Share {@code source}'s objects and everything derived from them, as an album duplicate does.
+   */
+  private static void link(FileMetadata row, FileMetadata source) {
+    row.setFileSize(source.getFileSize());
+    row.setMimeType(source.getMimeType());
+    row.setWidth(source.getWidth());
+    row.setHeight(source.getHeight());
+    row.setDuration(source.getDuration());
+    row.setBlurhash(source.getBlurhash());
+    row.setPhash(source.getPhash());
+    row.setDerivativeFormats(source.getDerivativeFormats());
+    row.setExifDateTimeOriginal(source.getExifDateTimeOriginal());
+    row.setExifDateSource(source.getExifDateSource());
+    row.setCaptureUtcOffsetSeconds(source.getCaptureUtcOffsetSeconds());
+    row.setGpsLatitude(source.getGpsLatitude());
+    row.setGpsLongitude(source.getGpsLongitude());
+    row.setGpsSource(source.getGpsSource());
+    row.setRotation(source.getRotation());
+    row.setFilePath(source.getFilePath());
+    row.setThumbnailPath(source.getThumbnailPath());
+    row.setMediumPath(source.getMediumPath());
+    row.setLargePath(source.getLargePath());
+    row.setTranscodedVideoPath(source.getTranscodedVideoPath());
+    row.setHlsPath(source.getHlsPath());
+    row.setSpriteVttPath(source.getSpriteVttPath());
+    row.setProcessingStatus(ProcessingStatus.DONE);
+    row.setProcessingError(null);
+    row.setProcessingCompletedAt(Instant.now());
+  }
+}
@@ -214,6 +214,13 @@ public class UserService {
     log.info("User account deleted: {}", user.getEmail());
   }
 
+  @Transactional(readOnly = true)
+  public User getStorageUsage(String email) {
+    return userRepository
+        .findByEmail(email.trim().toLowerCase())
+        .orElseThrow(() -> new ValidationException("User not found"));
+  }
+
   private void validatePassword(String password) {
     if (password == null || password.length() < 8) {
       throw new ValidationException("Password must be at least 8 characters long");
@@ -3,26 +3,37 @@ package com.oglimmer.photoupload.service;
 
 import com.oglimmer.photoupload.config.Profiles;
 import com.oglimmer.photoupload.service.ThumbnailService.ThumbnailSize;
+import com.oglimmer.photoupload.storage.DerivativeFormat;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 /**
- * Generates JPEG thumbnails via {@code vipsthumbnail}. vips uses shrink-on-load, so peak memory
- * tracks the output size rather than the input — a 50 MP source costs roughly the same as a 6 MP
- * source for the same target dimensions.
+ * Generates JPEG thumbnails — and optionally WebP/AVIF variants — via {@code vipsthumbnail}. vips
+ * uses shrink-on-load, so peak memory tracks the output size rather than the input — a 50 MP source
+ * costs roughly the same as a 6 MP source for the same target dimensions.
  */
 @Service
 @Profile(Profiles.WORKER)
+@RequiredArgsConstructor
 @Slf4j
 public class VipsThumbnailService {
 
   private static final long PER_INVOCATION_TIMEOUT_SECONDS = 120;
 
+  private static final ThumbnailSize[] SIZES = {
+    ThumbnailSize.THUMBNAIL, ThumbnailSize.MEDIUM, ThumbnailSize.LARGE
+  };
+
+  private final ProcessRunner processRunner;
+
   /**
    * Run one {@code vipsthumbnail} per target size and return the resulting paths in [thumb, medium,
    * large] order. Missing entries (failed invocations) are left as {@code null}.
@@ -55,11 +66,83 @@ public class VipsThumbnailService {
     return result;
   }
 
+  /**
+   * Same three sizes as {@link #generateAllThumbnails}, encoded as {@code format} instead of JPEG
+   * ({@code thumb_x.webp} etc., next to the JPEGs). vips picks webpsave / heifsave from the
+   * extension; a worker whose libheif lacks an AV1 encoder simply gets nulls back for AVIF.
+   */
+  public Path[] generateVariants(Path originalFile, Path baseOutputPath, DerivativeFormat format) {
+    Path[] result = new Path[3];
+    Path parentDir = baseOutputPath.getParent();
+    String rawName = baseOutputPath.getFileName().toString();
+    int dot = rawName.lastIndexOf('.');
+    String stem = dot > 0 ? rawName.substring(0, dot) : rawName;
+    String baseName = stem + "." + format.getExtension();
+    parentDir.toFile().mkdirs();
+
+    String[] prefixes = {"thumb_", "medium_", "large_"};
+    for (int slot = 0; slot < SIZES.length; slot++) {
+      Path dst = parentDir.resolve(prefixes[slot] + baseName);
+      if (runOne(originalFile, dst, SIZES[slot], "[Q=" + format.quality(slot) + ",strip]")) {
+        result[slot] = dst;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Turn an existing derivative 90° to the left in place with {@code vips rot} (D63): a decode and
+   * re-encode of at most 2400 px at the quality the slot was written with, instead of a fresh
+   * thumbnail from the original. {@code format} null is the JPEG; {@code slot} is 0 = thumb, 1 =
+   * medium, 2 = large.
+   */
+  public boolean rotateLeft(Path file, int slot, DerivativeFormat format) {
+    String saveOptions =
+        format == null ? jpegSaveOptions(SIZES[slot]) : "[Q=" + format.quality(slot) + ",strip]";
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    // Same extension as the input: vips picks the saver from it.
+    Path tmp = file.resolveSibling(name.substring(0, dot) + ".rot" + name.substring(dot));
+    List<String> cmd =
+        List.of(
+            "vips",
+            "rot",
+            file.toAbsolutePath().toString(),
+            tmp.toAbsolutePath().toString() + saveOptions,
+            "d270");
+    try {
+      ProcessRunner.Result r =
+          processRunner.run(cmd, PER_INVOCATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      if (!r.success() || !Files.exists(tmp) || Files.size(tmp) == 0) {
+        log.error(
+            "vips rot failed for {} (exit {}, timedOut={}): {}",
+            file.getFileName(),
+            r.exitCode(),
+            r.timedOut(),
+            r.output());
+        Files.deleteIfExists(tmp);
+        return false;
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (IOException e) {
+      log.error("IO error invoking vips rot for {}: {}", file, e.getMessage());
+      return false;
+    }
+  }
+
   private boolean runOne(Path src, Path dst, ThumbnailSize size) {
-    int quality = (int) (size.getJpegQuality() * 100);
+    return runOne(src, dst, size, jpegSaveOptions(size));
+  }
+
+  private static String jpegSaveOptions(ThumbnailSize size) {
+    return "[Q=" + (int) (size.getJpegQuality() * 100) + ",optimize_coding,strip]";
+  }
+
+  private boolean runOne(Path src, Path dst, ThumbnailSize size, String saveOptions) {
     String dim = size.getMaxWidth() + "x" + size.getMaxHeight();
-    // vipsthumbnail writes a JPEG. The trailing [Q=N] is a vips save-option, not a shell glob, so
-    // it doesn't need quoting when passed as a single ProcessBuilder argument.
+    // The trailing [Q=N,...] is a vips save-option, not a shell glob, so it doesn't need quoting
+    // when passed as a single ProcessBuilder argument.
     List<String> cmd =
         List.of(
             "vipsthumbnail",
@@ -69,10 +152,10 @@ public class VipsThumbnailService {
             "--export-profile",
             "srgb",
             "-o",
-            dst.toAbsolutePath().toString() + "[Q=" + quality + ",optimize_coding,strip]");
+            dst.toAbsolutePath().toString() + saveOptions);
     try {
       ProcessRunner.Result r =
-          ProcessRunner.run(cmd, PER_INVOCATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+          processRunner.run(cmd, PER_INVOCATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
       if (!r.success()) {
         log.error(
             "vipsthumbnail failed for {} → {} (exit {}, timedOut={}): {}",
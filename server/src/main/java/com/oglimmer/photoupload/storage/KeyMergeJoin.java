@@ -0,0 +1,119 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Streaming comparison of a bucket listing against the keys the database knows, for the orphan
+ * sweeps. Both sides arrive sorted in S3 listing order (ascending UTF-8 bytes — {@code CAST(... AS
+ * BINARY)} on the MariaDB side, streamed from one query) and are walked in lockstep, so memory
+ * stays at one page per side however large the library grows.
+ *
+ * <p>Keys are compared in groups rather than one by one: some objects are live because of a
+ * <em>different</em> key on record (a rung segment through its HLS master, a WebP through its JPEG,
+ * the sprite image through its track). All of those share the asset's {@code derivatives/{id}/}
+ * directory, which is a contiguous range in both orderings, so a group holds everything needed to
+ * decide and never more than one asset.
+ */
+public final class KeyMergeJoin {
+
+  private KeyMergeJoin() {}
+
+  /** Decides one group; return false to stop the walk (e.g. a per-run cap was reached). */
+  @FunctionalInterface
+  public interface GroupVisitor {
+    boolean visit(String group, List<String> bucketKeys, List<String> knownKeys);
+  }
+
+  /** How many keys were read from each side. */
+  public record Stats(long bucketKeys, long knownKeys) {}
+
+  /** S3 listing order: by code point, which is the order of the UTF-8 bytes. */
+  public static int compare(String a, String b) {
+    int i = 0;
+    int j = 0;
+    while (i < a.length() && j < b.length()) {
+      int ca = a.codePointAt(i);
+      int cb = b.codePointAt(j);
+      if (ca != cb) {
+        return Integer.compare(ca, cb);
+      }
+      i += Character.charCount(ca);
+      j += Character.charCount(cb);
+    }
+    return Integer.compare(a.length() - i, b.length() - j);
+  }
+
+  /** Group of a key for the orphan purge: its asset directory for derivatives, else the key. */
+  public static String assetGroupOf(String key) {
+    String prefix = StoragePaths.derivativeAssetPrefixOf(key);
+    return prefix != null ? prefix : key;
+  }
+
+  /**
+   * Walks {@code bucket} group by group and hands each group, with the known keys of the same
+   * group, to {@code visitor}. Known groups that have no object in the bucket are skipped.
+   */
+  public static Stats join(
+      Iterator<String> bucket,
+      Iterator<String> known,
+      Function<String, String> groupOf,
+      GroupVisitor visitor) {
+    Peeking b = new Peeking(bucket);
+    Peeking k = new Peeking(known);
+    long bucketCount = 0;
+    while (b.hasNext()) {
+      String group = groupOf.apply(b.peek());
+      while (k.hasNext() && compare(groupOf.apply(k.peek()), group) < 0) {
+        k.next();
+      }
+      List<String> knownKeys = new ArrayList<>();
+      while (k.hasNext() && groupOf.apply(k.peek()).equals(group)) {
+        knownKeys.add(k.next());
+      }
+      List<String> bucketKeys = new ArrayList<>();
+      while (b.hasNext() && groupOf.apply(b.peek()).equals(group)) {
+        bucketKeys.add(b.next());
+      }
+      bucketCount += bucketKeys.size();
+      if (!visitor.visit(group, bucketKeys, knownKeys)) {
+        return new Stats(bucketCount, k.consumed);
+      }
+    }
+    while (k.hasNext()) {
+      k.next();
+    }
+    return new Stats(bucketCount, k.consumed);
+  }
+
+  private static final class Peeking {
+    private final Iterator<String> delegate;
+    private String head;
+    private long consumed;
+
+    Peeking(Iterator<String> delegate) {
+      this.delegate = delegate;
+    }
+
+    boolean hasNext() {
+      return head != null || delegate.hasNext();
+    }
+
+    String peek() {
+      if (head == null) {
+        head = delegate.next();
+      }
+      return head;
+    }
+
+    String next() {
+      String value = peek();
+      head = null;
+      consumed++;
+      return value;
+    }
+  }
+}
@@ -2,6 +2,10 @@
 package com.oglimmer.photoupload.storage;
 
 import com.oglimmer.photoupload.entity.FileMetadata;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Single source of truth for the S3 key convention. Keeps the prefix check co-located with the key
@@ -9,10 +13,18 @@ import com.oglimmer.photoupload.entity.FileMetadata;
  *
  * <pre>
  *   originals/{stored_filename}
+ *   originals/tus/{tusd id}                                   (TUS uploads finalised in place)
  *   derivatives/{assetId}/thumb.jpg
  *   derivatives/{assetId}/medium.jpg
  *   derivatives/{assetId}/large.jpg
+ *   derivatives/{assetId}/{thumb|medium|large}.{webp|avif}   (optional, see DerivativeFormat)
  *   derivatives/{assetId}/transcoded.mp4
+ *   derivatives/{assetId}/hls/master.m3u8, hls/{rung}/...    (optional, long videos only)
+ *   derivatives/{assetId}/sprite.jpg, sprite.vtt             (videos, scrub preview)
+ *   derivatives/{assetId}/segments/{src|enc}_NNNNN.mp4       (transient, segmented transcode)
+ *   derivatives/{assetId}/resized/{token}/w{N}.{jpg|webp|avif} (on demand, see ResizeService;
+ *                                                    every row sharing the directory keys its own
+ *                                                    renditions by its own token)
  *   audio/{audio_filename}
  * </pre>
  */
@@ -20,7 +32,33 @@ public final class StoragePaths {
 
   public static final String ORIGINALS_PREFIX = "originals/";
   public static final String DERIVATIVES_PREFIX = "derivatives/";
+
+  /**
+   * Where tusd writes uploads (its {@code -s3-object-prefix}), so a finished upload already is the
+   * original and is registered without a copy (D58). Besides finished originals the prefix holds
+   * in-flight uploads and their {@code .info} objects, which have no row until post-finish; the
+   * retention sweeps give those the TUS grace period instead of the orphan grace period.
+   */
+  public static final String TUS_ORIGINALS_PREFIX = ORIGINALS_PREFIX + "tus/";
+
+  /** Suffix of the state object tusd keeps next to each upload. */
+  public static final String TUS_INFO_SUFFIX = ".info";
+
   public static final String AUDIO_PREFIX = "audio/";
+  public static final String HLS_MASTER_PLAYLIST = "master.m3u8";
+  public static final String SPRITE_IMAGE = "sprite.jpg";
+  public static final String SPRITE_TRACK = "sprite.vtt";
+  public static final String ORIGINAL_SLOT = "original";
+  public static final String HLS_SLOT = "hls";
+
+  private static final Pattern HLS_KEY = Pattern.compile("^(" + DERIVATIVES_PREFIX + "\\d+/hls/)");
+  private static final Pattern DERIVATIVE_ASSET =
+      Pattern.compile("^(" + DERIVATIVES_PREFIX + "\\d+/)");
+  private static final Pattern RESIZED_KEY =
+      Pattern.compile("^" + DERIVATIVES_PREFIX + "\\d+/resized/[0-9a-f]+/w(\\d+)\\.[a-z]+$");
+
+  /** How much of the public token versions a resized rendition's directory. */
+  private static final int RESIZED_TOKEN_CHARS = 16;
 
   private StoragePaths() {}
 
@@ -31,6 +69,10 @@ public final class StoragePaths {
     return path.startsWith(ORIGINALS_PREFIX) || path.startsWith(DERIVATIVES_PREFIX);
   }
 
+  public static boolean isTusOriginalKey(String path) {
+    return path != null && path.startsWith(TUS_ORIGINALS_PREFIX);
+  }
+
   public static boolean isAudioS3Key(String path) {
     return path != null && path.startsWith(AUDIO_PREFIX);
   }
@@ -62,4 +104,178 @@ public final class StoragePaths {
   public static String derivativeTranscodedKey(Long assetId) {
     return DERIVATIVES_PREFIX + assetId + "/transcoded.mp4";
   }
+
+  /**
+   * WebVTT thumbnails track of a video's scrub-preview sprite. The row stores this key; its cues
+   * reference the sprite image by the relative name {@value #SPRITE_IMAGE}, which lives next to it
+   * (see {@link #spriteImageKeyOf}).
+   */
+  public static String derivativeSpriteTrackKey(Long assetId) {
+    return DERIVATIVES_PREFIX + assetId + "/" + SPRITE_TRACK;
+  }
+
+  public static String derivativeSpriteImageKey(Long assetId) {
+    return DERIVATIVES_PREFIX + assetId + "/" + SPRITE_IMAGE;
+  }
+
+  /** The sprite image that belongs to a stored track key, or null for anything else. */
+  public static String spriteImageKeyOf(String trackKey) {
+    if (trackKey == null || !trackKey.endsWith("/" + SPRITE_TRACK)) {
+      return null;
+    }
+    return trackKey.substring(0, trackKey.length() - SPRITE_TRACK.length()) + SPRITE_IMAGE;
+  }
+
+  /**
+   * Directory of an asset's HLS rendition: {@code master.m3u8} plus one sub-directory per ladder
+   * rung ({@code 720p/index.m3u8}, {@code 720p/init.mp4}, {@code 720p/seg_00001.m4s}, ...). Only
+   * the master key is stored on the row; everything else is found under this prefix.
+   */
+  public static String derivativeHlsPrefix(Long assetId) {
+    return DERIVATIVES_PREFIX + assetId + "/hls/";
+  }
+
+  public static String derivativeHlsMasterKey(Long assetId) {
+    return derivativeHlsPrefix(assetId) + HLS_MASTER_PLAYLIST;
+  }
+
+  /**
+   * The HLS directory an object key belongs to ({@code derivatives/42/hls/}), or null when the key
+   * is not part of an HLS rendition. Works for the master key and for every segment under it.
+   */
+  public static String hlsPrefixOf(String key) {
+    if (key == null) {
+      return null;
+    }
+    Matcher m = HLS_KEY.matcher(key);
+    return m.lookingAt() ? m.group(1) : null;
+  }
+
+  /**
+   * Scratch directory of a segmented transcode: the keyframe-aligned source slices ({@code
+   * src_00000.mp4}, ...) and their encodes ({@code enc_00000.mp4}, ...). Never referenced by the
+   * row; the join job deletes the whole prefix once the web MP4 is stored.
+   */
+  public static String derivativeSegmentsPrefix(Long assetId) {
+    return DERIVATIVES_PREFIX + assetId + "/segments/";
+  }
+
+  public static String derivativeSourceSegmentKey(Long assetId, int index) {
+    return derivativeSegmentsPrefix(assetId) + String.format("src_%05d.mp4", index);
+  }
+
+  public static String derivativeEncodedSegmentKey(Long assetId, int index) {
+    return derivativeSegmentsPrefix(assetId) + String.format("enc_%05d.mp4", index);
+  }
+
+  public static boolean isSegmentKey(String key) {
+    String asset = derivativeAssetPrefixOf(key);
+    return asset != null && key.startsWith(asset + "segments/");
+  }
+
+  /**
+   * Directory of the on-demand renditions (D65) made from the derivatives next to {@code
+   * derivativeKey}, or null for a key outside {@code derivatives/}. It is the directory that holds
+   * the derivative, not one named after the row: rows that share derivatives ({@code
+   * duplicateAlbum}, a linked upload) share it, so it lives and dies with the objects the
+   * renditions are made from. Referenced by no column: renditions are found by key alone,
+   * regenerated when missing, and dropped with the derivatives or by a rotate.
+   */
+  public static String derivativeResizedPrefix(String derivativeKey) {
+    String asset = derivativeAssetPrefixOf(derivativeKey);
+    return asset == null ? null : asset + "resized/";
+  }
+
+  /**
+   * One row's renditions inside {@link #derivativeResizedPrefix(String)}, named after its public
+   * token, which a rotate or reprocess always replaces — a rendition of the old pixels is never
+   * served for the new ones, and rows sharing the directory never share a rendition.
+   */
+  public static String derivativeResizedPrefix(String derivativeKey, String publicToken) {
+    String resized = derivativeResizedPrefix(derivativeKey);
+    if (resized == null || publicToken == null) {
+      return null;
+    }
+    return resized
+        + publicToken.substring(0, Math.min(RESIZED_TOKEN_CHARS, publicToken.length()))
+        + "/";
+  }
+
+  /** Key of the {@code width}-wide rendition in {@code extension}; null as its prefix is. */
+  public static String derivativeResizedKey(
+      String derivativeKey, String publicToken, int width, String extension) {
+    String prefix = derivativeResizedPrefix(derivativeKey, publicToken);
+    return prefix == null ? null : prefix + "w" + width + "." + extension;
+  }
+
+  /** The width of a resized rendition's key, or null for any other key. */
+  public static Integer resizedWidthOf(String key) {
+    if (key == null) {
+      return null;
+    }
+    Matcher m = RESIZED_KEY.matcher(key);
+    return m.matches() ? Integer.valueOf(m.group(1)) : null;
+  }
+
+  public static boolean isResizedKey(String key) {
+    String asset = derivativeAssetPrefixOf(key);
+    return asset != null && key.startsWith(asset + "resized/");
+  }
+
+  /** The per-asset directory a derivative key lives in ({@code derivatives/42/}), else null. */
+  public static String derivativeAssetPrefixOf(String key) {
+    if (key == null) {
+      return null;
+    }
+    Matcher m = DERIVATIVE_ASSET.matcher(key);
+    return m.lookingAt() ? m.group(1) : null;
+  }
+
+  /**
+   * Storage-accounting slot of a key ({@code asset_storage.slot}): {@code original} for an
+   * original, {@code hls} for anything in the HLS rendition, else the derivative's file name
+   * ({@code medium.webp}). Null for keys that are not charged to an asset — segment scratch,
+   * on-demand renditions and audio tracks.
+   */
+  public static String accountingSlotOf(String key) {
+    if (key == null) {
+      return null;
+    }
+    if (key.startsWith(ORIGINALS_PREFIX)) {
+      return ORIGINAL_SLOT;
+    }
+    String asset = derivativeAssetPrefixOf(key);
+    if (asset == null || isSegmentKey(key)) {
+      return null;
+    }
+    if (hlsPrefixOf(key) != null) {
+      return HLS_SLOT;
+    }
+    String name = key.substring(asset.length());
+    return name.isEmpty() || name.contains("/") ? null : name;
+  }
+
+  /**
+   * Key of the {@code format} variant of a JPEG image derivative: the same key with the extension
+   * swapped ({@code derivatives/7/medium.jpg} → {@code derivatives/7/medium.webp}). Null for
+   * anything that is not a {@code .jpg} derivative key.
+   */
+  public static String derivativeVariantKey(String jpegKey, DerivativeFormat format) {
+    if (jpegKey == null || !jpegKey.startsWith(DERIVATIVES_PREFIX) || !jpegKey.endsWith(".jpg")) {
+      return null;
+    }
+    return jpegKey.substring(0, jpegKey.length() - ".jpg".length()) + "." + format.getExtension();
+  }
+
+  /** Every possible variant key of a JPEG derivative key — for deletes and the orphan sweep. */
+  public static List<String> derivativeVariantKeys(String jpegKey) {
+    List<String> keys = new ArrayList<>();
+    for (DerivativeFormat format : DerivativeFormat.values()) {
+      String key = derivativeVariantKey(jpegKey, format);
+      if (key != null) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
 }
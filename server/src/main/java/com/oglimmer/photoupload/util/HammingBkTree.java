@@ -0,0 +1,100 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * BK-tree over 64-bit hashes under Hamming distance, for "every hash within {@code k} bits of this
+ * one". Each child edge is labelled with its distance to the parent; the triangle inequality lets a
+ * query skip every subtree whose label lies outside {@code [d - k, d + k]}, so a small {@code k}
+ * visits a few percent of the nodes instead of all of them.
+ *
+ * <p>Entries carrying the same hash share a node. Append-only and not thread-safe — callers
+ * synchronise, and rebuild the tree to forget entries.
+ */
+public final class HammingBkTree {
+
+  /** One entry within the query radius. */
+  public record Match(long id, long hash, int distance) {}
+
+  private static final class Node {
+    private final long hash;
+    private final List<Long> ids = new ArrayList<>(1);
+    // Indexed by distance to this node, 1..64; allocated on first child.
+    private Node[] children;
+
+    Node(long hash) {
+      this.hash = hash;
+    }
+  }
+
+  private Node root;
+  private int size;
+
+  public void add(long hash, long id) {
+    size++;
+    if (root == null) {
+      root = new Node(hash);
+      root.ids.add(id);
+      return;
+    }
+    Node node = root;
+    while (true) {
+      int d = PerceptualHash.distance(hash, node.hash);
+      if (d == 0) {
+        node.ids.add(id);
+        return;
+      }
+      if (node.children == null) {
+        node.children = new Node[Long.SIZE + 1];
+      }
+      Node child = node.children[d];
+      if (child == null) {
+        child = new Node(hash);
+        child.ids.add(id);
+        node.children[d] = child;
+        return;
+      }
+      node = child;
+    }
+  }
+
+  /**
+   * Every entry within {@code maxDistance} bits of {@code hash}, the query's own entries included.
+   */
+  public List<Match> search(long hash, int maxDistance) {
+    List<Match> matches = new ArrayList<>();
+    if (root == null) {
+      return matches;
+    }
+    Deque<Node> pending = new ArrayDeque<>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      Node node = pending.pop();
+      int d = PerceptualHash.distance(hash, node.hash);
+      if (d <= maxDistance) {
+        for (Long id : node.ids) {
+          matches.add(new Match(id, node.hash, d));
+        }
+      }
+      if (node.children != null) {
+        int from = Math.max(1, d - maxDistance);
+        int to = Math.min(Long.SIZE, d + maxDistance);
+        for (int i = from; i <= to; i++) {
+          if (node.children[i] != null) {
+            pending.push(node.children[i]);
+          }
+        }
+      }
+    }
+    return matches;
+  }
+
+  /** Entries added so far, including superseded ones. */
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Entry-name rules and playlist rewriting for serving an asset's HLS rendition through {@code
+ * /api/i/{token}/hls/...}. An entry is a path relative to the rendition's directory: {@code
+ * master.m3u8}, {@code 720p/index.m3u8}, {@code 720p/init.mp4}, {@code 720p/seg_00001.m4s}.
+ */
+public final class HlsPlaylists {
+
+  public static final String PLAYLIST_MIME = "application/vnd.apple.mpegurl";
+
+  /** At most one directory level, a plain file name and one of the three extensions we write. */
+  private static final Pattern SAFE_ENTRY =
+      Pattern.compile("^(?:[A-Za-z0-9_-]+/)?[A-Za-z0-9_-]+\\.(?:m3u8|m4s|mp4)$");
+
+  private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"([^\"]*)\"");
+
+  private HlsPlaylists() {}
+
+  /** True for entries the serve endpoint may map to an object key; rejects traversal outright. */
+  public static boolean isSafeEntry(String entry) {
+    return entry != null && SAFE_ENTRY.matcher(entry).matches();
+  }
+
+  public static boolean isPlaylist(String entry) {
+    return entry.endsWith(".m3u8");
+  }
+
+  public static String contentType(String entry) {
+    if (isPlaylist(entry)) {
+      return PLAYLIST_MIME;
+    }
+    // Media segments of fMP4 HLS (RFC 8216 §3.3); the init segment is a regular MP4.
+    return entry.endsWith(".m4s") ? "video/iso.segment" : "video/mp4";
+  }
+
+  /**
+   * Rewrites every URI in {@code playlist} — variant and segment lines, and {@code URI="..."}
+   * attributes such as {@code EXT-X-MAP} — to {@code base + entry}, resolved against the directory
+   * of {@code playlistEntry}. {@code base} carries the public token, so every request the player
+   * makes goes back through the same token lookup as the playlist itself. A reference that does not
+   * resolve to a safe entry (absolute URL, traversal out of the rendition) is dropped.
+   */
+  public static String rewrite(String playlist, String playlistEntry, String base) {
+    int slash = playlistEntry.lastIndexOf('/');
+    String dir = slash < 0 ? "" : playlistEntry.substring(0, slash + 1);
+    StringBuilder out = new StringBuilder(playlist.length() + 256);
+    for (String line : playlist.split("\r?\n")) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      if (trimmed.startsWith("#")) {
+        Matcher m = URI_ATTRIBUTE.matcher(trimmed);
+        StringBuilder tag = new StringBuilder();
+        boolean safe = true;
+        while (m.find()) {
+          String resolved = resolve(dir, m.group(1));
+          if (resolved == null) {
+            safe = false;
+            break;
+          }
+          m.appendReplacement(tag, Matcher.quoteReplacement("URI=\"" + base + resolved + "\""));
+        }
+        if (!safe) {
+          continue;
+        }
+        m.appendTail(tag);
+        out.append(tag).append('\n');
+        continue;
+      }
+      String resolved = resolve(dir, trimmed);
+      if (resolved != null) {
+        out.append(base).append(resolved).append('\n');
+      }
+    }
+    return out.toString();
+  }
+
+  /** {@code dir + uri} with {@code .} / {@code ..} collapsed, or null if unsafe. */
+  static String resolve(String dir, String uri) {
+    if (uri.contains(":") || uri.startsWith("/") || uri.contains("?") || uri.contains("#")) {
+      return null;
+    }
+    Deque<String> parts = new ArrayDeque<>();
+    for (String part : (dir + uri).split("/")) {
+      if (part.isEmpty() || part.equals(".")) {
+        continue;
+      }
+      if (part.equals("..")) {
+        if (parts.isEmpty()) {
+          return null;
+        }
+        parts.removeLast();
+      } else {
+        parts.addLast(part);
+      }
+    }
+    String resolved = String.join("/", parts);
+    return isSafeEntry(resolved) ? resolved : null;
+  }
+}
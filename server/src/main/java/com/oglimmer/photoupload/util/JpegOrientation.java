@@ -0,0 +1,236 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rotates a JPEG by rewriting its EXIF {@code Orientation} tag instead of its pixels (D63): the
+ * entropy-coded data is copied byte for byte, so a rotation costs no quality however often it is
+ * repeated, and no decode at all. Every consumer here honours the tag — vipsthumbnail and the
+ * ImageMagick thumbnailer auto-orient, the metadata extractor swaps dimensions by it, and browsers
+ * apply it since {@code image-orientation: from-image} became the default.
+ *
+ * <p>Three cases: the tag exists and is patched in place; EXIF exists without the tag, and IFD0 is
+ * rewritten with it at the end of the EXIF block (the TIFF header is repointed, every other offset
+ * stays valid, maker notes included); or there is no EXIF, and a minimal block holding only the tag
+ * is inserted after the JFIF header.
+ */
+public final class JpegOrientation {
+
+  private static final int SOI = 0xD8;
+  private static final int SOS = 0xDA;
+  private static final int EOI = 0xD9;
+  private static final int APP0 = 0xE0;
+  private static final int APP1 = 0xE1;
+  private static final int TAG_ORIENTATION = 0x0112;
+  private static final int TYPE_SHORT = 3;
+  private static final byte[] EXIF_HEADER = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+  private static final int MAX_SEGMENT_PAYLOAD = 0xFFFF - 2;
+
+  /** Orientation after a further 90° counter-clockwise turn, indexed by the current value. */
+  private static final int[] LEFT_OF = {1, 8, 5, 6, 7, 4, 1, 2, 3};
+
+  private JpegOrientation() {}
+
+  /** The orientation value that shows {@code orientation} turned 90° to the left. */
+  public static int rotateLeft(int orientation) {
+    return orientation >= 1 && orientation <= 8 ? LEFT_OF[orientation] : LEFT_OF[1];
+  }
+
+  /**
+   * Writes {@code source}, turned 90° to the left, to {@code target} and returns the new
+   * orientation. Throws {@link IOException} for anything that is not a baseline/progressive JPEG
+   * this can rewrite — the caller then falls back to a pixel rotation.
+   */
+  public static int rotateLeft(Path source, Path target) throws IOException {
+    try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(source)));
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+      if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != SOI) {
+        throw new IOException("Not a JPEG: " + source.getFileName());
+      }
+      List<Segment> header = new ArrayList<>();
+      int marker;
+      while (true) {
+        marker = nextMarker(in);
+        if (marker == SOS || marker == EOI) {
+          break;
+        }
+        int length = in.readUnsignedShort();
+        if (length < 2) {
+          throw new IOException("Malformed JPEG segment length");
+        }
+        byte[] payload = new byte[length - 2];
+        in.readFully(payload);
+        header.add(new Segment(marker, payload));
+      }
+
+      int orientation = rewrite(header);
+
+      out.write(0xFF);
+      out.write(SOI);
+      for (Segment segment : header) {
+        out.write(0xFF);
+        out.write(segment.marker());
+        out.write(segment.payload().length + 2 >> 8);
+        out.write(segment.payload().length + 2);
+        out.write(segment.payload());
+      }
+      out.write(0xFF);
+      out.write(marker);
+      in.transferTo(out);
+      return orientation;
+    }
+  }
+
+  private record Segment(int marker, byte[] payload) {}
+
+  private static int nextMarker(InputStream in) throws IOException {
+    int b = in.read();
+    if (b != 0xFF) {
+      throw new IOException(b < 0 ? "Truncated JPEG header" : "Malformed JPEG header");
+    }
+    while (b == 0xFF) {
+      b = in.read();
+    }
+    if (b < 0) {
+      throw new EOFException("Truncated JPEG header");
+    }
+    return b;
+  }
+
+  /**
+   * Turns the header's orientation left in place and returns the new value. IFD0's offset and entry
+   * count come from the file, so both are checked against the segment before anything is read
+   * through them: a corrupt header is an {@link IOException} like any other unrewritable one.
+   */
+  private static int rewrite(List<Segment> header) throws IOException {
+    for (int i = 0; i < header.size(); i++) {
+      Segment segment = header.get(i);
+      if (segment.marker() == APP1 && isExif(segment.payload())) {
+        byte[] payload = segment.payload();
+        ByteBuffer tiff =
+            ByteBuffer.wrap(payload, EXIF_HEADER.length, payload.length - EXIF_HEADER.length)
+                .slice();
+        tiff.order(byteOrder(tiff));
+        int ifd0 = tiff.getInt(4);
+        if (ifd0 < 8 || ifd0 > tiff.limit() - 2) {
+          throw new IOException("EXIF IFD0 offset " + ifd0 + " is outside its segment");
+        }
+        int count = tiff.getShort(ifd0) & 0xFFFF;
+        if (ifd0 + 2 + count * 12 > tiff.limit()) {
+          throw new IOException("EXIF IFD0 with " + count + " entries overruns its segment");
+        }
+        for (int e = 0; e < count; e++) {
+          int entry = ifd0 + 2 + e * 12;
+          if ((tiff.getShort(entry) & 0xFFFF) == TAG_ORIENTATION) {
+            int turned = rotateLeft(tiff.getShort(entry + 8) & 0xFFFF);
+            tiff.putShort(entry + 2, (short) TYPE_SHORT);
+            tiff.putInt(entry + 4, 1);
+            tiff.putShort(entry + 8, (short) turned);
+            tiff.putShort(entry + 10, (short) 0);
+            return turned;
+          }
+        }
+        int turned = rotateLeft(1);
+        header.set(i, new Segment(APP1, withRelocatedIfd0(payload, tiff, ifd0, count, turned)));
+        return turned;
+      }
+    }
+    int turned = rotateLeft(1);
+    int at = !header.isEmpty() && header.get(0).marker() == APP0 ? 1 : 0;
+    header.add(at, new Segment(APP1, minimalExif(turned)));
+    return turned;
+  }
+
+  private static boolean isExif(byte[] payload) {
+    return payload.length >= EXIF_HEADER.length + 8
+        && Arrays.equals(payload, 0, EXIF_HEADER.length, EXIF_HEADER, 0, EXIF_HEADER.length);
+  }
+
+  private static ByteOrder byteOrder(ByteBuffer tiff) throws IOException {
+    return switch (tiff.getShort(0)) {
+      case 0x4949 -> ByteOrder.LITTLE_ENDIAN; // "II"
+      case 0x4D4D -> ByteOrder.BIG_ENDIAN; // "MM"
+      default -> throw new IOException("Malformed EXIF byte order");
+    };
+  }
+
+  /**
+   * The EXIF payload with a copy of IFD0 plus an orientation entry appended at its end and the TIFF
+   * header pointing there. Entries keep their bytes — inline values and offsets alike — since
+   * nothing they point at moves; the old IFD0 is left behind unreferenced.
+   */
+  private static byte[] withRelocatedIfd0(
+      byte[] payload, ByteBuffer tiff, int ifd0, int count, int orientation) throws IOException {
+    int tiffLength = payload.length - EXIF_HEADER.length;
+    int link = ifd0 + 2 + count * 12;
+    if (link + 4 > tiffLength) {
+      throw new IOException("EXIF IFD0 has no link to the next IFD");
+    }
+    int newIfd0 = tiffLength + (tiffLength & 1); // IFDs start on a word boundary
+    int newLength = newIfd0 + 2 + (count + 1) * 12 + 4;
+    if (EXIF_HEADER.length + newLength > MAX_SEGMENT_PAYLOAD) {
+      throw new IOException("No room for an orientation entry in the EXIF segment");
+    }
+    ByteBuffer out = ByteBuffer.allocate(newLength).order(tiff.order());
+    out.put(tiff.duplicate().position(0).limit(tiffLength));
+    out.putInt(4, newIfd0);
+    out.position(newIfd0);
+    out.putShort((short) (count + 1));
+    boolean written = false;
+    for (int e = 0; e < count; e++) {
+      int entry = ifd0 + 2 + e * 12;
+      if (!written && (tiff.getShort(entry) & 0xFFFF) > TAG_ORIENTATION) {
+        putOrientation(out, orientation);
+        written = true;
+      }
+      byte[] bytes = new byte[12];
+      tiff.get(entry, bytes);
+      out.put(bytes);
+    }
+    if (!written) {
+      putOrientation(out, orientation); // IFD entries are sorted by tag
+    }
+    out.putInt(tiff.getInt(link)); // link to IFD1 (the EXIF thumbnail)
+
+    byte[] rewritten = new byte[EXIF_HEADER.length + newLength];
+    System.arraycopy(EXIF_HEADER, 0, rewritten, 0, EXIF_HEADER.length);
+    System.arraycopy(out.array(), 0, rewritten, EXIF_HEADER.length, newLength);
+    return rewritten;
+  }
+
+  private static byte[] minimalExif(int orientation) {
+    ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 12 + 4).order(ByteOrder.BIG_ENDIAN);
+    tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+    tiff.putShort((short) 1);
+    putOrientation(tiff, orientation);
+    tiff.putInt(0);
+    byte[] payload = new byte[EXIF_HEADER.length + tiff.capacity()];
+    System.arraycopy(EXIF_HEADER, 0, payload, 0, EXIF_HEADER.length);
+    System.arraycopy(tiff.array(), 0, payload, EXIF_HEADER.length, tiff.capacity());
+    return payload;
+  }
+
+  private static void putOrientation(ByteBuffer out, int orientation) {
+    out.putShort((short) TAG_ORIENTATION);
+    out.putShort((short) TYPE_SHORT);
+    out.putInt(1);
+    out.putShort((short) orientation);
+    out.putShort((short) 0);
+  }
+}
@@ -26,6 +26,16 @@ public final class MimeTypePredicates {
     return mimeType.equals("image/heic") || mimeType.equals("image/heif");
   }
 
+  /** JPEG under its registered type or the two aliases browsers and old clients still send. */
+  public static boolean isJpegFile(String mimeType) {
+    if (mimeType == null) {
+      return false;
+    }
+    return mimeType.equals("image/jpeg")
+        || mimeType.equals("image/jpg")
+        || mimeType.equals("image/pjpeg");
+  }
+
   public static boolean isVideoFile(String mimeType) {
     if (mimeType == null) {
       return false;
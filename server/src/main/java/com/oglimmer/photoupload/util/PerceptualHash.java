@@ -0,0 +1,111 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 64-bit DCT perceptual hash ("pHash"): the image is shrunk to {@value #SAMPLE_EDGE}² grey levels,
+ * transformed, and the 8×8 lowest non-DC frequencies are each compared with their median. Scaling,
+ * recompression and mild colour shifts barely move those coefficients, so copies of one photo land
+ * a few bits apart while unrelated photos average 32.
+ *
+ * <p>Input is the worker's JPEG thumbnail — orientation-corrected and small, so decoding it costs
+ * far less than the transform. Not rotation-invariant: a rotated copy is a different picture here.
+ */
+@Slf4j
+public final class PerceptualHash {
+
+  static final int SAMPLE_EDGE = 32;
+  private static final int BLOCK = 8;
+  private static final double[][] COSINES = cosines();
+
+  private PerceptualHash() {}
+
+  /** Hash of the image at {@code imageFile}, or null if it can't be decoded. Never throws. */
+  public static Long of(Path imageFile) {
+    try {
+      BufferedImage image = ImageIO.read(imageFile.toFile());
+      if (image == null) {
+        log.debug("No ImageIO reader for phash source {}", imageFile.getFileName());
+        return null;
+      }
+      return of(image);
+    } catch (Exception e) {
+      log.warn("Could not compute phash for {}: {}", imageFile.getFileName(), e.toString());
+      return null;
+    }
+  }
+
+  public static long of(BufferedImage image) {
+    double[][] luma = luma(image);
+    double[] coefficients = new double[BLOCK * BLOCK];
+    // Rows/columns 1..8: the DC term only encodes mean brightness, which is what we want to ignore.
+    for (int u = 1; u <= BLOCK; u++) {
+      for (int v = 1; v <= BLOCK; v++) {
+        double sum = 0;
+        for (int y = 0; y < SAMPLE_EDGE; y++) {
+          double row = 0;
+          for (int x = 0; x < SAMPLE_EDGE; x++) {
+            row += luma[y][x] * COSINES[v][x];
+          }
+          sum += row * COSINES[u][y];
+        }
+        coefficients[(u - 1) * BLOCK + (v - 1)] = sum;
+      }
+    }
+    double[] sorted = coefficients.clone();
+    Arrays.sort(sorted);
+    double median = (sorted[31] + sorted[32]) / 2;
+    long hash = 0;
+    for (int i = 0; i < coefficients.length; i++) {
+      if (coefficients[i] > median) {
+        hash |= 1L << i;
+      }
+    }
+    return hash;
+  }
+
+  /** Number of differing bits. */
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+
+  private static double[][] luma(BufferedImage source) {
+    BufferedImage scaled = new BufferedImage(SAMPLE_EDGE, SAMPLE_EDGE, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = scaled.createGraphics();
+    try {
+      g.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      g.drawImage(source, 0, 0, SAMPLE_EDGE, SAMPLE_EDGE, null);
+    } finally {
+      g.dispose();
+    }
+    double[][] luma = new double[SAMPLE_EDGE][SAMPLE_EDGE];
+    for (int y = 0; y < SAMPLE_EDGE; y++) {
+      for (int x = 0; x < SAMPLE_EDGE; x++) {
+        int rgb = scaled.getRGB(x, y);
+        luma[y][x] =
+            0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+      }
+    }
+    return luma;
+  }
+
+  /** DCT-II basis: {@code COSINES[k][n] = cos((2n + 1)kπ / 2N)}; scale factors cancel out. */
+  private static double[][] cosines() {
+    double[][] c = new double[BLOCK + 1][SAMPLE_EDGE];
+    for (int k = 0; k <= BLOCK; k++) {
+      for (int n = 0; n < SAMPLE_EDGE; n++) {
+        c[k][n] = Math.cos((2 * n + 1) * k * Math.PI / (2 * SAMPLE_EDGE));
+      }
+    }
+    return c;
+  }
+}
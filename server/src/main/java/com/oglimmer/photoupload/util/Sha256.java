@@ -0,0 +1,49 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 in the form {@code file_metadata.checksum} stores it: 64 lowercase hex digits. The
+ * multipart upload path, the worker's hashing download and the checksum backfill all go through
+ * here, so a TUS upload and a multipart upload of the same bytes compare equal.
+ */
+public final class Sha256 {
+
+  private Sha256() {}
+
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 unavailable", e);
+    }
+  }
+
+  public static String hex(MessageDigest digest) {
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /** Hash of everything left in {@code in}; does not close it. */
+  public static String of(InputStream in) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buf = new byte[64 * 1024];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      digest.update(buf, 0, n);
+    }
+    return hex(digest);
+  }
+
+  public static String of(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return of(in);
+    }
+  }
+}
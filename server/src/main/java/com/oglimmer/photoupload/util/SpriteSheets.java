@@ -0,0 +1,143 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+
+/**
+ * Layout, WebVTT track and poster choice for a video's scrub-preview sprite: {@code count} frames
+ * taken every {@code intervalSeconds}, tiled {@code COLUMNS} wide in one JPEG. The track maps each
+ * interval to its tile as {@code sprite.jpg#xywh=x,y,w,h} (the W3C media-fragment form players
+ * understand), relative to the track's own URL.
+ */
+public final class SpriteSheets {
+
+  public static final String VTT_MIME = "text/vtt";
+  public static final int COLUMNS = 10;
+
+  /** Tiles darker or brighter than this (mean luma, 0-255) are fades, black frames or flashes. */
+  private static final double MIN_LUMA = 24;
+
+  private static final double MAX_LUMA = 232;
+
+  private SpriteSheets() {}
+
+  /** Frame count and spacing for a clip; null when the duration is unknown. */
+  public record Layout(int count, double intervalSeconds, long durationMs) {
+    public int columns() {
+      return Math.min(COLUMNS, count);
+    }
+
+    public int rows() {
+      return (count + COLUMNS - 1) / COLUMNS;
+    }
+
+    /** Start of frame {@code index}'s interval, in seconds. */
+    public double secondsOf(int index) {
+      return index * intervalSeconds;
+    }
+  }
+
+  /**
+   * At most {@code maxFrames}, but never more than one per second: the sprite is decoded from
+   * keyframes only, and phones write one every second or two.
+   */
+  public static Layout layoutFor(Long durationMs, int maxFrames) {
+    if (durationMs == null || durationMs <= 0 || maxFrames <= 0) {
+      return null;
+    }
+    int count = (int) Math.max(1, Math.min(maxFrames, durationMs / 1000));
+    return new Layout(count, durationMs / 1000.0 / count, durationMs);
+  }
+
+  /** The thumbnails track for a sprite of {@code tileWidth}×{@code tileHeight} tiles. */
+  public static String webVtt(Layout layout, String spriteName, int tileWidth, int tileHeight) {
+    StringBuilder vtt = new StringBuilder("WEBVTT\n");
+    for (int i = 0; i < layout.count(); i++) {
+      long startMs = Math.round(layout.secondsOf(i) * 1000);
+      long endMs =
+          i == layout.count() - 1
+              ? layout.durationMs()
+              : Math.round(layout.secondsOf(i + 1) * 1000);
+      vtt.append('\n')
+          .append(timestamp(startMs))
+          .append(" --> ")
+          .append(timestamp(endMs))
+          .append('\n')
+          .append(spriteName)
+          .append("#xywh=")
+          .append((i % COLUMNS) * tileWidth)
+          .append(',')
+          .append((i / COLUMNS) * tileHeight)
+          .append(',')
+          .append(tileWidth)
+          .append(',')
+          .append(tileHeight)
+          .append('\n');
+    }
+    return vtt.toString();
+  }
+
+  static String timestamp(long ms) {
+    return String.format(
+        Locale.ROOT,
+        "%02d:%02d:%02d.%03d",
+        ms / 3_600_000,
+        (ms / 60_000) % 60,
+        (ms / 1000) % 60,
+        ms % 1000);
+  }
+
+  /**
+   * Index of the tile that makes the best poster: the sharpest one (mean absolute Laplacian of the
+   * luma), discounted the further its exposure is from mid-grey, with near-black and blown-out
+   * tiles ranked below every properly exposed one. Ties go to the earlier frame.
+   */
+  public static int bestTile(BufferedImage sprite, Layout layout, int tileWidth, int tileHeight) {
+    int best = 0;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < layout.count(); i++) {
+      int x0 = (i % COLUMNS) * tileWidth;
+      int y0 = (i / COLUMNS) * tileHeight;
+      if (x0 + tileWidth > sprite.getWidth() || y0 + tileHeight > sprite.getHeight()) {
+        break;
+      }
+      double score = score(sprite, x0, y0, tileWidth, tileHeight);
+      if (score > bestScore) {
+        bestScore = score;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  static double score(BufferedImage image, int x0, int y0, int w, int h) {
+    double[][] luma = new double[h][w];
+    double sum = 0;
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        int rgb = image.getRGB(x0 + x, y0 + y);
+        double l =
+            0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+        luma[y][x] = l;
+        sum += l;
+      }
+    }
+    double mean = sum / (w * h);
+    double laplacian = 0;
+    int samples = 0;
+    for (int y = 1; y < h - 1; y++) {
+      for (int x = 1; x < w - 1; x++) {
+        laplacian +=
+            Math.abs(
+                4 * luma[y][x] - luma[y - 1][x] - luma[y + 1][x] - luma[y][x - 1] - luma[y][x + 1]);
+        samples++;
+      }
+    }
+    double sharpness = samples == 0 ? 0 : laplacian / samples;
+    double exposure = 1 - Math.min(1, Math.abs(mean - 118) / 118);
+    double score = sharpness * (0.25 + 0.75 * exposure);
+    // Keeps a noisy black frame (sensor grain is "sharp") from beating any real picture.
+    return mean < MIN_LUMA || mean > MAX_LUMA ? score - 1_000 : score;
+  }
+}
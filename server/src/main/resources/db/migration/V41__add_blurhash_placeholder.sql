@@ -0,0 +1,11 @@
+-- Blurhash placeholder: a ~28-character string the gallery decodes into a blurred preview.
+--
+-- Together with width/height (written by the worker's metadata pass since the single-pass
+-- extractor) it lets the client lay out a whole album — tile sizes and a colour per tile — from
+-- the listing JSON alone, before a single thumbnail has been fetched.
+--
+-- Nullable: rows processed before this column existed carry none until the EXTRACT_PLACEHOLDER
+-- sweep visits them. The placeholder is computed from the thumbnail, not the original, so
+-- retention-purged assets are eligible too.
+ALTER TABLE file_metadata
+  ADD COLUMN blurhash VARCHAR(64) NULL;
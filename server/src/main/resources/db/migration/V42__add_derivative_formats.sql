@@ -0,0 +1,10 @@
+-- Which modern-format variants (WebP / AVIF) exist next to an image's JPEG derivatives, as a
+-- comma-separated list of extensions ("avif,webp"). The variant keys themselves are deterministic
+-- (derivatives/{id}/medium.webp), so this is all the serve path needs to negotiate on Accept.
+--
+-- Per row rather than derived from configuration: file.upload.derivative-formats can change
+-- between uploads, and serving a variant that was never written would 404 from MinIO. NULL means
+-- JPEG only — every row processed before this column existed, and every row since while the
+-- setting is empty.
+ALTER TABLE file_metadata
+  ADD COLUMN derivative_formats VARCHAR(32) NULL;
@@ -0,0 +1,12 @@
+-- Checksum dedupe lookups: upload dedupe (FileStorageService.storeFile) and the mobile sync list
+-- (SyncService). Until now file_metadata.checksum had no index at all, so every legacy upload
+-- scanned the table once per file.
+--
+-- Ownership lives on albums.user_id, not on file_metadata, so "this user's copies of a hash" is a
+-- probe on (checksum, album_id) followed by a primary-key join to albums — a handful of rows per
+-- hash, never a scan. album_id rides along so the in-album check is answered from the index.
+CREATE INDEX idx_checksum_album ON file_metadata(checksum, album_id);
+
+-- Sync: "checksums this user uploaded since X". The user's albums come from idx_albums_user_id;
+-- per album this is a range on uploaded_at, and checksum in the key makes it index-only.
+CREATE INDEX idx_album_uploaded_checksum ON file_metadata(album_id, uploaded_at, checksum);
@@ -0,0 +1,8 @@
+-- Adaptive-bitrate HLS rendition for long videos, written by the worker next to the progressive
+-- transcoded.mp4 when file.upload.hls-min-duration-seconds is set.
+--
+-- Only the master playlist key is stored (derivatives/{id}/hls/master.m3u8); rung playlists, init
+-- segments and media segments live under the same prefix and are deleted/kept as a unit with it.
+-- NULL = no HLS rendition, the client plays transcoded.mp4 as before.
+ALTER TABLE file_metadata
+  ADD COLUMN hls_path VARCHAR(512) NULL;
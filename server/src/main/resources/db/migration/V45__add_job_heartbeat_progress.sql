@@ -0,0 +1,9 @@
+-- Lease heartbeat and coarse progress for running jobs.
+--
+-- The worker extends leased_until every jobs.lease.heartbeat-seconds while a job runs, so the
+-- lease itself can be short (fast recovery after a crash) without a long encode outliving it and
+-- being leased a second time. heartbeat_at is the last extension; progress_percent is the last
+-- 0-100 figure parsed from ffmpeg's -progress output, NULL for jobs that do not report any.
+ALTER TABLE processing_jobs
+  ADD COLUMN heartbeat_at     DATETIME(6) NULL AFTER leased_by,
+  ADD COLUMN progress_percent TINYINT     NULL AFTER heartbeat_at;
@@ -0,0 +1,14 @@
+-- Segment-parallel transcoding of long videos.
+--
+-- A PROCESS job that splits a long source at keyframes writes one TRANSCODE_JOIN row in the new
+-- WAITING status plus one TRANSCODE_SEGMENT row per segment, each pointing at the join through
+-- parent_job_id and carrying its 0-based segment_index. Any worker leases the segment rows; the
+-- one that finishes the last segment flips the join row to QUEUED.
+--
+-- No foreign key on parent_job_id: both rows already cascade with their asset, and a dangling
+-- parent id is harmless (the join is simply never woken up).
+ALTER TABLE processing_jobs
+  ADD COLUMN parent_job_id BIGINT NULL AFTER job_type,
+  ADD COLUMN segment_index INT    NULL AFTER parent_job_id;
+
+CREATE INDEX idx_processing_jobs_parent ON processing_jobs (parent_job_id);
@@ -0,0 +1,8 @@
+-- Scrub-preview sprite for videos: N evenly spaced frames tiled into derivatives/{id}/sprite.jpg,
+-- plus a WebVTT thumbnails track derivatives/{id}/sprite.vtt whose cues address the tiles with
+-- #xywh media fragments.
+--
+-- Only the track key is stored; the sprite image is its sibling and is deleted/kept with it.
+-- NULL = no sprite (images, local-disk storage, sprite disabled, or a video processed before this).
+ALTER TABLE file_metadata
+  ADD COLUMN sprite_vtt_path VARCHAR(512) NULL;
@@ -0,0 +1,47 @@
+-- Storage accounting: bytes per stored object, and running totals per album and per user, so
+-- "how much does this user / album occupy" is a column read instead of a bucket listing.
+--
+-- One row per (asset, slot). A slot is one object on record for the asset: 'original', or the
+-- derivative's file name under derivatives/{id}/ ('thumb.jpg', 'medium.webp', 'transcoded.mp4',
+-- 'sprite.vtt', ...). The HLS rendition is one 'hls' slot holding the sum of its playlists and
+-- segments. Transient segmented-transcode slices are never recorded.
+--
+-- The totals are maintained in the same transaction as the rows (StorageAccountingService) and
+-- count every byte an asset references: a duplicated album shares its source's objects but is
+-- charged for them too, exactly as it would be if the source album were deleted.
+CREATE TABLE asset_storage (
+  file_metadata_id BIGINT      NOT NULL,
+  slot             VARCHAR(64) NOT NULL,
+  bytes            BIGINT      NOT NULL,
+  PRIMARY KEY (file_metadata_id, slot),
+  CONSTRAINT fk_asset_storage_file
+    FOREIGN KEY (file_metadata_id) REFERENCES file_metadata (id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+ALTER TABLE albums
+  ADD COLUMN stored_bytes   BIGINT NOT NULL DEFAULT 0,
+  ADD COLUMN original_bytes BIGINT NOT NULL DEFAULT 0;
+
+ALTER TABLE users
+  ADD COLUMN stored_bytes   BIGINT NOT NULL DEFAULT 0,
+  ADD COLUMN original_bytes BIGINT NOT NULL DEFAULT 0;
+
+-- Backfill what the rows already know: the original's size. Derivative sizes were never recorded;
+-- they are counted from the asset's next (re)processing, thumbnail regeneration or rotation.
+INSERT INTO asset_storage (file_metadata_id, slot, bytes)
+SELECT id, 'original', file_size
+FROM file_metadata
+WHERE file_path IS NOT NULL AND file_size IS NOT NULL;
+
+UPDATE albums a
+  JOIN (SELECT f.album_id, SUM(s.bytes) AS bytes
+        FROM asset_storage s JOIN file_metadata f ON f.id = s.file_metadata_id
+        GROUP BY f.album_id) t ON t.album_id = a.id
+SET a.stored_bytes = t.bytes,
+    a.original_bytes = t.bytes;
+
+UPDATE users u
+  JOIN (SELECT user_id, SUM(stored_bytes) AS bytes FROM albums GROUP BY user_id) t
+    ON t.user_id = u.id
+SET u.stored_bytes = t.bytes,
+    u.original_bytes = t.bytes;
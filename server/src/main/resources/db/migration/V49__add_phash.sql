@@ -0,0 +1,11 @@
+-- Perceptual hash of the thumbnail: 64 bits of the low-frequency DCT of the image, so that the
+-- same photo exported twice, re-compressed by a messenger or converted from HEIC lands a few bits
+-- apart (Hamming distance) where the SHA-256 checksum differs completely.
+--
+-- The api pod keeps the hashes of each user in an in-memory BK-tree (NearDuplicateService); this
+-- column is only its source of truth, so it needs no index of its own.
+--
+-- Nullable: rows processed before this column existed carry none until the EXTRACT_PLACEHOLDER
+-- sweep visits them (it computes BlurHash and phash from the same thumbnail).
+ALTER TABLE file_metadata
+  ADD COLUMN phash BIGINT NULL;
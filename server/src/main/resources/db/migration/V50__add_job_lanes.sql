@@ -0,0 +1,28 @@
+-- Priority lanes and per-user fairness for the job queue (D56).
+--
+-- priority is the lane: 0 = interactive (uploads), 1 = edit (rotate), 2 = backfill (admin
+-- sweeps). A worker always leases from the lowest non-empty lane, and within a lane round-robins
+-- over user_id, so one user's 2,000-photo sync cannot starve another user's single upload.
+--
+-- user_id is the asset owner, copied onto the row at enqueue time so the lease query needs no
+-- join. No foreign key: the row already cascades with its asset.
+ALTER TABLE processing_jobs
+  ADD COLUMN priority TINYINT NOT NULL DEFAULT 0 AFTER job_type,
+  ADD COLUMN user_id  BIGINT  NULL AFTER priority;
+
+UPDATE processing_jobs j
+  JOIN file_metadata fm ON fm.id = j.asset_id
+  JOIN albums a ON a.id = fm.album_id
+SET j.user_id = a.user_id;
+
+UPDATE processing_jobs
+SET priority = 2
+WHERE job_type IN ('REGEN_THUMBNAILS', 'EXTRACT_CAPTURE_DATE', 'EXTRACT_GPS', 'EXTRACT_PLACEHOLDER');
+
+UPDATE processing_jobs
+SET priority = 1
+WHERE job_type = 'ROTATE_LEFT';
+
+-- The lease query ranks each lane's leaseable rows per user in created_at order.
+CREATE INDEX idx_processing_jobs_lane
+  ON processing_jobs (status, priority, user_id, created_at);
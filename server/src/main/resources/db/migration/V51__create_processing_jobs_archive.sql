@@ -0,0 +1,32 @@
+-- Finished-job archive (D57).
+--
+-- DONE rows are moved here by the worker's JobArchiveService once they are
+-- jobs.archive.after-minutes old, so processing_jobs only holds the live queue (QUEUED, WAITING,
+-- PROCESSING), dead letters, and the last hour of DONE rows. The lease query, the queue-depth
+-- GROUP BY and the "asset has a live job" NOT EXISTS checks then cost what the backlog costs,
+-- not what the history costs. Lease bookkeeping is not copied; it means nothing once a job is
+-- done. No foreign key on asset_id: the archive outlives deleted assets until it is pruned.
+CREATE TABLE processing_jobs_archive (
+  id             BIGINT      NOT NULL,
+  asset_id       BIGINT      NOT NULL,
+  job_type       VARCHAR(32) NOT NULL,
+  priority       TINYINT     NOT NULL,
+  user_id        BIGINT      NULL,
+  parent_job_id  BIGINT      NULL,
+  segment_index  INT         NULL,
+  status         VARCHAR(32) NOT NULL,
+  attempts       INT         NOT NULL,
+  max_attempts   INT         NOT NULL,
+  last_error     TEXT        NULL,
+  created_at     DATETIME(6) NOT NULL,
+  started_at     DATETIME(6) NULL,
+  finished_at    DATETIME(6) NULL,
+  archived_at    DATETIME(6) NOT NULL,
+  PRIMARY KEY (id),
+  KEY idx_processing_jobs_archive_asset (asset_id),
+  KEY idx_processing_jobs_archive_finished (finished_at)
+) ENGINE=InnoDB;
+
+-- The archiver's scan: oldest DONE rows first.
+CREATE INDEX idx_processing_jobs_status_finished
+  ON processing_jobs (status, finished_at);
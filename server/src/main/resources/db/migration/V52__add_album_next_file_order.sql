@@ -0,0 +1,12 @@
+-- Per-album display_order counter (D60). An upload used to read MAX(display_order) + 1 over the
+-- album's files inside its insert transaction: a range read per upload, and two TUS post-finish
+-- hooks into one album could read the same maximum and store the same position. Uploads now take
+-- the next value by bumping this column in place — a primary-key UPDATE whose row lock orders
+-- concurrent callers — and reorders leave it alone, since they only renumber within 0..n-1.
+ALTER TABLE albums
+  ADD COLUMN next_file_order INT NOT NULL DEFAULT 0;
+
+UPDATE albums a
+SET a.next_file_order = (
+  SELECT COALESCE(MAX(f.display_order) + 1, 0) FROM file_metadata f WHERE f.album_id = a.id
+);
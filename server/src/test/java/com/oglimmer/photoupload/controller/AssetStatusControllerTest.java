@@ -2,15 +2,22 @@
 package com.oglimmer.photoupload.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.oglimmer.photoupload.entity.Album;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.entity.User;
 import com.oglimmer.photoupload.exception.ResourceNotFoundException;
 import com.oglimmer.photoupload.model.AssetProcessingStatusResponse;
+import com.oglimmer.photoupload.repository.AlbumRepository;
 import com.oglimmer.photoupload.repository.FileMetadataRepository;
 import com.oglimmer.photoupload.security.UserContext;
+import com.oglimmer.photoupload.service.ProcessingEventService;
 import java.time.Instant;
 import java.util.Optional;
 import org.junit.jupiter.api.Test;
@@ -19,12 +26,15 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @ExtendWith(MockitoExtension.class)
 class AssetStatusControllerTest {
 
   @Mock FileMetadataRepository fileMetadataRepository;
   @Mock UserContext userContext;
+  @Mock AlbumRepository albumRepository;
+  @Mock ProcessingEventService processingEventService;
 
   @InjectMocks AssetStatusController controller;
 
@@ -57,4 +67,26 @@ class AssetStatusControllerTest {
 
     assertThrows(ResourceNotFoundException.class, () -> controller.getStatus(7L));
   }
+
+  @Test
+  void eventStreamSubscribesForOwnedAlbum() {
+    User user = new User();
+    Album album = new Album();
+    SseEmitter emitter = new SseEmitter();
+    when(userContext.getCurrentUser()).thenReturn(user);
+    when(albumRepository.findByUserAndId(user, 3L)).thenReturn(Optional.of(album));
+    when(processingEventService.subscribe(3L)).thenReturn(emitter);
+
+    assertSame(emitter, controller.streamAlbumEvents(3L));
+  }
+
+  @Test
+  void eventStreamRejectsOtherUsersAlbum() {
+    User user = new User();
+    when(userContext.getCurrentUser()).thenReturn(user);
+    when(albumRepository.findByUserAndId(user, 3L)).thenReturn(Optional.empty());
+
+    assertThrows(ResourceNotFoundException.class, () -> controller.streamAlbumEvents(3L));
+    verify(processingEventService, never()).subscribe(3L);
+  }
 }
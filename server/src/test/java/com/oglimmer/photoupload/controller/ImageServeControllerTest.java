@@ -4,11 +4,18 @@ package com.oglimmer.photoupload.controller;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.oglimmer.photoupload.config.ServeCacheProperties;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
 import com.oglimmer.photoupload.model.FileServeInfo;
+import com.oglimmer.photoupload.service.DerivativeCache;
 import com.oglimmer.photoupload.service.FileStorageService;
+import com.oglimmer.photoupload.service.ObjectStorageService;
+import com.oglimmer.photoupload.service.ResizeService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
@@ -18,12 +25,17 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.context.request.ServletWebRequest;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
 @ExtendWith(MockitoExtension.class)
 class ImageServeControllerTest {
@@ -31,6 +43,7 @@ class ImageServeControllerTest {
   private static final Instant UPLOADED_AT = Instant.parse("2026-04-27T00:00:00Z");
 
   @Mock FileStorageService fileStorageService;
+  @Mock ResizeService resizeService;
 
   private ImageServeController controller;
   private MockHttpServletRequest request;
@@ -41,7 +54,9 @@ class ImageServeControllerTest {
   void setUp() {
     // Optional.empty() mirrors a deployment where storage.s3.enabled=false and the
     // ObjectStorageService bean simply is not in the context.
-    controller = new ImageServeController(fileStorageService, Optional.empty());
+    controller =
+        new ImageServeController(
+            fileStorageService, Optional.empty(), Optional.empty(), resizeService);
     request = new MockHttpServletRequest("GET", "/api/i/tok");
     response = new MockHttpServletResponse();
     webRequest = new ServletWebRequest(request, response);
@@ -58,10 +73,12 @@ class ImageServeControllerTest {
             "photo.heic",
             ProcessingStatus.PROCESSING,
             false,
-            null);
-    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb")).thenReturn(info);
+            null,
+            null,
+            false);
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null)).thenReturn(info);
 
-    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", webRequest);
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
 
     assertEquals(HttpStatus.ACCEPTED, resp.getStatusCode());
     assertEquals("2", resp.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
@@ -85,10 +102,12 @@ class ImageServeControllerTest {
             "served.jpg",
             ProcessingStatus.DONE,
             false,
-            null);
-    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb")).thenReturn(info);
+            null,
+            null,
+            false);
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null)).thenReturn(info);
 
-    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", webRequest);
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
 
     assertEquals(HttpStatus.OK, resp.getStatusCode());
     assertNotNull(resp.getBody());
@@ -102,10 +121,19 @@ class ImageServeControllerTest {
 
     FileServeInfo info =
         new FileServeInfo(
-            "image/jpeg", "abc", UPLOADED_AT, file, "thumb.jpg", ProcessingStatus.DONE, true, null);
-    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb")).thenReturn(info);
+            "image/jpeg",
+            "abc",
+            UPLOADED_AT,
+            file,
+            "thumb.jpg",
+            ProcessingStatus.DONE,
+            true,
+            null,
+            null,
+            false);
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null)).thenReturn(info);
 
-    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", webRequest);
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
 
     assertEquals(HttpStatus.OK, resp.getStatusCode());
     assertNotNull(resp.getBody());
@@ -116,11 +144,11 @@ class ImageServeControllerTest {
       @org.junit.jupiter.api.io.TempDir Path tempDir) throws Exception {
     Path file = tempDir.resolve("thumb.jpg");
     java.nio.file.Files.writeString(file, "x");
-    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb"))
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null))
         .thenReturn(serveInfo(file, ProcessingStatus.DONE, true));
     request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc\"");
 
-    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", webRequest);
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
 
     // A null ResponseEntity means "the response is already fully populated" — Spring's
     // HttpEntityMethodProcessor treats it as handled. Crucially no Resource was ever created,
@@ -136,11 +164,11 @@ class ImageServeControllerTest {
       throws Exception {
     Path file = tempDir.resolve("thumb.jpg");
     java.nio.file.Files.writeString(file, "x");
-    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb"))
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null))
         .thenReturn(serveInfo(file, ProcessingStatus.DONE, true));
     request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"stale\"");
 
-    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", webRequest);
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
 
     assertEquals(HttpStatus.OK, resp.getStatusCode());
     assertNotNull(resp.getBody());
@@ -152,18 +180,226 @@ class ImageServeControllerTest {
 
   @Test
   void notModifiedIsNotEvaluatedWhileProcessingIsStillPending() {
-    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb"))
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null))
         .thenReturn(
             serveInfo(Paths.get("/nonexistent/photo.heic"), ProcessingStatus.PROCESSING, false));
     request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc\"");
 
-    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", webRequest);
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
 
     // 202 wins over 304: the client is polling for a derivative that does not exist yet, and a
     // 304 would tell it to keep using a cached copy it never had.
     assertEquals(HttpStatus.ACCEPTED, resp.getStatusCode());
   }
 
+  @Test
+  void negotiatedVariantRevalidatesWithItsOwnEtagAndVaryAccept() {
+    FileServeInfo info =
+        new FileServeInfo(
+            "image/webp",
+            "abc",
+            UPLOADED_AT,
+            null,
+            "photo.jpg",
+            ProcessingStatus.DONE,
+            true,
+            "derivatives/1/thumb.webp",
+            "webp",
+            true);
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", "image/webp,*/*"))
+        .thenReturn(info);
+    request.addHeader(HttpHeaders.ACCEPT, "image/webp,*/*");
+    request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"abc-webp\"");
+
+    ResponseEntity<?> resp = controller.downloadFileByToken("tok", "thumb", null, null, webRequest);
+
+    // The 304 must carry Vary too, or a shared cache would revalidate one representation and
+    // hand it to clients that sent a different Accept.
+    assertNull(resp);
+    assertEquals(HttpStatus.NOT_MODIFIED.value(), response.getStatus());
+    assertEquals("\"abc-webp\"", response.getHeader(HttpHeaders.ETAG));
+    assertEquals(HttpHeaders.ACCEPT, response.getHeader(HttpHeaders.VARY));
+  }
+
+  @Test
+  void hlsPlaylistIsRewrittenThroughTheTokenAndNotCachedImmutably() throws Exception {
+    ObjectStorageService os = org.mockito.Mockito.mock(ObjectStorageService.class);
+    ImageServeController s3Controller =
+        new ImageServeController(
+            fileStorageService, Optional.of(os), Optional.empty(), resizeService);
+    when(fileStorageService.getHlsServeInfo("tok", "720p/index.m3u8"))
+        .thenReturn(hlsInfo("application/vnd.apple.mpegurl", "derivatives/1/hls/720p/index.m3u8"));
+    when(os.openStream("derivatives/1/hls/720p/index.m3u8"))
+        .thenReturn(
+            objectStream("#EXTM3U\n#EXT-X-MAP:URI=\"init.mp4\"\n#EXTINF:6.0,\nseg_00000.m4s\n"));
+
+    ResponseEntity<?> resp = s3Controller.downloadHlsEntry("tok", "/720p/index.m3u8", webRequest);
+
+    assertEquals(HttpStatus.OK, resp.getStatusCode());
+    assertEquals(
+        "#EXTM3U\n#EXT-X-MAP:URI=\"/api/i/tok/hls/720p/init.mp4\"\n#EXTINF:6.0,\n"
+            + "/api/i/tok/hls/720p/seg_00000.m4s\n",
+        resp.getBody());
+    assertEquals("no-cache", resp.getHeaders().getCacheControl());
+  }
+
+  @Test
+  void hlsSegmentsAreServedImmutably() throws Exception {
+    ObjectStorageService os = org.mockito.Mockito.mock(ObjectStorageService.class);
+    ImageServeController s3Controller =
+        new ImageServeController(
+            fileStorageService, Optional.of(os), Optional.empty(), resizeService);
+    when(fileStorageService.getHlsServeInfo("tok", "720p/seg_00000.m4s"))
+        .thenReturn(hlsInfo("video/iso.segment", "derivatives/1/hls/720p/seg_00000.m4s"));
+    when(os.openStream("derivatives/1/hls/720p/seg_00000.m4s")).thenReturn(objectStream("moof"));
+
+    ResponseEntity<?> resp =
+        s3Controller.downloadHlsEntry("tok", "/720p/seg_00000.m4s", webRequest);
+
+    assertEquals(HttpStatus.OK, resp.getStatusCode());
+    assertEquals("video/iso.segment", resp.getHeaders().getContentType().toString());
+    assertEquals(4L, resp.getHeaders().getContentLength());
+    org.junit.jupiter.api.Assertions.assertTrue(
+        resp.getHeaders().getCacheControl().contains("immutable"));
+  }
+
+  @Test
+  void cachedThumbnailIsServedWithoutAnotherObjectStorageRead(
+      @org.junit.jupiter.api.io.TempDir Path tempDir) throws Exception {
+    ObjectStorageService os = org.mockito.Mockito.mock(ObjectStorageService.class);
+    DerivativeCache cache = cache(tempDir);
+    ImageServeController cached =
+        new ImageServeController(
+            fileStorageService, Optional.of(os), Optional.of(cache), resizeService);
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null))
+        .thenReturn(hlsInfo("image/jpeg", "derivatives/1/thumb.jpg"));
+    when(os.openStream("derivatives/1/thumb.jpg")).thenReturn(objectStream("thumb"));
+
+    cached.downloadFileByToken("tok", "thumb", null, null, webRequest);
+    ResponseEntity<?> resp = cached.downloadFileByToken("tok", "thumb", null, null, webRequest);
+
+    assertEquals(HttpStatus.OK, resp.getStatusCode());
+    assertEquals(5L, resp.getHeaders().getContentLength());
+    try (java.io.InputStream in = ((Resource) resp.getBody()).getInputStream()) {
+      assertEquals("thumb", new String(in.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8));
+    }
+    verify(os, times(1)).openStream("derivatives/1/thumb.jpg");
+  }
+
+  @Test
+  void cachedMediumIsHandedToTomcatSendfile(@org.junit.jupiter.api.io.TempDir Path tempDir)
+      throws Exception {
+    ObjectStorageService os = org.mockito.Mockito.mock(ObjectStorageService.class);
+    DerivativeCache cache = cache(tempDir);
+    ImageServeController cached =
+        new ImageServeController(
+            fileStorageService, Optional.of(os), Optional.of(cache), resizeService);
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "medium", null))
+        .thenReturn(hlsInfo("image/jpeg", "derivatives/1/medium.jpg"));
+    when(os.openStream("derivatives/1/medium.jpg")).thenReturn(objectStream("medium"));
+    request.setAttribute(ImageServeController.SENDFILE_SUPPORT, Boolean.TRUE);
+
+    ResponseEntity<?> resp = cached.downloadFileByToken("tok", "medium", null, null, webRequest);
+
+    // Headers only: the connector writes the body straight from the file.
+    assertEquals(HttpStatus.OK, resp.getStatusCode());
+    assertNull(resp.getBody());
+    assertEquals(6L, resp.getHeaders().getContentLength());
+    Path file = Path.of((String) request.getAttribute(ImageServeController.SENDFILE_FILENAME));
+    assertEquals(tempDir, file.getParent());
+    assertEquals("medium", java.nio.file.Files.readString(file));
+    assertEquals(6L, request.getAttribute(ImageServeController.SENDFILE_END));
+  }
+
+  @Test
+  void widthIsServedAsTheRenditionWithItsOwnValidator() throws Exception {
+    ObjectStorageService os = org.mockito.Mockito.mock(ObjectStorageService.class);
+    ImageServeController s3Controller =
+        new ImageServeController(
+            fileStorageService, Optional.of(os), Optional.empty(), resizeService);
+    String key = "derivatives/1/resized/abc/w640.webp";
+    FileServeInfo rendition = hlsInfo("image/webp", key);
+    rendition.setVariant("w640.webp");
+    rendition.setVariesByAccept(true);
+    when(resizeService.serveInfo("tok", 600, null, "image/webp,*/*"))
+        .thenReturn(Optional.of(rendition));
+    when(os.openStream(key)).thenReturn(objectStream("webp"));
+    request.addHeader(HttpHeaders.ACCEPT, "image/webp,*/*");
+
+    ResponseEntity<?> resp =
+        s3Controller.downloadFileByToken("tok", "thumb", 600, null, webRequest);
+
+    assertEquals(HttpStatus.OK, resp.getStatusCode());
+    assertEquals("image/webp", resp.getHeaders().getContentType().toString());
+    assertEquals("\"abc-w640.webp\"", response.getHeader(HttpHeaders.ETAG));
+    assertEquals(HttpHeaders.ACCEPT, response.getHeader(HttpHeaders.VARY));
+    org.mockito.Mockito.verifyNoInteractions(fileStorageService);
+  }
+
+  @Test
+  void vanishedRenditionIsForgottenAndRenderedAgain() throws Exception {
+    ObjectStorageService os = org.mockito.Mockito.mock(ObjectStorageService.class);
+    ImageServeController s3Controller =
+        new ImageServeController(
+            fileStorageService, Optional.of(os), Optional.empty(), resizeService);
+    String key = "derivatives/1/resized/abc/w640.jpg";
+    FileServeInfo rendition = hlsInfo("image/jpeg", key);
+    rendition.setVariant("w640.jpg");
+    when(resizeService.serveInfo("tok", 640, "jpeg", null)).thenReturn(Optional.of(rendition));
+    when(os.openStream(key))
+        .thenThrow(NoSuchKeyException.builder().message("gone").build())
+        .thenReturn(objectStream("jpeg"));
+
+    ResponseEntity<?> resp = s3Controller.downloadFileByToken("tok", null, 640, "jpeg", webRequest);
+
+    assertEquals(HttpStatus.OK, resp.getStatusCode());
+    assertEquals(4L, resp.getHeaders().getContentLength());
+    verify(resizeService).forget(key);
+    verify(resizeService, times(2)).serveInfo("tok", 640, "jpeg", null);
+  }
+
+  @Test
+  void widthIsIgnoredForAssetsThatCannotBeResized() {
+    FileServeInfo video =
+        new FileServeInfo(
+            "video/mp4",
+            "abc",
+            UPLOADED_AT,
+            null,
+            "clip.mp4",
+            ProcessingStatus.PROCESSING,
+            false,
+            "derivatives/1/thumb.jpg",
+            null,
+            false);
+    when(resizeService.serveInfo("tok", 640, "webp", null)).thenReturn(Optional.empty());
+    when(fileStorageService.getFileServeInfoByPublicToken("tok", "thumb", null)).thenReturn(video);
+
+    ResponseEntity<?> resp =
+        controller.downloadFileByToken("tok", "thumb", 640, "webp", webRequest);
+
+    assertEquals(HttpStatus.ACCEPTED, resp.getStatusCode());
+  }
+
+  private static DerivativeCache cache(Path dir) throws java.io.IOException {
+    ServeCacheProperties properties = new ServeCacheProperties();
+    properties.setEnabled(true);
+    properties.setDiskDir(dir.toString());
+    return new DerivativeCache(properties, new SimpleMeterRegistry());
+  }
+
+  private static FileServeInfo hlsInfo(String mime, String key) {
+    return new FileServeInfo(
+        mime, "abc", UPLOADED_AT, null, "clip.mov", ProcessingStatus.DONE, true, key, null, false);
+  }
+
+  private static ResponseInputStream<GetObjectResponse> objectStream(String body) {
+    byte[] bytes = body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    return new ResponseInputStream<>(
+        GetObjectResponse.builder().contentLength((long) bytes.length).build(),
+        AbortableInputStream.create(new java.io.ByteArrayInputStream(bytes)));
+  }
+
   private FileServeInfo serveInfo(Path path, ProcessingStatus status, boolean derivativeReady) {
     return new FileServeInfo(
         "image/jpeg",
@@ -173,6 +409,8 @@ class ImageServeControllerTest {
         path.getFileName().toString(),
         status,
         derivativeReady,
-        null);
+        null,
+        null,
+        false);
   }
 }
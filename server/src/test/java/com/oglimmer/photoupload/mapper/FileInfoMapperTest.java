@@ -24,6 +24,20 @@ class FileInfoMapperTest {
     mapper = Mappers.getMapper(FileInfoMapper.class);
   }
 
+  @Test
+  void mapsLayoutPlaceholderFields() {
+    FileMetadata metadata = new FileMetadata();
+    metadata.setWidth(3024);
+    metadata.setHeight(4032);
+    metadata.setBlurhash("LEHV6nWB2yk8pyo0adR*.7kCMdnj");
+
+    FileInfo result = mapper.fileMetadataToFileInfo(metadata);
+
+    assertEquals(3024, result.getWidth());
+    assertEquals(4032, result.getHeight());
+    assertEquals("LEHV6nWB2yk8pyo0adR*.7kCMdnj", result.getBlurhash());
+  }
+
   @Test
   void mapsBasicFieldsCorrectly() {
     // Given
@@ -0,0 +1,147 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.MariaDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Concurrency guard for {@link AlbumRepository#allocateFileOrder}: many threads insert into one
+ * album at once, each in its own transaction as an upload does, and every file must end up with its
+ * own position. The {@code MAX(display_order) + 1} read it replaced hands the same position to
+ * every transaction that reads before the first one commits.
+ */
+@SpringBootTest(
+    properties = {"app.apns.enabled=false", "app.mail.enabled=false", "spring.mail.host=localhost"})
+@ActiveProfiles("api")
+@Testcontainers
+@EnabledIfSystemProperty(
+    named = "run.testcontainers",
+    matches = "true",
+    disabledReason =
+        "Requires Docker access for Testcontainers. Run with `mvn test -Drun.testcontainers=true`")
+class AlbumFileOrderAllocationTest {
+
+  private static final int THREADS = 16;
+  private static final int UPLOADS_PER_THREAD = 25;
+
+  @Container @ServiceConnection
+  static final MariaDBContainer<?> MARIADB =
+      new MariaDBContainer<>("mariadb:11.8").withReuse(false);
+
+  @Autowired private AlbumRepository albumRepository;
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private PlatformTransactionManager transactionManager;
+
+  private Long userId;
+  private Long albumId;
+
+  @BeforeEach
+  void seed() {
+    jdbcTemplate.update(
+        "INSERT INTO users (email, password) VALUES (?, ?)", "order@example.com", "irrelevant");
+    userId =
+        jdbcTemplate.queryForObject(
+            "SELECT id FROM users WHERE email = ?", Long.class, "order@example.com");
+    jdbcTemplate.update("INSERT INTO albums (user_id, name) VALUES (?, ?)", userId, "order");
+    albumId =
+        jdbcTemplate.queryForObject("SELECT id FROM albums WHERE user_id = ?", Long.class, userId);
+  }
+
+  @AfterEach
+  void cleanup() {
+    jdbcTemplate.update("DELETE FROM file_metadata WHERE album_id = ?", albumId);
+    jdbcTemplate.update("DELETE FROM albums WHERE id = ?", albumId);
+    jdbcTemplate.update("DELETE FROM users WHERE id = ?", userId);
+  }
+
+  @Test
+  void concurrentUploadsIntoOneAlbumGetDistinctPositions() throws Exception {
+    TransactionTemplate tx = new TransactionTemplate(transactionManager);
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<?>> workers = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        workers.add(
+            pool.submit(
+                () -> {
+                  start.await();
+                  for (int i = 0; i < UPLOADS_PER_THREAD; i++) {
+                    tx.executeWithoutResult(status -> insertFile());
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> worker : workers) {
+        worker.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    List<Integer> orders =
+        jdbcTemplate.queryForList(
+            "SELECT display_order FROM file_metadata WHERE album_id = ? ORDER BY display_order",
+            Integer.class,
+            albumId);
+    int total = THREADS * UPLOADS_PER_THREAD;
+    assertThat(orders).containsExactlyElementsOf(IntStream.range(0, total).boxed().toList());
+    assertThat(albumRepository.findNextFileOrder(albumId)).isEqualTo(total);
+  }
+
+  @Test
+  void syncMovesTheCounterPastCopiedPositions() {
+    jdbcTemplate.update(
+        "INSERT INTO file_metadata "
+            + "(original_name, stored_filename, file_size, mime_type, file_path, uploaded_at, "
+            + "rotation, display_order, album_id, processing_status, processing_attempts) "
+            + "VALUES ('a.jpg', 'a-stored.jpg', 1, 'image/jpeg', 'originals/a.jpg', NOW(6), "
+            + "0, 41, ?, 'DONE', 0)",
+        albumId);
+
+    new TransactionTemplate(transactionManager)
+        .executeWithoutResult(status -> albumRepository.syncNextFileOrder(albumId));
+
+    assertThat(albumRepository.findNextFileOrder(albumId)).isEqualTo(42);
+  }
+
+  /** What an upload's insert transaction does: take a position, then write the row with it. */
+  private void insertFile() {
+    int order = albumRepository.allocateFileOrder(albumId);
+    String name = UUID.randomUUID().toString();
+    jdbcTemplate.update(
+        "INSERT INTO file_metadata "
+            + "(original_name, stored_filename, file_size, mime_type, file_path, uploaded_at, "
+            + "rotation, display_order, album_id, processing_status, processing_attempts) "
+            + "VALUES (?, ?, 1, 'image/jpeg', ?, NOW(6), 0, ?, ?, 'QUEUED', 0)",
+        name + ".jpg",
+        name,
+        "originals/" + name,
+        order,
+        albumId);
+  }
+}
@@ -0,0 +1,173 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.testcontainers.containers.MariaDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Query-plan regression guard for the checksum lookups in {@link FileMetadataRepository}. Runs
+ * {@code EXPLAIN} on the exact native statements the repository executes, against a seeded table
+ * large enough that MariaDB's optimizer would rather scan than use a poor index — so the test fails
+ * if a query rewrite or a dropped index sends either dedupe check back to a full scan of {@code
+ * file_metadata}.
+ */
+@SpringBootTest(
+    properties = {"app.apns.enabled=false", "app.mail.enabled=false", "spring.mail.host=localhost"})
+@ActiveProfiles("api")
+@Testcontainers
+@EnabledIfSystemProperty(
+    named = "run.testcontainers",
+    matches = "true",
+    disabledReason =
+        "Requires Docker access for Testcontainers. Run with `mvn test -Drun.testcontainers=true`")
+class DedupeQueryPlanTest {
+
+  private static final int USERS = 3;
+  private static final int ALBUMS_PER_USER = 4;
+  private static final int FILES_PER_ALBUM = 250;
+
+  @Container @ServiceConnection
+  static final MariaDBContainer<?> MARIADB =
+      new MariaDBContainer<>("mariadb:11.8").withReuse(false);
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+
+  private NamedParameterJdbcTemplate named;
+  private final List<Long> userIds = new ArrayList<>();
+  private Long firstAlbumId;
+
+  @BeforeEach
+  void seed() {
+    named = new NamedParameterJdbcTemplate(jdbcTemplate);
+    Instant now = Instant.now();
+    for (int u = 0; u < USERS; u++) {
+      String email = "dedupe-plan-" + u + "@example.com";
+      jdbcTemplate.update("INSERT INTO users (email, password) VALUES (?, ?)", email, "irrelevant");
+      Long userId =
+          jdbcTemplate.queryForObject("SELECT id FROM users WHERE email = ?", Long.class, email);
+      userIds.add(userId);
+      for (int a = 0; a < ALBUMS_PER_USER; a++) {
+        String name = "dedupe-plan-" + a;
+        jdbcTemplate.update("INSERT INTO albums (user_id, name) VALUES (?, ?)", userId, name);
+        Long albumId =
+            jdbcTemplate.queryForObject(
+                "SELECT id FROM albums WHERE user_id = ? AND name = ?", Long.class, userId, name);
+        if (firstAlbumId == null) {
+          firstAlbumId = albumId;
+        }
+        insertFiles(albumId, u + "-" + a, now);
+      }
+    }
+    jdbcTemplate.execute("ANALYZE TABLE file_metadata, albums");
+  }
+
+  @AfterEach
+  void cleanup() {
+    for (Long userId : userIds) {
+      jdbcTemplate.update(
+          "DELETE FROM file_metadata WHERE album_id IN (SELECT id FROM albums WHERE user_id = ?)",
+          userId);
+      jdbcTemplate.update("DELETE FROM albums WHERE user_id = ?", userId);
+      jdbcTemplate.update("DELETE FROM users WHERE id = ?", userId);
+    }
+  }
+
+  @Test
+  void inAlbumDedupeProbesTheChecksumIndex() {
+    Map<String, Object> fm =
+        planRow(
+            FileMetadataRepository.DEDUPE_IN_ALBUM_SQL,
+            new MapSqlParameterSource()
+                .addValue("checksum", checksum("0-0", 17))
+                .addValue("albumId", firstAlbumId)
+                .addValue("userId", userIds.get(0)));
+
+    assertThat(fm.get("key")).isEqualTo("idx_checksum_album");
+    assertThat(fm.get("type")).isNotEqualTo("ALL");
+  }
+
+  @Test
+  void userWideDedupeProbesTheChecksumIndex() {
+    Map<String, Object> fm =
+        planRow(
+            FileMetadataRepository.DEDUPE_FOR_USER_SQL,
+            new MapSqlParameterSource()
+                .addValue("checksum", checksum("1-2", 99))
+                .addValue("userId", userIds.get(1)));
+
+    assertThat(fm.get("key")).isEqualTo("idx_checksum_album");
+    assertThat(fm.get("type")).isNotEqualTo("ALL");
+  }
+
+  @Test
+  void syncChecksumListNeverScansFileMetadata() {
+    Map<String, Object> fm =
+        planRow(
+            FileMetadataRepository.SYNC_CHECKSUMS_SQL,
+            new MapSqlParameterSource()
+                .addValue("userId", userIds.get(2))
+                .addValue("uploadedAt", Timestamp.from(Instant.now().minus(7, ChronoUnit.DAYS))));
+
+    assertThat(fm.get("key")).isNotNull();
+    assertThat(fm.get("type")).isNotIn("ALL", "index");
+  }
+
+  /** The {@code EXPLAIN} row for the {@code file_metadata} side of the join. */
+  private Map<String, Object> planRow(String sql, MapSqlParameterSource params) {
+    List<Map<String, Object>> plan = named.queryForList("EXPLAIN " + sql, params);
+    return plan.stream()
+        .filter(row -> "fm".equals(row.get("table")))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No file_metadata row in plan: " + plan));
+  }
+
+  private void insertFiles(Long albumId, String prefix, Instant now) {
+    List<Object[]> rows = new ArrayList<>(FILES_PER_ALBUM);
+    for (int i = 0; i < FILES_PER_ALBUM; i++) {
+      String stored = "dedupe-plan-" + prefix + "-" + i + ".jpg";
+      // Upload times spread over a year, so "the last 7 days" is a narrow range.
+      Instant uploadedAt = now.minus(i * 365L / FILES_PER_ALBUM, ChronoUnit.DAYS);
+      rows.add(
+          new Object[] {
+            stored,
+            stored,
+            1024L,
+            "image/jpeg",
+            stored,
+            Timestamp.from(uploadedAt),
+            albumId,
+            checksum(prefix, i)
+          });
+    }
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO file_metadata "
+            + "(original_name, stored_filename, file_size, mime_type, file_path, uploaded_at, "
+            + "rotation, display_order, album_id, processing_status, processing_attempts, checksum) "
+            + "VALUES (?, ?, ?, ?, ?, ?, 0, 0, ?, 'DONE', 0, ?)",
+        rows);
+  }
+
+  private static String checksum(String prefix, int i) {
+    return String.format("%064x", (long) (prefix + "-" + i).hashCode() & 0xffffffffL);
+  }
+}
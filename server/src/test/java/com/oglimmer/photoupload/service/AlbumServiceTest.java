@@ -21,6 +21,7 @@ import com.oglimmer.photoupload.security.UserContext;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -40,6 +41,7 @@ class AlbumServiceTest {
   @Mock AlbumEnabledTagRepository albumEnabledTagRepository;
   @Mock FileStorageService fileStorageService;
   @Mock UserContext userContext;
+  @Mock StorageAccountingService storageAccounting;
 
   @InjectMocks AlbumService service;
 
@@ -111,7 +113,13 @@ class AlbumServiceTest {
     original.setProcessingCompletedAt(Instant.parse("2026-08-17T23:23:11Z"));
     when(fileMetadataRepository.findByAlbumIdAndUserIdOrderByDisplayOrderAsc(1L, 1L))
         .thenReturn(new ArrayList<>(List.of(original)));
-    when(fileMetadataRepository.save(any(FileMetadata.class))).thenAnswer(inv -> inv.getArgument(0));
+    when(fileMetadataRepository.save(any(FileMetadata.class)))
+        .thenAnswer(
+            inv -> {
+              FileMetadata saved = inv.getArgument(0);
+              saved.setId(8L);
+              return saved;
+            });
 
     service.duplicateAlbum(1L);
 
@@ -124,6 +132,8 @@ class AlbumServiceTest {
     assertEquals(-4 * 3600, copy.getCaptureUtcOffsetSeconds());
     assertEquals(ProcessingStatus.DONE, copy.getProcessingStatus());
     assertEquals(original.getProcessingCompletedAt(), copy.getProcessingCompletedAt());
+    // …and is charged for the bytes it shares.
+    verify(storageAccounting).copy(eq(Map.of(8L, 7L)), any());
   }
 
   @Test
@@ -0,0 +1,95 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlurhashEncoderTest {
+
+  private static final String BASE83 =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+  @TempDir Path tempDir;
+
+  private final BlurhashEncoder encoder = new BlurhashEncoder();
+
+  private static BufferedImage solid(int width, int height, Color color) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(color);
+    g.fillRect(0, 0, width, height);
+    g.dispose();
+    return image;
+  }
+
+  private static int decode83(String chars) {
+    int value = 0;
+    for (char c : chars.toCharArray()) {
+      value = value * 83 + BASE83.indexOf(c);
+    }
+    return value;
+  }
+
+  @Test
+  void solidColourEncodesItsOwnAverageAsDc() {
+    String hash = BlurhashEncoder.encode(solid(16, 12, new Color(200, 40, 90)), 4, 3);
+
+    // size flag (4-1) + (3-1)*9 = 21 → 'L', then one max-AC digit, then four DC digits.
+    assertThat(hash).hasSize(28).startsWith("L");
+    int dc = decode83(hash.substring(2, 6));
+    assertThat((dc >> 16) & 0xff).isEqualTo(200);
+    assertThat((dc >> 8) & 0xff).isEqualTo(40);
+    assertThat(dc & 0xff).isEqualTo(90);
+  }
+
+  @Test
+  void singleComponentHashIsJustSizeMaxAndDc() {
+    String hash = BlurhashEncoder.encode(solid(4, 4, Color.WHITE), 1, 1);
+
+    // Size flag 0, max-AC digit 0 (no AC terms), then 0xFFFFFF in four base-83 digits.
+    assertThat(hash).isEqualTo("00TSUA");
+  }
+
+  @Test
+  void gradientProducesNonFlatAc() {
+    BufferedImage image = new BufferedImage(32, 24, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 32; x++) {
+      for (int y = 0; y < 24; y++) {
+        image.setRGB(x, y, new Color(x * 8, 0, 255 - x * 8).getRGB());
+      }
+    }
+
+    String hash = BlurhashEncoder.encode(image, 4, 3);
+
+    assertThat(hash).hasSize(28);
+    assertThat(hash.charAt(1)).isNotEqualTo('0');
+  }
+
+  @Test
+  void portraitFileUsesThreeByFourComponents() throws IOException {
+    Path jpeg = tempDir.resolve("portrait.jpg");
+    ImageIO.write(solid(300, 600, Color.GRAY), "jpg", jpeg.toFile());
+
+    String hash = encoder.encode(jpeg);
+
+    // (3-1) + (4-1)*9 = 29 → 'T'
+    assertThat(hash).hasSize(28).startsWith("T");
+  }
+
+  @Test
+  void undecodableFileYieldsNull() throws IOException {
+    Path garbage = tempDir.resolve("garbage.jpg");
+    Files.writeString(garbage, "not an image");
+
+    assertThat(encoder.encode(garbage)).isNull();
+  }
+}
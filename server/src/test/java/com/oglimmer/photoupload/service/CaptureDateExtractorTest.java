@@ -2,10 +2,9 @@
 package com.oglimmer.photoupload.service;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.verifyNoInteractions;
-import static org.mockito.Mockito.when;
 
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
 import com.oglimmer.photoupload.config.CaptureDateProperties;
 import com.oglimmer.photoupload.entity.CaptureDateSource;
 import com.oglimmer.photoupload.model.CaptureDate;
@@ -34,14 +33,23 @@ class CaptureDateExtractorTest {
   private CaptureDateExtractor extractor(String fallbackZone) {
     CaptureDateProperties props = new CaptureDateProperties();
     props.setFallbackZone(ZoneId.of(fallbackZone));
-    return new CaptureDateExtractor(props, mock(ThumbnailService.class));
+    return new CaptureDateExtractor(props);
+  }
+
+  private CaptureDate extract(String fallbackZone, Path jpeg) throws IOException {
+    try {
+      return extractor(fallbackZone)
+          .fromImageMetadata(ImageMetadataReader.readMetadata(jpeg.toFile()));
+    } catch (ImageProcessingException e) {
+      throw new IOException(e);
+    }
   }
 
   @Test
   void offsetTimeOriginalPinsThePhotoToTheRightInstant() throws IOException {
     Path jpeg = writeJpeg("dto-with-offset.jpg", "2026:08:17 14:23:11", "+02:00");
 
-    CaptureDate result = extractor("Europe/Berlin").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("Europe/Berlin", jpeg);
 
     assertThat(result.instant()).isEqualTo(Instant.parse("2026-08-17T12:23:11Z"));
     assertThat(result.source()).isEqualTo(CaptureDateSource.EXIF_OFFSET_TIME);
@@ -51,7 +59,7 @@ class CaptureDateExtractorTest {
   void colonLessOffsetTagIsAccepted() throws IOException {
     Path jpeg = writeJpeg("dto-colonless.jpg", "2026:08:17 14:23:11", "+0200");
 
-    CaptureDate result = extractor("UTC").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("UTC", jpeg);
 
     assertThat(result.instant()).isEqualTo(Instant.parse("2026-08-17T12:23:11Z"));
     assertThat(result.source()).isEqualTo(CaptureDateSource.EXIF_OFFSET_TIME);
@@ -61,7 +69,7 @@ class CaptureDateExtractorTest {
   void fallbackZoneAppliesWhenTheOffsetTagIsMissing() throws IOException {
     Path jpeg = writeJpeg("dto-only.jpg", "2026:08:17 14:23:11", null);
 
-    CaptureDate result = extractor("Europe/Berlin").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("Europe/Berlin", jpeg);
 
     assertThat(result.instant()).isEqualTo(Instant.parse("2026-08-17T12:23:11Z"));
     assertThat(result.source()).isEqualTo(CaptureDateSource.EXIF_FALLBACK_ZONE);
@@ -72,7 +80,7 @@ class CaptureDateExtractorTest {
   void fallbackZoneRespectsDstForTheCaptureDate() throws IOException {
     Path jpeg = writeJpeg("winter.jpg", "2026:01:17 14:23:11", null);
 
-    CaptureDate result = extractor("Europe/Berlin").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("Europe/Berlin", jpeg);
 
     assertThat(result.instant()).isEqualTo(Instant.parse("2026-01-17T13:23:11Z"));
   }
@@ -84,7 +92,7 @@ class CaptureDateExtractorTest {
   void utcFallbackKeepsTheWallClockAsIs() throws IOException {
     Path jpeg = writeJpeg("utc-fallback.jpg", "2026:08:17 14:23:11", null);
 
-    CaptureDate result = extractor("UTC").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("UTC", jpeg);
 
     assertThat(result.instant()).isEqualTo(Instant.parse("2026-08-17T14:23:11Z"));
   }
@@ -93,7 +101,7 @@ class CaptureDateExtractorTest {
   void unparseableOffsetTagFallsBackToTheConfiguredZone() throws IOException {
     Path jpeg = writeJpeg("bad-offset.jpg", "2026:08:17 14:23:11", "not-an-offset");
 
-    CaptureDate result = extractor("Europe/Berlin").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("Europe/Berlin", jpeg);
 
     assertThat(result.instant()).isEqualTo(Instant.parse("2026-08-17T12:23:11Z"));
     assertThat(result.source()).isEqualTo(CaptureDateSource.EXIF_FALLBACK_ZONE);
@@ -108,7 +116,7 @@ class CaptureDateExtractorTest {
   void theAppliedOffsetIsReportedSoTheWallClockCanBeRecovered() throws IOException {
     Path jpeg = writeJpeg("toronto.jpg", "2026:08:17 19:23:11", "-04:00");
 
-    CaptureDate result = extractor("Europe/Berlin").extract(jpeg, "image/jpeg");
+    CaptureDate result = extract("Europe/Berlin", jpeg);
 
     assertThat(result.offsetSeconds()).isEqualTo(-4 * 3600);
     assertThat(result.instant().plusSeconds(result.offsetSeconds()))
@@ -121,43 +129,8 @@ class CaptureDateExtractorTest {
     Path summer = writeJpeg("summer-fallback.jpg", "2026:08:17 14:23:11", null);
     Path winter = writeJpeg("winter-fallback.jpg", "2026:01:17 14:23:11", null);
 
-    assertThat(extractor("Europe/Berlin").extract(summer, "image/jpeg").offsetSeconds())
-        .isEqualTo(2 * 3600);
-    assertThat(extractor("Europe/Berlin").extract(winter, "image/jpeg").offsetSeconds())
-        .isEqualTo(3600);
-  }
-
-  @Test
-  void fileWithoutExifYieldsNone() throws IOException {
-    Path notAnImage =
-        Files.write(tempDir.resolve("empty.jpg"), new byte[] {(byte) 0xFF, (byte) 0xD8});
-
-    CaptureDate result = extractor("Europe/Berlin").extract(notAnImage, "image/jpeg");
-
-    assertThat(result.isPresent()).isFalse();
-    assertThat(result.source()).isEqualTo(CaptureDateSource.NONE);
-  }
-
-  @Test
-  void videosGoThroughFfprobe() {
-    CaptureDateProperties props = new CaptureDateProperties();
-    ThumbnailService thumbnails = mock(ThumbnailService.class);
-    Path video = tempDir.resolve("clip.mov");
-    CaptureDate probed =
-        CaptureDate.of(Instant.parse("2026-08-17T12:23:11Z"), CaptureDateSource.QUICKTIME_LOCAL);
-    when(thumbnails.extractVideoCreationDate(video)).thenReturn(probed);
-
-    assertThat(new CaptureDateExtractor(props, thumbnails).extract(video, "video/quicktime"))
-        .isEqualTo(probed);
-  }
-
-  @Test
-  void nonMediaMimeTypesAreNotProbedAtAll() {
-    ThumbnailService thumbnails = mock(ThumbnailService.class);
-    CaptureDateExtractor svc = new CaptureDateExtractor(new CaptureDateProperties(), thumbnails);
-
-    assertThat(svc.extract(tempDir.resolve("notes.pdf"), "application/pdf").isPresent()).isFalse();
-    verifyNoInteractions(thumbnails);
+    assertThat(extract("Europe/Berlin", summer).offsetSeconds()).isEqualTo(2 * 3600);
+    assertThat(extract("Europe/Berlin", winter).offsetSeconds()).isEqualTo(3600);
   }
 
   /**
@@ -0,0 +1,164 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.oglimmer.photoupload.config.ServeCacheProperties;
+import com.oglimmer.photoupload.service.DerivativeCache.Tier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DerivativeCacheTest {
+
+  private static final String THUMB = "derivatives/7/thumb.jpg";
+  private static final String MEDIUM = "derivatives/7/medium.webp";
+
+  @TempDir Path dir;
+
+  private ServeCacheProperties properties;
+  private SimpleMeterRegistry meterRegistry;
+  private DerivativeCache cache;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    properties = new ServeCacheProperties();
+    properties.setDiskDir(dir.toString());
+    properties.setMemoryMaxBytes(10);
+    properties.setMemoryMaxEntryBytes(6);
+    properties.setDiskMaxBytes(10);
+    properties.setDiskMaxEntryBytes(6);
+    properties.setDiskEvictionGraceSeconds(0);
+    meterRegistry = new SimpleMeterRegistry();
+    cache = new DerivativeCache(properties, meterRegistry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    cache.shutdown();
+  }
+
+  @Test
+  void thumbnailsGoToMemoryMediumToDiskAndTheRestIsNotCached() {
+    assertThat(cache.tierFor(THUMB)).contains(Tier.MEMORY);
+    assertThat(cache.tierFor(MEDIUM)).contains(Tier.DISK);
+    assertThat(cache.tierFor("derivatives/7/large.jpg")).isEmpty();
+    assertThat(cache.tierFor("originals/photo.jpg")).isEmpty();
+    assertThat(cache.tierFor("derivatives/7/hls/720p/seg_00000.m4s")).isEmpty();
+    assertThat(cache.tierFor("derivatives/7/resized/abc/w480.webp")).contains(Tier.MEMORY);
+    assertThat(cache.tierFor("derivatives/7/resized/abc/w960.jpg")).contains(Tier.DISK);
+    assertThat(cache.tierFor("derivatives/7/resized/abc/w1920.jpg")).isEmpty();
+  }
+
+  @Test
+  void memoryHitServesTheBytesAndIsCounted() throws Exception {
+    assertThat(cache.get(Tier.MEMORY, THUMB, "tok")).isNull();
+    cache.put(Tier.MEMORY, THUMB, "tok", stream("abcde"), 5);
+
+    DerivativeCache.Entry hit = cache.get(Tier.MEMORY, THUMB, "tok");
+
+    assertThat(hit).isInstanceOf(DerivativeCache.Memory.class);
+    try (InputStream in = ((DerivativeCache.Memory) hit).openStream()) {
+      assertThat(new String(in.readAllBytes())).isEqualTo("abcde");
+    }
+    // A second reader starts from the beginning again.
+    try (InputStream in = ((DerivativeCache.Memory) hit).openStream()) {
+      assertThat(in.readAllBytes()).hasSize(5);
+    }
+    assertThat(count("memory", "hit")).isEqualTo(1.0);
+    assertThat(count("memory", "miss")).isEqualTo(1.0);
+  }
+
+  @Test
+  void aNewTokenMissesTheEntryOfTheOldOne() throws Exception {
+    cache.put(Tier.MEMORY, THUMB, "before-rotate", stream("abcde"), 5);
+
+    assertThat(cache.get(Tier.MEMORY, THUMB, "after-rotate")).isNull();
+  }
+
+  @Test
+  void leastRecentlyUsedIsEvictedOnceTheTierIsFull() throws Exception {
+    cache.put(Tier.MEMORY, THUMB, "a", stream("aaaa"), 4);
+    cache.put(Tier.MEMORY, THUMB, "b", stream("bbbb"), 4);
+    cache.get(Tier.MEMORY, THUMB, "a"); // a is now the most recent
+    cache.put(Tier.MEMORY, THUMB, "c", stream("cccc"), 4);
+
+    assertThat(cache.get(Tier.MEMORY, THUMB, "a")).isNotNull();
+    assertThat(cache.get(Tier.MEMORY, THUMB, "b")).isNull();
+    assertThat(cache.get(Tier.MEMORY, THUMB, "c")).isNotNull();
+    assertThat(meterRegistry.counter(DerivativeCache.EVICTIONS, "tier", "memory").count())
+        .isEqualTo(1.0);
+    assertThat(meterRegistry.get(DerivativeCache.BYTES).tag("tier", "memory").gauge().value())
+        .isEqualTo(8.0);
+  }
+
+  @Test
+  void diskEntriesAreFilesAndEvictedOnesAreDeleted() throws Exception {
+    DerivativeCache.Entry first = cache.put(Tier.DISK, MEDIUM, "a", stream("aaaaa"), 5);
+    Path firstFile = ((DerivativeCache.Disk) first).file();
+    assertThat(firstFile).hasContent("aaaaa").hasParent(dir);
+
+    cache.put(Tier.DISK, MEDIUM, "b", stream("bbbbb"), 5);
+    cache.put(Tier.DISK, MEDIUM, "c", stream("ccccc"), 5);
+
+    assertThat(cache.get(Tier.DISK, MEDIUM, "a")).isNull();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (Files.exists(firstFile) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(firstFile).doesNotExist();
+    assertThat(count("disk", "hit")).isZero();
+  }
+
+  @Test
+  void diskEntryWhoseFileVanishedIsAMiss() throws Exception {
+    DerivativeCache.Entry entry = cache.put(Tier.DISK, MEDIUM, "a", stream("aaaaa"), 5);
+    Files.delete(((DerivativeCache.Disk) entry).file());
+
+    assertThat(cache.get(Tier.DISK, MEDIUM, "a")).isNull();
+  }
+
+  @Test
+  void admissionIsBoundedByTheEntryLimitAndNeedsALength() {
+    assertThat(cache.admits(Tier.MEMORY, 6L)).isTrue();
+    assertThat(cache.admits(Tier.MEMORY, 7L)).isFalse();
+    assertThat(cache.admits(Tier.DISK, null)).isFalse();
+  }
+
+  @Test
+  void shortObjectIsNotCached() {
+    assertThatThrownBy(() -> cache.put(Tier.DISK, MEDIUM, "a", stream("abc"), 5))
+        .isInstanceOf(EOFException.class);
+
+    assertThat(cache.get(Tier.DISK, MEDIUM, "a")).isNull();
+    assertThat(dir).isEmptyDirectory();
+  }
+
+  @Test
+  void startupWipesOnlyFilesOfItsOwn() throws Exception {
+    cache.put(Tier.DISK, MEDIUM, "a", stream("aaaaa"), 5);
+    Path foreign = Files.writeString(dir.resolve("keep.txt"), "x");
+
+    new DerivativeCache(properties, new SimpleMeterRegistry()).shutdown();
+
+    try (var files = Files.list(dir)) {
+      assertThat(files).containsExactly(foreign);
+    }
+  }
+
+  private double count(String tier, String result) {
+    return meterRegistry.counter(DerivativeCache.REQUESTS, "tier", tier, "result", result).count();
+  }
+
+  private static InputStream stream(String body) {
+    return new ByteArrayInputStream(body.getBytes());
+  }
+}
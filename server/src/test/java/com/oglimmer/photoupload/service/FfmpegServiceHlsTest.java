@@ -0,0 +1,60 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class FfmpegServiceHlsTest {
+
+  @Test
+  void ladderStopsAtTheSourceShortSide() {
+    assertThat(FfmpegService.hlsLadderFor(probe(1280, 720, "aac")))
+        .extracting(FfmpegService.HlsRung::name)
+        .containsExactly("360p", "720p");
+    assertThat(FfmpegService.hlsLadderFor(probe(2160, 3840, "aac")))
+        .extracting(FfmpegService.HlsRung::name)
+        .containsExactly("360p", "720p", "1080p");
+    // Tiny or unprobed sources still get the bottom rung.
+    assertThat(FfmpegService.hlsLadderFor(probe(320, 240, null)))
+        .extracting(FfmpegService.HlsRung::name)
+        .containsExactly("360p");
+  }
+
+  @Test
+  void portraitSourcesScaleByWidth() {
+    List<String> cmd =
+        FfmpegService.hlsCommand(Path.of("/w/in.mp4"), Path.of("/w/hls"), probe(1080, 1920, "aac"));
+
+    assertThat(cmd.get(cmd.indexOf("-filter_complex") + 1))
+        .isEqualTo(
+            "[0:v]split=3[s0][s1][s2];[s0]scale=360:-2[v0];[s1]scale=720:-2[v1];"
+                + "[s2]scale=1080:-2[v2]");
+    assertThat(cmd.get(cmd.indexOf("-var_stream_map") + 1))
+        .isEqualTo("v:0,a:0,name:360p v:1,a:1,name:720p v:2,a:2,name:1080p");
+    assertThat(cmd)
+        .containsSequence("-hls_segment_type", "fmp4")
+        .containsSequence("-hls_playlist_type", "vod")
+        .containsSequence("-master_pl_name", "master.m3u8")
+        .endsWith("/w/hls/%v/index.m3u8");
+  }
+
+  @Test
+  void silentSourcesMapNoAudio() {
+    List<String> cmd =
+        FfmpegService.hlsCommand(Path.of("/w/in.mp4"), Path.of("/w/hls"), probe(1920, 1080, null));
+
+    assertThat(cmd).doesNotContain("0:a:0", "-c:a");
+    assertThat(cmd.get(cmd.indexOf("-filter_complex") + 1)).contains("scale=-2:720");
+    assertThat(cmd.get(cmd.indexOf("-var_stream_map") + 1))
+        .isEqualTo("v:0,name:360p v:1,name:720p v:2,name:1080p");
+  }
+
+  private static FfmpegService.VideoProbe probe(int width, int height, String audio) {
+    return new FfmpegService.VideoProbe(
+        Map.of(), width, height, 600_000L, "h264", "yuv420p", audio);
+  }
+}
@@ -8,7 +8,7 @@ import com.oglimmer.photoupload.model.GpsCoordinates;
 import org.junit.jupiter.api.Test;
 
 /**
- * Covers the ISO 6709 parser behind {@code extractVideoLocation}. Sign handling is the part worth
+ * Covers the ISO 6709 parser behind {@code VideoProbe.location()}. Sign handling is the part worth
  * pinning down: dropping a leading minus mirrors a clip into the wrong hemisphere, which puts the
  * pin thousands of kilometres away while still looking like a plausible coordinate.
  */
@@ -0,0 +1,31 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class FfmpegServiceProgressTest {
+
+  @Test
+  void positionLinesBecomePercentOfTheProbedDuration() {
+    // 30 s into a 120 s clip.
+    assertThat(FfmpegService.parseProgressPercent("out_time_us=30000000", 120_000L)).isEqualTo(25);
+    // out_time_ms is microseconds too.
+    assertThat(FfmpegService.parseProgressPercent("out_time_ms=60000000", 120_000L)).isEqualTo(50);
+  }
+
+  @Test
+  void neverClaimsDoneFromOneLine() {
+    assertThat(FfmpegService.parseProgressPercent("out_time_us=130000000", 120_000L)).isEqualTo(99);
+  }
+
+  @Test
+  void otherLinesAndUnknownDurationsReportNothing() {
+    assertThat(FfmpegService.parseProgressPercent("out_time=00:00:30.000000", 120_000L)).isNull();
+    assertThat(FfmpegService.parseProgressPercent("out_time_us=N/A", 120_000L)).isNull();
+    assertThat(FfmpegService.parseProgressPercent("progress=continue", 120_000L)).isNull();
+    assertThat(FfmpegService.parseProgressPercent("out_time_us=30000000", null)).isNull();
+    assertThat(FfmpegService.parseProgressPercent("out_time_us=30000000", 0L)).isNull();
+  }
+}
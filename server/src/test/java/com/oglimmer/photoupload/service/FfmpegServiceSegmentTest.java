@@ -0,0 +1,71 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FfmpegServiceSegmentTest {
+
+  @Test
+  void splitCopiesOnlyVideoIntoKeyframeAlignedSlices() {
+    List<String> cmd = FfmpegService.splitCommand(Path.of("/w/in.mov"), Path.of("/w/seg"), 60);
+
+    assertThat(cmd)
+        .containsSequence("-map", "0:v:0", "-c", "copy")
+        .containsSequence("-f", "segment", "-segment_time", "60")
+        .containsSequence("-reset_timestamps", "1")
+        .endsWith("/w/seg/src_%05d.mp4")
+        .doesNotContain("-c:a");
+  }
+
+  @Test
+  void streamedInputIsPassedAsItsUrl() {
+    MediaInput in =
+        MediaInput.url("http://minio:9000/b/originals/in.mov?X-Amz-Signature=s", "in.mov");
+
+    assertThat(FfmpegService.splitCommand(in, Path.of("/w/seg"), 60))
+        .containsSequence("-i", "http://minio:9000/b/originals/in.mov?X-Amz-Signature=s");
+    assertThat(in.redact("Input #0, mov, from '" + in.argument() + "':"))
+        .isEqualTo("Input #0, mov, from 'in.mov':");
+  }
+
+  @Test
+  void sliceEncodeMatchesTheSinglePieceReencodeVideoSettings() {
+    List<String> whole =
+        FfmpegService.transcodeCommand(
+            FfmpegService.TranscodeDecision.REENCODE, Path.of("/w/in.mov"), Path.of("/w/out.mp4"));
+    List<String> slice =
+        FfmpegService.segmentCommand(Path.of("/w/src_00000.mp4"), Path.of("/w/enc.mp4"));
+
+    // Identical encoder parameters are what lets the join concatenate with -c:v copy.
+    for (String flag : List.of("-c:v", "-profile:v", "-level", "-pix_fmt", "-preset")) {
+      assertThat(slice.get(slice.indexOf(flag) + 1))
+          .as(flag)
+          .isEqualTo(whole.get(whole.indexOf(flag) + 1));
+    }
+    assertThat(slice).contains("-an");
+  }
+
+  @Test
+  void joinCopiesVideoAndEncodesTheOriginalsAudioOnce() {
+    List<String> cmd =
+        FfmpegService.joinCommand(
+            Path.of("/w/list.txt"), MediaInput.of(Path.of("/w/in.mov")), Path.of("/w/o.mp4"));
+
+    assertThat(cmd)
+        .containsSequence("-f", "concat", "-safe", "0", "-i", "/w/list.txt")
+        .containsSequence("-i", "/w/in.mov")
+        .containsSequence("-map", "0:v:0", "-map", "1:a:0?", "-c:a", "aac")
+        .containsSequence("-c:v", "copy", "-movflags", "+faststart");
+  }
+
+  @Test
+  void joinWithoutTheOriginalIsSilent() {
+    List<String> cmd = FfmpegService.joinCommand(Path.of("/w/list.txt"), null, Path.of("/w/o.mp4"));
+
+    assertThat(cmd).doesNotContain("1:a:0?", "-c:a");
+  }
+}
@@ -0,0 +1,34 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.oglimmer.photoupload.util.SpriteSheets;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FfmpegServiceSpriteTest {
+
+  @Test
+  void spriteIsOneKeyframeOnlyPassIntoASingleTiledJpeg() {
+    List<String> cmd =
+        FfmpegService.spriteCommand(
+            Path.of("/w/in.mov"), Path.of("/w/sprite.jpg"), SpriteSheets.layoutFor(125_000L, 50));
+
+    assertThat(cmd)
+        .containsSequence("-skip_frame", "nokey", "-i", "/w/in.mov")
+        .containsSequence("-vf", "fps=1/2.500,scale=160:-2,tile=10x5")
+        .containsSequence("-frames:v", "1")
+        .endsWith("/w/sprite.jpg");
+  }
+
+  @Test
+  void shortClipsGetASingleRowOfOnePerSecond() {
+    List<String> cmd =
+        FfmpegService.spriteCommand(
+            Path.of("/w/in.mov"), Path.of("/w/sprite.jpg"), SpriteSheets.layoutFor(4_200L, 50));
+
+    assertThat(cmd).contains("fps=1/1.050,scale=160:-2,tile=4x1");
+  }
+}
@@ -8,7 +8,7 @@ import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 /**
- * Covers the two pure helpers behind {@code extractVideoCreationDate}. The colon-less offset case
+ * Covers the two pure helpers behind {@code VideoProbe.captureDate()}. The colon-less offset case
  * is the whole point: {@code Instant.parse} rejects it, and the old code turned that rejection into
  * a null capture date, which dropped the video to the end of every EXIF-sorted album.
  */
@@ -62,18 +62,18 @@ class FfmpegServiceTimestampTest {
   }
 
   @Test
-  void parsesFormatTagsBlock() {
+  void parsesFormatTagsFromProbeJson() {
     String output =
         """
-        TAG:major_brand=qt
-        TAG:creation_time=2026-08-17T12:23:11.000000Z
-        TAG:com.apple.quicktime.make=Apple
-        TAG:com.apple.quicktime.creationdate=2026-08-17T14:23:11+0200
-
-        not-a-tag-line
+        {"format": {"tags": {
+          "major_brand": "qt",
+          "creation_time": "2026-08-17T12:23:11.000000Z",
+          "com.apple.quicktime.make": "Apple",
+          "com.apple.quicktime.creationdate": "2026-08-17T14:23:11+0200"
+        }}}
         """;
 
-    Map<String, String> tags = FfmpegService.parseFormatTags(output);
+    Map<String, String> tags = FfmpegService.parseProbeJson(output).tags();
 
     assertThat(tags)
         .containsEntry("creation_time", "2026-08-17T12:23:11.000000Z")
@@ -83,7 +83,30 @@ class FfmpegServiceTimestampTest {
   }
 
   @Test
-  void parseFormatTagsToleratesEmptyOutput() {
-    assertThat(FfmpegService.parseFormatTags("")).isEmpty();
+  void probeJsonToleratesEmptyAndGarbageOutput() {
+    assertThat(FfmpegService.parseProbeJson("").tags()).isEmpty();
+    assertThat(FfmpegService.parseProbeJson("not json").tags()).isEmpty();
+  }
+
+  /** Portrait phone clips are stored landscape with a display-matrix rotation. */
+  @Test
+  void probeJsonReportsDisplayDimensionsAndDuration() {
+    String output =
+        """
+        {"streams": [
+          {"codec_type": "video", "width": 320, "height": 320,
+           "disposition": {"attached_pic": 1}},
+          {"codec_type": "audio"},
+          {"codec_type": "video", "width": 1920, "height": 1080,
+           "side_data_list": [{"side_data_type": "Display Matrix", "rotation": -90}]}
+        ],
+         "format": {"duration": "12.345600", "tags": {}}}
+        """;
+
+    FfmpegService.VideoProbe probe = FfmpegService.parseProbeJson(output);
+
+    assertThat(probe.width()).isEqualTo(1080);
+    assertThat(probe.height()).isEqualTo(1920);
+    assertThat(probe.durationMs()).isEqualTo(12346L);
   }
 }
@@ -0,0 +1,85 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.oglimmer.photoupload.service.FfmpegService.TranscodeDecision;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+class FfmpegServiceTranscodeDecisionTest {
+
+  @Test
+  void sdrPhoneClipIsRemuxed() {
+    FfmpegService.VideoProbe probe =
+        FfmpegService.parseProbeJson(
+            """
+            {"streams": [
+              {"codec_type": "video", "codec_name": "h264", "pix_fmt": "yuv420p",
+               "width": 1920, "height": 1080},
+              {"codec_type": "audio", "codec_name": "aac"},
+              {"codec_type": "data", "codec_name": "none"}
+            ],
+             "format": {"duration": "8.0", "tags": {}}}
+            """);
+
+    assertThat(probe.videoCodec()).isEqualTo("h264");
+    assertThat(probe.pixelFormat()).isEqualTo("yuv420p");
+    assertThat(probe.audioCodec()).isEqualTo("aac");
+    assertThat(FfmpegService.decide(probe)).isEqualTo(TranscodeDecision.REMUX);
+  }
+
+  @Test
+  void silentH264IsRemuxed() {
+    assertThat(FfmpegService.decide(probe("h264", "yuvj420p", null)))
+        .isEqualTo(TranscodeDecision.REMUX);
+  }
+
+  @Test
+  void oddAudioOnlyReencodesTheAudio() {
+    assertThat(FfmpegService.decide(probe("h264", "yuv420p", "pcm_s16le")))
+        .isEqualTo(TranscodeDecision.COPY_VIDEO);
+  }
+
+  @Test
+  void hevcTenBitAndUnknownSourcesAreReencoded() {
+    assertThat(FfmpegService.decide(probe("hevc", "yuv420p", "aac")))
+        .isEqualTo(TranscodeDecision.REENCODE);
+    assertThat(FfmpegService.decide(probe("h264", "yuv420p10le", "aac")))
+        .isEqualTo(TranscodeDecision.REENCODE);
+    assertThat(FfmpegService.decide(probe("h264", "yuv422p", "aac")))
+        .isEqualTo(TranscodeDecision.REENCODE);
+    assertThat(FfmpegService.decide(FfmpegService.VideoProbe.EMPTY))
+        .isEqualTo(TranscodeDecision.REENCODE);
+  }
+
+  @Test
+  void copyCommandsKeepOnlyTheFirstAvStreamsAndFastStart() {
+    assertThat(
+            FfmpegService.transcodeCommand(
+                TranscodeDecision.REMUX, Path.of("/in/a.mov"), Path.of("/out/a.mp4")))
+        .containsSequence("-map", "0:v:0", "-map", "0:a:0?", "-c", "copy")
+        .containsSequence("-movflags", "+faststart")
+        .doesNotContain("libx264");
+    assertThat(
+            FfmpegService.transcodeCommand(
+                TranscodeDecision.COPY_VIDEO, Path.of("/in/a.mov"), Path.of("/out/a.mp4")))
+        .containsSequence("-c:v", "copy", "-c:a", "aac");
+  }
+
+  @Test
+  void benchmarkLineYieldsUserPlusSystemSeconds() {
+    String output =
+        "frame=  240 fps=0.0 q=-1.0 Lsize=    9000kB\n"
+            + "bench: utime=12.250s stime=0.750s rtime=4.100s\n"
+            + "bench: maxrss=123456KiB\n";
+
+    assertThat(FfmpegService.parseBenchmarkCpuSeconds(output)).isEqualTo(13.0);
+    assertThat(FfmpegService.parseBenchmarkCpuSeconds("no summary")).isNull();
+  }
+
+  private static FfmpegService.VideoProbe probe(String video, String pixFmt, String audio) {
+    return new FfmpegService.VideoProbe(
+        java.util.Map.of(), 1920, 1080, 10_000L, video, pixFmt, audio);
+  }
+}
@@ -0,0 +1,434 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.model.MediaMetadata;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.storage.DerivativeFormat;
+import com.oglimmer.photoupload.storage.StoragePaths;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * S3-backed {@code processFile}: derivative PUTs run on the uploader pool, yet the row only turns
+ * DONE once every one of them has landed, and a prefetched original replaces the job's own GET.
+ * Long videos that need a re-encode are split and fanned out instead of encoded in the job. A
+ * rotate turns the derivatives already stored rather than regenerating them.
+ */
+class FileProcessingServicePipelineTest {
+
+  private FileMetadataRepository repository;
+  private ThumbnailService thumbnailService;
+  private ObjectStorageService objectStorage;
+  private OriginalPrefetcher prefetcher;
+  private SimpleMeterRegistry meterRegistry;
+  private FileStorageProperties properties;
+  private JobEnqueueService jobEnqueueService;
+  private StorageAccountingService storageAccounting;
+  private UploadDedupeService uploadDedupeService;
+  private JobsProperties jobsProperties;
+  private FileProcessingService service;
+
+  /** Ordered log of PUT keys and DB status writes, across the job and uploader threads. */
+  private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+  @BeforeEach
+  void setUp(@TempDir Path tempDir) {
+    events.clear();
+    properties = new FileStorageProperties();
+    properties.setUploadDir(tempDir.toString());
+    repository = mock(FileMetadataRepository.class);
+    thumbnailService = mock(ThumbnailService.class);
+    MediaMetadataExtractor mediaMetadataExtractor = mock(MediaMetadataExtractor.class);
+    when(mediaMetadataExtractor.extract(any(MediaInput.class), any()))
+        .thenReturn(MediaMetadata.none());
+    PlatformTransactionManager txManager = mock(PlatformTransactionManager.class);
+    when(txManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
+    when(repository.save(any(FileMetadata.class)))
+        .thenAnswer(
+            inv -> {
+              FileMetadata fm = inv.getArgument(0);
+              events.add("save:" + fm.getProcessingStatus());
+              return fm;
+            });
+    objectStorage = mock(ObjectStorageService.class);
+    doAnswer(
+            inv -> {
+              Thread.sleep(50); // slow enough that an un-joined batch would lose the race
+              events.add("put:" + inv.getArgument(0));
+              return null;
+            })
+        .when(objectStorage)
+        .putFile(anyString(), any(), any());
+    when(objectStorage.getToFileWithSha256(anyString(), any()))
+        .thenAnswer(
+            inv -> {
+              Files.writeString(inv.getArgument(1), "original");
+              return "sha-of-original";
+            });
+    prefetcher = mock(OriginalPrefetcher.class);
+    // Stands in for the real encoder and proves the thumbnail was still on disk when it ran.
+    BlurhashEncoder blurhashEncoder = mock(BlurhashEncoder.class);
+    when(blurhashEncoder.encode(any()))
+        .thenAnswer(
+            inv -> Files.exists(inv.getArgument(0)) ? "L00000fQfQfQfQfQfQfQfQfQfQfQ" : null);
+    meterRegistry = new SimpleMeterRegistry();
+    jobEnqueueService = mock(JobEnqueueService.class);
+    storageAccounting = mock(StorageAccountingService.class);
+    uploadDedupeService = mock(UploadDedupeService.class);
+    when(uploadDedupeService.adopt(any(), any())).thenReturn(UploadDedupeService.Outcome.KEPT);
+    jobsProperties = new JobsProperties();
+    service =
+        new FileProcessingService(
+            properties,
+            repository,
+            thumbnailService,
+            mediaMetadataExtractor,
+            blurhashEncoder,
+            txManager,
+            Optional.of(objectStorage),
+            new DerivativeUploader(Optional.of(objectStorage), new JobsProperties(), meterRegistry),
+            prefetcher,
+            meterRegistry,
+            jobEnqueueService,
+            storageAccounting,
+            uploadDedupeService,
+            jobsProperties,
+            new JobProgress());
+  }
+
+  private FileMetadata seedMetadata() {
+    FileMetadata md = new FileMetadata();
+    md.setId(11L);
+    md.setOriginalName("photo.jpg");
+    md.setStoredFilename("photo-stored.jpg");
+    md.setMimeType("image/jpeg");
+    md.setFilePath(StoragePaths.ORIGINALS_PREFIX + "photo-stored.jpg");
+    md.setProcessingStatus(ProcessingStatus.QUEUED);
+    md.setProcessingAttempts(0);
+    when(repository.findById(11L)).thenReturn(Optional.of(md));
+    return md;
+  }
+
+  private void stubThumbnails() {
+    when(thumbnailService.generateAllThumbnails(any(), any()))
+        .thenAnswer(
+            inv -> {
+              Path dir = ((Path) inv.getArgument(0)).getParent();
+              Path[] out = {
+                dir.resolve("t.jpg"), dir.resolve("m.jpg"), dir.resolve("l.jpg"),
+              };
+              for (Path p : out) {
+                Files.writeString(p, "x");
+              }
+              return out;
+            });
+  }
+
+  @Test
+  void doneIsCommittedOnlyAfterAllDerivativePutsLanded() {
+    FileMetadata md = seedMetadata();
+    stubThumbnails();
+
+    service.processFile(11L);
+
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(md.getThumbnailPath()).isEqualTo(StoragePaths.derivativeThumbnailKey(11L));
+    assertThat(md.getBlurhash()).isEqualTo("L00000fQfQfQfQfQfQfQfQfQfQfQ");
+    int done = events.indexOf("save:DONE");
+    assertThat(done).isPositive();
+    assertThat(events.subList(0, done))
+        .contains(
+            "put:" + StoragePaths.derivativeThumbnailKey(11L),
+            "put:" + StoragePaths.derivativeMediumKey(11L),
+            "put:" + StoragePaths.derivativeLargeKey(11L));
+    assertThat(meterRegistry.find(DerivativeUploader.STAGE_METRIC).tag("stage", "upload").timer())
+        .isNotNull();
+    assertThat(
+            meterRegistry.find(DerivativeUploader.STAGE_METRIC).tag("stage", "thumbnails").timer())
+        .isNotNull();
+  }
+
+  @Test
+  void derivativeBytesAreChargedWithTheDoneCommit() {
+    seedMetadata();
+    stubThumbnails();
+
+    service.processFile(11L);
+
+    verify(storageAccounting)
+        .record(11L, java.util.Map.of("thumb.jpg", 1L, "medium.jpg", 1L, "large.jpg", 1L));
+  }
+
+  @Test
+  void failedBackgroundPutMarksAssetFailed() {
+    FileMetadata md = seedMetadata();
+    stubThumbnails();
+    doThrow(new RuntimeException("minio down"))
+        .when(objectStorage)
+        .putFile(eq(StoragePaths.derivativeMediumKey(11L)), any(), any());
+
+    service.processFile(11L);
+
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.FAILED);
+    assertThat(md.getProcessingError()).contains("minio down");
+    assertThat(events).doesNotContain("save:DONE");
+    verify(storageAccounting, never()).record(any(), any());
+  }
+
+  @Test
+  void prefetchedOriginalSkipsTheGet() {
+    seedMetadata();
+    stubThumbnails();
+    when(prefetcher.claim(eq(11L), eq(StoragePaths.ORIGINALS_PREFIX + "photo-stored.jpg"), any()))
+        .thenAnswer(
+            inv -> {
+              Files.writeString(inv.getArgument(2), "prefetched");
+              return "sha-of-prefetched";
+            });
+
+    service.processFile(11L);
+
+    verify(objectStorage, never()).getToFileWithSha256(anyString(), any());
+    verify(uploadDedupeService).adopt(11L, "sha-of-prefetched");
+    assertThat(events).contains("save:DONE");
+  }
+
+  @Test
+  void tusUploadIsHashedOnDownloadAndKeepsItsChecksum() {
+    FileMetadata md = seedMetadata();
+    stubThumbnails();
+
+    service.processFile(11L);
+
+    verify(uploadDedupeService).adopt(11L, "sha-of-original");
+    // The DONE save must not write the checksum back to null.
+    assertThat(md.getChecksum()).isEqualTo("sha-of-original");
+    assertThat(events).contains("save:DONE");
+  }
+
+  @Test
+  void duplicateUploadIsNotProcessed() {
+    seedMetadata();
+    when(uploadDedupeService.adopt(11L, "sha-of-original"))
+        .thenReturn(UploadDedupeService.Outcome.COLLAPSED);
+
+    assertThat(service.processFile(11L)).isEqualTo(UploadDedupeService.Outcome.COLLAPSED);
+
+    verify(thumbnailService, never()).generateAllThumbnails(any(), any());
+    verify(objectStorage, never()).putFile(anyString(), any(), any());
+    assertThat(events).doesNotContain("save:DONE");
+  }
+
+  @Test
+  void multipartUploadIsNotDedupedAgain() {
+    FileMetadata md = seedMetadata();
+    md.setChecksum("hashed-by-the-api");
+    stubThumbnails();
+
+    service.processFile(11L);
+
+    verify(uploadDedupeService, never()).adopt(any(), any());
+    assertThat(md.getChecksum()).isEqualTo("hashed-by-the-api");
+  }
+
+  @Test
+  void longReencodeIsSplitIntoSegmentJobsCommittedWithDone() {
+    properties.setSegmentTranscodeMinDurationSeconds(600);
+    FileMetadata md = seedMetadata();
+    md.setOriginalName("clip.mov");
+    md.setStoredFilename("clip-stored.mov");
+    md.setMimeType("video/quicktime");
+    md.setFilePath(StoragePaths.ORIGINALS_PREFIX + "clip-stored.mov");
+    when(thumbnailService.probeVideo(any(MediaInput.class)))
+        .thenReturn(
+            new FfmpegService.VideoProbe(
+                java.util.Map.of(), 3840, 2160, 1_200_000L, "hevc", "yuv420p10le", "aac"));
+    when(thumbnailService.splitAtKeyframes(any(MediaInput.class), any(), eq(60)))
+        .thenAnswer(
+            inv -> {
+              Path dir = Files.createDirectories(inv.getArgument(1));
+              List<Path> slices = new ArrayList<>();
+              for (int i = 0; i < 3; i++) {
+                slices.add(Files.writeString(dir.resolve("src_0000" + i + ".mp4"), "x"));
+              }
+              return slices;
+            });
+    doAnswer(
+            inv -> {
+              events.add("enqueue:" + inv.getArgument(1));
+              return null;
+            })
+        .when(jobEnqueueService)
+        .enqueueSegmentedTranscode(eq(11L), eq(3));
+
+    service.processFile(11L);
+
+    verify(thumbnailService, never()).transcodeVideo(any(MediaInput.class), any(), any());
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(md.getTranscodedVideoPath()).isNull();
+    int done = events.indexOf("save:DONE");
+    assertThat(events.subList(0, done))
+        .contains(
+            "put:" + StoragePaths.derivativeSourceSegmentKey(11L, 0),
+            "put:" + StoragePaths.derivativeSourceSegmentKey(11L, 2));
+    assertThat(events.indexOf("enqueue:3")).isGreaterThan(done);
+  }
+
+  @Test
+  void streamedVideoIsReadFromAPresignedUrlAndNeverStaged() throws Exception {
+    jobsProperties.getPipeline().setStreamVideoInput(true);
+    FileMetadata md = seedMetadata();
+    md.setOriginalName("clip.mov");
+    md.setStoredFilename("clip-stored.mov");
+    md.setMimeType("video/quicktime");
+    md.setFilePath(StoragePaths.ORIGINALS_PREFIX + "clip-stored.mov");
+    md.setFileSize(500L);
+    String url = "http://minio:9000/photos/originals/clip-stored.mov?X-Amz-Signature=secret";
+    when(objectStorage.presignGet(eq(md.getFilePath()), any())).thenReturn(URI.create(url).toURL());
+    when(objectStorage.sha256(md.getFilePath())).thenReturn("sha-streamed");
+    when(thumbnailService.probeVideo(any(MediaInput.class)))
+        .thenReturn(FfmpegService.VideoProbe.EMPTY);
+
+    service.processFile(11L);
+
+    verify(objectStorage, never()).getToFileWithSha256(anyString(), any());
+    verify(thumbnailService)
+        .transcodeVideo(
+            argThat((MediaInput input) -> input.streamed() && input.argument().equals(url)),
+            any(),
+            any());
+    // One probe serves the transcode, sprite and metadata stages.
+    verify(thumbnailService, times(1)).probeVideo(any(MediaInput.class));
+    verify(uploadDedupeService).adopt(11L, "sha-streamed");
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(meterRegistry.counter(FileProcessingService.INPUT_BYTES, "mode", "streamed").count())
+        .isEqualTo(500.0);
+    assertThat(
+            meterRegistry.find(FileProcessingService.INPUT_BYTES).tag("mode", "staged").counter())
+        .isNull();
+  }
+
+  private FileMetadata seedRotatable() throws Exception {
+    FileMetadata md = seedMetadata();
+    md.setProcessingStatus(ProcessingStatus.DONE);
+    md.setThumbnailPath(StoragePaths.derivativeThumbnailKey(11L));
+    md.setMediumPath(StoragePaths.derivativeMediumKey(11L));
+    md.setLargePath(StoragePaths.derivativeLargeKey(11L));
+    md.setDerivativeFormats("webp");
+    md.setWidth(4000);
+    md.setHeight(3000);
+    doAnswer(
+            inv -> {
+              Files.writeString(inv.getArgument(1), "x");
+              return null;
+            })
+        .when(objectStorage)
+        .getToFile(anyString(), any());
+    when(thumbnailService.rotateOriginalLeft(any(), eq("image/jpeg"))).thenReturn(true);
+    when(thumbnailService.rotateDerivativeLeft(any(), anyInt(), any())).thenReturn(true);
+    return md;
+  }
+
+  @Test
+  void rotateTurnsTheExistingDerivativesInsteadOfRegenerating() throws Exception {
+    FileMetadata md = seedRotatable();
+
+    service.rotateAndReprocess(11L);
+
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(md.getRotation()).isEqualTo(90);
+    assertThat(md.getWidth()).isEqualTo(3000);
+    assertThat(md.getDerivativeFormats()).isEqualTo("webp");
+    verify(thumbnailService).rotateOriginalLeft(any(), eq("image/jpeg"));
+    verify(thumbnailService, never()).generateAllThumbnails(any(), any());
+    verify(thumbnailService, never()).rotateImageLeft(any());
+    assertThat(events)
+        .contains(
+            "put:" + md.getFilePath(),
+            "put:" + StoragePaths.derivativeThumbnailKey(11L),
+            "put:" + StoragePaths.derivativeLargeKey(11L),
+            "put:" + StoragePaths.derivativeThumbnailKey(11L).replace(".jpg", ".webp"),
+            "put:" + StoragePaths.derivativeLargeKey(11L).replace(".jpg", ".webp"));
+    assertThat(events.indexOf("save:DONE"))
+        .isGreaterThan(events.indexOf("put:" + StoragePaths.derivativeLargeKey(11L)));
+  }
+
+  @Test
+  void rotateDropsAVariantFormatThatCannotBeTurned() throws Exception {
+    FileMetadata md = seedRotatable();
+    when(thumbnailService.rotateDerivativeLeft(any(), eq(1), eq(DerivativeFormat.WEBP)))
+        .thenReturn(false);
+
+    service.rotateAndReprocess(11L);
+
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(md.getDerivativeFormats()).isNull();
+    assertThat(events).noneMatch(event -> event.endsWith(".webp"));
+    verify(thumbnailService, never()).generateAllThumbnails(any(), any());
+  }
+
+  @Test
+  void rotateRegeneratesFromTheRotatedOriginalWhenADerivativeCannotBeTurned() throws Exception {
+    FileMetadata md = seedRotatable();
+    when(thumbnailService.rotateDerivativeLeft(any(), eq(2), isNull())).thenReturn(false);
+    stubThumbnails();
+
+    service.rotateAndReprocess(11L);
+
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(md.getRotation()).isEqualTo(90);
+    verify(thumbnailService)
+        .generateAllThumbnails(
+            argThat((Path p) -> p.getFileName().toString().equals("photo-stored.jpg")), any());
+    verify(thumbnailService, never()).rotateImageLeft(any());
+  }
+
+  @Test
+  void rotateRegeneratesWhenADerivativeIsMissing() throws Exception {
+    FileMetadata md = seedRotatable();
+    doThrow(NoSuchKeyException.builder().message("gone").build())
+        .when(objectStorage)
+        .getToFile(eq(StoragePaths.derivativeMediumKey(11L)), any());
+    stubThumbnails();
+
+    service.rotateAndReprocess(11L);
+
+    // The original is turned once and the row follows it: rotation, dimensions, derivatives.
+    assertThat(md.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(md.getRotation()).isEqualTo(90);
+    assertThat(md.getWidth()).isEqualTo(3000);
+    verify(thumbnailService, times(1)).rotateOriginalLeft(any(), eq("image/jpeg"));
+    verify(thumbnailService).generateAllThumbnails(any(), any());
+  }
+}
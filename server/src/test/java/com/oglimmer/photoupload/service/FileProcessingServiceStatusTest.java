@@ -9,11 +9,12 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.JobsProperties;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.entity.ProcessingStatus;
-import com.oglimmer.photoupload.model.CaptureDate;
-import com.oglimmer.photoupload.model.GpsCoordinates;
+import com.oglimmer.photoupload.model.MediaMetadata;
 import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Instant;
@@ -31,10 +32,10 @@ class FileProcessingServiceStatusTest {
   private FileStorageProperties properties;
   private FileMetadataRepository repository;
   private ThumbnailService thumbnailService;
-  private CaptureDateExtractor captureDateExtractor;
-  private GpsExtractor gpsExtractor;
+  private MediaMetadataExtractor mediaMetadataExtractor;
   private PlatformTransactionManager txManager;
   private FileProcessingService service;
+  private JobProgress jobProgress;
 
   /** Snapshot of (status, attempts, error, completedAt) recorded at each save() call. */
   private record Snapshot(
@@ -52,10 +53,9 @@ class FileProcessingServiceStatusTest {
     properties.setUploadDir(tempDir.toString());
     repository = mock(FileMetadataRepository.class);
     thumbnailService = mock(ThumbnailService.class);
-    captureDateExtractor = mock(CaptureDateExtractor.class);
-    when(captureDateExtractor.extract(any(), any())).thenReturn(CaptureDate.none());
-    gpsExtractor = mock(GpsExtractor.class);
-    when(gpsExtractor.extract(any(), any())).thenReturn(GpsCoordinates.none());
+    mediaMetadataExtractor = mock(MediaMetadataExtractor.class);
+    when(mediaMetadataExtractor.extract(any(MediaInput.class), any()))
+        .thenReturn(MediaMetadata.none());
     txManager = mock(PlatformTransactionManager.class);
     when(txManager.getTransaction(any())).thenReturn(mock(TransactionStatus.class));
     when(repository.save(any(FileMetadata.class)))
@@ -70,15 +70,25 @@ class FileProcessingServiceStatusTest {
                       fm.getProcessingCompletedAt()));
               return fm;
             });
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    jobProgress = new JobProgress();
     service =
         new FileProcessingService(
             properties,
             repository,
             thumbnailService,
-            captureDateExtractor,
-            gpsExtractor,
+            mediaMetadataExtractor,
+            new BlurhashEncoder(),
             txManager,
-            java.util.Optional.empty());
+            java.util.Optional.empty(),
+            new DerivativeUploader(Optional.empty(), new JobsProperties(), meterRegistry),
+            mock(OriginalPrefetcher.class),
+            meterRegistry,
+            mock(JobEnqueueService.class),
+            mock(StorageAccountingService.class),
+            mock(UploadDedupeService.class),
+            new JobsProperties(),
+            jobProgress);
   }
 
   private FileMetadata seedMetadata() {
@@ -167,4 +177,21 @@ class FileProcessingServiceStatusTest {
     verify(repository, times(0)).save(any());
     assertThat(saves).isEmpty();
   }
+
+  /** Another worker owns the job once its lease is lost; this run must not write its verdict. */
+  @Test
+  void abandonedRunWritesNeitherDoneNorFailed() {
+    FileMetadata md = seedMetadata();
+    when(repository.findById(11L)).thenReturn(Optional.of(md));
+    when(thumbnailService.generateAllThumbnails(any(), any()))
+        .thenAnswer(
+            inv -> {
+              jobProgress.abandon();
+              return generatedThumbnails();
+            });
+
+    service.processFile(11L);
+
+    assertThat(saves).extracting(Snapshot::status).containsExactly(ProcessingStatus.PROCESSING);
+  }
 }
@@ -78,6 +78,7 @@ class FileStorageServiceBulkTagTest {
             userContext,
             Mockito.mock(PlatformTransactionManager.class),
             Mockito.mock(JobEnqueueService.class),
+            Mockito.mock(StorageAccountingService.class),
             Optional.empty());
 
     user = new User();
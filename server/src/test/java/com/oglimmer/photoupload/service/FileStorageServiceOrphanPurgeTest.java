@@ -0,0 +1,113 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.mapper.FileInfoMapper;
+import com.oglimmer.photoupload.repository.AlbumEnabledTagRepository;
+import com.oglimmer.photoupload.repository.AlbumRepository;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.repository.ImageTagRepository;
+import com.oglimmer.photoupload.repository.TagRepository;
+import com.oglimmer.photoupload.security.UserContext;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/** The admin orphan purge: liveness rules applied per asset directory over the streamed join. */
+class FileStorageServiceOrphanPurgeTest {
+
+  @TempDir Path tempDir;
+
+  private FileMetadataRepository metaRepo;
+  private ObjectStorageService s3;
+  private FileStorageService svc;
+
+  @BeforeEach
+  void setUp() {
+    FileStorageProperties props = new FileStorageProperties();
+    props.setUploadDir(tempDir.toString());
+    metaRepo = Mockito.mock(FileMetadataRepository.class);
+    s3 = Mockito.mock(ObjectStorageService.class);
+    svc =
+        new FileStorageService(
+            props,
+            metaRepo,
+            Mockito.mock(TagRepository.class),
+            Mockito.mock(ImageTagRepository.class),
+            Mockito.mock(AlbumEnabledTagRepository.class),
+            Mockito.mock(LocalFileCleanupService.class),
+            Mockito.mock(JdbcTemplate.class),
+            Mockito.mock(AlbumRepository.class),
+            Mockito.mock(FileInfoMapper.class),
+            Mockito.mock(UserContext.class),
+            Mockito.mock(PlatformTransactionManager.class),
+            Mockito.mock(JobEnqueueService.class),
+            Mockito.mock(StorageAccountingService.class),
+            Optional.of(s3));
+
+    when(metaRepo.streamStoredPaths())
+        .thenReturn(
+            Stream.of(
+                "derivatives/42/hls/master.m3u8",
+                "derivatives/42/medium.jpg",
+                "derivatives/42/sprite.vtt",
+                "originals/live.mov"));
+    when(s3.streamKeys(null))
+        .thenReturn(
+            Stream.of(
+                "derivatives/41/resized/0123abcd/w640.jpg",
+                "derivatives/41/segments/enc_00000.mp4",
+                "derivatives/42/hls/720p/seg_00001.m4s",
+                "derivatives/42/hls/master.m3u8",
+                "derivatives/42/large.jpg",
+                "derivatives/42/medium.jpg",
+                "derivatives/42/medium.webp",
+                "derivatives/42/resized/0123abcd/w640.webp",
+                "derivatives/42/segments/src_00000.mp4",
+                "derivatives/42/sprite.jpg",
+                "derivatives/42/sprite.vtt",
+                "originals/gone.mov",
+                "originals/live.mov"));
+  }
+
+  @Test
+  void keepsEverythingAnAssetsRecordedPathsKeepAlive() {
+    Map<String, Object> result = svc.purgeOrphanedS3Objects(false);
+
+    verify(s3)
+        .deleteKeys(
+            List.of(
+                "derivatives/41/resized/0123abcd/w640.jpg",
+                "derivatives/41/segments/enc_00000.mp4",
+                "derivatives/42/large.jpg",
+                "originals/gone.mov"));
+    assertThat(result)
+        .containsEntry("orphaned", 4)
+        .containsEntry("deleted", 4)
+        .containsEntry("failed", 0)
+        .containsEntry("totalBucketKeys", 13L)
+        .containsEntry("knownDbPaths", 4L);
+  }
+
+  @Test
+  void dryRunOnlyCounts() {
+    Map<String, Object> result = svc.purgeOrphanedS3Objects(true);
+
+    verify(s3, never()).deleteKeys(any());
+    assertThat(result).containsEntry("orphaned", 4).containsEntry("deleted", 0);
+  }
+}
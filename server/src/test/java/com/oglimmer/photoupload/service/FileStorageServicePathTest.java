@@ -52,6 +52,7 @@ class FileStorageServicePathTest {
             userContext,
             txManager,
             jobEnqueueService,
+            Mockito.mock(StorageAccountingService.class),
             Optional.empty());
 
     // Not required for this specific test, but safe to ensure directory exists
@@ -0,0 +1,117 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.mapper.FileInfoMapper;
+import com.oglimmer.photoupload.model.FileServeInfo;
+import com.oglimmer.photoupload.repository.AlbumEnabledTagRepository;
+import com.oglimmer.photoupload.repository.AlbumRepository;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.repository.ImageTagRepository;
+import com.oglimmer.photoupload.repository.TagRepository;
+import com.oglimmer.photoupload.security.UserContext;
+import java.nio.file.Path;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/** Accept negotiation of the WebP/AVIF derivative variants in the public serve lookup. */
+class FileStorageServiceServeVariantTest {
+
+  private static final String CHROME_ACCEPT = "image/avif,image/webp,image/apng,*/*;q=0.8";
+
+  @TempDir Path tempDir;
+
+  private FileMetadataRepository metaRepo;
+  private FileStorageService svc;
+  private FileMetadata metadata;
+
+  @BeforeEach
+  void setUp() {
+    FileStorageProperties props = new FileStorageProperties();
+    props.setUploadDir(tempDir.toString());
+    metaRepo = Mockito.mock(FileMetadataRepository.class);
+    svc =
+        new FileStorageService(
+            props,
+            metaRepo,
+            Mockito.mock(TagRepository.class),
+            Mockito.mock(ImageTagRepository.class),
+            Mockito.mock(AlbumEnabledTagRepository.class),
+            Mockito.mock(LocalFileCleanupService.class),
+            Mockito.mock(JdbcTemplate.class),
+            Mockito.mock(AlbumRepository.class),
+            Mockito.mock(FileInfoMapper.class),
+            Mockito.mock(UserContext.class),
+            Mockito.mock(PlatformTransactionManager.class),
+            Mockito.mock(JobEnqueueService.class),
+            Mockito.mock(StorageAccountingService.class),
+            Optional.empty());
+
+    metadata = new FileMetadata();
+    metadata.setMimeType("image/heic");
+    metadata.setChecksum("abc");
+    metadata.setStoredFilename("photo.heic");
+    metadata.setProcessingStatus(ProcessingStatus.DONE);
+    metadata.setFilePath("originals/photo.heic");
+    metadata.setThumbnailPath("derivatives/7/thumb.jpg");
+    metadata.setMediumPath("derivatives/7/medium.jpg");
+    metadata.setLargePath("derivatives/7/large.jpg");
+    metadata.setDerivativeFormats("avif,webp");
+    when(metaRepo.findByPublicToken("tok")).thenReturn(Optional.of(metadata));
+  }
+
+  @Test
+  void servesTheBestVariantTheClientNames() {
+    FileServeInfo info = svc.getFileServeInfoByPublicToken("tok", "medium", CHROME_ACCEPT);
+
+    assertEquals("derivatives/7/medium.avif", info.getStorageKey());
+    assertEquals("image/avif", info.getMimeType());
+    assertEquals("avif", info.getVariant());
+    assertTrue(info.isVariesByAccept());
+  }
+
+  @Test
+  void fallsBackToJpegButStillVariesWhenNothingMatches() {
+    FileServeInfo info = svc.getFileServeInfoByPublicToken("tok", "thumb", "*/*");
+
+    assertEquals("derivatives/7/thumb.jpg", info.getStorageKey());
+    assertNull(info.getVariant());
+    // The JPEG answer is itself Accept-dependent, so caches must key on it too.
+    assertTrue(info.isVariesByAccept());
+  }
+
+  @Test
+  void onlyFormatsRecordedOnTheRowAreOffered() {
+    metadata.setDerivativeFormats("webp");
+
+    FileServeInfo info = svc.getFileServeInfoByPublicToken("tok", "large", CHROME_ACCEPT);
+
+    assertEquals("derivatives/7/large.webp", info.getStorageKey());
+    assertEquals("image/webp", info.getMimeType());
+  }
+
+  @Test
+  void originalsAndRowsWithoutVariantsAreNotNegotiated() {
+    FileServeInfo original = svc.getFileServeInfoByPublicToken("tok", "original", CHROME_ACCEPT);
+    assertEquals("originals/photo.heic", original.getStorageKey());
+    assertFalse(original.isVariesByAccept());
+
+    metadata.setDerivativeFormats(null);
+    FileServeInfo thumb = svc.getFileServeInfoByPublicToken("tok", "thumb", CHROME_ACCEPT);
+    assertEquals("derivatives/7/thumb.jpg", thumb.getStorageKey());
+    assertFalse(thumb.isVariesByAccept());
+  }
+}
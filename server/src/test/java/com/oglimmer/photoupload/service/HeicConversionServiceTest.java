@@ -4,6 +4,7 @@ package com.oglimmer.photoupload.service;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import com.oglimmer.photoupload.config.ToolsProperties;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -24,7 +25,9 @@ class HeicConversionServiceTest {
     Files.writeString(src, "definitely not a heic file", StandardCharsets.UTF_8);
     Path dst = tempDir.resolve("out.jpg");
 
-    boolean ok = new HeicConversionService().convertHeicToJpeg(src, dst);
+    boolean ok =
+        new HeicConversionService(new ProcessRunner(new ToolsProperties(), null))
+            .convertHeicToJpeg(src, dst);
 
     // Either the tool isn't installed (IOException → false) or it rejects the bogus input
     // (non-zero exit → false). Both end at "service returned false, no output file".
@@ -46,7 +49,9 @@ class HeicConversionServiceTest {
     Files.writeString(src, "x", StandardCharsets.UTF_8);
     Path dst = tempDir.resolve("out.jpg");
 
-    boolean ok = new HeicConversionService().convertHeicToJpeg(src, dst);
+    boolean ok =
+        new HeicConversionService(new ProcessRunner(new ToolsProperties(), null))
+            .convertHeicToJpeg(src, dst);
 
     assertThat(ok).isFalse();
     assertThat(dst).doesNotExist();
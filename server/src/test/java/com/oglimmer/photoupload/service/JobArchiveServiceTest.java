@@ -0,0 +1,88 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class JobArchiveServiceTest {
+
+  private ProcessingJobRepository repository;
+  private JobsProperties properties;
+  private SimpleMeterRegistry meterRegistry;
+  private JobArchiveService service;
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(ProcessingJobRepository.class);
+    properties = new JobsProperties();
+    properties.getArchive().setBatchSize(2);
+    properties.getArchive().setMaxBatches(5);
+    TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    when(transactionTemplate.execute(any()))
+        .thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+    meterRegistry = new SimpleMeterRegistry();
+    service = new JobArchiveService(repository, properties, transactionTemplate, meterRegistry);
+  }
+
+  @Test
+  void movesFullBatchesUntilAShortOne() {
+    Instant cutoff = Instant.now();
+    when(repository.lockArchivableIds(cutoff, 2)).thenReturn(List.of(1L, 2L), List.of(3L));
+    when(repository.deleteByIds(List.of(1L, 2L))).thenReturn(2);
+    when(repository.deleteByIds(List.of(3L))).thenReturn(1);
+
+    assertThat(service.archive(cutoff)).isEqualTo(3);
+
+    // Each batch is copied before it is deleted, and the short batch ends the sweep.
+    verify(repository).copyToArchive(List.of(1L, 2L));
+    verify(repository).copyToArchive(List.of(3L));
+    verify(repository, times(2)).lockArchivableIds(cutoff, 2);
+    assertThat(meterRegistry.counter(JobArchiveService.ARCHIVED_METRIC).count()).isEqualTo(3.0);
+  }
+
+  @Test
+  void nothingToArchiveTouchesNothing() {
+    when(repository.lockArchivableIds(any(), anyInt())).thenReturn(List.of());
+
+    assertThat(service.archive(Instant.now())).isZero();
+
+    verify(repository, never()).copyToArchive(any());
+    verify(repository, never()).deleteByIds(any());
+  }
+
+  @Test
+  void backlogOfHistoryIsCappedPerSweep() {
+    when(repository.lockArchivableIds(any(), anyInt())).thenReturn(List.of(1L, 2L));
+    when(repository.deleteByIds(any())).thenReturn(2);
+
+    assertThat(service.archive(Instant.now())).isEqualTo(10);
+
+    verify(repository, times(5)).copyToArchive(any());
+  }
+
+  @Test
+  void disabledSweepDoesNothing() {
+    properties.getArchive().setEnabled(false);
+
+    service.sweep();
+
+    verify(repository, never()).lockArchivableIds(any(), anyInt());
+    verify(repository, never()).pruneArchive(any(), anyInt());
+  }
+}
@@ -0,0 +1,193 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.config.ToolsProperties;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.JobStatus;
+import com.oglimmer.photoupload.entity.JobType;
+import com.oglimmer.photoupload.entity.ProcessingJob;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class JobDispatcherTest {
+
+  private JobLeaseService jobLeaseService;
+  private FileProcessingService fileProcessingService;
+  private FileMetadataRepository fileMetadataRepository;
+  private JobsProperties jobsProperties;
+  private JobProgress jobProgress;
+  private UploadDedupeService uploadDedupeService;
+  private JobDispatcher dispatcher;
+
+  @BeforeEach
+  void setUp() {
+    jobLeaseService = mock(JobLeaseService.class);
+    fileProcessingService = mock(FileProcessingService.class);
+    fileMetadataRepository = mock(FileMetadataRepository.class);
+    jobsProperties = new JobsProperties();
+    jobsProperties.getLease().setSeconds(5);
+    jobsProperties.getLease().setHeartbeatSeconds(1);
+    jobProgress = new JobProgress();
+    uploadDedupeService = mock(UploadDedupeService.class);
+    dispatcher =
+        new JobDispatcher(
+            jobLeaseService,
+            fileProcessingService,
+            fileMetadataRepository,
+            mock(OriginalPrefetcher.class),
+            jobsProperties,
+            jobProgress,
+            new ProcessRunner(new ToolsProperties(), null),
+            uploadDedupeService);
+
+    ProcessingJob job = new ProcessingJob();
+    job.setId(42L);
+    job.setAssetId(7L);
+    job.setJobType(JobType.PROCESS);
+    job.setStatus(JobStatus.PROCESSING);
+    job.setAttempts(1);
+    when(jobLeaseService.leaseNext(anyString(), anyInt())).thenReturn(job).thenReturn(null);
+
+    FileMetadata asset = new FileMetadata();
+    asset.setProcessingStatus(ProcessingStatus.DONE);
+    when(fileMetadataRepository.findById(7L)).thenReturn(Optional.of(asset));
+  }
+
+  @AfterEach
+  void tearDown() {
+    dispatcher.shutdown();
+  }
+
+  @Test
+  void heartbeatExtendsTheLeaseWithProgressWhileTheJobRuns() throws Exception {
+    CountDownLatch beaten = new CountDownLatch(1);
+    when(jobLeaseService.heartbeat(eq(42L), anyString(), eq(5), eq(40)))
+        .thenAnswer(
+            inv -> {
+              beaten.countDown();
+              return true;
+            });
+    doAnswer(
+            inv -> {
+              jobProgress.report(40);
+              // Stay "busy" until the heartbeat has fired at least once.
+              beaten.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(fileProcessingService)
+        .processFile(7L);
+
+    dispatcher.poll();
+
+    verify(jobLeaseService, atLeastOnce()).heartbeat(eq(42L), anyString(), eq(5), eq(40));
+    verify(jobLeaseService).markDone(eq(42L), anyString());
+  }
+
+  @Test
+  void shutdownReleasesTheRunningJobAndLeavesItQueued() {
+    when(jobLeaseService.release(eq(42L), anyString())).thenReturn(true);
+    doAnswer(
+            inv -> {
+              // The container closes while the encode is still running.
+              dispatcher.shutdown();
+              return null;
+            })
+        .when(fileProcessingService)
+        .processFile(7L);
+
+    dispatcher.poll();
+
+    verify(jobLeaseService).release(eq(42L), anyString());
+    verify(jobLeaseService, never()).markDone(anyLong(), anyString());
+    verify(jobLeaseService, never()).markFailedOrDeadLetter(anyLong(), anyString(), any());
+
+    // No new leases once stopping.
+    dispatcher.poll();
+    verify(jobLeaseService, timeout(100).times(1)).leaseNext(anyString(), anyInt());
+  }
+
+  @Test
+  void collapsedDuplicateIsSettledDoneBeforeItsRowIsDropped() {
+    when(fileProcessingService.processFile(7L)).thenReturn(UploadDedupeService.Outcome.COLLAPSED);
+    when(jobLeaseService.markDone(eq(42L), anyString())).thenReturn(true);
+
+    dispatcher.poll();
+
+    InOrder order = inOrder(jobLeaseService, uploadDedupeService);
+    order.verify(jobLeaseService).markDone(eq(42L), anyString());
+    order.verify(uploadDedupeService).dropCollapsed(7L, 42L);
+    verify(jobLeaseService, never()).markFailedOrDeadLetter(anyLong(), anyString(), any());
+  }
+
+  @Test
+  void shutdownAbandonsTheRunBeforeItsToolsFail() {
+    when(jobLeaseService.release(eq(42L), anyString())).thenReturn(true);
+    boolean[] abandonedWhenToolsStopped = new boolean[1];
+    doAnswer(
+            inv -> {
+              dispatcher.shutdown();
+              // Stopping ffmpeg fails the run; markFailed must see it as abandoned.
+              abandonedWhenToolsStopped[0] = jobProgress.abandoned();
+              throw new IllegalStateException("ffmpeg killed");
+            })
+        .when(fileProcessingService)
+        .processFile(7L);
+
+    dispatcher.poll();
+
+    assertThat(abandonedWhenToolsStopped[0]).isTrue();
+    verify(jobLeaseService, never()).markFailedOrDeadLetter(anyLong(), anyString(), any());
+  }
+
+  @Test
+  void lostLeaseAbandonsTheRunAndSettlesNothing() {
+    CountDownLatch lost = new CountDownLatch(1);
+    when(jobLeaseService.heartbeat(eq(42L), anyString(), eq(5), any()))
+        .thenAnswer(
+            inv -> {
+              lost.countDown();
+              return false;
+            });
+    doAnswer(
+            inv -> {
+              lost.await(5, TimeUnit.SECONDS);
+              // Let the heartbeat thread finish marking the run before it returns.
+              for (int i = 0; i < 50 && !jobProgress.abandoned(); i++) {
+                Thread.sleep(20);
+              }
+              assertThat(jobProgress.abandoned()).isTrue();
+              return null;
+            })
+        .when(fileProcessingService)
+        .processFile(7L);
+
+    dispatcher.poll();
+
+    verify(jobLeaseService, never()).markDone(anyLong(), anyString());
+    verify(jobLeaseService, never()).markFailedOrDeadLetter(anyLong(), anyString(), any());
+    assertThat(jobProgress.abandoned()).isFalse(); // reset for the next job
+  }
+}
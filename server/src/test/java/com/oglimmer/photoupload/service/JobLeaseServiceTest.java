@@ -5,6 +5,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -12,27 +14,36 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.oglimmer.photoupload.entity.JobLane;
 import com.oglimmer.photoupload.entity.JobStatus;
 import com.oglimmer.photoupload.entity.ProcessingJob;
 import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 class JobLeaseServiceTest {
 
   private ProcessingJobRepository repository;
+  private SimpleMeterRegistry meterRegistry;
   private JobLeaseService service;
 
   @BeforeEach
   void setUp() {
     repository = mock(ProcessingJobRepository.class);
-    service = new JobLeaseService(repository);
+    meterRegistry = new SimpleMeterRegistry();
+    service = new JobLeaseService(repository, meterRegistry);
   }
 
   @Test
   void leaseNextReturnsNullWhenQueueEmpty() {
-    when(repository.findNextLeaseableId()).thenReturn(Optional.empty());
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of());
 
     ProcessingJob result = service.leaseNext("worker-1", 900);
 
@@ -48,7 +59,8 @@ class JobLeaseServiceTest {
     leased.setStatus(JobStatus.PROCESSING);
     leased.setAttempts(1);
 
-    when(repository.findNextLeaseableId()).thenReturn(Optional.of(42L));
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of(42L));
+    when(repository.lockIfLeaseable(42L)).thenReturn(Optional.of(42L));
     when(repository.acquireLease(eq(42L), eq("worker-1"), eq(900))).thenReturn(1);
     when(repository.findById(42L)).thenReturn(Optional.of(leased));
 
@@ -62,7 +74,8 @@ class JobLeaseServiceTest {
   @Test
   void leaseNextReturnsNullWhenAcquireUpdatesZeroRows() {
     // Defensive: row vanished between SELECT and UPDATE. Should treat as "nothing to do".
-    when(repository.findNextLeaseableId()).thenReturn(Optional.of(42L));
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of(42L));
+    when(repository.lockIfLeaseable(42L)).thenReturn(Optional.of(42L));
     when(repository.acquireLease(eq(42L), anyString(), anyInt())).thenReturn(0);
 
     ProcessingJob result = service.leaseNext("worker-1", 900);
@@ -70,63 +83,200 @@ class JobLeaseServiceTest {
     assertThat(result).isNull();
   }
 
-  /*
-   * markDone / markFailedOrDeadLetter mutate the entity they loaded inside their own transaction
-   * and let the flush write it — no explicit save() to verify, so the state is asserted on the
-   * job itself, which is the same instance the stubbed findById handed back.
-   */
+  @Test
+  void leaseNextTakesTheFirstCandidateNoOtherWorkerHolds() {
+    // 41 is locked by a worker polling at the same moment; 42 is next in lane order.
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of(41L, 42L, 43L));
+    when(repository.lockIfLeaseable(41L)).thenReturn(Optional.empty());
+    when(repository.lockIfLeaseable(42L)).thenReturn(Optional.of(42L));
+    when(repository.acquireLease(42L, "worker-1", 900)).thenReturn(1);
+    when(repository.findById(42L)).thenReturn(Optional.of(newJob(42L, JobStatus.PROCESSING, 1, 3)));
+
+    ProcessingJob result = service.leaseNext("worker-1", 900);
+
+    assertThat(result.getId()).isEqualTo(42L);
+    verify(repository, never()).lockIfLeaseable(43L);
+  }
 
   @Test
-  void markDoneClearsLease() {
-    ProcessingJob job = newJob(1L, JobStatus.PROCESSING, 1, 3);
-    job.setLeasedBy("worker-1");
-    when(repository.findById(1L)).thenReturn(Optional.of(job));
+  void expiredLeasesAreRecoveredBeforeQueuedJobs() {
+    when(repository.findExpiredLeaseIds(anyInt())).thenReturn(List.of(7L));
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of(42L));
+    when(repository.lockIfLeaseable(7L)).thenReturn(Optional.of(7L));
+    when(repository.acquireLease(7L, "worker-1", 900)).thenReturn(1);
+    when(repository.findById(7L)).thenReturn(Optional.of(newJob(7L, JobStatus.PROCESSING, 2, 3)));
 
-    service.markDone(1L);
+    assertThat(service.leaseNext("worker-1", 900).getId()).isEqualTo(7L);
+    verify(repository, never()).lockIfLeaseable(42L);
+  }
+
+  @Test
+  void leaseNextReturnsNullWhenEveryCandidateIsTaken() {
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of(41L, 42L));
+    when(repository.lockIfLeaseable(any())).thenReturn(Optional.empty());
 
-    assertThat(job.getStatus()).isEqualTo(JobStatus.DONE);
-    assertThat(job.getLeasedBy()).isNull();
-    assertThat(job.getLeasedUntil()).isNull();
-    assertThat(job.getFinishedAt()).isNotNull();
-    assertThat(job.getLastError()).isNull();
+    assertThat(service.leaseNext("worker-1", 900)).isNull();
+    verify(repository, never()).acquireLease(any(), anyString(), anyInt());
+  }
+
+  @Test
+  void firstLeaseRecordsQueueWaitPerLane() {
+    ProcessingJob backfill = newJob(42L, JobStatus.PROCESSING, 1, 3);
+    backfill.setPriority(JobLane.BACKFILL);
+    backfill.setCreatedAt(Instant.now().minus(Duration.ofMinutes(5)));
+    ProcessingJob retry = newJob(43L, JobStatus.PROCESSING, 2, 3);
+    retry.setCreatedAt(Instant.now().minus(Duration.ofHours(1)));
+    when(repository.findQueuedCandidateIds(anyInt())).thenReturn(List.of(42L), List.of(43L));
+    when(repository.lockIfLeaseable(any())).then(inv -> Optional.of(inv.getArgument(0)));
+    when(repository.acquireLease(any(), anyString(), anyInt())).thenReturn(1);
+    when(repository.findById(42L)).thenReturn(Optional.of(backfill));
+    when(repository.findById(43L)).thenReturn(Optional.of(retry));
+
+    service.leaseNext("worker-1", 900);
+    service.leaseNext("worker-1", 900);
+
+    Timer backfillWait =
+        meterRegistry.find(JobLeaseService.QUEUE_WAIT_METRIC).tag("lane", "backfill").timer();
+    assertThat(backfillWait.count()).isEqualTo(1);
+    assertThat(backfillWait.totalTime(TimeUnit.MINUTES)).isGreaterThan(4.9);
+    // The retry's created_at includes its failed run; it is not a queue wait.
+    assertThat(
+            meterRegistry
+                .find(JobLeaseService.QUEUE_WAIT_METRIC)
+                .tag("lane", "interactive")
+                .timer())
+        .isNull();
+  }
+
+  @Test
+  void heartbeatReportsWhetherTheLeaseIsStillOurs() {
+    when(repository.extendLease(42L, "worker-1", 120, 37)).thenReturn(1);
+    when(repository.extendLease(43L, "worker-1", 120, null)).thenReturn(0);
+
+    assertThat(service.heartbeat(42L, "worker-1", 120, 37)).isTrue();
+    // Zero rows: the lease expired and another worker re-leased the job.
+    assertThat(service.heartbeat(43L, "worker-1", 120, null)).isFalse();
+  }
+
+  @Test
+  void releaseOnlySucceedsForTheLeaseHolder() {
+    when(repository.releaseLease(42L, "worker-1")).thenReturn(1);
+    when(repository.releaseLease(42L, "worker-2")).thenReturn(0);
+
+    assertThat(service.release(42L, "worker-1")).isTrue();
+    assertThat(service.release(42L, "worker-2")).isFalse();
+  }
+
+  @Test
+  void lastSegmentToFinishQueuesTheJoin() {
+    ProcessingJob segment = newJob(5L, JobStatus.PROCESSING, 1, 3);
+    segment.setParentJobId(4L);
+    when(repository.findById(5L)).thenReturn(Optional.of(segment));
+    when(repository.lockById(4L)).thenReturn(Optional.of(4L));
+    when(repository.settleLease(5L, "worker-1", "DONE", null)).thenReturn(1);
+    when(repository.countUnfinishedSiblings(4L, 5L)).thenReturn(0L);
+    when(repository.settleWaiting(4L, "QUEUED", null)).thenReturn(1);
+
+    assertThat(service.markSegmentDone(5L, "worker-1")).isTrue();
+
+    verify(repository).settleWaiting(4L, "QUEUED", null);
+  }
+
+  @Test
+  void segmentWithUnfinishedSiblingsLeavesTheJoinWaiting() {
+    ProcessingJob segment = newJob(5L, JobStatus.PROCESSING, 1, 3);
+    segment.setParentJobId(4L);
+    when(repository.findById(5L)).thenReturn(Optional.of(segment));
+    when(repository.lockById(4L)).thenReturn(Optional.of(4L));
+    when(repository.settleLease(5L, "worker-1", "DONE", null)).thenReturn(1);
+    when(repository.countUnfinishedSiblings(4L, 5L)).thenReturn(2L);
+
+    service.markSegmentDone(5L, "worker-1");
+
+    verify(repository, never()).settleWaiting(any(), anyString(), any());
+  }
+
+  /** The new owner of a taken-over segment settles it and wakes the join; this worker must not. */
+  @Test
+  void segmentWithALostLeaseWakesNothing() {
+    ProcessingJob segment = newJob(5L, JobStatus.PROCESSING, 1, 3);
+    segment.setParentJobId(4L);
+    when(repository.findById(5L)).thenReturn(Optional.of(segment));
+    when(repository.lockById(4L)).thenReturn(Optional.of(4L));
+    when(repository.settleLease(5L, "worker-1", "DONE", null)).thenReturn(0);
+
+    assertThat(service.markSegmentDone(5L, "worker-1")).isFalse();
+
+    verify(repository, never()).countUnfinishedSiblings(any(), any());
+    verify(repository, never()).settleWaiting(any(), anyString(), any());
+  }
+
+  @Test
+  void deadLetteredSegmentParksItsJoin() {
+    ProcessingJob segment = newJob(5L, JobStatus.PROCESSING, 3, 3);
+    segment.setParentJobId(4L);
+    segment.setSegmentIndex(7);
+    when(repository.findById(5L)).thenReturn(Optional.of(segment));
+    when(repository.settleLease(eq(5L), eq("worker-1"), eq("DEAD_LETTER"), any())).thenReturn(1);
+
+    service.markFailedOrDeadLetter(5L, "worker-1", "ffmpeg exit 1");
+
+    verify(repository).settleWaiting(eq(4L), eq("DEAD_LETTER"), contains("Segment 7"));
+  }
+
+  @Test
+  void markDoneIsFencedByTheLease() {
+    when(repository.settleLease(1L, "worker-1", "DONE", null)).thenReturn(1);
+    when(repository.settleLease(2L, "worker-1", "DONE", null)).thenReturn(0);
+
+    assertThat(service.markDone(1L, "worker-1")).isTrue();
+    // Zero rows: the lease expired and another worker took the job over.
+    assertThat(service.markDone(2L, "worker-1")).isFalse();
   }
 
   /**
-   * Back to QUEUED, not FAILED: {@code findNextLeaseableId} only selects QUEUED rows, so a job
-   * parked in FAILED would never be retried — it would sit there until an admin noticed.
+   * Back to QUEUED, not FAILED: the lease query only selects QUEUED rows, so a job parked in FAILED
+   * would never be retried — it would sit there until an admin noticed.
    */
   @Test
   void markFailedBeforeMaxAttemptsRequeuesForRetry() {
-    ProcessingJob job = newJob(1L, JobStatus.PROCESSING, 1, 3);
-    when(repository.findById(1L)).thenReturn(Optional.of(job));
+    when(repository.findById(1L)).thenReturn(Optional.of(newJob(1L, JobStatus.PROCESSING, 1, 3)));
+    when(repository.settleLease(1L, "worker-1", "QUEUED", "transient blip")).thenReturn(1);
 
-    service.markFailedOrDeadLetter(1L, "transient blip");
+    assertThat(service.markFailedOrDeadLetter(1L, "worker-1", "transient blip")).isTrue();
 
-    assertThat(job.getStatus()).isEqualTo(JobStatus.QUEUED);
-    assertThat(job.getFinishedAt()).isNull();
-    assertThat(job.getLastError()).isEqualTo("transient blip");
+    verify(repository).settleLease(1L, "worker-1", "QUEUED", "transient blip");
   }
 
   @Test
   void markFailedAtMaxAttemptsTransitionsToDeadLetter() {
-    ProcessingJob job = newJob(1L, JobStatus.PROCESSING, 3, 3);
-    when(repository.findById(1L)).thenReturn(Optional.of(job));
+    when(repository.findById(1L)).thenReturn(Optional.of(newJob(1L, JobStatus.PROCESSING, 3, 3)));
+
+    service.markFailedOrDeadLetter(1L, "worker-1", "ffmpeg exit 137");
+
+    verify(repository).settleLease(1L, "worker-1", "DEAD_LETTER", "ffmpeg exit 137");
+  }
+
+  @Test
+  void deadLetterOfALostLeaseLeavesTheJoinAlone() {
+    ProcessingJob segment = newJob(5L, JobStatus.PROCESSING, 3, 3);
+    segment.setParentJobId(4L);
+    when(repository.findById(5L)).thenReturn(Optional.of(segment));
+    when(repository.settleLease(eq(5L), eq("worker-1"), anyString(), any())).thenReturn(0);
 
-    service.markFailedOrDeadLetter(1L, "ffmpeg exit 137");
+    assertThat(service.markFailedOrDeadLetter(5L, "worker-1", "ffmpeg exit 1")).isFalse();
 
-    assertThat(job.getStatus()).isEqualTo(JobStatus.DEAD_LETTER);
-    assertThat(job.getFinishedAt()).isNotNull();
+    verify(repository, never()).settleWaiting(any(), anyString(), any());
   }
 
   @Test
   void markFailedTruncatesLongError() {
-    ProcessingJob job = newJob(1L, JobStatus.PROCESSING, 1, 3);
-    when(repository.findById(1L)).thenReturn(Optional.of(job));
+    when(repository.findById(1L)).thenReturn(Optional.of(newJob(1L, JobStatus.PROCESSING, 1, 3)));
 
-    String huge = "x".repeat(8000);
-    service.markFailedOrDeadLetter(1L, huge);
+    service.markFailedOrDeadLetter(1L, "worker-1", "x".repeat(8000));
 
-    assertThat(job.getLastError()).hasSize(4000);
+    verify(repository)
+        .settleLease(eq(1L), eq("worker-1"), eq("QUEUED"), argThat(e -> e.length() == 4000));
   }
 
   private ProcessingJob newJob(Long id, JobStatus status, int attempts, int maxAttempts) {
@@ -0,0 +1,119 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.oglimmer.photoupload.config.CaptureDateProperties;
+import com.oglimmer.photoupload.entity.CaptureDateSource;
+import com.oglimmer.photoupload.model.MediaMetadata;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The single pass has to deliver what the two separate extractors used to, plus the dimensions the
+ * gallery needs for layout — without going back to the file for each field.
+ */
+class MediaMetadataExtractorTest {
+
+  @TempDir Path tempDir;
+
+  private ThumbnailService thumbnailService;
+  private MediaMetadataExtractor extractor;
+
+  @BeforeEach
+  void setUp() {
+    thumbnailService = mock(ThumbnailService.class);
+    extractor =
+        new MediaMetadataExtractor(
+            new CaptureDateExtractor(new CaptureDateProperties()),
+            new GpsExtractor(),
+            thumbnailService);
+  }
+
+  @Test
+  void imageDimensionsComeFromTheJpegFrameHeader() throws IOException {
+    Path jpeg = tempDir.resolve("plain.jpg");
+    ImageIO.write(new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB), "jpg", jpeg.toFile());
+
+    MediaMetadata result = extractor.extract(jpeg, "image/jpeg");
+
+    assertThat(result.width()).isEqualTo(64);
+    assertThat(result.height()).isEqualTo(48);
+    assertThat(result.durationMs()).isNull();
+    assertThat(result.captureDate().source()).isEqualTo(CaptureDateSource.NONE);
+    verifyNoInteractions(thumbnailService);
+  }
+
+  @Test
+  void sidewaysOrientationSwapsImageDimensions() {
+    Metadata metadata = new Metadata();
+    JpegDirectory jpeg = new JpegDirectory();
+    jpeg.setInt(JpegDirectory.TAG_IMAGE_WIDTH, 4032);
+    jpeg.setInt(JpegDirectory.TAG_IMAGE_HEIGHT, 3024);
+    metadata.addDirectory(jpeg);
+    ExifIFD0Directory ifd0 = new ExifIFD0Directory();
+    ifd0.setInt(ExifIFD0Directory.TAG_ORIENTATION, 6);
+    metadata.addDirectory(ifd0);
+
+    assertThat(MediaMetadataExtractor.imageDimensions(metadata)).containsExactly(3024, 4032);
+  }
+
+  @Test
+  void unreadableImageYieldsNone() throws IOException {
+    Path garbage = tempDir.resolve("garbage.jpg");
+    Files.writeString(garbage, "not an image");
+
+    assertThat(extractor.extract(garbage, "image/jpeg")).isEqualTo(MediaMetadata.none());
+  }
+
+  @Test
+  void videoIsProbedOnce() {
+    Path video = tempDir.resolve("clip.mp4");
+    when(thumbnailService.probeVideo(any(Path.class)))
+        .thenReturn(
+            new FfmpegService.VideoProbe(
+                Map.of("creation_time", "2026-08-17T12:23:11.000000Z"),
+                1080,
+                1920,
+                12346L,
+                "h264",
+                "yuv420p",
+                "aac"));
+
+    MediaMetadata result = extractor.extract(video, "video/mp4");
+
+    assertThat(result.width()).isEqualTo(1080);
+    assertThat(result.height()).isEqualTo(1920);
+    assertThat(result.durationMs()).isEqualTo(12346L);
+    assertThat(result.captureDate().isPresent()).isTrue();
+    verify(thumbnailService).probeVideo(video);
+  }
+
+  @Test
+  void streamedVideoIsProbedAtItsUrl() {
+    MediaInput video = MediaInput.url("http://minio:9000/photos/originals/clip.mp4", "clip.mp4");
+    when(thumbnailService.probeVideo(video))
+        .thenReturn(
+            new FfmpegService.VideoProbe(Map.of(), 1920, 1080, 5000L, "h264", "yuv420p", "aac"));
+
+    MediaMetadata result = extractor.extract(video, "video/mp4");
+
+    assertThat(result.width()).isEqualTo(1920);
+    assertThat(result.durationMs()).isEqualTo(5000L);
+  }
+}
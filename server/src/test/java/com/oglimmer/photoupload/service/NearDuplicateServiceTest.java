@@ -0,0 +1,111 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.entity.Album;
+import com.oglimmer.photoupload.entity.User;
+import com.oglimmer.photoupload.exception.ValidationException;
+import com.oglimmer.photoupload.model.NearDuplicateGroup;
+import com.oglimmer.photoupload.model.NearDuplicateMatch;
+import com.oglimmer.photoupload.model.NearDuplicatesResponse;
+import com.oglimmer.photoupload.repository.AlbumRepository;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.security.UserContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class NearDuplicateServiceTest {
+
+  private static final long PHOTO = 0x0F0F_F0F0_1234_5678L;
+
+  @Mock FileMetadataRepository metadataRepository;
+  @Mock AlbumRepository albumRepository;
+  @Mock UserContext userContext;
+
+  @InjectMocks NearDuplicateService service;
+
+  private User user;
+
+  @BeforeEach
+  void setUp() {
+    user = new User();
+    user.setId(1L);
+  }
+
+  private void givenOwnAlbum() {
+    when(userContext.getCurrentUser()).thenReturn(user);
+    when(albumRepository.findByUserAndId(eq(user), any())).thenReturn(Optional.of(new Album()));
+  }
+
+  @Test
+  void groupsCopiesInTheAlbumAndListsTheirCopiesElsewhere() {
+    givenOwnAlbum();
+    List<Object[]> album =
+        rows(
+            row(1, 10, PHOTO),
+            row(2, 10, PHOTO ^ 0b101), // re-encoded copy: 2 bits off
+            row(3, 10, ~PHOTO)); // unrelated
+    when(metadataRepository.findPhashesByAlbumId(10L)).thenReturn(album);
+    List<Object[]> library = new ArrayList<>(album);
+    library.add(row(7, 20, PHOTO ^ 0b1)); // the same photo in another album
+    library.add(row(8, 20, PHOTO)); // deleted since the index was built
+    when(metadataRepository.findPhashesByUserId(1L)).thenReturn(library);
+    when(metadataRepository.findPhashesByIds(anyCollection()))
+        .thenReturn(rows(row(7, 20, PHOTO ^ 0b1)));
+
+    NearDuplicatesResponse response = service.findInAlbum(10L, null);
+
+    assertThat(response.getMaxDistance()).isEqualTo(NearDuplicateService.DEFAULT_DISTANCE);
+    assertThat(response.getGroups()).hasSize(1);
+    NearDuplicateGroup group = response.getGroups().get(0);
+    assertThat(group.getFileIds()).containsExactly(1L, 2L);
+    assertThat(group.getElsewhere())
+        .extracting(NearDuplicateMatch::getFileId, NearDuplicateMatch::getMatchedFileId)
+        .containsExactly(tuple(7L, 1L), tuple(7L, 2L));
+  }
+
+  @Test
+  void indexIsBuiltOnceAndCaughtUpAfterwards() {
+    givenOwnAlbum();
+    when(metadataRepository.findPhashesByAlbumId(10L)).thenReturn(rows(row(1, 10, PHOTO)));
+    when(metadataRepository.findPhashesByUserId(1L)).thenReturn(rows(row(1, 10, PHOTO)));
+
+    service.findInAlbum(10L, 4);
+    service.findInAlbum(10L, 4);
+
+    // Second call is inside the catch-up window: no DB read for the index at all.
+    verify(metadataRepository, times(1)).findPhashesByUserId(1L);
+  }
+
+  @Test
+  void radiusIsBounded() {
+    assertThrows(
+        ValidationException.class,
+        () -> service.findInAlbum(10L, NearDuplicateService.MAX_DISTANCE + 1));
+  }
+
+  private static Object[] row(long id, long albumId, long hash) {
+    return new Object[] {id, albumId, hash};
+  }
+
+  private static List<Object[]> rows(Object[]... rows) {
+    return new ArrayList<>(List.of(rows));
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.oglimmer.photoupload.config.ToolsProperties;
+import com.oglimmer.photoupload.entity.JobLane;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+
+/** Bounded output capture, rlimit/nice wrapping and per-tool usage metrics (D62). */
+class ProcessRunnerTest {
+
+  private ProcessRunner runner;
+
+  @AfterEach
+  void shutdown() {
+    if (runner != null) {
+      runner.shutdown();
+    }
+  }
+
+  @Test
+  void toolWithoutLimitsRunsAsIs() {
+    List<String> cmd = List.of("ffprobe", "-v", "quiet", "in.mp4");
+
+    assertThat(ProcessRunner.governed(cmd, null, 0)).isSameAs(cmd);
+  }
+
+  @Test
+  void niceAndRlimitsWrapTheCommandAndKeepItsArguments() {
+    ToolsProperties.Limits limits = new ToolsProperties.Limits();
+    limits.setMaxMemoryMb(2048);
+    limits.setMaxCpuSeconds(600);
+
+    List<String> cmd =
+        ProcessRunner.governed(List.of("/usr/bin/ffmpeg", "-i", "a b.mov", "out.mp4"), limits, 10);
+
+    assertThat(cmd)
+        .containsExactly(
+            "sh",
+            "-c",
+            "ulimit -v 2097152; ulimit -t 600; exec \"$@\"",
+            "sh",
+            "nice",
+            "-n",
+            "10",
+            "/usr/bin/ffmpeg",
+            "-i",
+            "a b.mov",
+            "out.mp4");
+  }
+
+  @Test
+  void niceAloneNeedsNoShell() {
+    assertThat(ProcessRunner.governed(List.of("ffmpeg", "-version"), null, 5))
+        .containsExactly("nice", "-n", "5", "ffmpeg", "-version");
+  }
+
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.MAC})
+  void toolsAreNicedByTheLaneOfTheJobThatStartsThem() throws Exception {
+    ToolsProperties properties = new ToolsProperties();
+    properties.getNice().put(JobLane.BACKFILL, 7);
+    runner = new ProcessRunner(properties, null);
+    List<String> niceness = List.of("sh", "-c", "nice");
+
+    int outside = Integer.parseInt(runner.run(niceness, 30, TimeUnit.SECONDS).output().trim());
+    int[] backfill = new int[1];
+    int[] interactive = new int[1];
+    runner.inLane(JobLane.BACKFILL, () -> backfill[0] = niceOf(niceness));
+    runner.inLane(JobLane.INTERACTIVE, () -> interactive[0] = niceOf(niceness));
+
+    assertThat(backfill[0]).isEqualTo(Math.min(19, outside + 7));
+    assertThat(interactive[0]).isEqualTo(outside);
+  }
+
+  @Test
+  void editLaneYieldsToUploadsButNotToSweepsByDefault() {
+    Map<JobLane, Integer> nice = new ToolsProperties().getNice();
+
+    assertThat(nice.getOrDefault(JobLane.INTERACTIVE, 0)).isZero();
+    assertThat(nice.get(JobLane.EDIT)).isPositive().isLessThan(nice.get(JobLane.BACKFILL));
+  }
+
+  private int niceOf(List<String> command) {
+    try {
+      return Integer.parseInt(runner.run(command, 30, TimeUnit.SECONDS).output().trim());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Test
+  void toolIsKeyedByExecutableName() {
+    assertThat(ProcessRunner.toolName(List.of("/usr/local/bin/vipsthumbnail", "x.jpg")))
+        .isEqualTo("vipsthumbnail");
+  }
+
+  @Test
+  void outputTailKeepsTheNewestLinesWithinBudget() {
+    ProcessRunner.OutputTail tail = new ProcessRunner.OutputTail(21);
+    for (int i = 0; i < 10; i++) {
+      tail.add("line " + i);
+    }
+
+    assertThat(tail.toString()).isEqualTo("[7 earlier lines dropped]\nline 7\nline 8\nline 9\n");
+  }
+
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.MAC})
+  void chattyToolKeepsOnlyTheTailAndIsMeasured() throws Exception {
+    ToolsProperties properties = new ToolsProperties();
+    properties.setOutputTailChars(64);
+    ToolsProperties.Limits limits = new ToolsProperties.Limits();
+    limits.setMaxCpuSeconds(60);
+    properties.getLimits().put("sh", limits);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    runner = new ProcessRunner(properties, registry);
+
+    ProcessRunner.Result r =
+        runner.run(
+            List.of("sh", "-c", "i=0; while [ $i -lt 5000 ]; do echo line $i; i=$((i+1)); done"),
+            30,
+            TimeUnit.SECONDS);
+
+    assertThat(r.success()).isTrue();
+    assertThat(r.output()).contains("line 4999").doesNotContain("line 0\n");
+    assertThat(r.output().length()).isLessThan(200);
+    assertThat(
+            registry
+                .find(ProcessRunner.DURATION)
+                .tag("tool", "sh")
+                .tag("result", "success")
+                .timer())
+        .isNotNull();
+  }
+
+  @Test
+  @EnabledOnOs({OS.LINUX, OS.MAC})
+  void hungToolIsKilledAtTheTimeoutEvenWithItsOutputOpen() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    runner = new ProcessRunner(new ToolsProperties(), registry);
+    long start = System.nanoTime();
+
+    ProcessRunner.Result r =
+        runner.run(List.of("sh", "-c", "sleep 30"), 200, TimeUnit.MILLISECONDS);
+
+    assertThat(r.timedOut()).isTrue();
+    assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(10));
+    assertThat(registry.find(ProcessRunner.DURATION).tag("result", "timeout").timer()).isNotNull();
+  }
+}
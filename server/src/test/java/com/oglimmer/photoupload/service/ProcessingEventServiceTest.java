@@ -0,0 +1,167 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+class ProcessingEventServiceTest {
+
+  private FileMetadataRepository repository;
+  private JobsProperties properties;
+  private ProcessingEventService service;
+
+  /** Emitter that records each frame (payload via toString) instead of writing to a response. */
+  private static final class RecordingEmitter extends SseEmitter {
+    final List<String> frames = new ArrayList<>();
+    boolean broken;
+
+    @Override
+    public void send(SseEventBuilder builder) throws IOException {
+      if (broken) {
+        throw new IOException("client went away");
+      }
+      StringBuilder frame = new StringBuilder();
+      builder.build().forEach(part -> frame.append(part.getData()));
+      frames.add(frame.toString());
+    }
+
+    long statusEvents() {
+      return frames.stream().filter(f -> f.startsWith("event:status")).count();
+    }
+  }
+
+  @BeforeEach
+  void setUp() {
+    repository = mock(FileMetadataRepository.class);
+    properties = new JobsProperties();
+    service = new ProcessingEventService(repository, properties);
+    service.sender = Runnable::run;
+  }
+
+  private static Object[] row(long albumId, long id, ProcessingStatus status, int attempts) {
+    Instant completed =
+        status == ProcessingStatus.DONE || status == ProcessingStatus.FAILED ? Instant.now() : null;
+    return new Object[] {albumId, id, status, attempts, completed, null, "tok-" + id};
+  }
+
+  private void stubRows(Object[]... rows) {
+    List<Object[]> list = new ArrayList<>(List.of(rows));
+    when(repository.findProcessingStateByAlbumIds(any(), any(), any())).thenReturn(list);
+  }
+
+  @Test
+  void noSubscribersMeansNoQuery() {
+    service.poll();
+
+    verify(repository, never()).findProcessingStateByAlbumIds(any(), any(), any());
+  }
+
+  @Test
+  void emitsInitialStateThenOnlyTransitions() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    service.register(5L, emitter);
+
+    stubRows(row(5L, 1L, ProcessingStatus.QUEUED, 0));
+    service.poll();
+    assertThat(emitter.statusEvents()).isEqualTo(1);
+    assertThat(emitter.frames.get(0)).contains("processingStatus=QUEUED");
+
+    // Unchanged row on the next tick — nothing to say.
+    service.poll();
+    assertThat(emitter.statusEvents()).isEqualTo(1);
+
+    stubRows(row(5L, 1L, ProcessingStatus.PROCESSING, 1));
+    service.poll();
+    stubRows(row(5L, 1L, ProcessingStatus.DONE, 1));
+    service.poll();
+
+    assertThat(emitter.statusEvents()).isEqualTo(3);
+    assertThat(emitter.frames.get(2))
+        .contains("processingStatus=DONE")
+        .contains("publicToken=tok-1");
+  }
+
+  @Test
+  void retryOfSameStatusIsReportedAsNewAttempt() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    service.register(5L, emitter);
+
+    stubRows(row(5L, 1L, ProcessingStatus.PROCESSING, 1));
+    service.poll();
+    stubRows(row(5L, 1L, ProcessingStatus.PROCESSING, 2));
+    service.poll();
+
+    assertThat(emitter.statusEvents()).isEqualTo(2);
+  }
+
+  @Test
+  void eventsAreRoutedToTheirAlbumOnly() {
+    RecordingEmitter albumFive = new RecordingEmitter();
+    RecordingEmitter albumSix = new RecordingEmitter();
+    service.register(5L, albumFive);
+    service.register(6L, albumSix);
+
+    stubRows(row(5L, 1L, ProcessingStatus.QUEUED, 0), row(5L, 2L, ProcessingStatus.QUEUED, 0));
+    service.poll();
+
+    assertThat(albumFive.statusEvents()).isEqualTo(2);
+    assertThat(albumSix.statusEvents()).isZero();
+  }
+
+  @Test
+  void heartbeatIsSentOnQuietStream() {
+    properties.getEvents().setHeartbeatMs(0);
+    RecordingEmitter emitter = new RecordingEmitter();
+    service.register(5L, emitter);
+    stubRows();
+
+    service.poll();
+
+    assertThat(emitter.frames).hasSize(1);
+    assertThat(emitter.frames.get(0)).startsWith(":keepalive");
+  }
+
+  @Test
+  void brokenSubscriberIsDropped() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    service.register(5L, emitter);
+    emitter.broken = true;
+    stubRows(row(5L, 1L, ProcessingStatus.QUEUED, 0));
+
+    service.poll();
+
+    assertThat(service.getSubscriberCount()).isZero();
+  }
+
+  @Test
+  void subscriberStuckInASendIsSkippedThenDropped() {
+    RecordingEmitter emitter = new RecordingEmitter();
+    service.register(5L, emitter);
+    stubRows(row(5L, 1L, ProcessingStatus.QUEUED, 0));
+    service.sender = task -> {}; // the delivery never finishes
+
+    service.poll();
+    service.poll();
+    assertThat(service.getSubscriberCount()).isEqualTo(1);
+
+    properties.getEvents().setSendTimeoutMs(-1);
+    service.poll();
+
+    assertThat(service.getSubscriberCount()).isZero();
+  }
+}
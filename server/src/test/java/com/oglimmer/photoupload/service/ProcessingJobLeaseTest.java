@@ -76,8 +76,8 @@ class ProcessingJobLeaseTest {
     // Cascade chain: deleting users cascades into albums → file_metadata → processing_jobs.
     jdbcTemplate.update("DELETE FROM processing_jobs");
     jdbcTemplate.update("DELETE FROM file_metadata");
-    jdbcTemplate.update("DELETE FROM albums WHERE user_id = ?", userId);
-    jdbcTemplate.update("DELETE FROM users WHERE id = ?", userId);
+    jdbcTemplate.update("DELETE FROM albums");
+    jdbcTemplate.update("DELETE FROM users");
   }
 
   /**
@@ -114,7 +114,7 @@ class ProcessingJobLeaseTest {
                       return null;
                     }
                     perWorker.get(workerIdx).add(job.getAssetId());
-                    jobLeaseService.markDone(job.getId());
+                    jobLeaseService.markDone(job.getId(), "worker-" + workerIdx);
                   }
                 } catch (InterruptedException ie) {
                   Thread.currentThread().interrupt();
@@ -193,6 +193,33 @@ class ProcessingJobLeaseTest {
     assertThat(resultingStatus).isEqualTo("QUEUED");
   }
 
+  /**
+   * D56: the backfill row is the oldest but waits for both interactive users, and the second user's
+   * single upload is leased after the first user's oldest job rather than after all three.
+   */
+  @Test
+  void lanesFirstThenRoundRobinOverUsers() {
+    jdbcTemplate.update(
+        "INSERT INTO users (email, password) VALUES (?, ?)", "it2@example.com", "irrelevant");
+    Long otherUser =
+        jdbcTemplate.queryForObject(
+            "SELECT id FROM users WHERE email = ?", Long.class, "it2@example.com");
+    Long backfill = insertJob(2, otherUser, 60);
+    Long a1 = insertJob(0, userId, 50);
+    Long a2 = insertJob(0, userId, 40);
+    Long a3 = insertJob(0, userId, 30);
+    Long b1 = insertJob(0, otherUser, 20);
+
+    List<Long> order = new ArrayList<>();
+    ProcessingJob job;
+    while ((job = jobLeaseService.leaseNext("worker", 60)) != null) {
+      order.add(job.getAssetId());
+      jobLeaseService.markDone(job.getId(), "worker");
+    }
+
+    assertThat(order).containsExactly(a1, b1, a2, a3, backfill);
+  }
+
   /** A still-leased PROCESSING row must NOT be re-acquired by another worker. */
   @Test
   void activeLeaseIsRespected() {
@@ -207,6 +234,19 @@ class ProcessingJobLeaseTest {
     assertThat(result).as("active lease must not be stolen").isNull();
   }
 
+  private Long insertJob(int priority, Long owner, int secondsAgo) {
+    Long assetId = insertFileMetadata();
+    jdbcTemplate.update(
+        "INSERT INTO processing_jobs "
+            + "(asset_id, priority, user_id, status, attempts, max_attempts, created_at) "
+            + "VALUES (?, ?, ?, 'QUEUED', 0, 3, DATE_SUB(NOW(6), INTERVAL ? SECOND))",
+        assetId,
+        priority,
+        owner,
+        secondsAgo);
+    return assetId;
+  }
+
   private Long insertQueuedJob() {
     Long assetId = insertFileMetadata();
     jdbcTemplate.update(
@@ -0,0 +1,248 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.config.ToolsProperties;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.model.FileServeInfo;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.service.ThumbnailService.ThumbnailSize;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResizeServiceTest {
+
+  private static final String TOKEN = "0123456789abcdef0123456789abcdef";
+
+  private FileMetadataRepository metaRepo;
+  private FileStorageService fileStorageService;
+  private ObjectStorageService s3;
+  private SimpleMeterRegistry meterRegistry;
+  private ResizeService svc;
+  private FileMetadata metadata;
+
+  @BeforeEach
+  void setUp() {
+    metaRepo = mock(FileMetadataRepository.class);
+    fileStorageService = mock(FileStorageService.class);
+    s3 = mock(ObjectStorageService.class);
+    meterRegistry = new SimpleMeterRegistry();
+    svc =
+        new ResizeService(
+            metaRepo,
+            fileStorageService,
+            new FileStorageProperties(),
+            Optional.of(s3),
+            meterRegistry,
+            new ProcessRunner(new ToolsProperties(), null));
+
+    metadata = new FileMetadata();
+    metadata.setId(7L);
+    metadata.setMimeType("image/jpeg");
+    metadata.setChecksum("abc");
+    metadata.setStoredFilename("photo.jpg");
+    metadata.setProcessingStatus(ProcessingStatus.DONE);
+    metadata.setWidth(4000);
+    metadata.setHeight(3000);
+    metadata.setThumbnailPath("derivatives/7/thumb.jpg");
+    metadata.setMediumPath("derivatives/7/medium.jpg");
+    metadata.setLargePath("derivatives/7/large.jpg");
+    when(metaRepo.findByPublicToken(TOKEN)).thenReturn(Optional.of(metadata));
+  }
+
+  @Test
+  void widthsRoundUpToTheNextBucket() {
+    List<Integer> widths = List.of(320, 480, 640, 960, 1280, 1920);
+
+    assertThat(ResizeService.bucketFor(1, widths)).isEqualTo(320);
+    assertThat(ResizeService.bucketFor(640, widths)).isEqualTo(640);
+    assertThat(ResizeService.bucketFor(641, widths)).isEqualTo(960);
+    assertThat(ResizeService.bucketFor(5000, widths)).isEqualTo(1920);
+  }
+
+  @Test
+  void derivativeWidthFollowsTheAspectRatioAndNeverEnlarges() {
+    assertThat(ResizeService.derivativeWidth(4000, 3000, ThumbnailSize.MEDIUM)).isEqualTo(1200);
+    assertThat(ResizeService.derivativeWidth(3000, 4000, ThumbnailSize.MEDIUM)).isEqualTo(900);
+    assertThat(ResizeService.derivativeWidth(800, 600, ThumbnailSize.LARGE)).isEqualTo(800);
+    assertThat(ResizeService.derivativeWidth(null, null, ThumbnailSize.THUMBNAIL)).isEqualTo(600);
+  }
+
+  @Test
+  void smallestDerivativeAtLeastAsWideIsTheSource() {
+    ResizeService.Plan landscape = svc.plan(metadata, TOKEN, 700, null, null);
+    assertThat(landscape.width()).isEqualTo(960);
+    assertThat(landscape.sourceKey()).isEqualTo("derivatives/7/medium.jpg");
+    assertThat(landscape.key()).isEqualTo("derivatives/7/resized/0123456789abcdef/w960.jpg");
+
+    metadata.setWidth(3000);
+    metadata.setHeight(4000);
+    ResizeService.Plan portrait = svc.plan(metadata, TOKEN, 700, null, null);
+    assertThat(portrait.sourceKey()).isEqualTo("derivatives/7/large.jpg");
+  }
+
+  @Test
+  void formatHintWinsAndAcceptIsNegotiatedOtherwise() {
+    ResizeService.Plan negotiated = svc.plan(metadata, TOKEN, 320, null, "image/webp,*/*");
+    assertThat(negotiated.key()).endsWith("/w320.webp");
+    assertThat(negotiated.variesByAccept()).isTrue();
+
+    ResizeService.Plan pinned = svc.plan(metadata, TOKEN, 320, "jpeg", "image/webp,*/*");
+    assertThat(pinned.key()).endsWith("/w320.jpg");
+    assertThat(pinned.variesByAccept()).isFalse();
+
+    // AVIF is not among the default resize formats.
+    assertThat(svc.plan(metadata, TOKEN, 320, "avif", null).key()).endsWith("/w320.jpg");
+  }
+
+  @Test
+  void storedRenditionIsServedAndRememberedWithoutAnotherHead() {
+    String key = "derivatives/7/resized/0123456789abcdef/w640.jpg";
+    when(s3.objectSize(key)).thenReturn(1234L);
+
+    FileServeInfo info = svc.serveInfo(TOKEN, 600, "jpeg", null).orElseThrow();
+    svc.serveInfo(TOKEN, 600, "jpeg", null);
+
+    assertThat(info.getStorageKey()).isEqualTo(key);
+    assertThat(info.getMimeType()).isEqualTo("image/jpeg");
+    assertThat(info.getVariant()).isEqualTo("w640.jpg");
+    verify(s3, times(1)).objectSize(key);
+    verify(s3, never()).putFile(anyString(), any(), anyString());
+    assertThat(count("stored")).isEqualTo(2.0);
+  }
+
+  @Test
+  void imageNarrowerThanTheBucketGetsTheLargeDerivative() {
+    metadata.setWidth(800);
+    metadata.setHeight(600);
+    FileServeInfo large = new FileServeInfo();
+    when(fileStorageService.getFileServeInfoByPublicToken(TOKEN, "large", null)).thenReturn(large);
+
+    assertThat(svc.serveInfo(TOKEN, 1920, null, null)).containsSame(large);
+    verify(s3, never()).objectSize(anyString());
+  }
+
+  @Test
+  void failedRenderFallsBackToItsSource() {
+    FileServeInfo medium = new FileServeInfo();
+    when(fileStorageService.getFileServeInfoByPublicToken(TOKEN, "medium", null))
+        .thenReturn(medium);
+    when(s3.objectSize(anyString())).thenReturn(null);
+    // Nothing is downloaded by the mock, so the render has no input and fails.
+
+    assertThat(svc.serveInfo(TOKEN, 900, "jpeg", null)).containsSame(medium);
+    verify(s3, never()).putFile(anyString(), any(), anyString());
+    assertThat(count("failed")).isEqualTo(1.0);
+  }
+
+  @Test
+  void videoIsLeftToTheCaller() {
+    metadata.setMimeType("video/mp4");
+
+    assertThat(svc.serveInfo(TOKEN, 640, null, null)).isEmpty();
+  }
+
+  @Test
+  void concurrentMissesOnOneKeyShareOneLookup() throws Exception {
+    ResizeService.Plan plan = svc.plan(metadata, TOKEN, 640, "jpeg", null);
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(s3.objectSize(plan.key()))
+        .thenAnswer(
+            invocation -> {
+              entered.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return 1234L;
+            });
+
+    CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> svc.ensure(plan, 7L));
+    assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+    CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(() -> svc.ensure(plan, 7L));
+    Thread.sleep(50); // let the second request reach the in-flight lookup
+    release.countDown();
+
+    assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(second.get(5, TimeUnit.SECONDS)).isTrue();
+    verify(s3, times(1)).objectSize(plan.key());
+    assertThat(count("stored") + count("joined")).isEqualTo(2.0);
+  }
+
+  @Test
+  void albumCopyRendersNextToTheDerivativesItShares() {
+    // duplicateAlbum: row 99 points at asset 7's derivatives under a token of its own.
+    metadata.setId(99L);
+
+    ResizeService.Plan plan = svc.plan(metadata, "fedcba9876543210ffff", 640, "jpeg", null);
+
+    assertThat(plan.key()).isEqualTo("derivatives/7/resized/fedcba9876543210/w640.jpg");
+  }
+
+  @Test
+  void forgottenRenditionIsLookedUpAgain() {
+    String key = "derivatives/7/resized/0123456789abcdef/w640.jpg";
+    when(s3.objectSize(key)).thenReturn(1234L);
+
+    svc.serveInfo(TOKEN, 600, "jpeg", null);
+    svc.forget(key);
+    svc.serveInfo(TOKEN, 600, "jpeg", null);
+
+    verify(s3, times(2)).objectSize(key);
+  }
+
+  @Test
+  void requestGivesUpWaitingForAnotherRenderAndGetsTheSource() throws Exception {
+    FileStorageProperties properties = new FileStorageProperties();
+    properties.setResizeWaitMs(50);
+    svc =
+        new ResizeService(
+            metaRepo,
+            fileStorageService,
+            properties,
+            Optional.of(s3),
+            meterRegistry,
+            new ProcessRunner(new ToolsProperties(), null));
+    FileServeInfo medium = new FileServeInfo();
+    when(fileStorageService.getFileServeInfoByPublicToken(TOKEN, "medium", null))
+        .thenReturn(medium);
+    ResizeService.Plan plan = svc.plan(metadata, TOKEN, 640, "jpeg", null);
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    when(s3.objectSize(plan.key()))
+        .thenAnswer(
+            invocation -> {
+              entered.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return 1234L;
+            });
+
+    CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> svc.ensure(plan, 7L));
+    assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+    try {
+      assertThat(svc.serveInfo(TOKEN, 640, "jpeg", null)).containsSame(medium);
+      assertThat(count("busy")).isEqualTo(1.0);
+    } finally {
+      release.countDown();
+    }
+    assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  private double count(String result) {
+    return meterRegistry.counter(ResizeService.RENDITIONS, "result", result).count();
+  }
+}
@@ -4,9 +4,8 @@ package com.oglimmer.photoupload.service;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -18,6 +17,7 @@ import com.oglimmer.photoupload.repository.FileMetadataRepository;
 import java.time.Instant;
 import java.util.List;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -38,6 +38,7 @@ class RetentionServiceOrphanCleanupTest {
   @Mock ObjectStorageService objectStorage;
   @Mock RetentionProperties properties;
   @Mock PlatformTransactionManager transactionManager;
+  @Mock StorageAccountingService storageAccounting;
 
   @InjectMocks RetentionService service;
 
@@ -50,44 +51,44 @@ class RetentionServiceOrphanCleanupTest {
   void emptyListIsNoOp() {
     when(properties.getMaxRowsPerRun()).thenReturn(5000);
     when(properties.isDryRun()).thenReturn(false);
-    when(metadataRepository.findAllOriginalsKeys()).thenReturn(List.of());
-    when(objectStorage.listKeysOlderThan(eq("originals/"), any(Instant.class)))
-        .thenReturn(List.of());
+    when(metadataRepository.streamOriginalsKeys("originals/")).thenReturn(Stream.of());
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(Stream.of());
 
     RetentionService.Result result = service.runOriginalsOrphanCleanup();
 
     assertEquals(0, result.eligible());
     assertEquals(0, result.purged());
     assertEquals(0, result.failed());
-    verify(objectStorage, never()).delete(any());
+    verify(objectStorage, never()).deleteKeys(any());
   }
 
   @Test
   void liveKeysAreNotDeleted() {
     when(properties.getMaxRowsPerRun()).thenReturn(5000);
     when(properties.isDryRun()).thenReturn(false);
-    when(metadataRepository.findAllOriginalsKeys())
-        .thenReturn(List.of("originals/keep-me.jpg", "originals/also-live.heic"));
-    when(objectStorage.listKeysOlderThan(eq("originals/"), any(Instant.class)))
-        .thenReturn(List.of("originals/keep-me.jpg", "originals/also-live.heic"));
+    when(metadataRepository.streamOriginalsKeys("originals/"))
+        .thenReturn(Stream.of("originals/also-live.heic", "originals/keep-me.jpg"));
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(Stream.of("originals/also-live.heic", "originals/keep-me.jpg"));
 
     RetentionService.Result result = service.runOriginalsOrphanCleanup();
 
     assertEquals(0, result.eligible());
-    verify(objectStorage, never()).delete(any());
+    verify(objectStorage, never()).deleteKeys(any());
   }
 
   @Test
   void deletesOnlyKeysWithNoLiveRow() {
     when(properties.getMaxRowsPerRun()).thenReturn(5000);
     when(properties.isDryRun()).thenReturn(false);
-    when(metadataRepository.findAllOriginalsKeys())
-        .thenReturn(List.of("originals/live-1.jpg", "originals/live-2.jpg"));
-    when(objectStorage.listKeysOlderThan(eq("originals/"), any(Instant.class)))
+    when(metadataRepository.streamOriginalsKeys("originals/"))
+        .thenReturn(Stream.of("originals/live-1.jpg", "originals/live-2.jpg"));
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
         .thenReturn(
-            List.of(
+            Stream.of(
+                "originals/a-orphan.jpg",
                 "originals/live-1.jpg",
-                "originals/orphan-a.jpg",
                 "originals/live-2.jpg",
                 "originals/orphan-b.heic"));
 
@@ -96,36 +97,54 @@ class RetentionServiceOrphanCleanupTest {
     assertEquals(2, result.eligible());
     assertEquals(2, result.purged());
     assertEquals(0, result.failed());
-    verify(objectStorage, times(1)).delete("originals/orphan-a.jpg");
-    verify(objectStorage, times(1)).delete("originals/orphan-b.heic");
-    verify(objectStorage, never()).delete("originals/live-1.jpg");
-    verify(objectStorage, never()).delete("originals/live-2.jpg");
+    // One DeleteObjects call for the whole run.
+    verify(objectStorage, times(1))
+        .deleteKeys(List.of("originals/a-orphan.jpg", "originals/orphan-b.heic"));
+    verify(objectStorage, never()).delete(any());
+  }
+
+  @Test
+  void tusUploadsAreLeftToTheTusPass() {
+    when(properties.getMaxRowsPerRun()).thenReturn(5000);
+    when(properties.isDryRun()).thenReturn(false);
+    when(metadataRepository.streamOriginalsKeys("originals/")).thenReturn(Stream.of());
+    // An upload still in flight after the orphan grace: no row yet, but not an orphan either.
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(
+            Stream.of(
+                "originals/orphan.jpg", "originals/tus/in-flight", "originals/tus/in-flight.info"));
+
+    RetentionService.Result result = service.runOriginalsOrphanCleanup();
+
+    assertEquals(1, result.eligible());
+    verify(objectStorage).deleteKeys(List.of("originals/orphan.jpg"));
   }
 
   @Test
   void dryRunSkipsDelete() {
     when(properties.getMaxRowsPerRun()).thenReturn(5000);
     when(properties.isDryRun()).thenReturn(true);
-    when(metadataRepository.findAllOriginalsKeys()).thenReturn(List.of());
-    when(objectStorage.listKeysOlderThan(eq("originals/"), any(Instant.class)))
-        .thenReturn(List.of("originals/orphan-a.jpg", "originals/orphan-b.jpg"));
+    when(metadataRepository.streamOriginalsKeys("originals/")).thenReturn(Stream.of());
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(Stream.of("originals/orphan-a.jpg", "originals/orphan-b.jpg"));
 
     RetentionService.Result result = service.runOriginalsOrphanCleanup();
 
     assertEquals(2, result.eligible());
     assertEquals(0, result.purged());
     assertTrue(result.dryRun());
-    verify(objectStorage, never()).delete(any());
+    verify(objectStorage, never()).deleteKeys(any());
   }
 
   @Test
   void respectsMaxRowsCap() {
     when(properties.getMaxRowsPerRun()).thenReturn(2);
     when(properties.isDryRun()).thenReturn(false);
-    when(metadataRepository.findAllOriginalsKeys()).thenReturn(List.of());
+    when(metadataRepository.streamOriginalsKeys("originals/")).thenReturn(Stream.of());
     List<String> tenKeys =
         IntStream.range(0, 10).mapToObj(i -> "originals/orphan-" + i + ".jpg").toList();
-    when(objectStorage.listKeysOlderThan(eq("originals/"), any(Instant.class))).thenReturn(tenKeys);
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(tenKeys.stream());
 
     RetentionService.Result result = service.runOriginalsOrphanCleanup();
 
@@ -133,31 +152,45 @@ class RetentionServiceOrphanCleanupTest {
     // orphans flow through on the next nightly firing.
     assertEquals(2, result.eligible());
     assertEquals(2, result.purged());
-    verify(objectStorage, times(2)).delete(any());
+    verify(objectStorage).deleteKeys(tenKeys.subList(0, 2));
   }
 
   @Test
   void deleteFailureCountsAsFailed() {
     when(properties.getMaxRowsPerRun()).thenReturn(5000);
     when(properties.isDryRun()).thenReturn(false);
-    when(metadataRepository.findAllOriginalsKeys()).thenReturn(List.of());
-    when(objectStorage.listKeysOlderThan(eq("originals/"), any(Instant.class)))
-        .thenReturn(List.of("originals/ok.jpg", "originals/dead.jpg"));
-    doAnswer(
-            inv -> {
-              if ("originals/dead.jpg".equals(inv.getArgument(0))) {
-                throw new RuntimeException("S3 down");
-              }
-              return null;
-            })
-        .when(objectStorage)
-        .delete(anyString());
+    when(metadataRepository.streamOriginalsKeys("originals/")).thenReturn(Stream.of());
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(Stream.of("originals/dead.jpg", "originals/ok.jpg"));
+    doThrow(new RuntimeException("S3 down")).when(objectStorage).deleteKeys(any());
 
     RetentionService.Result result = service.runOriginalsOrphanCleanup();
 
+    // The keys share one DeleteObjects call, so they fail together.
     assertEquals(2, result.eligible());
-    assertEquals(1, result.purged());
-    assertEquals(1, result.failed());
+    assertEquals(0, result.purged());
+    assertEquals(2, result.failed());
+  }
+
+  @Test
+  void walksBothSidesInOrderAndBatchesDeletes() {
+    when(properties.getMaxRowsPerRun()).thenReturn(5000);
+    when(properties.isDryRun()).thenReturn(false);
+    // 1500 live rows, more than one fetch; every live key is listed, plus 1200 orphans after them.
+    List<String> live =
+        IntStream.range(0, 1500).mapToObj(i -> String.format("originals/l%05d.jpg", i)).toList();
+    List<String> orphans =
+        IntStream.range(0, 1200).mapToObj(i -> String.format("originals/o%05d.jpg", i)).toList();
+    when(metadataRepository.streamOriginalsKeys("originals/")).thenReturn(live.stream());
+    when(objectStorage.streamKeysOlderThan(eq("originals/"), any(Instant.class)))
+        .thenReturn(Stream.concat(live.stream(), orphans.stream()));
+
+    RetentionService.Result result = service.runOriginalsOrphanCleanup();
+
+    assertEquals(1200, result.eligible());
+    assertEquals(1200, result.purged());
+    verify(objectStorage).deleteKeys(orphans.subList(0, 1000));
+    verify(objectStorage).deleteKeys(orphans.subList(1000, 1200));
   }
 
   @Test
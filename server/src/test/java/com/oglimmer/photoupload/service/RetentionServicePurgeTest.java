@@ -0,0 +1,148 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.RetentionProperties;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/** The chunked originals purge: one DeleteObjects and one bulk UPDATE per chunk of 1000. */
+@ExtendWith(MockitoExtension.class)
+class RetentionServicePurgeTest {
+
+  @Mock FileMetadataRepository metadataRepository;
+  @Mock ObjectStorageService objectStorage;
+  @Mock RetentionProperties properties;
+  @Mock PlatformTransactionManager transactionManager;
+  @Mock StorageAccountingService storageAccounting;
+
+  @InjectMocks RetentionService service;
+
+  @BeforeEach
+  void setUp() {
+    when(properties.getOriginalDays()).thenReturn(7);
+    when(properties.getMaxRowsPerRun()).thenReturn(5000);
+  }
+
+  @Test
+  void purgesInChunksWithOneDeleteAndOneUpdateEach() {
+    when(properties.isDryRun()).thenReturn(false);
+    when(properties.getPurgeParallelism()).thenReturn(2);
+    when(metadataRepository.findRetentionPurgeCandidates(any(), anyInt())).thenReturn(rows(2500));
+    List<Collection<Long>> updates = Collections.synchronizedList(new ArrayList<>());
+    when(metadataRepository.clearFilePaths(anyCollection()))
+        .thenAnswer(
+            inv -> {
+              Collection<Long> ids = inv.getArgument(0);
+              updates.add(ids);
+              return ids.size();
+            });
+
+    RetentionService.Result result = service.run();
+
+    assertEquals(2500, result.eligible());
+    assertEquals(2500, result.purged());
+    assertEquals(0, result.failed());
+    verify(objectStorage, times(3)).deleteKeys(anyCollection());
+    assertEquals(3, updates.size());
+    Set<Long> cleared = new HashSet<>();
+    updates.forEach(cleared::addAll);
+    assertEquals(2500, cleared.size());
+    verify(objectStorage, never()).delete(any());
+  }
+
+  @Test
+  void keysS3RejectsKeepTheirRow() {
+    when(properties.isDryRun()).thenReturn(false);
+    when(properties.getPurgeParallelism()).thenReturn(4);
+    when(metadataRepository.findRetentionPurgeCandidates(any(), anyInt())).thenReturn(rows(3));
+    when(objectStorage.deleteKeys(anyCollection())).thenReturn(Set.of("originals/1.jpg"));
+
+    RetentionService.Result result = service.run();
+
+    assertEquals(2, result.purged());
+    assertEquals(1, result.failed());
+    verify(metadataRepository).clearFilePaths(List.of(0L, 2L));
+    verify(storageAccounting).release(List.of(0L, 2L), StorageAccountingService.ORIGINAL);
+  }
+
+  @Test
+  void aFailedDeleteFailsTheWholeChunkAndTouchesNoRow() {
+    when(properties.isDryRun()).thenReturn(false);
+    when(properties.getPurgeParallelism()).thenReturn(4);
+    when(metadataRepository.findRetentionPurgeCandidates(any(), anyInt())).thenReturn(rows(3));
+    when(objectStorage.deleteKeys(anyCollection())).thenThrow(new RuntimeException("S3 down"));
+
+    RetentionService.Result result = service.run();
+
+    assertEquals(0, result.purged());
+    assertEquals(3, result.failed());
+    verify(metadataRepository, never()).clearFilePaths(anyCollection());
+  }
+
+  @Test
+  void sharedOriginalsAreDeletedOnceButEveryRowIsCleared() {
+    when(properties.isDryRun()).thenReturn(false);
+    when(properties.getPurgeParallelism()).thenReturn(4);
+    List<FileMetadata> rows = rows(2);
+    rows.get(1).setFilePath(rows.get(0).getFilePath());
+    when(metadataRepository.findRetentionPurgeCandidates(any(), anyInt())).thenReturn(rows);
+
+    RetentionService.Result result = service.run();
+
+    assertEquals(2, result.purged());
+    verify(objectStorage).deleteKeys(Set.of("originals/0.jpg"));
+    verify(metadataRepository).clearFilePaths(List.of(0L, 1L));
+  }
+
+  @Test
+  void dryRunTouchesNothing() {
+    when(properties.isDryRun()).thenReturn(true);
+    when(metadataRepository.findRetentionPurgeCandidates(any(), anyInt())).thenReturn(rows(3));
+
+    RetentionService.Result result = service.run();
+
+    assertEquals(3, result.eligible());
+    assertEquals(0, result.purged());
+    assertTrue(result.dryRun());
+    verify(objectStorage, never()).deleteKeys(anyCollection());
+    verify(metadataRepository, never()).clearFilePaths(anyCollection());
+  }
+
+  private static List<FileMetadata> rows(int n) {
+    return new ArrayList<>(
+        IntStream.range(0, n)
+            .mapToObj(
+                i -> {
+                  FileMetadata row = new FileMetadata();
+                  row.setId((long) i);
+                  row.setFilePath("originals/" + i + ".jpg");
+                  row.setFileSize(1024L);
+                  return row;
+                })
+            .toList());
+  }
+}
@@ -18,6 +18,7 @@ import com.oglimmer.photoupload.repository.FileMetadataRepository;
 import java.time.Instant;
 import java.util.List;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -38,6 +39,7 @@ class RetentionServiceTusCleanupTest {
   @Mock ObjectStorageService objectStorage;
   @Mock RetentionProperties properties;
   @Mock PlatformTransactionManager transactionManager;
+  @Mock StorageAccountingService storageAccounting;
 
   @InjectMocks RetentionService service;
 
@@ -135,6 +137,25 @@ class RetentionServiceTusCleanupTest {
     assertEquals(1, result.failed());
   }
 
+  @Test
+  void inPlaceUploadsAreKeptWhileARowReferencesThem() {
+    when(properties.getMaxRowsPerRun()).thenReturn(5000);
+    when(properties.isDryRun()).thenReturn(false);
+    when(objectStorage.listKeysOlderThan(eq("tus-uploads/"), any(Instant.class)))
+        .thenReturn(List.of());
+    when(objectStorage.streamKeysOlderThan(eq("originals/tus/"), any(Instant.class)))
+        .thenReturn(Stream.of("originals/tus/a", "originals/tus/a.info", "originals/tus/b"));
+    when(metadataRepository.streamOriginalsKeys("originals/tus/"))
+        .thenReturn(Stream.of("originals/tus/a"));
+
+    RetentionService.Result result = service.runTusCleanup();
+
+    // "a" is a finished upload its row points at; its stale .info and the abandoned "b" go.
+    assertEquals(2, result.eligible());
+    assertEquals(2, result.purged());
+    verify(objectStorage).deleteKeys(List.of("originals/tus/a.info", "originals/tus/b"));
+  }
+
   @Test
   void zeroDaysRefusesToRun() {
     when(properties.getTusUploadDays()).thenReturn(0);
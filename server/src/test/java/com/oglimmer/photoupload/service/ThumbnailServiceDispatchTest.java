@@ -10,12 +10,10 @@ import static org.mockito.Mockito.when;
 
 import com.oglimmer.photoupload.config.FileStorageProperties;
 import com.oglimmer.photoupload.config.FileStorageProperties.Thumbnailer;
-import com.oglimmer.photoupload.entity.CaptureDateSource;
-import com.oglimmer.photoupload.model.CaptureDate;
+import com.oglimmer.photoupload.config.ToolsProperties;
 import com.oglimmer.photoupload.util.MimeTypePredicates;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Instant;
 import org.junit.jupiter.api.Test;
 
 class ThumbnailServiceDispatchTest {
@@ -28,7 +26,9 @@ class ThumbnailServiceDispatchTest {
     HeicConversionService heic = mock(HeicConversionService.class);
     FfmpegService ffmpeg = mock(FfmpegService.class);
 
-    ThumbnailService svc = new ThumbnailService(props, vips, heic, ffmpeg);
+    ThumbnailService svc =
+        new ThumbnailService(
+            props, vips, heic, ffmpeg, new ProcessRunner(new ToolsProperties(), null));
 
     Path src = Paths.get("/tmp/x.jpg");
     Path base = Paths.get("/tmp/x.jpg");
@@ -49,7 +49,9 @@ class ThumbnailServiceDispatchTest {
     HeicConversionService heic = mock(HeicConversionService.class);
     FfmpegService ffmpeg = mock(FfmpegService.class);
 
-    ThumbnailService svc = new ThumbnailService(props, vips, heic, ffmpeg);
+    ThumbnailService svc =
+        new ThumbnailService(
+            props, vips, heic, ffmpeg, new ProcessRunner(new ToolsProperties(), null));
 
     // Magick path shells out to `convert`, which won't exist in CI; we only need to confirm the
     // vips service is not consulted. The shell-out itself is exercised by integration tests.
@@ -64,27 +66,24 @@ class ThumbnailServiceDispatchTest {
     VipsThumbnailService vips = mock(VipsThumbnailService.class);
     HeicConversionService heic = mock(HeicConversionService.class);
     FfmpegService ffmpeg = mock(FfmpegService.class);
-    ThumbnailService svc = new ThumbnailService(props, vips, heic, ffmpeg);
+    ThumbnailService svc =
+        new ThumbnailService(
+            props, vips, heic, ffmpeg, new ProcessRunner(new ToolsProperties(), null));
 
     Path a = Paths.get("/tmp/a");
     Path b = Paths.get("/tmp/b");
-    CaptureDate when =
-        CaptureDate.of(Instant.parse("2026-04-27T00:00:00Z"), CaptureDateSource.MVHD_UTC);
 
     when(heic.convertHeicToJpeg(a, b)).thenReturn(true);
     when(ffmpeg.transcodeVideo(a, b)).thenReturn(true);
     when(ffmpeg.generateVideoThumbnail(a, b)).thenReturn(true);
-    when(ffmpeg.extractVideoCreationDate(a)).thenReturn(when);
 
     assertThat(svc.convertHeicToJpeg(a, b)).isTrue();
     assertThat(svc.transcodeVideo(a, b)).isTrue();
     assertThat(svc.generateVideoThumbnail(a, b)).isTrue();
-    assertThat(svc.extractVideoCreationDate(a)).isEqualTo(when);
 
     verify(heic).convertHeicToJpeg(eq(a), eq(b));
     verify(ffmpeg).transcodeVideo(eq(a), eq(b));
     verify(ffmpeg).generateVideoThumbnail(eq(a), eq(b));
-    verify(ffmpeg).extractVideoCreationDate(eq(a));
   }
 
   @Test
@@ -16,6 +16,7 @@ import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.oglimmer.photoupload.config.JobsProperties;
+import com.oglimmer.photoupload.config.TusProperties;
 import com.oglimmer.photoupload.entity.FileMetadata;
 import com.oglimmer.photoupload.entity.User;
 import com.oglimmer.photoupload.model.FileInfo;
@@ -47,6 +48,7 @@ class TusHookServiceTest {
   @Mock JobsProperties jobsProperties;
   @Mock JobsProperties.Backpressure backpressure;
   @Mock JobQueueDepthService queueDepthService;
+  @Mock TusProperties tusProperties;
 
   @InjectMocks TusHookService service;
 
@@ -0,0 +1,164 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.oglimmer.photoupload.config.FileStorageProperties;
+import com.oglimmer.photoupload.entity.Album;
+import com.oglimmer.photoupload.entity.FileMetadata;
+import com.oglimmer.photoupload.entity.ProcessingStatus;
+import com.oglimmer.photoupload.repository.FileMetadataRepository;
+import com.oglimmer.photoupload.repository.ProcessingJobRepository;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/** Post-hoc checksum dedupe of TUS uploads: collapse within an album, link across albums. */
+@ExtendWith(MockitoExtension.class)
+class UploadDedupeServiceTest {
+
+  private static final String SHA = "ab".repeat(32);
+  private static final String UPLOAD_KEY = "originals/tus/upload-1";
+
+  @Mock FileMetadataRepository metadataRepository;
+  @Mock ProcessingJobRepository jobRepository;
+  @Mock PlatformTransactionManager transactionManager;
+  @Mock StorageAccountingService storageAccounting;
+  @Mock ObjectStorageService objectStorage;
+
+  private FileStorageProperties properties;
+  private UploadDedupeService service;
+  private FileMetadata upload;
+
+  @BeforeEach
+  void setUp() {
+    properties = new FileStorageProperties();
+    service =
+        new UploadDedupeService(
+            metadataRepository,
+            jobRepository,
+            properties,
+            transactionManager,
+            storageAccounting,
+            Optional.of(objectStorage));
+    upload = row(20L, 1L, UPLOAD_KEY, ProcessingStatus.PROCESSING);
+    when(metadataRepository.findById(20L)).thenReturn(Optional.of(upload));
+    // Dropping a collapsed row does not ask for the owner.
+    lenient().when(metadataRepository.findOwnerIdById(20L)).thenReturn(Optional.of(7L));
+  }
+
+  private static FileMetadata row(Long id, Long albumId, String filePath, ProcessingStatus status) {
+    Album album = new Album();
+    album.setId(albumId);
+    FileMetadata row = new FileMetadata();
+    row.setId(id);
+    row.setAlbum(album);
+    row.setOriginalName("IMG_" + id + ".jpg");
+    row.setFilePath(filePath);
+    row.setProcessingStatus(status);
+    return row;
+  }
+
+  @Test
+  void uniqueUploadKeepsItsBytesAndGainsAChecksum() {
+    when(metadataRepository.findByChecksumAndUserId(SHA, 7L)).thenReturn(List.of(upload));
+
+    assertThat(service.adopt(20L, SHA)).isEqualTo(UploadDedupeService.Outcome.KEPT);
+
+    assertThat(upload.getChecksum()).isEqualTo(SHA);
+    assertThat(upload.getFilePath()).isEqualTo(UPLOAD_KEY);
+    verify(metadataRepository).save(upload);
+    verify(objectStorage, never()).delete(any());
+  }
+
+  @Test
+  void twinInTheSameAlbumCollapsesTheUpload() {
+    FileMetadata twin = row(5L, 1L, "originals/a.jpg", ProcessingStatus.DONE);
+    when(metadataRepository.findByChecksumAndUserId(SHA, 7L)).thenReturn(List.of(twin, upload));
+
+    assertThat(service.adopt(20L, SHA)).isEqualTo(UploadDedupeService.Outcome.COLLAPSED);
+
+    // The row goes only after its job is settled; until then it stands on the twin's objects.
+    assertThat(upload.getFilePath()).isEqualTo("originals/a.jpg");
+    assertThat(upload.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    verify(storageAccounting).copy(Map.of(20L, 5L), 1L);
+    verify(metadataRepository, never()).delete(any());
+    verify(objectStorage).delete(UPLOAD_KEY);
+  }
+
+  @Test
+  void collapsedRowIsDroppedWithItsJobArchived() {
+    service.dropCollapsed(20L, 42L);
+
+    verify(jobRepository).copyToArchive(List.of(42L));
+    verify(jobRepository).deleteByIds(List.of(42L));
+    verify(storageAccounting).release(List.of(20L), null);
+    verify(metadataRepository).delete(upload);
+    verify(objectStorage, never()).delete(any());
+  }
+
+  @Test
+  void twinInAnotherAlbumIsLinkedTo() {
+    FileMetadata twin = row(5L, 2L, "originals/a.jpg", ProcessingStatus.DONE);
+    twin.setThumbnailPath("derivatives/5/thumb.jpg");
+    twin.setWidth(4032);
+    when(metadataRepository.findByChecksumAndUserId(SHA, 7L)).thenReturn(List.of(twin, upload));
+
+    assertThat(service.adopt(20L, SHA)).isEqualTo(UploadDedupeService.Outcome.LINKED);
+
+    assertThat(upload.getFilePath()).isEqualTo("originals/a.jpg");
+    assertThat(upload.getThumbnailPath()).isEqualTo("derivatives/5/thumb.jpg");
+    assertThat(upload.getWidth()).isEqualTo(4032);
+    assertThat(upload.getProcessingStatus()).isEqualTo(ProcessingStatus.DONE);
+    assertThat(upload.getAlbum().getId()).isEqualTo(1L);
+    verify(storageAccounting).copy(Map.of(20L, 5L), 1L);
+    verify(objectStorage).delete(UPLOAD_KEY);
+  }
+
+  @Test
+  void uploadStillSharedByAnotherRowKeepsItsObject() {
+    FileMetadata twin = row(5L, 1L, "originals/a.jpg", ProcessingStatus.DONE);
+    when(metadataRepository.findByChecksumAndUserId(SHA, 7L)).thenReturn(List.of(twin, upload));
+    // An album duplicated while the upload was processing points its copy at the same key.
+    when(metadataRepository.countByFilePath(UPLOAD_KEY)).thenReturn(1L);
+
+    assertThat(service.adopt(20L, SHA)).isEqualTo(UploadDedupeService.Outcome.COLLAPSED);
+
+    verify(objectStorage, never()).delete(any());
+  }
+
+  @Test
+  void laterOrUnfinishedTwinsAreIgnored() {
+    FileMetadata later = row(30L, 1L, "originals/b.jpg", ProcessingStatus.DONE);
+    FileMetadata processing = row(6L, 1L, "originals/c.jpg", ProcessingStatus.PROCESSING);
+    FileMetadata purged = row(4L, 2L, null, ProcessingStatus.DONE);
+    when(metadataRepository.findByChecksumAndUserId(SHA, 7L))
+        .thenReturn(List.of(purged, processing, upload, later));
+
+    assertThat(service.adopt(20L, SHA)).isEqualTo(UploadDedupeService.Outcome.KEPT);
+
+    verify(metadataRepository, never()).delete(any());
+    verify(objectStorage, never()).delete(any());
+  }
+
+  @Test
+  void disabledDetectionOnlyStoresTheChecksum() {
+    properties.setDuplicateDetectionEnabled(false);
+
+    assertThat(service.adopt(20L, SHA)).isEqualTo(UploadDedupeService.Outcome.KEPT);
+
+    assertThat(upload.getChecksum()).isEqualTo(SHA);
+    verify(metadataRepository, never()).findByChecksumAndUserId(any(), any());
+  }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class DerivativeFormatTest {
+
+  private static final Set<DerivativeFormat> BOTH = EnumSet.allOf(DerivativeFormat.class);
+
+  @Test
+  void columnRoundTripsInPreferenceOrderAndIgnoresUnknownTokens() {
+    assertEquals(BOTH, DerivativeFormat.parse(" webp , avif,jxl"));
+    assertEquals("avif,webp", DerivativeFormat.format(DerivativeFormat.parse("webp,avif")));
+    assertTrue(DerivativeFormat.parse(null).isEmpty());
+    assertNull(DerivativeFormat.format(Set.of()));
+  }
+
+  @Test
+  void negotiatePrefersAvifWhenBothAreNamed() {
+    assertEquals(
+        Optional.of(DerivativeFormat.AVIF),
+        DerivativeFormat.negotiate("image/avif,image/webp,image/apng,*/*;q=0.8", BOTH));
+  }
+
+  @Test
+  void negotiateOnlyOffersWhatTheRowHas() {
+    assertEquals(
+        Optional.of(DerivativeFormat.WEBP),
+        DerivativeFormat.negotiate("image/avif,image/webp,*/*", EnumSet.of(DerivativeFormat.WEBP)));
+  }
+
+  @Test
+  void wildcardsAndZeroQualityDoNotCount() {
+    assertEquals(Optional.empty(), DerivativeFormat.negotiate("*/*", BOTH));
+    assertEquals(Optional.empty(), DerivativeFormat.negotiate("image/*", BOTH));
+    assertEquals(
+        Optional.of(DerivativeFormat.WEBP),
+        DerivativeFormat.negotiate("image/avif;q=0,image/webp", BOTH));
+    assertEquals(Optional.empty(), DerivativeFormat.negotiate("not a media type;;", BOTH));
+    assertEquals(Optional.empty(), DerivativeFormat.negotiate(null, BOTH));
+  }
+
+  @Test
+  void variantKeysSitNextToTheJpegDerivative() {
+    assertEquals(
+        "derivatives/42/medium.webp",
+        StoragePaths.derivativeVariantKey("derivatives/42/medium.jpg", DerivativeFormat.WEBP));
+    assertEquals(
+        List.of("derivatives/42/thumb.avif", "derivatives/42/thumb.webp"),
+        StoragePaths.derivativeVariantKeys("derivatives/42/thumb.jpg"));
+    // Originals, transcodes and legacy disk paths never have variants.
+    assertNull(StoragePaths.derivativeVariantKey("originals/x.jpg", DerivativeFormat.AVIF));
+    assertNull(
+        StoragePaths.derivativeVariantKey("derivatives/42/video.mp4", DerivativeFormat.AVIF));
+    assertNull(StoragePaths.derivativeVariantKey("thumb_abc.jpg", DerivativeFormat.WEBP));
+  }
+}
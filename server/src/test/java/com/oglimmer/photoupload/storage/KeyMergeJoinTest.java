@@ -0,0 +1,75 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class KeyMergeJoinTest {
+
+  @Test
+  void ordersByCodePointLikeTheS3Listing() {
+    // Upper case before lower case, and '/' (0x2F) after '.' (0x2E) — not the column collation.
+    assertThat(KeyMergeJoin.compare("originals/B.jpg", "originals/a.jpg")).isNegative();
+    assertThat(KeyMergeJoin.compare("derivatives/42.x", "derivatives/42/x")).isNegative();
+    assertThat(KeyMergeJoin.compare("derivatives/42/", "derivatives/420/")).isNegative();
+    // A supplementary character sorts after every BMP one, as its UTF-8 bytes do.
+    assertThat(KeyMergeJoin.compare("a\uD83D\uDE00", "a\uFFFD")).isPositive();
+    assertThat(KeyMergeJoin.compare("ab", "abc")).isNegative();
+    assertThat(KeyMergeJoin.compare("abc", "abc")).isZero();
+  }
+
+  @Test
+  void groupsAreJoinedByAssetDirectoryAndUnlistedKnownGroupsAreSkipped() {
+    List<String> bucket =
+        List.of(
+            "derivatives/4/thumb.jpg",
+            "derivatives/42/hls/720p/seg_00001.m4s",
+            "derivatives/42/hls/master.m3u8",
+            "derivatives/42/thumb.jpg",
+            "originals/a.jpg");
+    List<String> known =
+        List.of(
+            "derivatives/3/thumb.jpg",
+            "derivatives/42/hls/master.m3u8",
+            "derivatives/42/thumb.jpg",
+            "originals/a.jpg",
+            "originals/b.jpg");
+    List<String> visited = new ArrayList<>();
+
+    KeyMergeJoin.Stats stats =
+        KeyMergeJoin.join(
+            bucket.iterator(),
+            known.iterator(),
+            KeyMergeJoin::assetGroupOf,
+            (group, listed, live) -> {
+              visited.add(group + " " + listed.size() + "/" + live.size());
+              return true;
+            });
+
+    assertThat(visited)
+        .containsExactly("derivatives/4/ 1/0", "derivatives/42/ 3/2", "originals/a.jpg 1/1");
+    assertThat(stats.bucketKeys()).isEqualTo(5);
+    assertThat(stats.knownKeys()).isEqualTo(5);
+  }
+
+  @Test
+  void visitorCanStopTheWalk() {
+    List<String> visited = new ArrayList<>();
+
+    KeyMergeJoin.Stats stats =
+        KeyMergeJoin.join(
+            List.of("a", "b", "c").iterator(),
+            List.<String>of().iterator(),
+            key -> key,
+            (group, listed, live) -> {
+              visited.add(group);
+              return visited.size() < 2;
+            });
+
+    assertThat(visited).containsExactly("a", "b");
+    assertThat(stats.bucketKeys()).isEqualTo(2);
+  }
+}
@@ -0,0 +1,88 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class StoragePathsTest {
+
+  @Test
+  void hlsPrefixCoversTheMasterAndEverySegment() {
+    assertThat(StoragePaths.derivativeHlsMasterKey(42L))
+        .isEqualTo("derivatives/42/hls/master.m3u8");
+    assertThat(StoragePaths.hlsPrefixOf("derivatives/42/hls/master.m3u8"))
+        .isEqualTo("derivatives/42/hls/");
+    assertThat(StoragePaths.hlsPrefixOf("derivatives/42/hls/720p/seg_00003.m4s"))
+        .isEqualTo("derivatives/42/hls/");
+  }
+
+  @Test
+  void otherKeysHaveNoHlsPrefix() {
+    assertThat(StoragePaths.hlsPrefixOf("derivatives/42/transcoded.mp4")).isNull();
+    assertThat(StoragePaths.hlsPrefixOf("originals/hls/master.m3u8")).isNull();
+    assertThat(StoragePaths.hlsPrefixOf(null)).isNull();
+  }
+
+  @Test
+  void segmentKeysLiveInTheAssetsScratchDirectory() {
+    assertThat(StoragePaths.derivativeSourceSegmentKey(42L, 3))
+        .isEqualTo("derivatives/42/segments/src_00003.mp4");
+    assertThat(StoragePaths.derivativeEncodedSegmentKey(42L, 3))
+        .isEqualTo("derivatives/42/segments/enc_00003.mp4");
+    assertThat(StoragePaths.isSegmentKey("derivatives/42/segments/enc_00003.mp4")).isTrue();
+    assertThat(StoragePaths.isSegmentKey("derivatives/42/transcoded.mp4")).isFalse();
+    assertThat(StoragePaths.isSegmentKey("originals/segments/x.mp4")).isFalse();
+    assertThat(StoragePaths.derivativeAssetPrefixOf("derivatives/42/thumb.jpg"))
+        .isEqualTo("derivatives/42/");
+    assertThat(StoragePaths.derivativeAssetPrefixOf("originals/x.jpg")).isNull();
+  }
+
+  @Test
+  void resizedKeysAreVersionedByTheTokenAndCarryTheirWidth() {
+    String key =
+        StoragePaths.derivativeResizedKey(
+            "derivatives/42/large.jpg", "0123456789abcdef0123456789abcdef", 640, "webp");
+
+    assertThat(key).isEqualTo("derivatives/42/resized/0123456789abcdef/w640.webp");
+    assertThat(StoragePaths.resizedWidthOf(key)).isEqualTo(640);
+    assertThat(StoragePaths.isResizedKey(key)).isTrue();
+    assertThat(StoragePaths.accountingSlotOf(key)).isNull();
+    assertThat(StoragePaths.resizedWidthOf("derivatives/42/medium.webp")).isNull();
+    assertThat(StoragePaths.isResizedKey("derivatives/42/medium.webp")).isFalse();
+  }
+
+  @Test
+  void resizedKeysLiveWithTheDerivativesTheyAreMadeFrom() {
+    // An album duplicate (row 99) shares asset 42's derivatives, and renders next to them.
+    assertThat(StoragePaths.derivativeResizedKey("derivatives/42/large.jpg", "ffff", 320, "jpg"))
+        .isEqualTo("derivatives/42/resized/ffff/w320.jpg");
+    assertThat(StoragePaths.derivativeResizedPrefix("derivatives/42/large.jpg"))
+        .isEqualTo("derivatives/42/resized/");
+    assertThat(StoragePaths.derivativeResizedPrefix("originals/x.jpg", "ffff")).isNull();
+  }
+
+  @Test
+  void spriteImageSitsNextToItsTrack() {
+    assertThat(StoragePaths.derivativeSpriteTrackKey(42L)).isEqualTo("derivatives/42/sprite.vtt");
+    assertThat(StoragePaths.spriteImageKeyOf("derivatives/42/sprite.vtt"))
+        .isEqualTo(StoragePaths.derivativeSpriteImageKey(42L))
+        .isEqualTo("derivatives/42/sprite.jpg");
+    assertThat(StoragePaths.spriteImageKeyOf("derivatives/42/thumb.jpg")).isNull();
+    assertThat(StoragePaths.spriteImageKeyOf(null)).isNull();
+  }
+
+  @Test
+  void accountingSlotsNameTheObjectWithinItsAsset() {
+    assertThat(StoragePaths.accountingSlotOf("originals/a_1.jpg")).isEqualTo("original");
+    assertThat(StoragePaths.accountingSlotOf("derivatives/42/medium.webp"))
+        .isEqualTo("medium.webp");
+    assertThat(StoragePaths.accountingSlotOf("derivatives/42/sprite.vtt")).isEqualTo("sprite.vtt");
+    assertThat(StoragePaths.accountingSlotOf("derivatives/42/hls/master.m3u8")).isEqualTo("hls");
+    assertThat(StoragePaths.accountingSlotOf("derivatives/42/hls/720p/seg_00001.m4s"))
+        .isEqualTo("hls");
+    assertThat(StoragePaths.accountingSlotOf("derivatives/42/segments/enc_00000.mp4")).isNull();
+    assertThat(StoragePaths.accountingSlotOf("audio/track.mp3")).isNull();
+    assertThat(StoragePaths.accountingSlotOf(null)).isNull();
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class HammingBkTreeTest {
+
+  @Test
+  void searchReturnsExactlyWhatABruteForceScanFinds() {
+    Random random = new Random(42);
+    long[] hashes = new long[5000];
+    HammingBkTree tree = new HammingBkTree();
+    for (int i = 0; i < hashes.length; i++) {
+      // Every tenth hash is a few-bit variant of an earlier one, like a re-encoded copy.
+      hashes[i] = i % 10 == 9 ? hashes[i - 1] ^ (1L << random.nextInt(64)) : random.nextLong();
+      tree.add(hashes[i], i);
+    }
+
+    for (int q = 0; q < 50; q++) {
+      long query = hashes[random.nextInt(hashes.length)] ^ (1L << random.nextInt(64));
+      for (int k : new int[] {0, 3, 8}) {
+        List<Long> expected =
+            IntStream.range(0, hashes.length)
+                .filter(i -> PerceptualHash.distance(query, hashes[i]) <= k)
+                .mapToObj(i -> (long) i)
+                .sorted()
+                .collect(Collectors.toList());
+        List<Long> found =
+            tree.search(query, k).stream()
+                .map(HammingBkTree.Match::id)
+                .sorted()
+                .collect(Collectors.toList());
+        assertThat(found).isEqualTo(expected);
+      }
+    }
+    assertThat(tree.size()).isEqualTo(hashes.length);
+  }
+
+  @Test
+  void entriesWithTheSameHashShareANode() {
+    HammingBkTree tree = new HammingBkTree();
+    tree.add(0xF0L, 1);
+    tree.add(0xF0L, 2);
+    tree.add(0xF1L, 3);
+
+    assertThat(tree.search(0xF0L, 0))
+        .extracting(HammingBkTree.Match::id)
+        .containsExactlyInAnyOrder(1L, 2L);
+    assertThat(tree.search(0xF0L, 1)).hasSize(3);
+    assertThat(new HammingBkTree().search(0L, 64)).isEmpty();
+  }
+}
@@ -0,0 +1,85 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class HlsPlaylistsTest {
+
+  private static final String BASE = "/api/i/tok/hls/";
+
+  @Test
+  void masterPlaylistVariantsAreRoutedThroughTheToken() {
+    String master =
+        """
+        #EXTM3U
+        #EXT-X-VERSION:7
+        #EXT-X-STREAM-INF:BANDWIDTH=1140800,RESOLUTION=640x360,CODECS="avc1.4d401e,mp4a.40.2"
+        360p/index.m3u8
+
+        #EXT-X-STREAM-INF:BANDWIDTH=3130800,RESOLUTION=1280x720,CODECS="avc1.4d401f,mp4a.40.2"
+        720p/index.m3u8
+        """;
+
+    String rewritten = HlsPlaylists.rewrite(master, "master.m3u8", BASE);
+
+    assertThat(rewritten)
+        .contains("\n/api/i/tok/hls/360p/index.m3u8\n")
+        .contains("\n/api/i/tok/hls/720p/index.m3u8\n")
+        .contains("CODECS=\"avc1.4d401e,mp4a.40.2\"")
+        .startsWith("#EXTM3U\n");
+  }
+
+  @Test
+  void rungPlaylistRewritesSegmentsAndTheInitMap() {
+    String rung =
+        """
+        #EXTM3U
+        #EXT-X-TARGETDURATION:6
+        #EXT-X-PLAYLIST-TYPE:VOD
+        #EXT-X-MAP:URI="init.mp4"
+        #EXTINF:6.000000,
+        seg_00000.m4s
+        #EXTINF:2.500000,
+        seg_00001.m4s
+        #EXT-X-ENDLIST
+        """;
+
+    String rewritten = HlsPlaylists.rewrite(rung, "720p/index.m3u8", BASE);
+
+    assertThat(rewritten)
+        .contains("#EXT-X-MAP:URI=\"/api/i/tok/hls/720p/init.mp4\"\n")
+        .contains("\n/api/i/tok/hls/720p/seg_00000.m4s\n")
+        .contains("\n/api/i/tok/hls/720p/seg_00001.m4s\n")
+        .endsWith("#EXT-X-ENDLIST\n");
+  }
+
+  @Test
+  void referencesOutsideTheRenditionAreDropped() {
+    String hostile =
+        "#EXTM3U\n"
+            + "#EXT-X-MAP:URI=\"../../7/hls/init.mp4\"\n"
+            + "https://evil.example/seg.m4s\n"
+            + "../../../originals/photo.m4s\n"
+            + "/etc/passwd.mp4\n"
+            + "seg_00000.m4s\n";
+
+    String rewritten = HlsPlaylists.rewrite(hostile, "720p/index.m3u8", BASE);
+
+    assertThat(rewritten).isEqualTo("#EXTM3U\n/api/i/tok/hls/720p/seg_00000.m4s\n");
+  }
+
+  @Test
+  void entryValidationAllowsOnlyTheShapesTheWorkerWrites() {
+    assertThat(HlsPlaylists.isSafeEntry("master.m3u8")).isTrue();
+    assertThat(HlsPlaylists.isSafeEntry("1080p/seg_00012.m4s")).isTrue();
+    assertThat(HlsPlaylists.isSafeEntry("1080p/init.mp4")).isTrue();
+    assertThat(HlsPlaylists.isSafeEntry("../thumb.jpg")).isFalse();
+    assertThat(HlsPlaylists.isSafeEntry("a/b/seg.m4s")).isFalse();
+    assertThat(HlsPlaylists.isSafeEntry("720p/../../x.m3u8")).isFalse();
+    assertThat(HlsPlaylists.isSafeEntry("720p/seg.jpg")).isFalse();
+    assertThat(HlsPlaylists.contentType("720p/seg_00001.m4s")).isEqualTo("video/iso.segment");
+    assertThat(HlsPlaylists.contentType("master.m3u8")).isEqualTo(HlsPlaylists.PLAYLIST_MIME);
+  }
+}
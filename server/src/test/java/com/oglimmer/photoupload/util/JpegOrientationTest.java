@@ -0,0 +1,202 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JpegOrientationTest {
+
+  @TempDir Path dir;
+
+  @Test
+  void fourLeftTurnsComeBackToTheStartForEveryOrientation() {
+    for (int orientation = 1; orientation <= 8; orientation++) {
+      int turned = orientation;
+      for (int i = 0; i < 4; i++) {
+        turned = JpegOrientation.rotateLeft(turned);
+      }
+      assertThat(turned).isEqualTo(orientation);
+    }
+    assertThat(JpegOrientation.rotateLeft(1)).isEqualTo(8);
+    assertThat(JpegOrientation.rotateLeft(6)).isEqualTo(1);
+    assertThat(JpegOrientation.rotateLeft(0)).isEqualTo(8);
+  }
+
+  @Test
+  void jpegWithoutExifGetsATagAndKeepsItsScanData() throws Exception {
+    Path source = Files.write(dir.resolve("plain.jpg"), jpeg());
+    BufferedImage before = ImageIO.read(source.toFile());
+
+    Path current = source;
+    int[] expected = {8, 3, 6, 1};
+    for (int i = 0; i < expected.length; i++) {
+      Path next = dir.resolve("turn" + i + ".jpg");
+      assertThat(JpegOrientation.rotateLeft(current, next)).isEqualTo(expected[i]);
+      assertThat(orientationOf(next)).isEqualTo(expected[i]);
+      current = next;
+    }
+
+    byte[] original = Files.readAllBytes(source);
+    byte[] turned = Files.readAllBytes(current);
+    assertThat(Arrays.copyOfRange(turned, turned.length - scanLength(original), turned.length))
+        .isEqualTo(
+            Arrays.copyOfRange(original, original.length - scanLength(original), original.length));
+    assertThat(pixels(ImageIO.read(current.toFile()))).isEqualTo(pixels(before));
+  }
+
+  @Test
+  void existingTagIsPatchedInPlace() throws Exception {
+    byte[] exif = exif(ByteOrder.LITTLE_ENDIAN, new Entry(0x010F, "Canon"), new Entry(0x0112, 6));
+    Path source = Files.write(dir.resolve("tagged.jpg"), withApp1(jpeg(), exif));
+    Path target = dir.resolve("out.jpg");
+
+    assertThat(JpegOrientation.rotateLeft(source, target)).isEqualTo(1);
+
+    assertThat(Files.size(target)).isEqualTo(Files.size(source));
+    assertThat(orientationOf(target)).isEqualTo(1);
+    assertThat(makeOf(target)).isEqualTo("Canon");
+  }
+
+  @Test
+  void missingTagIsAddedWithoutLosingTheOtherEntries() throws Exception {
+    byte[] exif =
+        exif(ByteOrder.BIG_ENDIAN, new Entry(0x010F, "Nikon"), new Entry(0x0131, "Firmware 1.0"));
+    Path source = Files.write(dir.resolve("untagged.jpg"), withApp1(jpeg(), exif));
+    Path target = dir.resolve("out.jpg");
+
+    assertThat(JpegOrientation.rotateLeft(source, target)).isEqualTo(8);
+
+    assertThat(orientationOf(target)).isEqualTo(8);
+    assertThat(makeOf(target)).isEqualTo("Nikon");
+    Path again = dir.resolve("again.jpg");
+    assertThat(JpegOrientation.rotateLeft(target, again)).isEqualTo(3);
+    assertThat(Files.size(again)).isEqualTo(Files.size(target));
+  }
+
+  @Test
+  void nonJpegIsRefused() throws Exception {
+    Path png = dir.resolve("image.png");
+    ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", png.toFile());
+
+    assertThatThrownBy(() -> JpegOrientation.rotateLeft(png, dir.resolve("out.jpg")))
+        .isInstanceOf(IOException.class);
+  }
+
+  @Test
+  void corruptIfd0IsRefusedRatherThanReadOutOfBounds() throws Exception {
+    byte[] farOffset = exif(ByteOrder.BIG_ENDIAN, new Entry(0x010F, "Sony"));
+    ByteBuffer.wrap(farOffset).putInt(6 + 4, 0x7FFF0000);
+    byte[] tooManyEntries = exif(ByteOrder.BIG_ENDIAN, new Entry(0x010F, "Sony"));
+    ByteBuffer.wrap(tooManyEntries).putShort(6 + 8, (short) 0xFFFF);
+
+    for (byte[] exif : new byte[][] {farOffset, tooManyEntries}) {
+      Path source = Files.write(dir.resolve("corrupt.jpg"), withApp1(jpeg(), exif));
+      assertThatThrownBy(() -> JpegOrientation.rotateLeft(source, dir.resolve("out.jpg")))
+          .isInstanceOf(IOException.class);
+    }
+  }
+
+  private static byte[] jpeg() throws IOException {
+    BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setColor(Color.ORANGE);
+      g.fillRect(0, 0, 64, 32);
+      g.setColor(Color.BLUE);
+      g.fillRect(0, 0, 16, 16);
+    } finally {
+      g.dispose();
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", out);
+    return out.toByteArray();
+  }
+
+  /** Bytes from the SOS marker to the end — what a lossless rotate must leave untouched. */
+  private static int scanLength(byte[] jpeg) {
+    for (int i = jpeg.length - 2; i >= 0; i--) {
+      if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == 0xDA) {
+        return jpeg.length - i;
+      }
+    }
+    throw new AssertionError("no SOS marker");
+  }
+
+  private static int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
+  private static int orientationOf(Path file) throws Exception {
+    return ImageMetadataReader.readMetadata(file.toFile())
+        .getFirstDirectoryOfType(ExifIFD0Directory.class)
+        .getInt(ExifIFD0Directory.TAG_ORIENTATION);
+  }
+
+  private static String makeOf(Path file) throws Exception {
+    return ImageMetadataReader.readMetadata(file.toFile())
+        .getFirstDirectoryOfType(ExifIFD0Directory.class)
+        .getString(ExifIFD0Directory.TAG_MAKE);
+  }
+
+  private record Entry(int tag, Object value) {}
+
+  /** An {@code Exif\0\0} APP1 payload with one IFD0 of ASCII and SHORT entries, sorted by tag. */
+  private static byte[] exif(ByteOrder order, Entry... entries) {
+    ByteBuffer tiff = ByteBuffer.allocate(512).order(order);
+    tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+    tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+    tiff.putShort((short) 42).putInt(8);
+    tiff.putShort((short) entries.length);
+    int data = 8 + 2 + entries.length * 12 + 4;
+    for (Entry entry : entries) {
+      tiff.putShort((short) entry.tag());
+      if (entry.value() instanceof String text) {
+        byte[] bytes = (text + "\0").getBytes(StandardCharsets.US_ASCII);
+        tiff.putShort((short) 2).putInt(bytes.length).putInt(data);
+        tiff.put(data, bytes);
+        data += bytes.length + (bytes.length & 1);
+      } else {
+        tiff.putShort((short) 3)
+            .putInt(1)
+            .putShort((short) (int) entry.value())
+            .putShort((short) 0);
+      }
+    }
+    tiff.putInt(0);
+    byte[] payload = new byte[6 + data];
+    System.arraycopy("Exif\0\0".getBytes(StandardCharsets.ISO_8859_1), 0, payload, 0, 6);
+    System.arraycopy(tiff.array(), 0, payload, 6, data);
+    return payload;
+  }
+
+  /** {@code jpeg} with an APP1 segment right after SOI. */
+  private static byte[] withApp1(byte[] jpeg, byte[] payload) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0xFF);
+    out.write(0xD8);
+    out.write(0xFF);
+    out.write(0xE1);
+    out.write(payload.length + 2 >> 8);
+    out.write(payload.length + 2);
+    out.writeBytes(payload);
+    out.write(jpeg, 2, jpeg.length - 2);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,121 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Random;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PerceptualHashTest {
+
+  @Test
+  void rescaledAndRecompressedCopiesStayClose() throws Exception {
+    BufferedImage photo = scene(640, 480, 7);
+    long original = PerceptualHash.of(photo);
+
+    long smaller = PerceptualHash.of(resize(photo, 200, 150));
+    long recompressed = PerceptualHash.of(jpeg(photo, 0.3f));
+    BufferedImage brighter = scene(640, 480, 7);
+    brighten(brighter, 25);
+
+    assertThat(PerceptualHash.distance(original, smaller)).isLessThanOrEqualTo(4);
+    assertThat(PerceptualHash.distance(original, recompressed)).isLessThanOrEqualTo(4);
+    assertThat(PerceptualHash.distance(original, PerceptualHash.of(brighter)))
+        .isLessThanOrEqualTo(4);
+  }
+
+  @Test
+  void differentPicturesAreFarApart() {
+    long a = PerceptualHash.of(scene(640, 480, 7));
+    long b = PerceptualHash.of(scene(640, 480, 99));
+
+    assertThat(PerceptualHash.distance(a, b)).isGreaterThan(16);
+  }
+
+  @Test
+  void unreadableFileYieldsNull(@TempDir Path dir) throws Exception {
+    Path junk = Files.writeString(dir.resolve("thumb.jpg"), "not an image");
+
+    assertThat(PerceptualHash.of(junk)).isNull();
+  }
+
+  /** Random overlapping shapes on a gradient — enough structure for the low frequencies. */
+  private static BufferedImage scene(int width, int height, long seed) {
+    Random random = new Random(seed);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      for (int y = 0; y < height; y++) {
+        g.setColor(new Color(40, 60 + y * 120 / height, 90));
+        g.drawLine(0, y, width, y);
+      }
+      for (int i = 0; i < 12; i++) {
+        g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+        g.fillOval(
+            random.nextInt(width),
+            random.nextInt(height),
+            40 + random.nextInt(width / 2),
+            40 + random.nextInt(height / 2));
+      }
+    } finally {
+      g.dispose();
+    }
+    return image;
+  }
+
+  private static BufferedImage resize(BufferedImage source, int width, int height) {
+    BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = out.createGraphics();
+    try {
+      g.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return out;
+  }
+
+  private static BufferedImage jpeg(BufferedImage source, float quality) throws Exception {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+    ImageWriter writer = writers.next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(quality);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (var out = ImageIO.createImageOutputStream(bytes)) {
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(source, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+  }
+
+  private static void brighten(BufferedImage image, int amount) {
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        Color c = new Color(image.getRGB(x, y));
+        image.setRGB(
+            x,
+            y,
+            new Color(
+                    Math.min(255, c.getRed() + amount),
+                    Math.min(255, c.getGreen() + amount),
+                    Math.min(255, c.getBlue() + amount))
+                .getRGB());
+      }
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/* Copyright (c) 2025 by oglimmer.com / Oliver Zimpasser. All rights reserved. */
+package com.oglimmer.photoupload.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import org.junit.jupiter.api.Test;
+
+class SpriteSheetsTest {
+
+  @Test
+  void layoutCapsFramesAtOnePerSecond() {
+    SpriteSheets.Layout longClip = SpriteSheets.layoutFor(600_000L, 50);
+    assertThat(longClip.count()).isEqualTo(50);
+    assertThat(longClip.intervalSeconds()).isEqualTo(12.0);
+    assertThat(longClip.columns()).isEqualTo(10);
+    assertThat(longClip.rows()).isEqualTo(5);
+
+    SpriteSheets.Layout shortClip = SpriteSheets.layoutFor(3_500L, 50);
+    assertThat(shortClip.count()).isEqualTo(3);
+    assertThat(shortClip.columns()).isEqualTo(3);
+    assertThat(shortClip.rows()).isEqualTo(1);
+
+    assertThat(SpriteSheets.layoutFor(400L, 50).count()).isEqualTo(1);
+    assertThat(SpriteSheets.layoutFor(null, 50)).isNull();
+    assertThat(SpriteSheets.layoutFor(10_000L, 0)).isNull();
+  }
+
+  @Test
+  void trackAddressesEachTileAndEndsAtTheDuration() {
+    SpriteSheets.Layout layout = SpriteSheets.layoutFor(24_500L, 12);
+
+    String vtt = SpriteSheets.webVtt(layout, "sprite.jpg", 160, 90);
+
+    assertThat(vtt)
+        .startsWith("WEBVTT\n\n00:00:00.000 --> 00:00:02.042\nsprite.jpg#xywh=0,0,160,90\n");
+    // Frame 10 wraps onto the second row.
+    assertThat(vtt).contains("00:00:20.417 --> 00:00:22.458\nsprite.jpg#xywh=0,90,160,90\n");
+    assertThat(vtt).endsWith("00:00:22.458 --> 00:00:24.500\nsprite.jpg#xywh=160,90,160,90\n");
+  }
+
+  @Test
+  void timestampsCarryHours() {
+    assertThat(SpriteSheets.timestamp(3_723_004L)).isEqualTo("01:02:03.004");
+  }
+
+  @Test
+  void posterPrefersADetailedWellExposedTileOverFlatAndBlackOnes() {
+    SpriteSheets.Layout layout = SpriteSheets.layoutFor(3_000L, 3);
+    BufferedImage sprite = new BufferedImage(3 * 16, 9, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = sprite.createGraphics();
+    // Tile 0: noisy but black (a fade-in). Tile 1: flat grey. Tile 2: mid-grey checkerboard.
+    for (int y = 0; y < 9; y++) {
+      for (int x = 0; x < 16; x++) {
+        sprite.setRGB(x, y, (x + y) % 2 == 0 ? 0x000000 : 0x101010);
+        sprite.setRGB(32 + x, y, (x + y) % 2 == 0 ? 0x505050 : 0xa0a0a0);
+      }
+    }
+    g.setColor(new Color(0x777777));
+    g.fillRect(16, 0, 16, 9);
+    g.dispose();
+
+    assertThat(SpriteSheets.bestTile(sprite, layout, 16, 9)).isEqualTo(2);
+  }
+
+  @Test
+  void tilesBeyondTheDecodedImageAreIgnored() {
+    SpriteSheets.Layout layout = SpriteSheets.layoutFor(5_000L, 5);
+    BufferedImage sprite = new BufferedImage(2 * 16, 9, BufferedImage.TYPE_INT_RGB);
+
+    assertThat(SpriteSheets.bestTile(sprite, layout, 16, 9)).isZero();
+  }
+}